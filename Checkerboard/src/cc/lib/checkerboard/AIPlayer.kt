@@ -22,10 +22,29 @@ open class AIPlayer : Player {
         var movePathNodeToFront = true
 		@JvmField
         var randomizeDuplicates = true
+		/**
+		 * Time budget for Algorithm.iterativeDeepening
+		 */
+		@JvmField
+		var maxSearchTimeMillis = 2000L
+
+		/**
+		 * Size of the transposition table for Algorithm.iterativeDeepening
+		 */
+		@JvmField
+		var transpositionTableMB = 16
+
+		/**
+		 * Number of threads for Algorithm.iterativeDeepening. More than one uses Lazy SMP where
+		 * each thread searches its own copy of the game.
+		 */
+		@JvmField
+		var searchThreads = 1
 		var prevStats: AIStats? = null
 		@JvmField
         var stats = AIStats()
 		private val log = LoggerFactory.getLogger(AIPlayer::class.java)
+		@Volatile
 		private var kill = false
 		@JvmStatic
         @Throws(IOException::class)
@@ -302,11 +321,16 @@ negamax(rootNode, depth, −1)
 	@Omit
 	private val moveList = LinkedList<Move>()
 
+	// keeps its transposition table between moves
+	@Omit
+	private var search: AISearch? = null
+
 	enum class Algorithm {
 		minimax,
 		miniMaxAB,
 		negamax,
-		negamaxAB
+		negamaxAB,
+		iterativeDeepening
 	}
 
 	constructor() {}
@@ -347,6 +371,13 @@ negamax(rootNode, depth, −1)
 				Algorithm.negamax ->                     //                root.bestValue = negamaxR(game, root, -1, maxSearchDepth, 0);
 					root!!.bestValue = negamaxR(game, root, if (game.turn != 0) 1 else -1, maxSearchDepth, 0)
 				Algorithm.negamaxAB -> root!!.bestValue = negamaxABR(game, root, 1, maxSearchDepth, 0, Long.MIN_VALUE, Long.MAX_VALUE)
+				Algorithm.iterativeDeepening -> {
+					val search = search?.takeIf { it.numThreads == searchThreads } ?: AISearch(transpositionTableMB, searchThreads).also {
+						search?.shutdown()
+						search = it
+					}
+					root!!.bestValue = search.search(game, root, maxSearchTimeMillis) { kill }
+				}
 			}
 		} catch (e: MoveException) {
 			e.printStackTrace()
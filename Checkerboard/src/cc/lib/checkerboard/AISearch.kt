@@ -0,0 +1,526 @@
+package cc.lib.checkerboard
+
+import java.util.Random
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
+
+/**
+ * Iterative deepening negamax used by AIPlayer when algorithm is Algorithm.iterativeDeepening.
+ *
+ * Each iteration searches one ply deeper until the time budget runs out. Positions are cached in a
+ * Zobrist hashed transposition table that is kept between searches. Moves are ordered by the
+ * table move, captures, killer moves and history. Leaf nodes are extended with a capture only
+ * quiescence search so a depth limit never stops in the middle of an exchange.
+ *
+ * Positions are only hashed at the start of a turn. In the middle of a multi jump or a promotion
+ * the available moves depend on the previous move and not just the board.
+ *
+ * With numThreads > 1 the search is Lazy SMP: helper threads search their own copy of the game
+ * at staggered depths and share only the transposition table, which fills it with results the
+ * main thread can use. The main thread's result is the one returned.
+ */
+class AISearch @JvmOverloads constructor(ttSizeMB: Int, val numThreads: Int = 1) {
+
+	companion object {
+		const val WIN = 1L shl 40
+		const val MAX_EVAL = 1L shl 39
+		const val MAX_PLY = 128
+		const val MAX_QUIESCE_PLY = 12
+		const val MAX_DEPTH = 64
+
+		private const val INFINITY = WIN * 2
+		private const val EXACT = 0
+		private const val LOWER = 1
+		private const val UPPER = 2
+		private const val ENTRY_BYTES = 28
+
+		private fun scramble(x: Long): Long {
+			var z = x + -0x61c8864680b583ebL
+			z = (z xor (z ushr 30)) * -0x40a7b892e31b1a47L
+			z = (z xor (z ushr 27)) * -0x6b2fb644ecceee15L
+			return z xor (z ushr 31)
+		}
+
+		/**
+		 * Identifies a move independent of the Move instance so it can be matched after the moves
+		 * for a position have been regenerated.
+		 */
+		fun signature(m: Move): Long = (1L shl 62) or
+			(m.start.toLong() and 0xffff) or
+			((m.end.toLong() and 0xffff) shl 16) or
+			((m.capturedPosition.toLong() and 0xffff) shl 32) or
+			(m.moveType.ordinal.toLong() shl 48) or
+			((m.endType?.ordinal?.toLong() ?: 0x3f) shl 54)
+	}
+
+
+	// transposition table shared by all the workers. Lockless: the key is stored xor'd with the
+	// rest of the entry so an entry torn by concurrent writes fails to match and reads as a miss.
+	private val ttSize = Integer.highestOneBit(Math.max(1024, (ttSizeMB.toLong() * 1024 * 1024 / ENTRY_BYTES).toInt()))
+	private val ttMask = ttSize - 1
+	private val ttKeys = LongArray(ttSize)
+	private val ttValues = LongArray(ttSize)
+	private val ttMoves = LongArray(ttSize)
+	private val ttInfo = IntArray(ttSize)
+	private var age = 0
+
+	// zobrist keys, sized for the board of the game being searched
+	private var numSquares = 0
+	private var columns = 0
+	private val numCodes = PieceType.values().size * 2
+	private var pieceKeys = LongArray(0)
+	private var squareKeys = LongArray(0)
+	private val random = Random(0x5eed)
+	private val turnKey = random.nextLong()
+	private val historyCountKeys = LongArray(4) { random.nextLong() }
+
+	private val workers = Array(Math.max(1, numThreads)) { Worker(it) }
+	private var executor: ExecutorService? = null
+
+	@Volatile
+	private var stopped = false
+	private var deadline = 0L
+	private var cancelled: () -> Boolean = { false }
+
+	val tableSize: Int
+		get() = ttSize
+
+	/**
+	 * Search game until timeMillis have elapsed or cancelled returns true. The principal variation is
+	 * linked from root through Move.path
+	 *
+	 * @return value of the best move for the player to move
+	 */
+	fun search(game: Game, root: Move, timeMillis: Long, maxDepth: Int = MAX_DEPTH, cancelled: () -> Boolean = { false }): Long {
+		this.cancelled = cancelled
+		prepare(game)
+		age = (age + 1) and 0xff
+		stopped = false
+		val startTime = System.currentTimeMillis()
+		deadline = startTime + timeMillis
+		val depth = Math.min(maxDepth, MAX_DEPTH)
+		val helpers = ArrayList<Future<*>>()
+		if (workers.size > 1) {
+			val pool = executor ?: Executors.newFixedThreadPool(workers.size - 1) { r ->
+				Thread(r, "AISearch").also { it.isDaemon = true }
+			}.also { executor = it }
+			for (i in 1 until workers.size) {
+				val copy = game.deepCopy()
+				helpers.add(pool.submit { workers[i].iterate(copy, depth) })
+			}
+		}
+		val main = workers[0]
+		try {
+			main.iterate(game, depth)
+		} finally {
+			stopped = true
+			for (f in helpers) {
+				try {
+					f.get()
+				} catch (e: Exception) {
+					e.printStackTrace()
+				}
+			}
+		}
+		val stats = AIPlayer.stats
+		for (w in workers) {
+			stats.nodes += w.nodes
+			stats.quiesceNodes += w.quiesceNodes
+			stats.ttHits += w.ttHits
+			stats.evalCount += w.evalCount
+			stats.prunes += w.prunes
+		}
+		stats.depthReached = main.completedDepth
+		stats.searchTimeMSecs += System.currentTimeMillis() - startTime
+		var parent = root
+		for (m in main.bestLine) {
+			parent.path = m
+			m.parent = parent
+			m.bestValue = main.bestValue
+			parent = m
+		}
+		parent.path = null
+		return main.bestValue
+	}
+
+	/**
+	 * Stop the helper threads. The search can still be used afterward on a single thread.
+	 */
+	fun shutdown() {
+		executor?.shutdownNow()
+		executor = null
+	}
+
+	private fun prepare(game: Game) {
+		val squares = game.ranks * game.columns
+		val resized = squares != numSquares || game.columns != columns
+		if (resized) {
+			numSquares = squares
+			columns = game.columns
+			pieceKeys = LongArray(squares * numCodes) { random.nextLong() }
+			squareKeys = LongArray(squares * 3) { random.nextLong() }
+			ttKeys.fill(0)
+			ttValues.fill(0)
+			ttMoves.fill(0)
+			ttInfo.fill(0)
+		}
+		for (w in workers)
+			w.prepare(resized)
+	}
+
+	private fun isStartOfTurn(game: Game): Boolean = game.mostRecentMove?.playerNum != game.turn
+
+	/**
+	 * Zobrist hash of the board, turn and the little history some rules depend on
+	 */
+	fun hash(game: Game): Long {
+		if (game.ranks * game.columns != numSquares)
+			prepare(game)
+		var h = historyCountKeys[Math.min(3, game.moveHistoryCount)]
+		if (game.turn != Game.NEAR)
+			h = h xor turnKey
+		for (r in 0 until game.ranks) {
+			val row = game.board[r]
+			for (c in row.indices) {
+				val p = row[c]
+				val pnum = p.playerNum
+				if (pnum < 0)
+					continue
+				val sq = r * columns + c
+				h = h xor pieceKeys[sq * numCodes + p.getType().ordinal * 2 + pnum]
+				if (p.stackSize > 1) {
+					var bits = 0L
+					for (i in 0 until p.stackSize)
+						bits = bits shl 1 or p.getStackAt(i).toLong()
+					h = h xor scramble(squareKeys[sq * 3] + (bits shl 6) + p.stackSize)
+				}
+				if (p.isCaptured)
+					h = h xor squareKeys[sq * 3 + 1]
+				if (p.value != 0)
+					h = h xor scramble(squareKeys[sq * 3 + 2] + p.value)
+			}
+		}
+		return if (h == 0L) 1L else h
+	}
+
+	private fun toTT(v: Long, ply: Int): Long = when {
+		v >= WIN - MAX_PLY -> v + ply
+		v <= -WIN + MAX_PLY -> v - ply
+		else -> v
+	}
+
+	private fun fromTT(v: Long, ply: Int): Long = when {
+		v >= WIN - MAX_PLY -> v - ply
+		v <= -WIN + MAX_PLY -> v + ply
+		else -> v
+	}
+
+	private fun store(key: Long, depth: Int, flag: Int, value: Long, move: Long, ply: Int) {
+		val idx = (key and ttMask.toLong()).toInt()
+		val info = ttInfo[idx]
+		val existing = ttKeys[idx] xor ttValues[idx] xor ttMoves[idx] xor info.toLong()
+		if (existing != 0L && existing != key && (info shr 10) == age && (info and 0xff) > depth)
+			return
+		val newValue = toTT(value, ply)
+		val newInfo = Math.min(depth, 0xff) or (flag shl 8) or (age shl 10)
+		ttValues[idx] = newValue
+		ttMoves[idx] = move
+		ttInfo[idx] = newInfo
+		ttKeys[idx] = key xor newValue xor move xor newInfo.toLong()
+	}
+
+	private fun squareIndex(pos: Int): Int = if (pos < 0) numSquares else (pos shr 8) * columns + (pos and 0xff)
+
+	private fun historyIndex(m: Move): Int = (m.playerNum * (numSquares + 1) + squareIndex(m.start)) * (numSquares + 1) + squareIndex(m.end)
+
+	/**
+	 * State for one search thread. Worker 0 runs on the calling thread against the real game.
+	 */
+	private inner class Worker(val id: Int) {
+
+		// move ordering
+		private val killers = Array(MAX_PLY) { LongArray(2) }
+		private var history = IntArray(0)
+
+		// per ply buffers so nodes do not allocate
+		private val moveBuf = Array(MAX_PLY) { arrayOfNulls<Move>(32) }
+		private val scoreBuf = Array(MAX_PLY) { IntArray(32) }
+		private val pv = Array(MAX_PLY) { arrayOfNulls<Move>(MAX_PLY) }
+		private val pvLength = IntArray(MAX_PLY)
+
+		private var aborted = false
+
+		// counted per worker and added to AIPlayer.stats when the search is done
+		var nodes = 0L
+		var quiesceNodes = 0L
+		var ttHits = 0L
+		var evalCount = 0L
+		var prunes = 0L
+
+		var completedDepth = 0
+		var bestValue = 0L
+		var bestLine = emptyList<Move>()
+
+		fun prepare(resized: Boolean) {
+			if (resized) {
+				history = IntArray(2 * (numSquares + 1) * (numSquares + 1))
+			} else {
+				// age the history so older searches count for less
+				for (i in history.indices)
+					history[i] = history[i] shr 2
+			}
+			killers.forEach { it.fill(0) }
+			aborted = false
+			nodes = 0
+			quiesceNodes = 0
+			ttHits = 0
+			evalCount = 0
+			prunes = 0
+			completedDepth = 0
+			bestValue = 0
+			bestLine = emptyList()
+		}
+
+		/**
+		 * Odd numbered helpers search one ply deeper than the others so the threads are not all
+		 * working on the same tree.
+		 */
+		fun iterate(game: Game, maxDepth: Int) {
+			val offset = if (id == 0) 0 else id and 1
+			for (d in 1..maxDepth) {
+				val depth = Math.min(maxDepth, d + offset)
+				val value = search(game, depth, 0, -INFINITY, INFINITY)
+				if (aborted && d > 1)
+					break
+				bestValue = value
+				bestLine = (0 until pvLength[0]).map { pv[0][it]!! }
+				completedDepth = depth
+				if (aborted || Math.abs(value) >= WIN - MAX_PLY)
+					break
+			}
+		}
+
+		private fun checkAbort(): Boolean {
+			if (aborted)
+				return true
+			if (nodes and 1023 == 0L) {
+				if (stopped || cancelled() || (completedDepth > 0 && System.currentTimeMillis() > deadline))
+					aborted = true
+			}
+			return aborted
+		}
+
+		private fun evaluate(game: Game): Long {
+			evalCount++
+			return Math.max(-MAX_EVAL, Math.min(MAX_EVAL, game.getRules().evaluate(game)))
+		}
+
+		/**
+		 * Copy the moves into the buffer for ply and score them for ordering
+		 */
+		private fun loadMoves(moves: List<Move>, ply: Int, ttMove: Long, capturesOnly: Boolean): Int {
+			if (moveBuf[ply].size < moves.size) {
+				moveBuf[ply] = arrayOfNulls(moves.size * 2)
+				scoreBuf[ply] = IntArray(moves.size * 2)
+			}
+			val buf = moveBuf[ply]
+			val scores = scoreBuf[ply]
+			val killer = killers[ply]
+			var n = 0
+			for (m in moves) {
+				if (capturesOnly && !m.hasCaptured())
+					continue
+				val sig = signature(m)
+				scores[n] = when {
+					sig == ttMove -> 1 shl 30
+					m.hasCaptured() -> (1 shl 29) + (m.capturedType?.value ?: 0) * 16 - (m.startType?.value ?: 0)
+					sig == killer[0] -> (1 shl 28) + 1
+					sig == killer[1] -> 1 shl 28
+					else -> history[historyIndex(m)]
+				}
+				buf[n++] = m
+			}
+			return n
+		}
+
+		/**
+		 * Selection sort one step at a time. Usually a cutoff happens before the list is sorted.
+		 */
+		private fun nextMove(ply: Int, i: Int, n: Int): Move {
+			val buf = moveBuf[ply]
+			val scores = scoreBuf[ply]
+			var best = i
+			for (j in i + 1 until n) {
+				if (scores[j] > scores[best])
+					best = j
+			}
+			if (best != i) {
+				val m = buf[i]
+				buf[i] = buf[best]
+				buf[best] = m
+				val s = scores[i]
+				scores[i] = scores[best]
+				scores[best] = s
+			}
+			return buf[i]!!
+		}
+
+		private fun updatePv(ply: Int, m: Move) {
+			pv[ply][ply] = m
+			val childLength = Math.max(pvLength[ply + 1], ply + 1)
+			for (i in ply + 1 until childLength)
+				pv[ply][i] = pv[ply + 1][i]
+			pvLength[ply] = childLength
+		}
+
+		private fun onCutoff(m: Move, ply: Int, depth: Int) {
+			prunes++
+			if (m.hasCaptured())
+				return
+			val sig = signature(m)
+			val killer = killers[ply]
+			if (killer[0] != sig) {
+				killer[1] = killer[0]
+				killer[0] = sig
+			}
+			val idx = historyIndex(m)
+			history[idx] = Math.min(history[idx] + depth * depth, 1 shl 26)
+		}
+
+		private fun search(game: Game, depth: Int, ply: Int, alphaIn: Long, betaIn: Long): Long {
+			pvLength[ply] = ply
+			if (checkAbort())
+				return 0
+			nodes++
+			when (val winner = game.getWinnerNum()) {
+				Game.NEAR, Game.FAR -> return if (winner == game.turn) WIN - ply else -WIN + ply
+			}
+			if (game.isDraw())
+				return 0
+			if (ply >= MAX_PLY - 1)
+				return evaluate(game)
+			if (depth <= 0)
+				return quiesce(game, ply, alphaIn, betaIn, 0)
+
+			var alpha = alphaIn
+			var beta = betaIn
+			val key = if (isStartOfTurn(game)) hash(game) else 0L
+			var ttMove = 0L
+			if (key != 0L) {
+				val idx = (key and ttMask.toLong()).toInt()
+				val value = ttValues[idx]
+				val move = ttMoves[idx]
+				val info = ttInfo[idx]
+				if (ttKeys[idx] xor value xor move xor info.toLong() == key) {
+					ttHits++
+					ttMove = move
+					if (ply > 0 && (info and 0xff) >= depth) {
+						val v = fromTT(value, ply)
+						when (info shr 8 and 0x3) {
+							EXACT -> return v
+							LOWER -> alpha = Math.max(alpha, v)
+							UPPER -> beta = Math.min(beta, v)
+						}
+						if (alpha >= beta)
+							return v
+					}
+				}
+			}
+
+			val n = loadMoves(game.getMoves(), ply, ttMove, false)
+			if (n == 0)
+				return evaluate(game)
+			var best = -INFINITY
+			var bestMove = 0L
+			for (i in 0 until n) {
+				val m = nextMove(ply, i, n)
+				game.executeMove(m)
+				val v = if (game.turn == m.playerNum) {
+					search(game, depth, ply + 1, alpha, beta)
+				} else {
+					-search(game, depth - 1, ply + 1, -beta, -alpha)
+				}
+				game.undo()
+				if (aborted)
+					return 0
+				if (v > best) {
+					best = v
+					bestMove = signature(m)
+					if (v > alpha) {
+						alpha = v
+						updatePv(ply, m)
+						if (alpha >= beta) {
+							onCutoff(m, ply, depth)
+							break
+						}
+					}
+				}
+			}
+			if (key != 0L) {
+				val flag = when {
+					best <= alphaIn -> UPPER
+					best >= betaIn -> LOWER
+					else -> EXACT
+				}
+				store(key, depth, flag, best, bestMove, ply)
+			}
+			return best
+		}
+
+		/**
+		 * Only captures are searched unless in the middle of a turn, where every continuation is
+		 * searched since the position is not settled.
+		 */
+		private fun quiesce(game: Game, ply: Int, alphaIn: Long, beta: Long, qply: Int): Long {
+			pvLength[ply] = ply
+			if (checkAbort())
+				return 0
+			nodes++
+			quiesceNodes++
+			when (val winner = game.getWinnerNum()) {
+				Game.NEAR, Game.FAR -> return if (winner == game.turn) WIN - ply else -WIN + ply
+			}
+			if (game.isDraw())
+				return 0
+			if (ply >= MAX_PLY - 1 || qply >= MAX_QUIESCE_PLY)
+				return evaluate(game)
+			var alpha = alphaIn
+			val midTurn = !isStartOfTurn(game)
+			var best = -INFINITY
+			if (!midTurn) {
+				best = evaluate(game)
+				if (best >= beta)
+					return best
+				alpha = Math.max(alpha, best)
+			}
+			val n = loadMoves(game.getMoves(), ply, 0L, !midTurn)
+			if (n == 0)
+				return if (midTurn) evaluate(game) else best
+			for (i in 0 until n) {
+				val m = nextMove(ply, i, n)
+				game.executeMove(m)
+				val v = if (game.turn == m.playerNum) {
+					quiesce(game, ply + 1, alpha, beta, qply + 1)
+				} else {
+					-quiesce(game, ply + 1, -beta, -alpha, qply + 1)
+				}
+				game.undo()
+				if (aborted)
+					return 0
+				if (v > best) {
+					best = v
+					if (v > alpha) {
+						alpha = v
+						updatePv(ply, m)
+						if (alpha >= beta) {
+							prunes++
+							break
+						}
+					}
+				}
+			}
+			return best
+		}
+	}
+}
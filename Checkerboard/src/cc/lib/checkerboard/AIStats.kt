@@ -7,6 +7,11 @@ class AIStats internal constructor() {
     var prunes: Long = 0
     var evalCount: Long = 0
     var evalTimeTotalMSecs: Long = 0
+	var nodes: Long = 0
+	var quiesceNodes: Long = 0
+	var ttHits: Long = 0
+	var depthReached = 0
+	var searchTimeMSecs: Long = 0
     var pieceTypeCount = LongArray(PieceType.values().size) { 0 }
     var pieceTypeValue = DoubleArray(PieceType.values().size) { 0.0 }
 	override fun toString(): String {
@@ -17,12 +22,21 @@ class AIStats internal constructor() {
 	    	evalCount=$evalCount
 	    	evalTimeTotalMSecs=$evalTimeTotalMSecs
 	    	""".trimIndent()
+		if (nodes > 0) {
+			s += "\nnodes=$nodes quiesceNodes=$quiesceNodes ttHits=$ttHits depth=$depthReached nodes/sec=$nodesPerSecond"
+		}
 		for (i in pieceTypeValue.indices) {
 			if (pieceTypeCount[i] > 0) s += String.format("\n%-20s AVG: %5.3f", PieceType.values()[i], pieceTypeValue[i] / pieceTypeCount[i])
 		}
 		return s
 	}
 
+	/**
+	 * Nodes visited per second of search time
+	 */
+	val nodesPerSecond: Long
+		get() = if (searchTimeMSecs > 0) nodes * 1000 / searchTimeMSecs else 0
+
 	init {
 		startTime = System.currentTimeMillis()
 	}
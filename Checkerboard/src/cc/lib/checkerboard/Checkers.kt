@@ -376,8 +376,7 @@ open class Checkers : Rules() {
 						if (!captured.isStacked) {
 							game.clearPiece(captured.position)
 						} else {
-							captured.removeStackTop()
-							game.countPieces()
+							game.updateStack(captured) { it.removeStackTop() }
 						}
 						captured.isCaptured = false
 					} else if (isCaptureAtEndEnabled) {
@@ -473,14 +472,16 @@ open class Checkers : Rules() {
 					if (isStackingCaptures) {
 						val captured = game.getPiece(m.capturedPosition)
 						if (!p.isStacked) throw GException("Logic Error: Capture must result in stacked piece")
-						if (captured.getType() === PieceType.EMPTY) {
-							captured.playerNum = p.removeStackBottom()
-							captured.setType(PieceType.CHECKER)
-						} else {
-							captured.addStackTop(p.removeStackBottom())
+						val n = p.removeStackBottom()
+						game.updateStack(captured) {
+							if (it.getType() === PieceType.EMPTY) {
+								it.playerNum = n
+								it.setType(PieceType.CHECKER)
+							} else {
+								it.addStackTop(n)
+							}
 						}
 						captured.isCaptured = false
-						game.countPieces()
 					} else {
 						val oppNum = Game.getOpponent(m.playerNum)
 						if (isCaptureAtEndEnabled) {
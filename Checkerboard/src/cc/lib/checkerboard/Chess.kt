@@ -387,7 +387,7 @@ open class Chess : Rules() {
 			}
 			PieceType.BISHOP -> kn = computeKDN(rank, col, DELTAS_NE, DELTAS_NW, DELTAS_SE, DELTAS_SW)
 			PieceType.KNIGHT_L, PieceType.KNIGHT_R -> {
-				kdn[kn++] = pieceDeltas[DELTAS_KNIGHT][rank][col]
+				kn = computeKDN(rank, col, DELTAS_KNIGHT)
 				mt = MoveType.JUMP
 			}
 			PieceType.ROOK_IDLE -> {
@@ -381,13 +381,13 @@ open class Game : Reflector<Game>(), IGame<Move> {
 	@Synchronized
 	override fun executeMove(move: Move) {
 		if (move.playerNum != turn) throw GException("Invalid move to execute")
-		val state = State(getMovesInternal().indexOf(move) // <-- TODO: Make this faster
-			, movesCache!!)
+		val moves = getMovesInternal()
+		val state = State(indexOfMove(moves, move), moves)
 		assert(undoStack.size < 1024)
 
-		//
+		// the list now belongs to the state and is handed back on undo
 		movesCache = null
-		clearPieceMoves()
+		clearPieceMoves(moves)
 		if (DEBUG) println("""
 	COUNTER:${counter++}
 	GAME BEFORE MOVE: $move
@@ -396,7 +396,7 @@ open class Game : Reflector<Game>(), IGame<Move> {
 		rules.executeMove(this, move)
 		undoStack.push(state)
 		movesCache?.let {
-			countPieceMoves()
+			setPieceMoves(it)
 		}
 		var gameAfter: String? = null
 		if (DEBUG) {
@@ -437,6 +437,39 @@ open class Game : Reflector<Game>(), IGame<Move> {
 		}
 	}
 
+	/**
+	 * Only pieces that start a move in the current list can have numMoves > 0 so there is no need
+	 * to visit the whole board
+	 */
+	private fun clearPieceMoves(moves: List<Move>) {
+		for (i in moves.indices) {
+			val start = moves[i].start
+			if (start >= 0)
+				getPiece(start).numMoves = 0
+		}
+	}
+
+	private fun setPieceMoves(moves: List<Move>) {
+		clearPieceMoves(moves)
+		for (i in moves.indices) {
+			val start = moves[i].start
+			if (start >= 0)
+				getPiece(start).numMoves++
+		}
+	}
+
+	/**
+	 * Moves passed to executeMove are almost always instances from the list so check identity
+	 * before falling back to equals
+	 */
+	private fun indexOfMove(moves: List<Move>, move: Move): Int {
+		for (i in moves.indices) {
+			if (moves[i] === move)
+				return i
+		}
+		return moves.indexOf(move)
+	}
+
 	fun countPieceMoves(): Int {
 		var totalMoves = 0
 		movesCache?.let { moves ->
@@ -456,11 +489,14 @@ open class Game : Reflector<Game>(), IGame<Move> {
 		if (undoStack.size > 0) {
 			val state = undoStack.pop()
 			val m = state.move
-			movesCache = state.moves.toMutableList()
+			movesCache?.let {
+				clearPieceMoves(it)
+			}
+			movesCache = state.moves as? ArrayList<Move> ?: state.moves.toMutableList()
 			rules.reverseMove(this, m)
 			selectedPos = -1
 			//turn = moves.get(0).getPlayerNum();
-			countPieceMoves()
+			setPieceMoves(movesCache!!)
 			gameState = GameState.PLAYING
 			return m
 		}
@@ -469,7 +505,8 @@ open class Game : Reflector<Game>(), IGame<Move> {
 
 	override fun getMoves(): List<Move> {
 		if (movesCache == null) {
-			movesCache = rules.computeMoves(this).toMutableList()
+			val moves = rules.computeMoves(this)
+			movesCache = moves as? ArrayList<Move> ?: moves.toMutableList()
 			countPieceMoves()
 		}
 		return movesCache!!
@@ -596,10 +633,29 @@ open class Game : Reflector<Game>(), IGame<Move> {
 
 	@Synchronized
 	fun copyPiece(from: Piece, to: Piece) {
+		val pnum = to.playerNum
+		if (pnum >= 0)
+			numPieces[pnum]--
 		to.copyFrom(from)
 		numPieces[to.playerNum]++
 	}
 
+	/**
+	 * Keep the piece counts current when changing the stack of p changes who owns it
+	 */
+	@Synchronized
+	fun updateStack(p: Piece, block: (Piece) -> Unit) {
+		val before = p.playerNum
+		block(p)
+		val after = p.playerNum
+		if (before != after) {
+			if (before >= 0)
+				numPieces[before]--
+			if (after >= 0)
+				numPieces[after]++
+		}
+	}
+
 	fun copyPiece(fromPos: Int, toPos: Int) {
 		val from = getPiece(fromPos)
 		val to = getPiece(toPos)
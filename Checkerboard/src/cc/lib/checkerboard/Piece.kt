@@ -122,7 +122,9 @@ class Piece : Reflector<Piece> {
 
 	fun removeStackBottom(): Int {
 		if (stackSize <= 0) throw GException("Empty stack")
-		val n = stack and (1 shl --stackSize)
+		val bit = 1 shl --stackSize
+		val n = stack and bit
+		stack = stack and bit.inv()
 		return if (n == 0) 0 else 1
 	}
 
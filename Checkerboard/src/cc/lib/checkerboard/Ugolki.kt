@@ -185,16 +185,16 @@ class Ugolki : Checkers() {
 
 	fun getClosest(pos: Int, positions: List<IntArray>): Int {
 		assert(positions.size > 0)
-		val cl = positions[0]
-		val p0r = pos shr 8
-		val p0c = pos and 0xff
-		var minD = Math.abs(p0r - cl[0]) + Math.abs(p0c - cl[1])
-		for (i in positions.indices) {
-			val p1 = positions[i]
-			val d = dist(p1, pos)
-			minD = Math.min(minD, d)
+		var closest = 0
+		var minD = dist(positions[0], pos)
+		for (i in 1 until positions.size) {
+			val d = dist(positions[i], pos)
+			if (d < minD) {
+				minD = d
+				closest = i
+			}
 		}
-		return minD
+		return closest
 	}
 
 	fun dist(p0: IntArray?, pos: Int): Int {
@@ -414,4 +414,230 @@ public class CheckerboardTest extends TestCase {
             System.out.println(m);
         }
     }
+
+    public void testIterativeDeepeningAllRules() {
+        AIPlayer.algorithm = AIPlayer.Algorithm.iterativeDeepening;
+        AIPlayer.maxSearchTimeMillis = 250;
+        try {
+            Rules [] rules = {
+                    new Checkers(), new Chess(), new DragonChess(), new Draughts(), new CanadianDraughts(),
+                    new Dama(), new Shashki(), new Suicide(), new Columns(), new KingsCourt(), new Ugolki()
+            };
+            for (Rules r : rules) {
+                Game gm = new Game();
+                gm.setRules(r);
+                gm.setPlayers(new AIPlayer(), new AIPlayer());
+                gm.newGame();
+                long nodes = 0;
+                for (int i=0; i<8 && !gm.isGameOver(); i++) {
+                    gm.runGame();
+                    nodes += AIPlayer.stats.getNodes();
+                }
+                System.out.println(r.getClass().getSimpleName() + ":\n" + AIPlayer.stats + "\n" + gm);
+                assertTrue(nodes > 0);
+            }
+        } finally {
+            AIPlayer.algorithm = AIPlayer.Algorithm.miniMaxAB;
+            AIPlayer.maxSearchTimeMillis = 2000;
+        }
+    }
+
+    public void testIterativeDeepeningFindsWinningMove() {
+        AIPlayer.algorithm = AIPlayer.Algorithm.iterativeDeepening;
+        AIPlayer.maxSearchTimeMillis = 500;
+        try {
+            Game gm = new Game();
+            gm.setRules(new Checkers());
+            gm.setPlayers(new AIPlayer(), new AIPlayer());
+            gm.clear();
+            gm.setPiece(0, 0, Game.NEAR, PieceType.KING);
+            gm.setPiece(4, 2, Game.FAR, PieceType.KING);
+            gm.setPiece(4, 4, Game.FAR, PieceType.KING);
+            gm.setTurn(Game.FAR);
+            runGame(gm, true, 20);
+            assertEquals(Game.FAR, gm.getWinnerNum());
+        } finally {
+            AIPlayer.algorithm = AIPlayer.Algorithm.miniMaxAB;
+            AIPlayer.maxSearchTimeMillis = 2000;
+        }
+    }
+
+    public void testZobristHash() {
+        Game gm = new Game();
+        gm.setRules(new Chess());
+        gm.setPlayers(new Player(), new Player());
+        gm.newGame();
+        AISearch search = new AISearch(1);
+        long h0 = search.hash(gm);
+        List<Move> moves = gm.getMoves();
+        for (Move m : moves) {
+            gm.executeMove(m);
+            assertFalse(h0 == search.hash(gm));
+            gm.undo();
+            assertEquals(h0, search.hash(gm));
+        }
+    }
+
+    public void testParallelSearchFindsWinningMove() {
+        AIPlayer.algorithm = AIPlayer.Algorithm.iterativeDeepening;
+        AIPlayer.maxSearchTimeMillis = 500;
+        AIPlayer.searchThreads = 4;
+        try {
+            Game gm = new Game();
+            gm.setRules(new Checkers());
+            gm.setPlayers(new AIPlayer(), new AIPlayer());
+            gm.clear();
+            gm.setPiece(0, 0, Game.NEAR, PieceType.KING);
+            gm.setPiece(4, 2, Game.FAR, PieceType.KING);
+            gm.setPiece(4, 4, Game.FAR, PieceType.KING);
+            gm.setTurn(Game.FAR);
+            runGame(gm, true, 20);
+            assertEquals(Game.FAR, gm.getWinnerNum());
+        } finally {
+            AIPlayer.algorithm = AIPlayer.Algorithm.miniMaxAB;
+            AIPlayer.maxSearchTimeMillis = 2000;
+            AIPlayer.searchThreads = 1;
+        }
+    }
+
+    private Game benchmarkPosition(Rules rules, int randomMoves) {
+        Game gm = new Game();
+        gm.setRules(rules);
+        gm.setPlayers(new Player(), new Player());
+        gm.newGame();
+        for (int i=0; i<randomMoves && !gm.isGameOver(); i++) {
+            gm.executeMove(Utils.randItem(gm.getMoves()));
+        }
+        return gm;
+    }
+
+    /**
+     * Time to reach each depth with 1, 2 and 4 threads on the opening and a position a few moves in
+     * for Chess and Checkers. Depth can be changed with -Dcheckerboard.depth=N (added to the
+     * default of 4 for Chess and 7 for Checkers)
+     * Only runs with -Dbenchmark=true
+     */
+    public void testParallelSearchBenchmark() {
+        if (!Boolean.getBoolean("benchmark"))
+            return;
+        Utils.setRandomSeed(0);
+        int extra = Integer.parseInt(System.getProperty("checkerboard.depth", "0"));
+        Object [][] positions = {
+                { "Chess opening", benchmarkPosition(new Chess(), 0), 4 + extra },
+                { "Chess middle", benchmarkPosition(new Chess(), 10), 4 + extra },
+                { "Checkers opening", benchmarkPosition(new Checkers(), 0), 7 + extra },
+                { "Checkers middle", benchmarkPosition(new Checkers(), 10), 7 + extra },
+        };
+        int [] threads = { 1, 2, 4 };
+        for (Object [] position : positions) {
+            Game gm = (Game)position[1];
+            int maxDepth = (Integer)position[2];
+            System.out.println(position[0] + " (" + Runtime.getRuntime().availableProcessors() + " cpus)");
+            for (int depth=1; depth<=maxDepth; depth++) {
+                StringBuilder line = new StringBuilder(String.format("depth %2d", depth));
+                long base = 0;
+                for (int n : threads) {
+                    AISearch search = new AISearch(16, n);
+                    AIPlayer.stats = new AIStats();
+                    long start = System.nanoTime();
+                    search.search(gm, new Move(MoveType.END, gm.getTurn()), 3600000L, depth, () -> false);
+                    long micros = Math.max(1, (System.nanoTime() - start) / 1000);
+                    search.shutdown();
+                    assertEquals(depth, AIPlayer.stats.getDepthReached());
+                    if (n == 1)
+                        base = micros;
+                    line.append(String.format("  threads=%d %8dus x%.2f", n, micros, (double)base / micros));
+                }
+                System.out.println(line);
+            }
+        }
+    }
+
+    /**
+     * Count the positions depth turns ahead using executeMove/undo. Moves that leave the turn with the
+     * same player (multi jumps, promotions) do not count as a turn.
+     */
+    private long perft(Game gm, int depth) {
+        if (depth == 0 || gm.isGameOver())
+            return 1;
+        List<Move> moves = gm.getMoves();
+        long count = 0;
+        for (int i=0; i<moves.size(); i++) {
+            Move m = moves.get(i);
+            gm.executeMove(m);
+            count += perft(gm, gm.getTurn() == m.getPlayerNum() ? depth : depth-1);
+            gm.undo();
+        }
+        return count;
+    }
+
+    /**
+     * Same as perft but each child is a copy of the parent
+     */
+    private long perftCopy(Game gm, int depth) {
+        if (depth == 0 || gm.isGameOver())
+            return 1;
+        long count = 0;
+        for (Move m : gm.getMoves()) {
+            Game copy = new Game();
+            copy.copyFrom(gm);
+            copy.executeMove(copy.getMoves().get(gm.getMoves().indexOf(m)));
+            count += perftCopy(copy, copy.getTurn() == m.getPlayerNum() ? depth : depth-1);
+        }
+        return count;
+    }
+
+    private Game newGame(Rules rules) {
+        Game gm = new Game();
+        gm.setRules(rules);
+        gm.setPlayers(new Player(), new Player());
+        gm.newGame();
+        return gm;
+    }
+
+    public void testPerft() {
+        Game chess = newGame(new Chess());
+        String before = chess.toString();
+        assertEquals(20, perft(chess, 1));
+        assertEquals(400, perft(chess, 2));
+        assertEquals(8902, perft(chess, 3));
+        assertEquals(before, chess.toString());
+
+        // these checkers can jump their own pieces
+        Game checkers = newGame(new Checkers());
+        before = checkers.toString();
+        assertEquals(13, perft(checkers, 1));
+        assertEquals(perftCopy(checkers, 4), perft(checkers, 4));
+        assertEquals(before, checkers.toString());
+
+        for (Rules r : new Rules[] { new Columns(), new Draughts(), new Dama(), new KingsCourt() }) {
+            Game gm = newGame(r);
+            assertEquals(perftCopy(gm, 3), perft(gm, 3));
+        }
+    }
+
+    /**
+     * Positions per second for executeMove/undo compared to copying the game for each child.
+     * Depth can be changed with -Dcheckerboard.perft=N
+     * Only runs with -Dbenchmark=true
+     */
+    public void testPerftBenchmark() {
+        if (!Boolean.getBoolean("benchmark"))
+            return;
+        int depth = Integer.parseInt(System.getProperty("checkerboard.perft", "3"));
+        for (Rules r : new Rules[] { new Chess(), new Checkers(), new Draughts() }) {
+            Game gm = newGame(r);
+            for (int i=0; i<2; i++) {
+                long start = System.nanoTime();
+                long n = perft(gm, depth);
+                long undoMicros = Math.max(1, (System.nanoTime() - start) / 1000);
+                start = System.nanoTime();
+                long n2 = perftCopy(gm, depth);
+                long copyMicros = Math.max(1, (System.nanoTime() - start) / 1000);
+                assertEquals(n, n2);
+                System.out.println(String.format("%-10s perft(%d)=%d  undo %d pos/sec  copy %d pos/sec",
+                        r.getClass().getSimpleName(), depth, n, n * 1000000 / undoMicros, n * 1000000 / copyMicros));
+            }
+        }
+    }
 }
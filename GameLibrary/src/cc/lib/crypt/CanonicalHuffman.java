@@ -0,0 +1,206 @@
+package cc.lib.crypt;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.PriorityQueue;
+
+/**
+ * Canonical Huffman code over bytes.
+ *
+ * Only the code length of each byte is needed to rebuild the codes so two sides that agree on the counts
+ * (or share getCodeLengths) agree on the encoding. Lengths are limited to MAX_CODE_LENGTH so decoding is a
+ * single lookup into a table indexed by the next MAX_CODE_LENGTH bits. Every byte gets a code even if it was
+ * never counted.
+ *
+ * Bits are packed least significant first, the same order HuffmanEncoding uses with EncryptionInput/OutputStream,
+ * so this works as a drop in Cypher. The streams from newInputStream / newOutputStream are much faster.
+ *
+ * @author ccaron
+ */
+public class CanonicalHuffman implements Cypher {
+
+    public final static int MAX_CODE_LENGTH = 12;
+    final static int TABLE_SIZE = 1 << MAX_CODE_LENGTH;
+    final static int TABLE_MASK = TABLE_SIZE - 1;
+
+    private final static int NUM_SYMBOLS = 256;
+
+    private final byte [] lengths;
+
+    // codes with their bits reversed so they can be or'd straight into a little endian accumulator
+    final int [] codes = new int[NUM_SYMBOLS];
+
+    // (symbol << 4) | length for every MAX_CODE_LENGTH bit pattern
+    final int [] table = new int[TABLE_SIZE];
+
+    /**
+     *
+     * @param counts occurrences of each byte value. Missing and zero counts are treated as 1
+     */
+    public CanonicalHuffman(long [] counts) {
+        this.lengths = computeLengths(counts);
+        buildCodes();
+    }
+
+    public CanonicalHuffman(int [] counts) {
+        this(toLongs(counts));
+    }
+
+    /**
+     * Use the counts collected by an encoding, for instance with HuffmanByteCounterInput/OutputStream
+     * @param encoding
+     */
+    public CanonicalHuffman(HuffmanEncoding encoding) {
+        this(encoding.getCounts());
+    }
+
+    private CanonicalHuffman(byte [] lengths) throws HuffmanEncoding.HuffmanException {
+        if (lengths.length != NUM_SYMBOLS)
+            throw new HuffmanEncoding.HuffmanException("Expected " + NUM_SYMBOLS + " code lengths");
+        for (byte len : lengths) {
+            if (len < 1 || len > MAX_CODE_LENGTH)
+                throw new HuffmanEncoding.HuffmanException("Code length " + len + " out of range");
+        }
+        this.lengths = lengths.clone();
+        buildCodes();
+        for (int e : table) {
+            if (e == 0)
+                throw new HuffmanEncoding.HuffmanException("Code lengths do not form a complete code");
+        }
+    }
+
+    /**
+     * Rebuild from the result of getCodeLengths
+     * @param lengths
+     * @return
+     * @throws HuffmanEncoding.HuffmanException if the lengths do not form a valid code
+     */
+    public static CanonicalHuffman fromCodeLengths(byte [] lengths) throws HuffmanEncoding.HuffmanException {
+        return new CanonicalHuffman(lengths);
+    }
+
+    /**
+     * @return the code length of each byte value. 256 bytes that fully describe this encoding
+     */
+    public byte [] getCodeLengths() {
+        return lengths.clone();
+    }
+
+    private static long [] toLongs(int [] counts) {
+        long [] out = new long[counts.length];
+        for (int i=0; i<counts.length; i++)
+            out[i] = counts[i];
+        return out;
+    }
+
+    private static byte [] computeLengths(long [] counts) {
+        long [] weights = new long[NUM_SYMBOLS];
+        for (int i=0; i<NUM_SYMBOLS; i++) {
+            weights[i] = i < counts.length ? Math.max(1, counts[i]) : 1;
+        }
+        while (true) {
+            byte [] lengths = huffmanLengths(weights);
+            int max = 0;
+            for (byte len : lengths)
+                max = Math.max(max, len);
+            if (max <= MAX_CODE_LENGTH)
+                return lengths;
+            // flatten the distribution until the tree is shallow enough. Ends at all equal, 8 bits each
+            for (int i=0; i<NUM_SYMBOLS; i++)
+                weights[i] = (weights[i] + 1) / 2;
+        }
+    }
+
+    private static byte [] huffmanLengths(long [] weights) {
+        final int n = weights.length;
+        final long [] w = new long[n * 2 - 1];
+        final int [] parent = new int[n * 2 - 1];
+        System.arraycopy(weights, 0, w, 0, n);
+        // ties broken by index so both sides always build the same tree
+        PriorityQueue<Integer> queue = new PriorityQueue<>(n, (a, b) -> w[a] != w[b] ? Long.compare(w[a], w[b]) : Integer.compare(a, b));
+        for (int i=0; i<n; i++)
+            queue.add(i);
+        int next = n;
+        while (queue.size() > 1) {
+            int a = queue.poll();
+            int b = queue.poll();
+            w[next] = w[a] + w[b];
+            parent[a] = parent[b] = next;
+            queue.add(next++);
+        }
+        final int root = next - 1;
+        byte [] lengths = new byte[n];
+        for (int i=0; i<n; i++) {
+            int depth = 0;
+            for (int j=i; j != root; j = parent[j])
+                depth++;
+            lengths[i] = (byte)depth;
+        }
+        return lengths;
+    }
+
+    private void buildCodes() {
+        int [] numOfLength = new int[MAX_CODE_LENGTH + 1];
+        for (byte len : lengths)
+            numOfLength[len]++;
+        int [] nextCode = new int[MAX_CODE_LENGTH + 1];
+        int code = 0;
+        for (int len=1; len<=MAX_CODE_LENGTH; len++) {
+            code = (code + numOfLength[len-1]) << 1;
+            nextCode[len] = code;
+        }
+        for (int sym=0; sym<NUM_SYMBOLS; sym++) {
+            int len = lengths[sym];
+            int reversed = Integer.reverse(nextCode[len]++) >>> (32 - len);
+            codes[sym] = reversed;
+            for (int i=reversed; i<TABLE_SIZE; i += 1 << len) {
+                table[i] = (sym << 4) | len;
+            }
+        }
+    }
+
+    int getLength(int b) {
+        return lengths[b & 0xff];
+    }
+
+    @Override
+    public int[] encrypt(int uncrypted) {
+        uncrypted &= 0xff;
+        return new int [] { lengths[uncrypted], codes[uncrypted] };
+    }
+
+    @Override
+    public int[] decrypt(int encrypted) {
+        int e = table[encrypted & TABLE_MASK];
+        return new int [] { e & 15, e >>> 4 };
+    }
+
+    @Override
+    public int getMaxEncodedBitLength() {
+        return MAX_CODE_LENGTH;
+    }
+
+    @Override
+    public InputStream newInputStream(InputStream in) {
+        return new CanonicalHuffmanInputStream(in, this);
+    }
+
+    @Override
+    public OutputStream newOutputStream(OutputStream out) {
+        return new CanonicalHuffmanOutputStream(out, this);
+    }
+
+    /**
+     * Average bits per byte for data with the given counts
+     * @param counts
+     * @return
+     */
+    public double getAverageCodeLength(long [] counts) {
+        long total = 0, bits = 0;
+        for (int i=0; i<counts.length && i<NUM_SYMBOLS; i++) {
+            total += counts[i];
+            bits += counts[i] * lengths[i];
+        }
+        return total == 0 ? 0 : (double)bits / total;
+    }
+}
@@ -0,0 +1,117 @@
+package cc.lib.crypt;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Decodes the output of CanonicalHuffmanOutputStream a whole frame at a time. Each byte costs one lookup
+ * into the decode table.
+ *
+ * @author ccaron
+ */
+public final class CanonicalHuffmanInputStream extends InputStream {
+
+    private final DataInputStream input;
+    private final int [] table;
+    // 8 bytes of slack so the accumulator can be refilled past the end of a frame
+    private final byte [] frame = new byte[CanonicalHuffmanOutputStream.MAX_FRAME_SIZE_BYTES + 8];
+    private final byte [] decoded = new byte[CanonicalHuffmanOutputStream.MAX_FRAME_SIZE_BYTES * 8];
+    private int decodedPos = 0;
+    private int decodedLen = 0;
+
+    public CanonicalHuffmanInputStream(InputStream input, CanonicalHuffman code) {
+        this.input = new DataInputStream(input);
+        this.table = code.table;
+    }
+
+    /*
+     * Blocks until a frame is read. Return false on EOF
+     */
+    private boolean readFrame() throws IOException {
+        final int numBytes;
+        try {
+            numBytes = input.readUnsignedShort();
+        } catch (EOFException e) {
+            return false;
+        }
+        final int numSymbols = input.readUnsignedShort();
+        if (numBytes > CanonicalHuffmanOutputStream.MAX_FRAME_SIZE_BYTES || numSymbols > numBytes * 8)
+            throw new IOException("Corrupt frame of " + numBytes + " bytes and " + numSymbols + " symbols");
+        input.readFully(frame, 0, numBytes);
+        Arrays.fill(frame, numBytes, numBytes + 8, (byte)0);
+
+        final int [] table = this.table;
+        final byte [] frame = this.frame;
+        final byte [] decoded = this.decoded;
+        long bits = 0;
+        int numBits = 0;
+        int pos = 0;
+        for (int i=0; i<numSymbols; i++) {
+            if (numBits < CanonicalHuffman.MAX_CODE_LENGTH) {
+                while (numBits <= 56) {
+                    bits |= (long)(frame[pos++] & 0xff) << numBits;
+                    numBits += 8;
+                }
+            }
+            int e = table[(int)bits & CanonicalHuffman.TABLE_MASK];
+            decoded[i] = (byte)(e >>> 4);
+            e &= 15;
+            bits >>>= e;
+            numBits -= e;
+        }
+        decodedPos = 0;
+        decodedLen = numSymbols;
+        return true;
+    }
+
+    private boolean fill() throws IOException {
+        while (decodedPos >= decodedLen) {
+            if (!readFrame())
+                return false;
+        }
+        return true;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!fill())
+            return -1;
+        return decoded[decodedPos++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0)
+            return 0;
+        if (!fill())
+            return -1;
+        int num = Math.min(len, decodedLen - decodedPos);
+        System.arraycopy(decoded, decodedPos, b, off, num);
+        decodedPos += num;
+        return num;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return decodedLen - decodedPos;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = 0;
+        while (skipped < n && fill()) {
+            int num = (int)Math.min(n - skipped, decodedLen - decodedPos);
+            decodedPos += num;
+            skipped += num;
+        }
+        return skipped;
+    }
+
+    @Override
+    public void close() throws IOException {
+        input.close();
+    }
+}
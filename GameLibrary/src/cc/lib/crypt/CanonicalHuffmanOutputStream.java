@@ -0,0 +1,105 @@
+package cc.lib.crypt;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Encodes with a CanonicalHuffman code.
+ *
+ * Codes are packed into a 64 bit accumulator that is written out 32 bits at a time. Output goes in frames
+ * of at most frameSizeBytes, each preceded by its length in bytes and the number of bytes it decodes to as
+ * unsigned shorts. flush ends the current frame so the reader can decode everything written so far.
+ *
+ * @author ccaron
+ */
+public final class CanonicalHuffmanOutputStream extends OutputStream {
+
+    public final static int DEFAULT_FRAME_SIZE_BYTES = 1024;
+    public final static int MAX_FRAME_SIZE_BYTES = 4096; // so the symbol count always fits in a short
+
+    private final DataOutputStream out;
+    private final int [] codes;
+    private final byte [] lengths = new byte[256];
+    private final byte [] frame;
+    private int framePos = 0;
+    private int numSymbols = 0;
+    private long bits = 0;
+    private int numBits = 0;
+
+    public CanonicalHuffmanOutputStream(OutputStream out, CanonicalHuffman code) {
+        this(out, code, DEFAULT_FRAME_SIZE_BYTES);
+    }
+
+    /**
+     *
+     * @param out
+     * @param code
+     * @param frameSizeBytes each frame costs 4 bytes of overhead plus the unused bits of its last byte
+     */
+    public CanonicalHuffmanOutputStream(OutputStream out, CanonicalHuffman code, int frameSizeBytes) {
+        this.out = new DataOutputStream(out);
+        this.codes = code.codes;
+        for (int i=0; i<256; i++)
+            lengths[i] = (byte)code.getLength(i);
+        frame = new byte[Math.max(16, Math.min(frameSizeBytes, MAX_FRAME_SIZE_BYTES))];
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        encode(b & 0xff);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        final int end = off + len;
+        for (int i=off; i<end; i++)
+            encode(b[i] & 0xff);
+    }
+
+    private void encode(int s) throws IOException {
+        bits |= (long)codes[s] << numBits;
+        numBits += lengths[s];
+        numSymbols++;
+        if (numBits >= 32) {
+            frame[framePos] = (byte)bits;
+            frame[framePos+1] = (byte)(bits >>> 8);
+            frame[framePos+2] = (byte)(bits >>> 16);
+            frame[framePos+3] = (byte)(bits >>> 24);
+            framePos += 4;
+            bits >>>= 32;
+            numBits -= 32;
+            if (framePos > frame.length - 8)
+                writeFrame();
+        }
+    }
+
+    private void writeFrame() throws IOException {
+        while (numBits > 0) {
+            frame[framePos++] = (byte)bits;
+            bits >>>= 8;
+            numBits -= 8;
+        }
+        if (numSymbols > 0) {
+            out.writeShort(framePos);
+            out.writeShort(numSymbols);
+            out.write(frame, 0, framePos);
+        }
+        bits = 0;
+        numBits = 0;
+        framePos = 0;
+        numSymbols = 0;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        writeFrame();
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+        out.close();
+    }
+}
@@ -1,5 +1,8 @@
 package cc.lib.crypt;
 
+import java.io.InputStream;
+import java.io.OutputStream;
+
 /**
  * This interface is the base type for encryption mechanism passed too
  * EncryptionInput/OutputStream.
@@ -36,5 +39,24 @@ public interface Cypher {
      * @return
      */
     int getMaxEncodedBitLength();
-    
+
+    /**
+     * Wrap a stream to decode what newOutputStream wrote. Override when the cypher has a faster stream.
+     *
+     * @param in
+     * @return
+     */
+    default InputStream newInputStream(InputStream in) {
+        return new EncryptionInputStream(in, this);
+    }
+
+    /**
+     * Wrap a stream to encode what is written to it.
+     *
+     * @param out
+     * @return
+     */
+    default OutputStream newOutputStream(OutputStream out) {
+        return new EncryptionOutputStream(out, this);
+    }
 }
@@ -66,18 +66,25 @@ import java.net.Socket
  * }
  * }
  */
-open class ClientConnection(server: GameServer, attributes: Map<String, Any>) :
-	AClientConnection(server, attributes.toMutableMap()) {
+open class ClientConnection(private val gameServer: GameServer, attributes: Map<String, Any>) :
+	AClientConnection(gameServer, attributes.toMutableMap()) {
 
 	private var socket: Socket? = null
 	private var dIn: DataInputStream? = null
 	private var dOut: DataOutputStream? = null
-	private val outQueue: CommandQueueWriter = object : CommandQueueWriter("SRV:Connection[$name]") {
+	private val codec = GameCommandCodec()
+	private val outQueue: CommandQueueWriter = object : CommandQueueWriter("SRV:Connection[$name]", codec) {
 		override fun onTimeout() {
 			notifyListeners { l: Listener -> l.onTimeout(this@ClientConnection) }
 		}
 	}
 	private var connected = false
+
+	/**
+	 * Batch and queue time counters for commands sent to this client
+	 */
+	val outboundStats: CommandQueueWriter.Stats
+		get() = outQueue.stats
 	private val readScope = CoroutineScope(Dispatchers.IO + CoroutineName("SVR:Connection[$name]"))
 	private var readJob: Job? = null
 
@@ -141,14 +148,26 @@ open class ClientConnection(server: GameServer, attributes: Map<String, Any>) :
 
 	/*
      * init connection.  should only be used by GameServer
+     *
+     * protocol is the negotiated wire format. See GameCommandCodec
      */
 	@Throws(Exception::class)
-	fun connect(socket: Socket, input: DataInputStream, out: DataOutputStream) {
+	fun connect(
+		socket: Socket,
+		input: DataInputStream,
+		out: DataOutputStream,
+		protocol: Int = GameCommandCodec.PROTOCOL_TEXT
+	) {
 		if (isConnected) {
 			throw Exception("Client '$name' is already connected")
 		}
 		log.debug("ClientConnection: $name connection attempt ...")
 		this.socket = socket
+		codec.reset()
+		codec.binary = protocol >= GameCommandCodec.PROTOCOL_BINARY
+		outQueue.batching = gameServer.BATCHING
+		outQueue.maxBatchBytes = gameServer.MAX_BATCH_BYTES
+		outQueue.maxLingerMillis = gameServer.MAX_BATCH_LINGER_MS
 		try {
 			this.dIn = input
 			this.dOut = out
@@ -185,7 +204,7 @@ open class ClientConnection(server: GameServer, attributes: Map<String, Any>) :
 			log.debug("ClientConnection: ClientThread " + Thread.currentThread().id + " starting")
 			while (isConnected) {
 				try {
-					processCommand(GameCommand.parse(requireNotNull(dIn)))
+					processCommand(codec.parse(requireNotNull(dIn)))
 				} catch (e: Exception) {
 					if (isConnected) {
 						e.printStackTrace()
@@ -3,29 +3,134 @@ package cc.lib.net
 import cc.lib.logger.Logger
 import cc.lib.logger.LoggerFactory
 import cc.lib.utils.GException
-import cc.lib.utils.launchIn
+import kotlinx.coroutines.CancellationException
 import kotlinx.coroutines.CoroutineName
 import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.ExperimentalCoroutinesApi
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.Job
 import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.channels.ClosedSendChannelException
+import kotlinx.coroutines.delay
 import kotlinx.coroutines.launch
 import kotlinx.coroutines.runBlocking
-import kotlinx.coroutines.withTimeoutOrNull
+import kotlinx.coroutines.selects.onTimeout
+import kotlinx.coroutines.selects.select
+import java.io.ByteArrayOutputStream
 import java.io.DataOutputStream
 import java.io.IOException
+import kotlin.math.max
 
 /**
  * Allows for queueing of commands so we are never waiting for the network to write
+ *
+ * Commands are encoded with the codec, which decides between the text and binary wire formats.
+ *
+ * When batching is enabled all commands available in the queue are encoded into a single buffer
+ * and flushed to the network once. A batch is closed when it reaches maxBatchBytes or when no
+ * new command arrives within maxLingerMillis.
+ *
+ * The queue holds QUEUE_SIZE commands. add returns right away while there is room and otherwise
+ * waits for the writer to catch up, so a slow connection pushes back on the sender. Commands are
+ * written in the order they were added.
+ *
  * @author ccaron
  */
-open class CommandQueueWriter(logPrefix: String) {
+open class CommandQueueWriter(logPrefix: String, val codec: GameCommandCodec = GameCommandCodec()) {
 	private val log: Logger
-	private val queue = Channel<GameCommand>(32)
+
+	companion object {
+		const val QUEUE_SIZE = 32
+	}
+
+	private class Queued(val cmd: GameCommand, val timeQueued: Long = System.nanoTime())
+
+	class Stats {
+		var numBatches = 0L
+			private set
+		var numCommands = 0L
+			private set
+		var maxBatchCommands = 0
+			private set
+		var totalBytes = 0L
+			private set
+		var maxBatchBytes = 0
+			private set
+		var totalQueuedNanos = 0L
+			private set
+		var maxQueuedNanos = 0L
+			private set
+
+		val avgBatchCommands: Double
+			get() = if (numBatches == 0L) 0.0 else numCommands.toDouble() / numBatches
+
+		val avgQueuedMillis: Double
+			get() = if (numCommands == 0L) 0.0 else totalQueuedNanos.toDouble() / numCommands / 1000000
+
+		@Synchronized
+		fun reset() {
+			numBatches = 0
+			numCommands = 0
+			maxBatchCommands = 0
+			totalBytes = 0
+			maxBatchBytes = 0
+			totalQueuedNanos = 0
+			maxQueuedNanos = 0
+		}
+
+		@Synchronized
+		internal fun addQueued(nanos: Long) {
+			numCommands++
+			totalQueuedNanos += nanos
+			maxQueuedNanos = max(maxQueuedNanos, nanos)
+		}
+
+		@Synchronized
+		internal fun addBatch(commands: Int, bytes: Int) {
+			numBatches++
+			totalBytes += bytes
+			maxBatchCommands = max(maxBatchCommands, commands)
+			maxBatchBytes = max(maxBatchBytes, bytes)
+		}
+
+		override fun toString(): String =
+			"batches=$numBatches commands=$numCommands avgBatch=${"%.2f".format(avgBatchCommands)} maxBatch=$maxBatchCommands bytes=$totalBytes maxBatchBytes=$maxBatchBytes avgQueuedMS=${
+				"%.3f".format(avgQueuedMillis)
+			} maxQueuedMS=${maxQueuedNanos / 1000000}"
+	}
+
+	private var queue = Channel<Queued>(QUEUE_SIZE)
+	@Volatile
+	private var queueClosed = false
+	@Volatile
+	private var lastActivity = 0L
 	private var timeout = 10000L
 	private val scope = CoroutineScope(Dispatchers.IO + CoroutineName(logPrefix))
 	private var job: Job? = null
 	private var out: DataOutputStream? = null
+	private val batchBuffer = ByteArrayOutputStream(4096)
+	private val batchOut = DataOutputStream(batchBuffer)
+
+	val stats = Stats()
+
+	/**
+	 * When true, drain all queued commands and flush them as one write
+	 */
+	@Volatile
+	var batching = false
+
+	/**
+	 * Close a batch once its encoded size reaches this many bytes
+	 */
+	@Volatile
+	var maxBatchBytes = 16 * 1024
+
+	/**
+	 * How long to wait for more commands before sending a batch. 0 means only drain what is
+	 * already in the queue.
+	 */
+	@Volatile
+	var maxLingerMillis = 0L
 
 	var running = false
 		private set
@@ -42,38 +147,97 @@ open class CommandQueueWriter(logPrefix: String) {
 	fun start(out: DataOutputStream) {
 		if (!running) {
 			this.out = out
+			if (queueClosed) {
+				queue = Channel(QUEUE_SIZE)
+				queueClosed = false
+			}
+			val queue = queue
 			running = true
+			lastActivity = System.currentTimeMillis()
 			job = scope.launch {
-				var errors = 0
-				while ((running || !queue.isEmpty) && errors < 5) {
-					val cmd: GameCommand? = withTimeoutOrNull(timeout) {
-						queue.receive()
-					} ?: run {
-						onTimeout()
-						null
+				val keepAlive = launch {
+					while (true) {
+						val idle = System.currentTimeMillis() - lastActivity
+						if (idle >= timeout) {
+							onTimeout()
+							lastActivity = System.currentTimeMillis()
+						} else {
+							delay(timeout - idle)
+						}
 					}
+				}
+				var errors = 0
+				while (errors < 5) {
+					// null here means the queue was closed by stop and is drained
+					val next: Queued = queue.receiveCatching().getOrNull() ?: break
+					lastActivity = System.currentTimeMillis()
 					try {
-						cmd?.let {
-							it.write(out)
+						if (batching) {
+							writeBatch(next, out)
+						} else {
+							stats.addQueued(System.nanoTime() - next.timeQueued)
+							val size = out.size()
+							codec.write(next.cmd, out)
 							out.flush()
-							errors = 0
+							stats.addBatch(1, out.size() - size)
 						}
+						errors = 0
 					} catch (e: IOException) {
 						if (!running)
 							break
 						errors++
-						log.error("ERROR: $errors Problem sending command: $cmd")
+						log.error("ERROR: $errors Problem sending command: ${next.cmd}")
 					} catch (e: Exception) {
 						break
 					}
 				}
-				queue.close()
+				keepAlive.cancel()
+				if (running) {
+					// gave up on errors so nothing will make room for an add waiting on a full queue
+					queueClosed = true
+					queue.cancel()
+				} else {
+					closeQueue(queue)
+				}
 			}
 		} else {
 			log.error("start called when already running!")
 		}
 	}
 
+	private fun closeQueue(queue: Channel<Queued>) {
+		queueClosed = true
+		queue.close()
+	}
+
+	@OptIn(ExperimentalCoroutinesApi::class)
+	private suspend fun writeBatch(first: Queued, out: DataOutputStream) {
+		batchBuffer.reset()
+		var numCommands = 0
+		var next: Queued? = first
+		val deadline = System.currentTimeMillis() + maxLingerMillis
+		try {
+			while (next != null) {
+				stats.addQueued(System.nanoTime() - next.timeQueued)
+				codec.write(next.cmd, batchOut)
+				numCommands++
+				if (batchBuffer.size() >= maxBatchBytes)
+					break
+				val remaining = deadline - System.currentTimeMillis()
+				// select takes either a command or the timeout, never a command that is then dropped
+				next = if (remaining <= 0) queue.tryReceive().getOrNull() else select {
+					queue.onReceiveCatching { it.getOrNull() }
+					onTimeout(remaining) { null }
+				}
+			}
+		} finally {
+			// commands already taken off the queue must go out even if we are being stopped while lingering
+			batchBuffer.writeTo(out)
+			out.flush()
+			stats.addBatch(numCommands, batchBuffer.size())
+		}
+	}
+
 	/**
 	 * Block until all commands sent.  No new commands will be accepted.
 	 */
@@ -81,11 +245,20 @@ open class CommandQueueWriter(logPrefix: String) {
 	fun stop(flush: Boolean) = runBlocking {
 		log.debug("Stopping")
 		running = false
-		job?.cancel()
+		if (flush) {
+			// let the writer drain what is left rather than cancel it while it holds commands
+			closeQueue(queue)
+			job?.join()
+		} else {
+			job?.cancel()
+			// wakes any add waiting on a full queue
+			queueClosed = true
+			queue.cancel()
+		}
 		job = null
 		out?.takeIf { flush }?.let { out ->
-			while (!queue.isEmpty) {
-				queue.receive().write(out)
+			while (true) {
+				codec.write((queue.tryReceive().getOrNull() ?: break).cmd, out)
 			}
 			out.flush()
 		}
@@ -94,16 +267,25 @@ open class CommandQueueWriter(logPrefix: String) {
 	}
 
 	/**
-	 * Push a command to the outbound queue.
+	 * Push a command to the outbound queue. Waits while the queue is full.
 	 * throw an error if the queue not running
 	 * @param cmd
 	 * @throws Exception
 	 */
 	fun add(cmd: GameCommand) {
 		if (!running) throw GException("commandQueue is not running")
-		launchIn {
-			if (!queue.isClosedForSend)
-				queue.send(cmd)
+		val queued = Queued(cmd)
+		val result = queue.trySend(queued)
+		if (result.isSuccess)
+			return
+		if (result.isClosed)
+			throw GException("commandQueue is not running")
+		try {
+			runBlocking { queue.send(queued) }
+		} catch (e: ClosedSendChannelException) {
+			throw GException("commandQueue is not running")
+		} catch (e: CancellationException) {
+			throw GException("commandQueue is not running")
 		}
 	}
 
@@ -1,8 +1,6 @@
 package cc.lib.net
 
 import cc.lib.crypt.Cypher
-import cc.lib.crypt.EncryptionInputStream
-import cc.lib.crypt.EncryptionOutputStream
 import cc.lib.utils.trimmedToSize
 import kotlinx.coroutines.CoroutineName
 import kotlinx.coroutines.CoroutineScope
@@ -126,22 +124,11 @@ open class GameClient : AGameClient {
 					)
 					val _in: DataInputStream
 					val _out: DataOutputStream
+					val cypher = cypher
 					if (cypher != null) {
 						log.debug("Using Cypher: $cypher")
-						_in = DataInputStream(
-							EncryptionInputStream(
-								BufferedInputStream(
-									getInputStream()
-								), cypher
-							)
-						)
-						_out = DataOutputStream(
-							EncryptionOutputStream(
-								BufferedOutputStream(
-									getOutputStream()
-								), cypher
-							)
-						)
+						_in = DataInputStream(cypher.newInputStream(BufferedInputStream(getInputStream())))
+						_out = DataOutputStream(cypher.newOutputStream(BufferedOutputStream(getOutputStream())))
 					} else {
 						_in = DataInputStream(BufferedInputStream(getInputStream()))
 						_out = DataOutputStream(BufferedOutputStream(getOutputStream()))
@@ -150,13 +137,23 @@ open class GameClient : AGameClient {
 					dOut = _out
 					_out.writeLong(87263450972L) // write out the magic number the servers are expecting
 					_out.flush()
+					// handshake is always text. Switch to binary once the server confirms in SVR_CONNECTED
+					outQueue.codec.reset()
+					properties[GameCommandCodec.KEY_PROTOCOL] = GameCommandCodec.PROTOCOL_BINARY
 					outQueue.start(_out)
 					outQueue.add(GameCommand(GameCommandType.CL_CONNECT).setArgs(properties))
 					jobs.add(readerScope.launch {
 						while (isConnected) {
 							withTimeoutOrNull(15000) {
 								try {
-									readerChannel.send(GameCommand.parse(dIn))
+									val cmd = outQueue.codec.parse(dIn)
+									if (cmd.type == GameCommandType.SVR_CONNECTED) {
+										outQueue.codec.binary = cmd.getInt(
+											GameCommandCodec.KEY_SERVER_PROTOCOL,
+											GameCommandCodec.PROTOCOL_TEXT
+										) >= GameCommandCodec.PROTOCOL_BINARY
+									}
+									readerChannel.send(cmd)
 								} catch (e: Exception) {
 									disconnect("Exception parsing command: " + e.javaClass.simpleName + " " + e.message)
 								}
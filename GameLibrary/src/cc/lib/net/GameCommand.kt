@@ -6,6 +6,7 @@ import cc.lib.reflector.Reflector
 import cc.lib.utils.GException
 import cc.lib.utils.NoDupesMap
 import cc.lib.utils.takeIfInstance
+import java.io.ByteArrayInputStream
 import java.io.ByteArrayOutputStream
 import java.io.DataInputStream
 import java.io.DataOutputStream
@@ -199,8 +200,17 @@ class GameCommand(val type: GameCommandType) : IGameCommand {
 				}
 
 				is String -> {
-					dout.writeByte(TYPE_STRING)
-					dout.writeUTF(value.value as String)
+					val str = value.value as String
+					if (str.length > MAX_UTF_CHARS) {
+						// writeUTF is limited to 64K bytes. Reflector payloads are read back as strings
+						val bytes = str.toByteArray(Charsets.UTF_8)
+						dout.writeByte(TYPE_REFLECTOR)
+						dout.writeInt(bytes.size)
+						dout.write(bytes)
+					} else {
+						dout.writeByte(TYPE_STRING)
+						dout.writeUTF(str)
+					}
 				}
 
 				is Reflector<*> -> {
@@ -239,9 +249,24 @@ class GameCommand(val type: GameCommandType) : IGameCommand {
 		const val TYPE_REFLECTOR = 7
 		const val TYPE_KREFLECTOR = 7
 
+		// Longest string guaranteed to fit in writeUTF (3 bytes max per char)
+		private const val MAX_UTF_CHARS = 65535 / 3
+
+		@Throws(Exception::class)
+		fun parse(din: DataInputStream): GameCommand = parseText(din, din.readUnsignedByte())
+
+		/**
+		 * Parse a text command whose first byte has already been consumed. Used by GameCommandCodec
+		 * which needs to peek at the first byte to detect the binary format.
+		 */
 		@Throws(Exception::class)
-		fun parse(din: DataInputStream): GameCommand {
-			val cmd = din.readUTF()
+		internal fun parseText(din: DataInputStream, firstByte: Int): GameCommand {
+			val len = (firstByte shl 8) or din.readUnsignedByte()
+			val utf = ByteArray(len + 2)
+			utf[0] = firstByte.toByte()
+			utf[1] = len.toByte()
+			din.readFully(utf, 2, len)
+			val cmd = DataInputStream(ByteArrayInputStream(utf)).readUTF()
 			val type = GameCommandType.valueOf(cmd)
 			val command = GameCommand(type)
 			val numArgs = din.readInt()
@@ -0,0 +1,351 @@
+package cc.lib.net
+
+import cc.lib.kreflector.KReflector
+import cc.lib.reflector.RPrintWriter
+import cc.lib.reflector.Reflector
+import cc.lib.utils.GException
+import java.io.ByteArrayOutputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.EOFException
+import java.io.IOException
+import java.util.zip.Deflater
+import java.util.zip.Inflater
+
+/**
+ * Per-connection encoder/decoder for GameCommands.
+ *
+ * Two wire formats are supported:
+ *
+ * PROTOCOL_TEXT - the original format. Type names and keys are written with writeUTF and
+ * reflector args are written as text. This is what GameCommand.write produces.
+ *
+ * PROTOCOL_BINARY - a compact format. Type names and argument keys are interned into a
+ * per-connection dictionary so after the first time a key is sent it costs 1 or 2 bytes.
+ * Lengths and integers are varints and large reflector payloads are deflated.
+ *
+ * Outbound format is selected with 'binary' and is negotiated during the handshake. The
+ * decoder accepts either format at any time since a binary command always begins with
+ * BINARY_MARKER, which can never be the first byte of a text command.
+ *
+ * The out dictionary is only touched by the writer and the in dictionary only by the reader,
+ * so one instance can be shared by the read and write jobs of a connection. Call reset
+ * whenever the underlying streams are replaced (reconnects).
+ */
+class GameCommandCodec {
+
+	companion object {
+		const val PROTOCOL_TEXT = 1
+		const val PROTOCOL_BINARY = 2
+
+		/**
+		 * Attribute sent by the client with CL_CONNECT to advertise the highest protocol it supports
+		 */
+		const val KEY_PROTOCOL = "protocol"
+
+		/**
+		 * Attribute sent by the server with SVR_CONNECTED with the protocol the server will use.
+		 * Older servers do not send this so clients stay on PROTOCOL_TEXT.
+		 */
+		const val KEY_SERVER_PROTOCOL = "serverProtocol"
+
+		const val BINARY_MARKER = 0xB1
+
+		// max number of interned strings per direction. Both ends stop adding when full.
+		const val MAX_DICTIONARY_SIZE = 1024
+
+		// reflector payloads larger than this are deflated
+		const val DEFLATE_THRESHOLD = 256
+
+		private const val PAYLOAD_RAW = 0
+		private const val PAYLOAD_DEFLATED = 1
+	}
+
+	@Volatile
+	var binary = false
+
+	private val outDictionary = HashMap<String, Int>()
+	private val inDictionary = ArrayList<String>()
+	private val deflater = Deflater(Deflater.BEST_SPEED)
+	private val inflater = Inflater()
+	private val payload = ByteArrayOutputStream()
+	private var readBuffer = ByteArray(1024)
+	private val deflateBuffer = ByteArray(1024)
+
+	/**
+	 * Clear the dictionaries and revert to PROTOCOL_TEXT.
+	 */
+	@Synchronized
+	fun reset() {
+		binary = false
+		outDictionary.clear()
+		inDictionary.clear()
+	}
+
+	/**
+	 * Write a command in the currently selected outbound format.
+	 */
+	@Throws(IOException::class)
+	fun write(cmd: GameCommand, dout: DataOutputStream) {
+		if (!binary) {
+			cmd.write(dout)
+			return
+		}
+		dout.writeByte(BINARY_MARKER)
+		writeInterned(dout, cmd.type.name())
+		writeVarInt(dout, cmd.arguments.size)
+		for ((key, value) in cmd.arguments) {
+			writeInterned(dout, key)
+			when (value) {
+				is Boolean -> {
+					dout.writeByte(GameCommand.TYPE_BOOL)
+					dout.writeBoolean(value)
+				}
+
+				is Int -> {
+					dout.writeByte(GameCommand.TYPE_INT)
+					writeVarInt(dout, zigZag(value))
+				}
+
+				is Long -> {
+					dout.writeByte(GameCommand.TYPE_LONG)
+					writeVarLong(dout, zigZag(value))
+				}
+
+				is Float -> {
+					dout.writeByte(GameCommand.TYPE_FLOAT)
+					dout.writeFloat(value)
+				}
+
+				is Double -> {
+					dout.writeByte(GameCommand.TYPE_DOUBLE)
+					dout.writeDouble(value)
+				}
+
+				is String -> {
+					if (value.length >= DEFLATE_THRESHOLD) {
+						// large strings (serialized game state) get the same treatment as reflectors
+						dout.writeByte(GameCommand.TYPE_REFLECTOR)
+						payload.reset()
+						payload.write(value.toByteArray(Charsets.UTF_8))
+						writePayload(dout)
+					} else {
+						dout.writeByte(GameCommand.TYPE_STRING)
+						writeString(dout, value)
+					}
+				}
+
+				is Reflector<*> -> {
+					dout.writeByte(GameCommand.TYPE_REFLECTOR)
+					payload.reset()
+					RPrintWriter(payload).also {
+						value.serialize(it)
+						it.flush()
+					}
+					writePayload(dout)
+				}
+
+				is KReflector<*> -> {
+					dout.writeByte(GameCommand.TYPE_KREFLECTOR)
+					payload.reset()
+					RPrintWriter(payload).also {
+						value.serialize(it)
+						it.flush()
+					}
+					writePayload(dout)
+				}
+
+				else -> {
+					dout.writeByte(GameCommand.TYPE_STRING)
+					writeString(dout, value.toString())
+				}
+			}
+		}
+		dout.flush()
+	}
+
+	/**
+	 * Read a command in either format.
+	 */
+	@Throws(Exception::class)
+	fun parse(din: DataInputStream): GameCommand {
+		val first = din.readUnsignedByte()
+		if (first != BINARY_MARKER) {
+			return GameCommand.parseText(din, first)
+		}
+		val command = GameCommand(GameCommandType.valueOf(readInterned(din)))
+		val numArgs = readVarInt(din)
+		for (i in 0 until numArgs) {
+			val key = readInterned(din)
+			when (val itype = din.readUnsignedByte()) {
+				GameCommand.TYPE_NULL -> Unit
+				GameCommand.TYPE_BOOL -> command.setArg(key, din.readBoolean())
+				GameCommand.TYPE_INT -> command.setArg(key, unZigZag(readVarInt(din)))
+				GameCommand.TYPE_LONG -> command.setArg(key, unZigZag(readVarLong(din)))
+				GameCommand.TYPE_FLOAT -> command.setArg(key, din.readFloat())
+				GameCommand.TYPE_DOUBLE -> command.setArg(key, din.readDouble())
+				GameCommand.TYPE_STRING -> command.setArg(key, readString(din))
+				GameCommand.TYPE_REFLECTOR -> command.setArg(key, readPayload(din))
+				else -> throw GException("Unhandled type $itype")
+			}
+		}
+		return command
+	}
+
+	/**
+	 * Parse a command from input that may hold only part of it, as with non-blocking reads. When
+	 * the input runs out any dictionary entries added by the partial command are discarded and
+	 * null is returned so the caller can retry once more bytes have arrived.
+	 */
+	@Throws(Exception::class)
+	fun parseOrNull(din: DataInputStream): GameCommand? {
+		val dictionarySize = inDictionary.size
+		return try {
+			parse(din)
+		} catch (e: EOFException) {
+			while (inDictionary.size > dictionarySize)
+				inDictionary.removeAt(inDictionary.size - 1)
+			null
+		}
+	}
+
+	private fun writeInterned(dout: DataOutputStream, str: String) {
+		outDictionary[str]?.let {
+			writeVarInt(dout, it shl 1)
+			return
+		}
+		val bytes = str.toByteArray(Charsets.UTF_8)
+		writeVarInt(dout, (bytes.size shl 1) or 1)
+		dout.write(bytes)
+		if (outDictionary.size < MAX_DICTIONARY_SIZE)
+			outDictionary[str] = outDictionary.size
+	}
+
+	private fun readInterned(din: DataInputStream): String {
+		val header = readVarInt(din)
+		if (header and 1 == 0) {
+			return inDictionary.getOrNull(header ushr 1)
+				?: throw ProtocolException("Unknown dictionary index ${header ushr 1}")
+		}
+		val str = readBytes(din, header ushr 1)
+		if (inDictionary.size < MAX_DICTIONARY_SIZE)
+			inDictionary.add(str)
+		return str
+	}
+
+	private fun writeString(dout: DataOutputStream, str: String) {
+		val bytes = str.toByteArray(Charsets.UTF_8)
+		writeVarInt(dout, bytes.size)
+		dout.write(bytes)
+	}
+
+	private fun readString(din: DataInputStream): String = readBytes(din, readVarInt(din))
+
+	private fun readBytes(din: DataInputStream, len: Int): String {
+		if (readBuffer.size < len)
+			readBuffer = ByteArray(Integer.highestOneBit(len) shl 1)
+		val buf = readBuffer
+		din.readFully(buf, 0, len)
+		return String(buf, 0, len, Charsets.UTF_8)
+	}
+
+	private fun writePayload(dout: DataOutputStream) {
+		val raw = payload.toByteArray()
+		if (raw.size < DEFLATE_THRESHOLD) {
+			dout.writeByte(PAYLOAD_RAW)
+			writeVarInt(dout, raw.size)
+			dout.write(raw)
+			return
+		}
+		deflater.reset()
+		deflater.setInput(raw)
+		deflater.finish()
+		payload.reset()
+		while (!deflater.finished()) {
+			payload.write(deflateBuffer, 0, deflater.deflate(deflateBuffer))
+		}
+		dout.writeByte(PAYLOAD_DEFLATED)
+		writeVarInt(dout, raw.size)
+		writeVarInt(dout, payload.size())
+		payload.writeTo(dout)
+	}
+
+	private fun readPayload(din: DataInputStream): String {
+		when (val kind = din.readUnsignedByte()) {
+			PAYLOAD_RAW -> return readString(din)
+			PAYLOAD_DEFLATED -> {
+				val rawLen = readVarInt(din)
+				val len = readVarInt(din)
+				val compressed = ByteArray(len)
+				din.readFully(compressed)
+				val raw = ByteArray(rawLen)
+				inflater.reset()
+				inflater.setInput(compressed)
+				var n = 0
+				while (n < rawLen && !inflater.finished()) {
+					val num = inflater.inflate(raw, n, rawLen - n)
+					if (num == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+						break
+					n += num
+				}
+				if (n != rawLen)
+					throw ProtocolException("Corrupt payload. Expected $rawLen bytes but inflated $n")
+				return String(raw, Charsets.UTF_8)
+			}
+
+			else -> throw ProtocolException("Unknown payload encoding $kind")
+		}
+	}
+}
+
+private fun zigZag(n: Int): Int = (n shl 1) xor (n shr 31)
+
+private fun unZigZag(n: Int): Int = (n ushr 1) xor -(n and 1)
+
+private fun zigZag(n: Long): Long = (n shl 1) xor (n shr 63)
+
+private fun unZigZag(n: Long): Long = (n ushr 1) xor -(n and 1)
+
+internal fun writeVarInt(dout: DataOutputStream, value: Int) {
+	var v = value
+	while (v and 0x7f.inv() != 0) {
+		dout.writeByte((v and 0x7f) or 0x80)
+		v = v ushr 7
+	}
+	dout.writeByte(v)
+}
+
+internal fun writeVarLong(dout: DataOutputStream, value: Long) {
+	var v = value
+	while (v and 0x7fL.inv() != 0L) {
+		dout.writeByte(((v and 0x7f) or 0x80).toInt())
+		v = v ushr 7
+	}
+	dout.writeByte(v.toInt())
+}
+
+internal fun readVarInt(din: DataInputStream): Int {
+	var result = 0
+	var shift = 0
+	while (shift < 35) {
+		val b = din.readUnsignedByte()
+		result = result or ((b and 0x7f) shl shift)
+		if (b and 0x80 == 0)
+			return result
+		shift += 7
+	}
+	throw ProtocolException("Malformed varint")
+}
+
+internal fun readVarLong(din: DataInputStream): Long {
+	var result = 0L
+	var shift = 0
+	while (shift < 70) {
+		val b = din.readUnsignedByte()
+		result = result or ((b and 0x7f).toLong() shl shift)
+		if (b and 0x80 == 0)
+			return result
+		shift += 7
+	}
+	throw ProtocolException("Malformed varint")
+}
@@ -1,8 +1,6 @@
 package cc.lib.net
 
 import cc.lib.crypt.Cypher
-import cc.lib.crypt.EncryptionInputStream
-import cc.lib.crypt.EncryptionOutputStream
 import cc.lib.crypt.HuffmanEncoding
 import cc.lib.game.Utils
 import cc.lib.utils.launchIn
@@ -51,6 +49,25 @@ open class GameServer(
 	@JvmField
 	var PING_FREQ = 10000
 
+	/**
+	 * Highest wire protocol this server will negotiate. See GameCommandCodec
+	 */
+	@JvmField
+	var PROTOCOL = GameCommandCodec.PROTOCOL_BINARY
+
+	/**
+	 * When true, client connections coalesce queued commands into a single write.
+	 * See CommandQueueWriter
+	 */
+	@JvmField
+	var BATCHING = false
+
+	@JvmField
+	var MAX_BATCH_BYTES = 16 * 1024
+
+	@JvmField
+	var MAX_BATCH_LINGER_MS = 0L
+
 	private var socketListener: SocketListener? = null
 	private var counter: HuffmanEncoding? = null
 	private var listenJob: Job? = null
@@ -219,18 +236,8 @@ open class GameServer(
 			try {
 				log.info("GameServer: Start handshake with new connection")
 				if (cypher != null) {
-					dIn = DataInputStream(
-						EncryptionInputStream(
-							BufferedInputStream(socket.getInputStream()),
-							cypher
-						)
-					)
-					out = DataOutputStream(
-						EncryptionOutputStream(
-							BufferedOutputStream(socket.getOutputStream()),
-							cypher
-						)
-					)
+					dIn = DataInputStream(cypher.newInputStream(BufferedInputStream(socket.getInputStream())))
+					out = DataOutputStream(cypher.newOutputStream(BufferedOutputStream(socket.getOutputStream())))
 				} else {
 					counter = HuffmanEncoding()
 					dIn = DataInputStream(BufferedInputStream(socket.getInputStream()))
@@ -273,10 +280,16 @@ open class GameServer(
 							}
 							newClientConnection(clients.size, cmd.arguments as MutableMap<String, Any>)
 						}
+						// clients that predate the binary protocol do not send a protocol attribute
+						val protocol = minOf(
+							PROTOCOL,
+							cmd.getInt(GameCommandCodec.KEY_PROTOCOL, GameCommandCodec.PROTOCOL_TEXT)
+						)
 						(conn as ClientConnection).let {
 							clients.put(name, it)
-							it.connect(socket, dIn, out)
+							it.connect(socket, dIn, out, protocol)
 							it.setAttributes(cmd.arguments)
+							it.setAttributes(mapOf(GameCommandCodec.KEY_SERVER_PROTOCOL to protocol))
 						}
 					} else {
 						throw ProtocolException("Handshake failed: Invalid client command: $cmd")
@@ -0,0 +1,108 @@
+package cc.lib.net
+
+import cc.lib.logger.LoggerFactory
+import cc.lib.net.ReflectorSyncServer.Companion.ARG_CHECKSUM
+import cc.lib.net.ReflectorSyncServer.Companion.ARG_KEY
+import cc.lib.net.ReflectorSyncServer.Companion.ARG_SEQ
+import cc.lib.net.ReflectorSyncServer.Companion.ARG_STATE
+import cc.lib.net.ReflectorSyncServer.Companion.CL_STATE_ACK
+import cc.lib.net.ReflectorSyncServer.Companion.CL_STATE_RESYNC
+import cc.lib.net.ReflectorSyncServer.Companion.SVR_STATE_DIFF
+import cc.lib.net.ReflectorSyncServer.Companion.SVR_STATE_FULL
+import cc.lib.net.api.IClientListener
+import cc.lib.net.api.IGameClient
+import cc.lib.net.api.IGameCommand
+import cc.lib.reflector.Reflector
+
+/**
+ * Client side of ReflectorSyncServer. Applies snapshots and diffs to obj and acknowledges each
+ * one. If a diff arrives out of sequence or the checksum does not match after a merge then a full
+ * snapshot is requested and diffs are ignored until it arrives.
+ *
+ * Listeners are held weakly by the client so the caller must keep a reference to this object.
+ */
+open class ReflectorSyncClient<T : Reflector<T>>(
+	val client: IGameClient,
+	val obj: T,
+	val key: String = obj.javaClass.simpleName
+) : IClientListener {
+
+	private val log = LoggerFactory.getLogger("SYNC", javaClass)
+
+	/**
+	 * Sequence number of the last applied change or -1 if waiting for a snapshot
+	 */
+	var seq = -1
+		private set
+
+	var numResyncs = 0
+		private set
+
+	/**
+	 * Verify the checksum after each merge. Disable to trade safety for cpu.
+	 */
+	@JvmField
+	var verifyChecksum = true
+
+	init {
+		client.addListener(this)
+	}
+
+	/**
+	 * Called after obj has been updated
+	 */
+	open fun onUpdated(full: Boolean) {}
+
+	override suspend fun onCommand(command: IGameCommand): Boolean {
+		val type = (command as? GameCommand)?.type
+		if (type != SVR_STATE_FULL && type != SVR_STATE_DIFF)
+			return false
+		if (command.getString(ARG_KEY) != key)
+			return false
+		val cmdSeq = command.getInt(ARG_SEQ, -1)
+		if (type == SVR_STATE_DIFF) {
+			if (seq < 0) {
+				// waiting on a snapshot
+				return true
+			}
+			if (cmdSeq != seq + 1) {
+				requestResync("expected seq ${seq + 1} but got $cmdSeq")
+				return true
+			}
+		}
+		try {
+			obj.merge(command.getString(ARG_STATE))
+		} catch (e: Exception) {
+			log.error(e)
+			requestResync("merge failed: ${e.message}")
+			return true
+		}
+		if (verifyChecksum && obj.getChecksum() != command.getLong(ARG_CHECKSUM, 0)) {
+			requestResync("checksum mismatch at seq $cmdSeq")
+			return true
+		}
+		seq = cmdSeq
+		// keeps checksums of untouched subtrees cached until the next merge
+		obj.markClean()
+		client.send(GameCommand(CL_STATE_ACK).setArg(ARG_KEY, key).setArg(ARG_SEQ, seq))
+		onUpdated(type == SVR_STATE_FULL)
+		return true
+	}
+
+	private fun requestResync(reason: String) {
+		log.warn("Requesting resync of $key: $reason")
+		numResyncs++
+		client.send(GameCommand(CL_STATE_RESYNC).setArg(ARG_KEY, key).setArg(ARG_SEQ, seq))
+		seq = -1
+	}
+
+	override suspend fun onConnected() {}
+
+	override suspend fun onReconnecting() {
+		seq = -1
+	}
+
+	override suspend fun onDisconnected(serverInitiated: Boolean) {
+		seq = -1
+	}
+}
@@ -0,0 +1,199 @@
+package cc.lib.net
+
+import cc.lib.logger.LoggerFactory
+import cc.lib.net.api.IClientConnection
+import cc.lib.net.api.IClientConnectionListener
+import cc.lib.net.api.IGameCommand
+import cc.lib.reflector.Reflector
+
+/**
+ * Keeps a Reflector game object in sync with a set of client connections.
+ *
+ * After each move the server calls sync(). When the object is dirty only the output of
+ * serializeDirty is sent and the object is marked clean. Each diff carries a sequence number and
+ * the checksum of the complete object so a ReflectorSyncClient can detect a missed diff or a bad
+ * merge and ask for a full snapshot.
+ *
+ * A full snapshot is sent when:
+ * - a client is added or reconnects
+ * - a client asks for one with CL_STATE_RESYNC. This goes out with the next sync() even if nothing changed
+ * - a client falls more than maxUnacked diffs behind. No diffs are sent to it until it catches up
+ *
+ * Objects that do not track dirty state (Reflector.isDirty always false) can still be synced
+ * with sendFull().
+ *
+ * sync() and sendFull() serialize the object on the calling thread so they should be called from
+ * the thread that mutates the game. Commands from clients only update their state so the object is
+ * never read from a connection's thread. The game should call sync() regularly, for example once
+ * per frame or move, so resync requests are answered promptly.
+ */
+class ReflectorSyncServer<T : Reflector<T>>(val obj: T, val key: String = obj.javaClass.simpleName) : IClientConnectionListener {
+
+	companion object {
+		val SVR_STATE_FULL = GameCommandType("SVR_STATE_FULL")
+		val SVR_STATE_DIFF = GameCommandType("SVR_STATE_DIFF")
+		val CL_STATE_ACK = GameCommandType("CL_STATE_ACK")
+		val CL_STATE_RESYNC = GameCommandType("CL_STATE_RESYNC")
+
+		const val ARG_KEY = "key"
+		const val ARG_SEQ = "seq"
+		const val ARG_CHECKSUM = "checksum"
+		const val ARG_STATE = "state"
+	}
+
+	private val log = LoggerFactory.getLogger("SYNC", javaClass)
+
+	private class ClientState {
+		var sentSeq = -1
+		var ackedSeq = -1
+		var needsFull = true
+	}
+
+	class Stats {
+		var numDiffs = 0L
+		var numFull = 0L
+		var diffChars = 0L
+		var fullChars = 0L
+		var numResyncRequests = 0L
+
+		override fun toString(): String =
+			"diffs=$numDiffs ($diffChars chars) full=$numFull ($fullChars chars) resyncRequests=$numResyncRequests"
+	}
+
+	private val clients = LinkedHashMap<IClientConnection, ClientState>()
+
+	/**
+	 * Maximum number of diffs a client can have in flight before it is considered behind
+	 */
+	@JvmField
+	var maxUnacked = 8
+
+	/**
+	 * Sequence number of the most recent change. Incremented each time a diff is generated.
+	 */
+	var seq = 0
+		private set
+
+	val stats = Stats()
+
+	/**
+	 * Start syncing a connection. A full snapshot is sent immediately.
+	 */
+	@Synchronized
+	fun addClient(connection: IClientConnection) {
+		val state = clients.getOrPut(connection) {
+			connection.addListener(this)
+			ClientState()
+		}
+		state.needsFull = true
+		sendFull(connection, state, obj.getChecksum())
+	}
+
+	@Synchronized
+	fun removeClient(connection: IClientConnection) {
+		clients.remove(connection)?.let {
+			connection.removeListener(this)
+		}
+	}
+
+	/**
+	 * Send whatever has changed since the last call to all clients. Clients that need a full
+	 * snapshot get one even if nothing has changed.
+	 */
+	@Synchronized
+	fun sync() {
+		var diff: String? = null
+		if (obj.isDirty) {
+			diff = obj.serializeDirtyToString()
+			obj.markClean()
+			seq++
+		}
+		var checksum: Long? = null
+		clients.forEach { (connection, state) ->
+			if (!connection.connected)
+				return@forEach
+			if (state.sentSeq - state.ackedSeq > maxUnacked) {
+				// behind. stop sending diffs and send a snapshot once it catches up
+				state.needsFull = true
+				return@forEach
+			}
+			if (state.needsFull) {
+				sendFull(connection, state, checksum ?: obj.getChecksum().also { checksum = it })
+			} else if (diff != null) {
+				connection.send(
+					GameCommand(SVR_STATE_DIFF)
+						.setArg(ARG_KEY, key)
+						.setArg(ARG_SEQ, seq)
+						.setArg(ARG_CHECKSUM, checksum ?: obj.getChecksum().also { checksum = it })
+						.setArg(ARG_STATE, diff)
+				)
+				state.sentSeq = seq
+				stats.numDiffs++
+				stats.diffChars += diff.length
+			}
+		}
+	}
+
+	/**
+	 * Send a full snapshot to all clients regardless of their state
+	 */
+	@Synchronized
+	fun sendFull() {
+		if (obj.isDirty) {
+			obj.markClean()
+			seq++
+		}
+		val checksum = obj.getChecksum()
+		clients.forEach { (connection, state) ->
+			if (connection.connected)
+				sendFull(connection, state, checksum)
+		}
+	}
+
+	private fun sendFull(connection: IClientConnection, state: ClientState, checksum: Long) {
+		val snapshot = obj.serializeToString()
+		connection.send(
+			GameCommand(SVR_STATE_FULL)
+				.setArg(ARG_KEY, key)
+				.setArg(ARG_SEQ, seq)
+				.setArg(ARG_CHECKSUM, checksum)
+				.setArg(ARG_STATE, snapshot)
+		)
+		state.needsFull = false
+		state.sentSeq = seq
+		state.ackedSeq = seq - 1
+		stats.numFull++
+		stats.fullChars += snapshot.length
+	}
+
+	override suspend fun onCommand(c: IClientConnection, cmd: IGameCommand): Boolean {
+		val type = (cmd as? GameCommand)?.type
+		if (type != CL_STATE_ACK && type != CL_STATE_RESYNC)
+			return false
+		if (cmd.getString(ARG_KEY) != key)
+			return false
+		synchronized(this) {
+			val state = clients[c] ?: return true
+			if (type == CL_STATE_ACK) {
+				state.ackedSeq = maxOf(state.ackedSeq, cmd.getInt(ARG_SEQ, -1))
+			} else {
+				log.warn("${c.name} requested resync at seq ${cmd.getInt(ARG_SEQ, -1)}")
+				stats.numResyncRequests++
+				state.needsFull = true
+				// let it through even if it was considered behind
+				state.ackedSeq = state.sentSeq
+			}
+		}
+		return true
+	}
+
+	/**
+	 * Connections are reused on reconnect so keep the client and send it a snapshot once it is
+	 * back
+	 */
+	override suspend fun onDisconnected(c: IClientConnection) {
+		synchronized(this) {
+			clients[c]?.needsFull = true
+		}
+	}
+}
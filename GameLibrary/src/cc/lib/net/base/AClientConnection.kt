@@ -20,7 +20,7 @@ abstract class AClientConnection(val parent: AGameServer<*>) : ANetContext<IClie
 
 	protected val _properties = mutableMapOf<String, Any>()
 	private var _connectionStatus = ConnectionStatus.UNKNOWN
-	private var _connected = false
+	protected var _connected = false
 
 	var index = -1
 		set(value) {
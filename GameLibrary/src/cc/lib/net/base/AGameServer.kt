@@ -14,21 +14,25 @@ abstract class AGameServer<T : AClientConnection>(override val maxConnections: I
 	private val _connections = mutableListOf<T>()
 
 	override val connections: Set<IClientConnection>
-		get() = _connections.filter { it.connected }.toSet()
+		get() = synchronized(_connections) {
+			_connections.filter { it.connected }.toSet()
+		}
 
 	override fun broadcast(cmd: IGameCommand) {
-		_connections.filter { it.connected }.forEach {
+		connections.forEach {
 			it.send(cmd)
 		}
 	}
 
 	protected suspend fun getOrAddConnection(id: Int, init: suspend (T) -> Unit): T {
-		val conn = _connections.getOrNull(id)?.takeIf { !it.connected } ?: newConnection()
+		val conn = synchronized(_connections) {
+			_connections.getOrNull(id)?.takeIf { !it.connected }
+		} ?: newConnection()
 		init(conn)
 		if (conn.index < 0) {
-			_connections.indexOfFirst { it == null }.let {
-				_connections[it] = conn
-				conn.index = it
+			synchronized(_connections) {
+				conn.index = _connections.size
+				_connections.add(conn)
 			}
 		}
 		return conn
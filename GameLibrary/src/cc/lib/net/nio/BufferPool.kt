@@ -0,0 +1,48 @@
+package cc.lib.net.nio
+
+import java.nio.ByteBuffer
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Pool of fixed size direct ByteBuffers shared by the event loops of a NIOGameServer.
+ *
+ * Direct buffers are expensive to allocate and are only reclaimed by the GC so we keep up to
+ * maxPooled of them around. Buffers of any other capacity are never pooled.
+ */
+class BufferPool(val bufferSize: Int = 16 * 1024, val maxPooled: Int = 1024) {
+
+	private val pool = ConcurrentLinkedQueue<ByteBuffer>()
+	private val numPooled = AtomicInteger()
+	private val numAllocated = AtomicInteger()
+
+	/**
+	 * Number of direct buffers allocated over the life of the pool
+	 */
+	val allocated: Int
+		get() = numAllocated.get()
+
+	/**
+	 * Number of buffers waiting to be reused
+	 */
+	val available: Int
+		get() = numPooled.get()
+
+	fun acquire(): ByteBuffer = pool.poll()?.also {
+		numPooled.decrementAndGet()
+	} ?: run {
+		numAllocated.incrementAndGet()
+		ByteBuffer.allocateDirect(bufferSize)
+	}
+
+	fun release(buffer: ByteBuffer) {
+		if (!buffer.isDirect || buffer.capacity() != bufferSize)
+			return
+		if (numPooled.incrementAndGet() > maxPooled) {
+			numPooled.decrementAndGet()
+			return
+		}
+		buffer.clear()
+		pool.offer(buffer)
+	}
+}
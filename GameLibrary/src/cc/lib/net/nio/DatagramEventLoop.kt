@@ -0,0 +1,106 @@
+package cc.lib.net.nio
+
+import java.io.IOException
+import java.nio.ByteBuffer
+import java.nio.channels.DatagramChannel
+import java.nio.channels.SelectionKey
+import java.nio.channels.Selector
+import java.util.concurrent.ConcurrentLinkedQueue
+
+/**
+ * A single thread and Selector servicing the sockets of any number of NIODatagramSessions.
+ *
+ * Only the loop thread touches selection keys and the shared read buffer. Other threads hand
+ * work over with execute. The callbacks of every session run on this thread so they must not block.
+ */
+class DatagramEventLoop(name: String = "DatagramEventLoop") : Runnable {
+
+	companion object {
+		const val MAX_DATAGRAM = 64 * 1024
+
+		// datagrams read from one socket before moving on to the next
+		const val MAX_READS_PER_SELECT = 64
+	}
+
+	val selector: Selector = Selector.open()
+	private val tasks = ConcurrentLinkedQueue<Runnable>()
+	private val thread = Thread(this, name)
+
+	// shared by all sessions since each datagram is processed before the next is read
+	private val readBuffer = ByteBuffer.allocateDirect(MAX_DATAGRAM)
+
+	@Volatile
+	private var running = true
+
+	@Volatile
+	var numSessions = 0
+		private set
+
+	val isLoopThread: Boolean
+		get() = Thread.currentThread() === thread
+
+	init {
+		thread.isDaemon = true
+		thread.start()
+	}
+
+	fun execute(task: Runnable) {
+		tasks.add(task)
+		selector.wakeup()
+	}
+
+	/**
+	 * Close every session and end the thread
+	 */
+	fun shutdown() {
+		execute {
+			running = false
+		}
+	}
+
+	internal fun register(session: NIODatagramSession, channel: DatagramChannel): SelectionKey =
+		channel.register(selector, SelectionKey.OP_READ, session).also {
+			numSessions++
+		}
+
+	internal fun unregister(key: SelectionKey) {
+		key.cancel()
+		numSessions--
+	}
+
+	override fun run() {
+		while (running) {
+			try {
+				selector.select(1000)
+				while (true) {
+					(tasks.poll() ?: break).run()
+				}
+				val iter = selector.selectedKeys().iterator()
+				while (iter.hasNext()) {
+					val key = iter.next()
+					iter.remove()
+					if (!key.isValid)
+						continue
+					val session = key.attachment() as NIODatagramSession
+					try {
+						if (key.isReadable)
+							session.onReadable(readBuffer, MAX_READS_PER_SELECT)
+						if (key.isValid && key.isWritable)
+							session.onWritable()
+					} catch (e: IOException) {
+						session.printDebug("I/O error: ${e.message}")
+					}
+				}
+			} catch (e: Exception) {
+				e.printStackTrace()
+			}
+		}
+		selector.keys().toList().forEach {
+			(it.attachment() as NIODatagramSession).closeNow()
+		}
+		try {
+			selector.close()
+		} catch (e: IOException) {
+		}
+	}
+}
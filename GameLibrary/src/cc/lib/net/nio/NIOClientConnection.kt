@@ -0,0 +1,52 @@
+package cc.lib.net.nio
+
+import cc.lib.net.GameCommand
+import cc.lib.net.api.IGameCommand
+import cc.lib.net.base.AClientConnection
+
+/**
+ * Connection to a single client of a NIOGameServer. All socket IO is done by the server event
+ * loops so a connection does not own any threads.
+ */
+class NIOClientConnection(private val server: NIOGameServer) : AClientConnection(server) {
+
+	@Volatile
+	internal var session: NIOGameServer.Session? = null
+		private set
+
+	override val name: String
+		get() = properties["name"] as String
+
+	override fun send(cmd: IGameCommand) {
+		session?.send(cmd as GameCommand) ?: log.warn("send called on closed connection $name")
+	}
+
+	internal fun attach(session: NIOGameServer.Session, attributes: Map<String, Any>) {
+		this.session = session
+		_properties.putAll(attributes)
+		_connected = true
+	}
+
+	internal suspend fun dispatch(cmd: GameCommand) = process(cmd)
+
+	/**
+	 * Called by the server once the socket is gone
+	 */
+	internal suspend fun onSessionClosed() {
+		session = null
+		if (connected) {
+			_connected = false
+			onDisconnected()
+			notifyListeners {
+				it.onDisconnected(this)
+				false
+			}
+			server.onDisconnected(this)
+		}
+	}
+
+	override fun close() {
+		session?.close("connection closed")
+		super.close()
+	}
+}
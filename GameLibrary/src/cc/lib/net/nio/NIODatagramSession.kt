@@ -0,0 +1,553 @@
+package cc.lib.net.nio
+
+import cc.lib.utils.GException
+import java.io.IOException
+import java.io.PrintStream
+import java.net.InetAddress
+import java.net.InetSocketAddress
+import java.net.StandardSocketOptions
+import java.nio.ByteBuffer
+import java.nio.channels.DatagramChannel
+import java.nio.channels.SelectionKey
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicInteger
+import kotlin.math.max
+import kotlin.math.min
+
+/**
+ * Selector driven alternative to DatagramSession for running many sessions without two threads each.
+ *
+ * The socket is serviced by a DatagramEventLoop that can be shared by any number of sessions. Headers are
+ * encoded straight into pooled direct buffers and incoming parts are copied into a ring of preallocated
+ * slots indexed by packet id, so steady state traffic does not allocate. The wire format, packet id
+ * sequence and priority rules are the same as DatagramSession so the two can talk to each other.
+ *
+ * Callbacks are made on the event loop thread. Writes may come from any thread, except that writes with
+ * priority > 0 wait for acks and so cannot be made from a callback. At most MAX_OUTBOUND packets wait for
+ * the socket. Other threads block until there is room while a write from a callback is dropped instead and
+ * the receiver reports it with onPacketDropped.
+ *
+ * @param listenPort port to listen on
+ * @param packetSize size of packets to send / recv
+ * @param historySize number of packet ids tracked at once for late and out of order packets
+ */
+abstract class NIODatagramSession(
+	listenPort: Int,
+	packetSize: Int,
+	val historySize: Int,
+	val loop: DatagramEventLoop
+) {
+
+	companion object {
+		// same as DatagramSession
+		const val MAGIC_NUMBER = 98432098472L
+		const val MAGIC_ACK = 7472346572065276L
+		const val HEADER_SIZE = 36 // magic, id, priority, size, index, num, userData
+		const val SOCKET_BUFFER_SIZE = 1024 * 1024
+
+		// datagrams sent per pass so reads on the same event loop are not starved
+		const val MAX_WRITES_PER_SELECT = 64
+
+		// packets queued for the socket before writers wait
+		const val MAX_OUTBOUND = 256
+
+		var DEBUG_ENABLED = false
+	}
+
+	/**
+	 * Called when the next packet in the series has been assembled
+	 */
+	protected abstract fun onPacketRead(userData: Long, count: Long, data: ByteArray, size: Int)
+
+	/**
+	 * Called when a packet with the given id never arrived
+	 */
+	protected open fun onPacketDropped(count: Long) {}
+
+	/**
+	 * Called when only some parts of a packet arrived. Missing parts are zeros
+	 */
+	protected open fun onPartialPacket(userData: Long, count: Long, data: ByteArray, size: Int) {}
+
+	/**
+	 * Optional to get debug info
+	 */
+	open fun printDebug(msg: String) {}
+
+	/**
+	 * Override to log a message. Default writes to stdout.
+	 */
+	protected open fun logDebug(msg: String) {
+		println(msg)
+	}
+
+	val packetSize = max(packetSize, HEADER_SIZE * 2)
+	val maxDataSize = this.packetSize - HEADER_SIZE
+	val bufferPool = BufferPool(this.packetSize, 256)
+
+	private val channel = DatagramChannel.open().apply {
+		configureBlocking(false)
+		setOption(StandardSocketOptions.SO_RCVBUF, SOCKET_BUFFER_SIZE)
+		setOption(StandardSocketOptions.SO_SNDBUF, SOCKET_BUFFER_SIZE)
+		bind(InetSocketAddress(listenPort))
+	}
+	private var key: SelectionKey? = null
+
+	@Volatile
+	private var target: InetSocketAddress? = null
+
+	val address: InetAddress?
+		get() = target?.address
+
+	val writePort: Int
+		get() = target?.port ?: 0
+
+	val localPort: Int
+		get() = (channel.localAddress as InetSocketAddress).port
+
+	fun setRemote(address: InetAddress?, writePort: Int) {
+		if (address != null && address != this.address)
+			idAllocator = 1
+		printDebug("Set remote address '$address:$writePort")
+		target = address?.let { InetSocketAddress(it, writePort) }
+	}
+
+	// -----------------------------------------------------------------------------------------------
+	// stats
+
+	var statSentBytes = 0L
+		private set
+	var statRcvdBytes = 0L
+		private set
+	var statSentPackets = 0
+		private set
+	var statRcvdPackets = 0
+		private set
+	var statRcvdDropped = 0
+		private set
+	var statSentDataPackets = 0
+		private set
+	var statRcvdDataPackets = 0
+		private set
+	var statSentDataTotalSizeBytes = 0L
+		private set
+	var statSentDropped = 0
+		private set
+
+	fun dumpDebug(out: PrintStream) {
+		out.println(String.format("%-30s = %d", "statSentBytes", statSentBytes))
+		out.println(String.format("%-30s = %d", "statRcvdBytes", statRcvdBytes))
+		out.println(String.format("%-30s = %d", "statSentPackets", statSentPackets))
+		out.println(String.format("%-30s = %d", "statRcvdPackets", statRcvdPackets))
+		out.println(String.format("%-30s = %d", "statRcvdDropped", statRcvdDropped))
+		out.println(String.format("%-30s = %d", "statSentDataPackets", statSentDataPackets))
+		out.println(String.format("%-30s = %d", "statRcvdDataPackets", statRcvdDataPackets))
+		out.println(String.format("%-30s = %d", "statSentDropped", statSentDropped))
+		out.println(String.format("%-30s = %d", "statSentDataAveSizeBytes",
+			if (statSentDataPackets == 0) 0 else statSentDataTotalSizeBytes / statSentDataPackets))
+	}
+
+	// -----------------------------------------------------------------------------------------------
+	// lifecycle
+
+	/**
+	 * Register with the event loop
+	 */
+	fun start() {
+		loop.execute {
+			if (key == null && channel.isOpen)
+				key = loop.register(this, channel)
+			flushOutbound()
+		}
+	}
+
+	/**
+	 * Close the socket. Packets not yet sent are discarded
+	 */
+	fun stop() {
+		printDebug("Stop Called")
+		loop.execute { closeNow() }
+	}
+
+	internal fun closeNow() {
+		key?.let { loop.unregister(it) }
+		key = null
+		try {
+			channel.close()
+		} catch (e: IOException) {
+		}
+		while (true) {
+			bufferPool.release(outbound.poll() ?: break)
+			outboundSize.decrementAndGet()
+		}
+		synchronized(roomMonitor) {
+			roomMonitor.notifyAll()
+		}
+	}
+
+	/**
+	 * Deliver everything received so far, dropped or partial, without waiting for later packets.
+	 * Runs on the event loop thread.
+	 */
+	fun flush() {
+		loop.execute {
+			while (minTrackingId <= highestId) {
+				if (DEBUG_ENABLED) printDebug("READER: flush '$minTrackingId'")
+				doCallback()
+			}
+		}
+	}
+
+	// -----------------------------------------------------------------------------------------------
+	// writing
+
+	@Volatile
+	private var idAllocator = 1L
+
+	@Volatile
+	private var ackId = 0L
+	private val ackMonitor = Object()
+	private val outbound = ConcurrentLinkedQueue<ByteBuffer>()
+	private val outboundSize = AtomicInteger()
+	private val roomMonitor = Object()
+	private val writeScheduled = AtomicBoolean()
+	private val padding = ByteArray(this.packetSize)
+
+	fun write(message: ByteArray, priority: Int): Long = write(0, message, message.size, priority)
+
+	fun write(userData: Long, message: ByteArray, priority: Int): Long = write(userData, message, message.size, priority)
+
+	/**
+	 * Send message split into as many packets as needed. Packets with priority > 0 are acked by the
+	 * receiver and each part is resent up to priority times until it is. Blocks while the outbound queue is
+	 * full, or from a callback drops the message so the receiver reports it with onPacketDropped.
+	 *
+	 * @return the packet id
+	 */
+	@Synchronized
+	fun write(userData: Long, message: ByteArray, size: Int, priority: Int): Long {
+		if (size <= 0)
+			return writeEmpty()
+		if (priority > 0 && loop.isLoopThread)
+			throw GException("Cannot wait for acks on the event loop thread")
+		if (target == null)
+			throw IOException("No remote address")
+		val id = idAllocator
+		val num = (size - 1) / maxDataSize + 1
+		if (loop.isLoopThread && !hasRoom(num)) {
+			idAllocator++
+			statSentDropped++
+			return id
+		}
+		for (index in 0 until num) {
+			val offset = index * maxDataSize
+			val bytesToWrite = min(size - offset, maxDataSize)
+			if (DEBUG_ENABLED) printDebug("WRITER: writeHeader id($id) size ($size) index ($index) num ($num)")
+			ackId = 0
+			enqueue(encode(id, priority, size, index, num, userData, message, offset, bytesToWrite))
+			var tries = priority
+			while (tries-- > 0) {
+				synchronized(ackMonitor) {
+					if (ackId != id)
+						ackMonitor.wait(1000)
+				}
+				if (ackId == id)
+					break
+				logDebug("Ack not recieved, resending id '$id'")
+				enqueue(encode(id, priority, size, index, num, userData, message, offset, bytesToWrite))
+			}
+		}
+		idAllocator++
+		statSentDataPackets++
+		statSentDataTotalSizeBytes += size
+		return id
+	}
+
+	/**
+	 * Use up an id without sending data. The receiver reports it as dropped.
+	 */
+	@Synchronized
+	fun writeEmpty(): Long {
+		val id = idAllocator++
+		val buffer = bufferPool.acquire()
+		buffer.put(padding, 0, packetSize).flip()
+		enqueue(buffer)
+		return id
+	}
+
+	private fun encode(
+		id: Long, priority: Int, size: Int, index: Int, num: Int, userData: Long,
+		message: ByteArray, offset: Int, len: Int
+	): ByteBuffer = bufferPool.acquire().apply {
+		putLong(MAGIC_NUMBER)
+		putLong(id)
+		putInt(priority)
+		putInt(size)
+		putShort(index.toShort())
+		putShort(num.toShort())
+		putLong(userData)
+		put(message, offset, len)
+		put(padding, 0, packetSize - position())
+		flip()
+	}
+
+	/**
+	 * Event loop thread only. Make room by sending what the socket will take
+	 */
+	private fun hasRoom(num: Int): Boolean {
+		if (outboundSize.get() + num > MAX_OUTBOUND)
+			flushOutbound()
+		val size = outboundSize.get()
+		return size == 0 || size + num <= MAX_OUTBOUND
+	}
+
+	private fun awaitRoom() {
+		synchronized(roomMonitor) {
+			while (outboundSize.get() >= MAX_OUTBOUND) {
+				if (!channel.isOpen)
+					throw IOException("Session stopped")
+				roomMonitor.wait(100)
+			}
+		}
+	}
+
+	private fun enqueue(buffer: ByteBuffer) {
+		if (loop.isLoopThread) {
+			if (!hasRoom(1)) {
+				bufferPool.release(buffer)
+				statSentDropped++
+				return
+			}
+		} else {
+			awaitRoom()
+		}
+		outboundSize.incrementAndGet()
+		outbound.add(buffer)
+		if (loop.isLoopThread)
+			flushOutbound()
+		else if (writeScheduled.compareAndSet(false, true)) {
+			loop.execute {
+				writeScheduled.set(false)
+				flushOutbound()
+			}
+		}
+	}
+
+	private fun flushOutbound() {
+		val key = key ?: return
+		val target = target
+		val wasFull = outboundSize.get() >= MAX_OUTBOUND
+		for (i in 0 until MAX_WRITES_PER_SELECT) {
+			val buffer = outbound.peek() ?: break
+			if (target != null) {
+				val len = buffer.remaining()
+				if (channel.send(buffer, target) == 0)
+					break // socket buffer is full
+				statSentBytes += len
+				statSentPackets++
+			}
+			bufferPool.release(outbound.poll())
+			outboundSize.decrementAndGet()
+		}
+		if (wasFull && outboundSize.get() < MAX_OUTBOUND) {
+			synchronized(roomMonitor) {
+				roomMonitor.notifyAll()
+			}
+		}
+		// come back when writable for whatever is left
+		key.interestOps(if (outbound.isEmpty()) SelectionKey.OP_READ else SelectionKey.OP_READ or SelectionKey.OP_WRITE)
+	}
+
+	internal fun onWritable() {
+		flushOutbound()
+	}
+
+	private fun sendAck(id: Long) {
+		if (DEBUG_ENABLED) printDebug("Sending ack for id '$id'")
+		enqueue(bufferPool.acquire().apply {
+			putLong(MAGIC_ACK)
+			putLong(id)
+			put(padding, 0, packetSize - position())
+			flip()
+		})
+	}
+
+	private fun parseAck(id: Long) {
+		if (DEBUG_ENABLED) printDebug("recieved ack for id '$id'")
+		ackId = id
+		synchronized(ackMonitor) {
+			ackMonitor.notify()
+		}
+	}
+
+	// -----------------------------------------------------------------------------------------------
+	// reading. Only touched by the event loop thread
+
+	/**
+	 * Parts of one packet id. Arrays only grow so a slot is reused without allocating once it has seen the
+	 * largest packet
+	 */
+	private inner class Slot {
+		var id = -1L
+		var num = 0
+		var numInserted = 0
+		var totalSize = 0
+		var userData = 0L
+		var received = BooleanArray(4)
+		var data = ByteArray(maxDataSize * 4)
+
+		fun reset(id: Long, num: Int, totalSize: Int, userData: Long) {
+			this.id = id
+			this.num = num
+			this.totalSize = totalSize
+			this.userData = userData
+			numInserted = 0
+			if (received.size < num)
+				received = BooleanArray(num)
+			else
+				received.fill(false, 0, num)
+			if (data.size < totalSize)
+				data = ByteArray(totalSize)
+		}
+
+		fun insert(index: Int, payload: ByteBuffer) {
+			if (received[index])
+				return
+			received[index] = true
+			numInserted++
+			val offset = index * maxDataSize
+			payload.get(data, offset, min(maxDataSize, totalSize - offset))
+		}
+
+		fun zeroMissing() {
+			for (i in 0 until num) {
+				if (!received[i]) {
+					val offset = i * maxDataSize
+					data.fill(0, offset, min(offset + maxDataSize, totalSize))
+				}
+			}
+		}
+
+		val isComplete: Boolean
+			get() = numInserted == num
+	}
+
+	private val ring = Array(historySize) { Slot() }
+	private var minTrackingId = 1L
+	private var highestId = 0L
+
+	private fun slot(id: Long): Slot = ring[Math.floorMod(id, historySize.toLong()).toInt()]
+
+	internal fun onReadable(buffer: ByteBuffer, maxReads: Int) {
+		for (i in 0 until maxReads) {
+			buffer.clear()
+			val from = channel.receive(buffer) as InetSocketAddress? ?: return
+			buffer.flip()
+			process(buffer, from)
+		}
+	}
+
+	private fun process(input: ByteBuffer, from: InetSocketAddress) {
+		if (input.remaining() < 16)
+			return
+		val number = input.getLong()
+		if (number == MAGIC_ACK) {
+			parseAck(input.getLong())
+			return
+		}
+		if (number != MAGIC_NUMBER || input.remaining() < HEADER_SIZE - 8)
+			return // ignore invalid packets
+		if (target == null) {
+			setRemote(from.address, from.port)
+		} else if (from.address != address) {
+			if (DEBUG_ENABLED) printDebug("Ignoring packet from '${from.address}' since we are connected to '$address'")
+			return
+		}
+
+		statRcvdBytes += input.limit()
+		statRcvdPackets++
+
+		val id = input.getLong()
+		val priority = input.getInt()
+		val size = input.getInt()
+		val index = input.getShort().toInt()
+		val num = input.getShort().toInt()
+		val userData = input.getLong()
+
+		if (DEBUG_ENABLED) printDebug("READER: Read header id($id) priority ($priority) size ($size) index ($index) num ($num)")
+
+		if (priority > 0)
+			sendAck(id)
+
+		// priority 0 packets accumulate
+		// priority 1 packets get sent immediately and any remaining packets flushed
+		// priority 2 packets get sent immediately and any existing packets are discarded
+		if (index == 0) {
+			when (priority) {
+				1 -> {
+					while (minTrackingId < id)
+						doCallback()
+					highestId = id
+				}
+
+				2 -> {
+					ring.forEach { it.id = -1 }
+					minTrackingId = id
+					highestId = id
+				}
+			}
+		}
+
+		if (id < minTrackingId) {
+			if (DEBUG_ENABLED) printDebug("READER: Ignoring packet '$id' since the min is '$minTrackingId'")
+			return
+		}
+
+		highestId = max(highestId, id)
+
+		while (id - minTrackingId >= historySize) {
+			if (DEBUG_ENABLED) printDebug("READER: Flushing packet '$minTrackingId'")
+			doCallback()
+		}
+
+		if (size > 0) {
+			if (num <= 0 || index !in 0 until num || size > num * maxDataSize || size <= (num - 1) * maxDataSize)
+				return // not from a session with our packet size
+			input.position(HEADER_SIZE)
+			if (input.remaining() < min(maxDataSize, size - index * maxDataSize))
+				return
+			val slot = slot(id)
+			if (slot.id != id)
+				slot.reset(id, num, size, userData)
+			if (DEBUG_ENABLED) printDebug("READER: Inserting id '$id' index '$index' with min '$minTrackingId'")
+			slot.insert(index, input)
+		}
+
+		// send off any complete packets that are at the front right away
+		while (minTrackingId <= highestId && slot(minTrackingId).let { it.id == minTrackingId && it.isComplete }) {
+			doCallback()
+		}
+	}
+
+	private fun doCallback() {
+		if (DEBUG_ENABLED) printDebug("READER: doCallback min'$minTrackingId'")
+		val slot = slot(minTrackingId)
+		try {
+			if (slot.id != minTrackingId || slot.numInserted == 0) {
+				statRcvdDropped++
+				onPacketDropped(minTrackingId)
+			} else if (slot.isComplete) {
+				statRcvdDataPackets++
+				onPacketRead(slot.userData, minTrackingId, slot.data, slot.totalSize)
+			} else {
+				slot.zeroMissing()
+				onPartialPacket(slot.userData, minTrackingId, slot.data, slot.totalSize)
+			}
+		} catch (e: Exception) {
+			if (DEBUG_ENABLED) printDebug("READER: ######" + e.message)
+		}
+		slot.id = -1
+		minTrackingId++
+	}
+}
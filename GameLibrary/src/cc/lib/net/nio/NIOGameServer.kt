@@ -0,0 +1,605 @@
+package cc.lib.net.nio
+
+import cc.lib.net.GameCommand
+import cc.lib.net.GameCommandCodec
+import cc.lib.net.GameCommandType
+import cc.lib.net.ProtocolException
+import cc.lib.net.api.IClientConnection
+import cc.lib.net.base.AGameServer
+import kotlinx.coroutines.CoroutineName
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.cancel
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.launch
+import java.io.ByteArrayOutputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.EOFException
+import java.io.IOException
+import java.io.InputStream
+import java.net.InetSocketAddress
+import java.net.StandardSocketOptions
+import java.nio.ByteBuffer
+import java.nio.channels.SelectionKey
+import java.nio.channels.Selector
+import java.nio.channels.ServerSocketChannel
+import java.nio.channels.SocketChannel
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Non-blocking alternative to TCPGameServer for hosting many clients on one machine.
+ *
+ * A small fixed number of event loop threads each own a Selector and service many sockets.
+ * Reads go into pooled direct buffers and are decoded into whole commands as soon as enough
+ * bytes have arrived. A partial command is only parsed again once the bytes it ran out on are
+ * in. Small commands sent back to back are packed into the same buffer.
+ *
+ * The handshake is the same as GameServer without a cypher: the magic number, CL_CONNECT and,
+ * when a password is set, a PASSWORD command that the client answers with a PASSWORD command
+ * holding the "password" argument. Existing GameClients connect unchanged.
+ *
+ * Commands are handed to a coroutine per connection for processing so listeners may suspend
+ * without holding up an event loop. Suspended coroutines do not hold threads. At most
+ * INBOUND_COMMANDS are waiting per connection. Beyond that the socket is not read until the
+ * coroutine catches up so a slow listener pushes back on its client.
+ */
+class NIOGameServer(
+	maxConnections: Int,
+	val version: String = "0.1",
+	val password: String? = null,
+	val timeoutMillis: Int = 30000,
+	val pingFrequencyMillis: Long = 10000,
+	numEventLoops: Int = Runtime.getRuntime().availableProcessors().coerceIn(1, 4),
+	val bufferPool: BufferPool = BufferPool()
+) : AGameServer<NIOClientConnection>(maxConnections) {
+
+	companion object {
+		const val MAGIC = 87263450972L
+
+		// largest single command we will buffer before dropping the client
+		const val MAX_COMMAND_BYTES = 16 * 1024 * 1024
+
+		// commands decoded and waiting for the connection coroutine before we stop reading
+		const val INBOUND_COMMANDS = 64
+	}
+
+	@Volatile
+	private var running = false
+	private var serverChannel: ServerSocketChannel? = null
+	private val loops = Array(numEventLoops) { EventLoop(it) }
+	private val nextLoop = AtomicInteger()
+	private val scope = CoroutineScope(Dispatchers.Default + SupervisorJob() + CoroutineName("NIOGameServer"))
+
+	/**
+	 * Number of open sockets including those that have not completed the handshake
+	 */
+	val numSessions: Int
+		get() = loops.sumOf { it.numSessions }
+
+	@Synchronized
+	override fun listen(listenPort: Int) {
+		if (running) {
+			log.error("already listening")
+			return
+		}
+		val channel = ServerSocketChannel.open()
+		channel.configureBlocking(false)
+		channel.setOption(StandardSocketOptions.SO_REUSEADDR, true)
+		channel.bind(InetSocketAddress(listenPort), 1024)
+		serverChannel = channel
+		running = true
+		loops.forEach { it.start() }
+		loops[0].execute {
+			channel.register(loops[0].selector, SelectionKey.OP_ACCEPT)
+		}
+		log.debug("Server started on port $listenPort with ${loops.size} event loops")
+	}
+
+	@Synchronized
+	override fun stop() {
+		if (!running)
+			return
+		running = false
+		try {
+			serverChannel?.close()
+		} catch (e: IOException) {
+			log.error(e)
+		}
+		serverChannel = null
+		loops.forEach { it.shutdown() }
+	}
+
+	override fun close() {
+		stop()
+		scope.cancel()
+		super.close()
+	}
+
+	override fun newConnection(): NIOClientConnection = NIOClientConnection(this)
+
+	/**
+	 * Override this method to perform any custom version compatibility test.
+	 * If the clientVersion is compatible, do nothing.  Otherwise throw a
+	 * descriptive message. Default implementation throws an exception unless
+	 * clientVersion is exact match for @see getVersion.
+	 */
+	@Throws(ProtocolException::class)
+	fun clientVersionCompatibilityTest(clientVersion: String, serverVersion: String) {
+		if (clientVersion != serverVersion) throw ProtocolException("Incompatible client version '$clientVersion'")
+	}
+
+	private fun accept(channel: ServerSocketChannel) {
+		while (true) {
+			val socket = channel.accept() ?: return
+			socket.configureBlocking(false)
+			socket.setOption(StandardSocketOptions.TCP_NODELAY, true)
+			socket.setOption(StandardSocketOptions.SO_KEEPALIVE, true)
+			val loop = loops[Math.floorMod(nextLoop.getAndIncrement(), loops.size)]
+			loop.execute {
+				loop.register(Session(socket, loop))
+			}
+		}
+	}
+
+	private suspend fun handshake(session: Session, cmd: GameCommand): NIOClientConnection {
+		log.debug("Parsed incoming command: $cmd")
+		if (cmd.type != GameCommandType.CL_CONNECT)
+			throw ProtocolException("Handshake failed: Invalid client command: $cmd")
+		val clientVersion = cmd.getVersion()
+		if (clientVersion.isBlank())
+			throw ProtocolException("Broken Protocol.  Expected clientVersion field in cmd: $cmd")
+		if (cmd.getName().isBlank())
+			throw ProtocolException("Broken Protocol.  Client name cannot be empty")
+		clientVersionCompatibilityTest(clientVersion, version)
+		if (!password.isNullOrEmpty()) {
+			session.send(GameCommandType.PASSWORD.make())
+			val reply = session.receive() ?: throw ProtocolException("Closed during handshake")
+			if (reply.type != GameCommandType.PASSWORD || password != reply.getString("password"))
+				throw ProtocolException("Bad Password")
+		}
+		if (numConnected >= maxConnections)
+			throw ProtocolException("Max client connections reached")
+
+		val protocol = minOf(
+			GameCommandCodec.PROTOCOL_BINARY,
+			cmd.getInt(GameCommandCodec.KEY_PROTOCOL, GameCommandCodec.PROTOCOL_TEXT)
+		)
+		var reconnect = false
+		val conn = getOrAddConnection(cmd.getInt("index", -1)) {
+			reconnect = it.index >= 0
+			it.attach(session, cmd.arguments)
+		}
+		session.connection = conn
+		session.send(
+			GameCommandType.SVR_CONNECTED.make()
+				.setArgs(conn.properties)
+				.setArg("pingFrequency", pingFrequencyMillis)
+				.setArg(GameCommandCodec.KEY_SERVER_PROTOCOL, protocol)
+		)
+		// everything after SVR_CONNECTED can use the negotiated format
+		session.codec.binary = protocol >= GameCommandCodec.PROTOCOL_BINARY
+		if (reconnect) {
+			onReConnection(conn)
+			notifyListeners {
+				it.onReConnection(conn)
+				false
+			}
+		} else {
+			onNewConnection(conn)
+			notifyListeners {
+				it.onNewConnection(conn)
+				false
+			}
+		}
+		return conn
+	}
+
+	/**
+	 * Consume commands for a session in order. The first must be the CL_CONNECT handshake.
+	 */
+	private fun startProcessing(session: Session) = scope.launch {
+		var conn: NIOClientConnection? = null
+		try {
+			// null when the socket closed before the handshake completed
+			conn = handshake(session, session.receive() ?: return@launch)
+			while (true) {
+				conn.dispatch(session.receive() ?: break)
+			}
+		} catch (e: ProtocolException) {
+			log.error("Handshake failed: ${e.message}")
+			session.send(GameCommandType.SVR_DISCONNECT.make().setMessage(e.message ?: "Unknown Error"))
+			session.close(e.message ?: "protocol error")
+		} catch (e: Exception) {
+			log.error(e)
+			session.close(e.javaClass.simpleName)
+		}
+		conn?.onSessionClosed()
+	}
+
+	override suspend fun onDisconnected(connection: IClientConnection) {
+		super.onDisconnected(connection)
+		notifyListeners {
+			it.onDisconnected(connection.name)
+			false
+		}
+	}
+
+	/**
+	 * Event loop owns a selector and every session registered with it. Only the loop thread
+	 * touches selection keys and read buffers. Other threads hand work over with execute.
+	 */
+	internal inner class EventLoop(val index: Int) : Runnable {
+		val selector: Selector = Selector.open()
+		private val tasks = ConcurrentLinkedQueue<Runnable>()
+		private val sessions = HashSet<Session>()
+		private var thread: Thread? = null
+
+		@Volatile
+		var numSessions = 0
+			private set
+
+		val isLoopThread: Boolean
+			get() = Thread.currentThread() === thread
+
+		fun start() {
+			thread = Thread(this, "NIOGameServer-loop-$index").also {
+				it.isDaemon = true
+				it.start()
+			}
+		}
+
+		fun shutdown() {
+			execute {
+				sessions.toList().forEach { it.closeNow("server stopped") }
+			}
+		}
+
+		fun execute(task: Runnable) {
+			tasks.add(task)
+			selector.wakeup()
+		}
+
+		fun register(session: Session) {
+			try {
+				session.key = session.channel.register(selector, SelectionKey.OP_READ, session)
+				sessions.add(session)
+				numSessions = sessions.size
+				startProcessing(session)
+			} catch (e: IOException) {
+				log.error(e)
+				session.closeNow("register failed")
+			}
+		}
+
+		fun unregister(session: Session) {
+			sessions.remove(session)
+			numSessions = sessions.size
+		}
+
+		override fun run() {
+			var lastIdleCheck = System.currentTimeMillis()
+			while (running || tasks.isNotEmpty()) {
+				try {
+					selector.select(1000)
+					while (true) {
+						(tasks.poll() ?: break).run()
+					}
+					val iter = selector.selectedKeys().iterator()
+					while (iter.hasNext()) {
+						val key = iter.next()
+						iter.remove()
+						if (!key.isValid)
+							continue
+						if (key.isAcceptable) {
+							accept(key.channel() as ServerSocketChannel)
+							continue
+						}
+						val session = key.attachment() as Session
+						try {
+							if (key.isReadable)
+								session.onReadable()
+							if (key.isValid && key.isWritable)
+								session.onWritable()
+						} catch (e: Exception) {
+							session.closeNow(e.message ?: e.javaClass.simpleName)
+						}
+					}
+					val now = System.currentTimeMillis()
+					if (now - lastIdleCheck >= 1000) {
+						lastIdleCheck = now
+						// a paused session is waiting on us, not the client
+						sessions.filter { !it.readPaused && now - it.lastReadTime > timeoutMillis }.forEach {
+							it.closeNow("timeout")
+						}
+					}
+				} catch (e: Exception) {
+					log.error(e)
+				}
+			}
+			sessions.toList().forEach { it.closeNow("server stopped") }
+			try {
+				selector.close()
+			} catch (e: IOException) {
+			}
+		}
+	}
+
+	/**
+	 * Reads the input stream from the session read buffer. Running out of bytes is reported as
+	 * EOF so a partially received command can be detected and retried. The position the read
+	 * wanted to reach is kept in wantedEnd.
+	 */
+	private class ByteBufferInputStream(val session: Session) : InputStream() {
+		override fun read(): Int = session.readBuffer.let {
+			if (it.hasRemaining())
+				return it.get().toInt() and 0xff
+			session.wantedEnd = it.position() + 1
+			-1
+		}
+
+		override fun read(b: ByteArray, off: Int, len: Int): Int = session.readBuffer.let {
+			if (!it.hasRemaining()) {
+				session.wantedEnd = it.position() + len
+				return -1
+			}
+			val num = minOf(len, it.remaining())
+			it.get(b, off, num)
+			num
+		}
+
+		override fun available(): Int = session.readBuffer.remaining()
+	}
+
+	private class EncodeBuffer : ByteArrayOutputStream(1024) {
+		val bytes: ByteArray
+			get() = buf
+	}
+
+	/**
+	 * State for a single socket
+	 */
+	internal inner class Session(val channel: SocketChannel, val loop: EventLoop) {
+		lateinit var key: SelectionKey
+		var readBuffer: ByteBuffer = bufferPool.acquire()
+			private set
+		val codec = GameCommandCodec()
+		private val inbound = Channel<GameCommand>(INBOUND_COMMANDS)
+		var lastReadTime = System.currentTimeMillis()
+			private set
+
+		// buffer position a failed parse ran out at
+		var wantedEnd = 0
+
+		// bytes of the partial command at the front of readBuffer needed before parsing again
+		private var needed = 0
+
+		// decoded while inbound was full. Loop thread only
+		private var pending: GameCommand? = null
+
+		@Volatile
+		var readPaused = false
+			private set
+
+		@Volatile
+		var connection: NIOClientConnection? = null
+
+		private val din = DataInputStream(ByteBufferInputStream(this))
+		private var magicRead = false
+		private val outbound = ConcurrentLinkedQueue<ByteBuffer>()
+
+		// buffer still being filled by send. Moved to outbound when full or when the loop runs dry
+		@Volatile
+		private var tail: ByteBuffer? = null
+		private val writeScheduled = AtomicBoolean()
+		private val encodeBuffer = EncodeBuffer()
+		private val encodeOut = DataOutputStream(encodeBuffer)
+
+		@Volatile
+		private var open = true
+
+		@Volatile
+		private var closeWhenFlushed = false
+
+		fun onReadable() {
+			val num = channel.read(readBuffer)
+			if (num < 0) {
+				closeNow("EOF")
+				return
+			}
+			lastReadTime = System.currentTimeMillis()
+			drain()
+		}
+
+		private fun drain() {
+			readBuffer.flip()
+			decode()
+			readBuffer.compact()
+			if (readPaused)
+				return
+			if (needed > MAX_COMMAND_BYTES || (!readBuffer.hasRemaining() && readBuffer.capacity() >= MAX_COMMAND_BYTES))
+				throw ProtocolException("Command exceeds $MAX_COMMAND_BYTES bytes")
+			if (!readBuffer.hasRemaining() || needed > readBuffer.capacity()) {
+				// a single command larger than the buffer
+				val bigger = ByteBuffer.allocate(minOf(MAX_COMMAND_BYTES, maxOf(readBuffer.capacity() * 2, needed)))
+				readBuffer.flip()
+				bigger.put(readBuffer)
+				bufferPool.release(readBuffer)
+				readBuffer = bigger
+			}
+		}
+
+		private fun decode() {
+			while (pending == null && readBuffer.hasRemaining()) {
+				if (!magicRead) {
+					if (readBuffer.remaining() < 8)
+						return
+					if (readBuffer.getLong() != MAGIC)
+						throw ProtocolException("Unknown client")
+					magicRead = true
+					continue
+				}
+				val start = readBuffer.position()
+				if (readBuffer.remaining() < needed)
+					return
+				val cmd = codec.parseOrNull(din)
+				if (cmd == null) {
+					// parsing again before the bytes it ran out on arrive would only fail again
+					needed = wantedEnd - start
+					readBuffer.position(start)
+					return
+				}
+				needed = 0
+				if (inbound.trySend(cmd).isFailure) {
+					// hold it and stop reading until the connection coroutine catches up
+					pending = cmd
+					readPaused = true
+					key.interestOps(key.interestOps() and SelectionKey.OP_READ.inv())
+				}
+			}
+		}
+
+		/**
+		 * Next command for the connection coroutine or null once the session is closed
+		 */
+		suspend fun receive(): GameCommand? = inbound.receiveCatching().getOrNull()?.also {
+			if (readPaused)
+				resumeReading()
+		}
+
+		private fun resumeReading() {
+			loop.execute {
+				if (!open || !readPaused)
+					return@execute
+				pending?.let {
+					if (inbound.trySend(it).isFailure)
+						return@execute
+				}
+				pending = null
+				readPaused = false
+				lastReadTime = System.currentTimeMillis()
+				try {
+					drain()
+					if (!readPaused && key.isValid)
+						key.interestOps(key.interestOps() or SelectionKey.OP_READ)
+				} catch (e: Exception) {
+					closeNow(e.message ?: e.javaClass.simpleName)
+				}
+			}
+		}
+
+		private val readOps: Int
+			get() = if (readPaused) 0 else SelectionKey.OP_READ
+
+		fun onWritable() {
+			while (true) {
+				val buf = outbound.peek() ?: takeTail() ?: break
+				channel.write(buf)
+				if (buf.hasRemaining())
+					return
+				outbound.poll()
+				bufferPool.release(buf)
+			}
+			if (closeWhenFlushed) {
+				closeNow("closed")
+				return
+			}
+			key.interestOps(readOps)
+			writeScheduled.set(false)
+			// a send may have queued more after we found the queue empty
+			if ((outbound.isNotEmpty() || tail != null) && writeScheduled.compareAndSet(false, true))
+				key.interestOps(readOps or SelectionKey.OP_WRITE)
+		}
+
+		private fun takeTail(): ByteBuffer? = synchronized(encodeBuffer) {
+			tail?.also {
+				tail = null
+				it.flip()
+				outbound.add(it)
+			}
+		}
+
+		/**
+		 * Encode a command and queue it for the event loop. Safe to call from any thread.
+		 */
+		fun send(cmd: GameCommand) {
+			if (!open)
+				return
+			synchronized(encodeBuffer) {
+				// closeNow has released the buffers
+				if (!open)
+					return
+				encodeBuffer.reset()
+				codec.write(cmd, encodeOut)
+				var offset = 0
+				val len = encodeBuffer.size()
+				while (offset < len) {
+					// fill what is left of the last buffer before taking another
+					val buf = tail?.takeIf { it.hasRemaining() } ?: bufferPool.acquire().also { next ->
+						tail?.let {
+							it.flip()
+							outbound.add(it)
+						}
+						tail = next
+					}
+					val num = minOf(buf.remaining(), len - offset)
+					buf.put(encodeBuffer.bytes, offset, num)
+					offset += num
+				}
+			}
+			scheduleWrite()
+		}
+
+		private fun scheduleWrite() {
+			if (writeScheduled.compareAndSet(false, true)) {
+				loop.execute {
+					if (key.isValid)
+						key.interestOps(readOps or SelectionKey.OP_WRITE)
+				}
+			}
+		}
+
+		/**
+		 * Close once everything queued has been written. Safe to call from any thread.
+		 */
+		fun close(reason: String) {
+			log.debug("closing session: $reason")
+			closeWhenFlushed = true
+			loop.execute {
+				if (outbound.isEmpty() && tail == null)
+					closeNow(reason)
+				else if (key.isValid)
+					key.interestOps(readOps or SelectionKey.OP_WRITE)
+			}
+		}
+
+		/**
+		 * Must be called on the loop thread
+		 */
+		fun closeNow(reason: String) {
+			if (!open)
+				return
+			open = false
+			log.debug("session closed: $reason")
+			if (::key.isInitialized)
+				key.cancel()
+			try {
+				channel.close()
+			} catch (e: IOException) {
+			}
+			loop.unregister(this)
+			bufferPool.release(readBuffer)
+			while (true) {
+				bufferPool.release(outbound.poll() ?: break)
+			}
+			synchronized(encodeBuffer) {
+				tail?.let { bufferPool.release(it) }
+				tail = null
+			}
+			inbound.close()
+		}
+	}
+}
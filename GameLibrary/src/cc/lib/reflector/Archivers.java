@@ -73,4 +73,11 @@ class Archivers {
 
     static Archiver archivableArchiver = new ArchivableArchiver();
 
+    static boolean isBuiltIn(Archiver archiver) {
+        return archiver == byteArchiver || archiver == integerArchiver || archiver == longArchiver
+                || archiver == floatArchiver || archiver == doubleArchiver || archiver == booleanArchiver
+                || archiver == stringArchiver || archiver == enumArchiver || archiver == dirtyArchiver
+                || archiver == collectionArchiver || archiver == mapArchiver || archiver == arrayArchiver
+                || archiver == archivableArchiver;
+    }
 }
@@ -1,8 +1,15 @@
 package cc.lib.reflector
 
-class DirtyArrayList<T>(capacity: Int = 0) : ArrayList<T>(capacity), IDirty {
+class DirtyArrayList<T>(capacity: Int = 0) : ArrayList<T>(capacity), IDirty, IHashOwned {
+
+	override var hashOwner: DirtyReflector<*>? = null
 
 	private var dirty = false
+		set(value) {
+			field = value
+			if (value)
+				hashOwner?.dropCachedHash()
+		}
 
 	override fun isDirty(): Boolean {
 		if (dirty)
@@ -20,7 +27,7 @@ class DirtyArrayList<T>(capacity: Int = 0) : ArrayList<T>(capacity), IDirty {
 	override fun markClean() {
 		dirty = false
 		forEach {
-			if (it is IDirty) {
+			if (it is IDirty && it.isDirty) {
 				it.markClean()
 			}
 		}
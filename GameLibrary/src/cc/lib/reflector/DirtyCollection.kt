@@ -23,7 +23,7 @@ class DirtyCollection<T>(override val backing: MutableCollection<T>) : Collectio
 	override fun markClean() {
 		dirty = false
 		backing.forEach {
-			if (it is IDirty) {
+			if (it is IDirty && it.isDirty) {
 				it.markClean()
 			}
 		}
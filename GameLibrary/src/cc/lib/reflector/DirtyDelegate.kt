@@ -10,7 +10,7 @@ class DirtyDelegate<V>(var value: V, val type: Class<*> = value!!::class.java) {
 
 	operator fun setValue(ref: DirtyReflector<*>, prop: KProperty<*>, v: V) {
 		if (v != value) {
-			ref.setDirty()
+			ref.setDirty(prop.name)
 		}
 		value = v
 	}
@@ -1,7 +1,14 @@
 package cc.lib.reflector
 
-class DirtyHashMap<K, V> : HashMap<K, V>(), IDirty {
+class DirtyHashMap<K, V> : HashMap<K, V>(), IDirty, IHashOwned {
+	override var hashOwner: DirtyReflector<*>? = null
+
 	private var dirty = false
+		set(value) {
+			field = value
+			if (value)
+				hashOwner?.dropCachedHash()
+		}
 
 	override fun isDirty(): Boolean {
 		if (dirty)
@@ -20,7 +27,7 @@ class DirtyHashMap<K, V> : HashMap<K, V>(), IDirty {
 	override fun markClean() {
 		dirty = false
 		values.forEach {
-			if (it is IDirty) {
+			if (it is IDirty && it.isDirty) {
 				it.markClean()
 			}
 		}
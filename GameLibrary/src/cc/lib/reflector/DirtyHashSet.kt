@@ -2,8 +2,15 @@ package cc.lib.reflector
 
 import java.util.function.Predicate
 
-class DirtyHashSet<V> : HashSet<V>(), IDirty {
+class DirtyHashSet<V> : HashSet<V>(), IDirty, IHashOwned {
+	override var hashOwner: DirtyReflector<*>? = null
+
 	private var dirty = false
+		set(value) {
+			field = value
+			if (value)
+				hashOwner?.dropCachedHash()
+		}
 
 	override fun isDirty(): Boolean {
 		if (dirty)
@@ -23,7 +30,7 @@ class DirtyHashSet<V> : HashSet<V>(), IDirty {
 	override fun markClean() {
 		dirty = false
 		forEach {
-			if (it is IDirty) {
+			if (it is IDirty && it.isDirty) {
 				it.markClean()
 			}
 		}
@@ -1,8 +1,15 @@
 package cc.lib.reflector
 
-class DirtyList<T>(override val backing: MutableList<T>) : MutableList<T>, IDirtyCollection<MutableList<T>> {
+class DirtyList<T>(override val backing: MutableList<T>) : MutableList<T>, IDirtyCollection<MutableList<T>>, IHashOwned {
+
+	override var hashOwner: DirtyReflector<*>? = null
 
 	private var dirty = false
+		set(value) {
+			field = value
+			if (value)
+				hashOwner?.dropCachedHash()
+		}
 
 	override fun isDirty(): Boolean {
 		if (dirty)
@@ -20,7 +27,7 @@ class DirtyList<T>(override val backing: MutableList<T>) : MutableList<T>, IDirt
 	override fun markClean() {
 		dirty = false
 		backing.forEach {
-			if (it is IDirty) {
+			if (it is IDirty && it.isDirty) {
 				it.markClean()
 			}
 		}
@@ -1,7 +1,14 @@
 package cc.lib.reflector
 
-class DirtyMap<K, V>(override val backing: MutableMap<K, V>) : MutableMap<K, V>, IDirtyCollection<MutableMap<K, V>> {
+class DirtyMap<K, V>(override val backing: MutableMap<K, V>) : MutableMap<K, V>, IDirtyCollection<MutableMap<K, V>>, IHashOwned {
+	override var hashOwner: DirtyReflector<*>? = null
+
 	private var dirty = false
+		set(value) {
+			field = value
+			if (value)
+				hashOwner?.dropCachedHash()
+		}
 
 	override fun isDirty(): Boolean {
 		if (dirty)
@@ -20,7 +27,7 @@ class DirtyMap<K, V>(override val backing: MutableMap<K, V>) : MutableMap<K, V>,
 	override fun markClean() {
 		dirty = false
 		backing.values.forEach {
-			if (it is IDirty) {
+			if (it is IDirty && it.isDirty) {
 				it.markClean()
 			}
 		}
@@ -1,5 +1,10 @@
 package cc.lib.reflector
 
+import java.lang.reflect.Modifier
+import java.lang.reflect.ParameterizedType
+import java.lang.reflect.Type
+import java.util.concurrent.ConcurrentHashMap
+
 /**
  * Dirty Reflector has flag top know if it is dirty and will serialize when serializeDirty is called
  */
@@ -8,12 +13,45 @@ open class DirtyReflector<T> : Reflector<T>() {
 	@Omit
 	private var dirty = false
 
+	/**
+	 * Names of delegated fields changed since last markClean. Only these are written by
+	 * serializeDirty instead of the whole object.
+	 */
+	@Omit
+	private val dirtyFields = HashSet<String>()
+
+	/**
+	 * Structural hash. Dropped when this or anything below it changes and whenever fields are
+	 * replaced by deserialize, merge or copyFrom. Only used when isHashTracked.
+	 */
+	@Omit
+	private var cachedHash: Long? = null
+
+	/**
+	 * Object whose cached hash includes this one. Set when the owner computes its hash
+	 */
+	@Omit
+	private var hashOwner: DirtyReflector<*>? = null
+
 	fun setDirty() {
 		dirty = true
+		dropCachedHash()
+	}
+
+	internal fun setDirty(field: String) {
+		synchronized(dirtyFields) {
+			dirtyFields.add(field)
+		}
+		dropCachedHash()
+	}
+
+	internal fun dropCachedHash() {
+		cachedHash = null
+		hashOwner?.dropCachedHash()
 	}
 
 	override fun isDirty(): Boolean {
-		if (dirty)
+		if (dirty || dirtyFields.isNotEmpty())
 			return true
 		getValues(javaClass, false).keys.forEach {
 			val obj = it.get(this)
@@ -26,8 +64,43 @@ open class DirtyReflector<T> : Reflector<T>() {
 		return false
 	}
 
+	/**
+	 * True when every archived field can only change in ways that reach dropCachedHash: final
+	 * fields holding delegates of immutable values, tracked objects and dirty collections whose
+	 * contents are tracked the same way. A plain var or an ordinary mutable collection can change
+	 * without telling anyone so a cached hash would go stale. Worked out once per class.
+	 */
+	fun isHashTracked(): Boolean = hashTrackedClasses[javaClass]
+		?: computeHashTracked(javaClass, this, HashSet()).also { hashTrackedClasses[javaClass] = it }
+
+	override fun getStructuralHash(): Long {
+		cachedHash?.let { return it }
+		if (!isHashTracked())
+			return super.getStructuralHash()
+		// from here on changes below report back so a clean hit is just the cached value
+		getValues(javaClass, false).keys.forEach { adopt(it.get(this)) }
+		return super.getStructuralHash().also { cachedHash = it }
+	}
+
+	private fun adopt(obj: Any?) {
+		when (obj) {
+			is DirtyReflector<*> -> obj.hashOwner = this
+			is IHashOwned -> {
+				obj.hashOwner = this
+				(if (obj is Map<*, *>) obj.values else obj as Collection<*>).forEach { adopt(it) }
+			}
+		}
+	}
+
+	override fun invalidateHash() {
+		dropCachedHash()
+	}
+
 	override fun markClean() {
 		dirty = false
+		synchronized(dirtyFields) {
+			dirtyFields.clear()
+		}
 		getValues(javaClass, false).keys.forEach {
 			val obj = it.get(this)
 			if (obj is IDirty) {
@@ -42,17 +115,85 @@ open class DirtyReflector<T> : Reflector<T>() {
 		if (dirty) {
 			serialize(out)
 		} else {
-			getValues(javaClass, false).keys.forEach {
-				val obj = it.get(this)
-				if (obj is IDirty) {
+			getValues(javaClass, false).forEach { (field, archiver) ->
+				val obj = field.get(this)
+				if (obj is Reflector<*>) {
 					if (obj.isDirty) {
-						out.p(it.name).p("=").p(getCanonicalName(obj.javaClass))
+						out.p(field.name).p("=").p(getCanonicalName(obj.javaClass))
 						out.push()
 						obj.serializeDirty(out)
 						out.pop()
 					}
+				} else if ((obj is IDirty && obj.isDirty) || (obj is DirtyDelegate<*> && dirtyFields.contains(getName(field)))) {
+					// dirty collections and delegates are written whole
+					out.p(getName(field)).p("=").p(archiver.get(field, this))
+					serializeObject(obj, out, false)
 				}
 			}
 		}
 	}
-}
\ No newline at end of file
+}
+
+/**
+ * Dirty collections report changes to the DirtyReflector whose cached hash includes them
+ */
+interface IHashOwned {
+	var hashOwner: DirtyReflector<*>?
+}
+
+private val hashTrackedClasses = ConcurrentHashMap<Class<*>, Boolean>()
+private val immutableClasses = ConcurrentHashMap<Class<*>, Boolean>()
+
+private val immutableValueClasses = setOf<Class<*>>(
+	String::class.java, java.lang.Integer::class.java, java.lang.Long::class.java, java.lang.Short::class.java,
+	java.lang.Byte::class.java, java.lang.Float::class.java, java.lang.Double::class.java,
+	java.lang.Boolean::class.java, java.lang.Character::class.java
+)
+
+private fun newPrototype(clazz: Class<*>): Any? = try {
+	clazz.getDeclaredConstructor().also { it.isAccessible = true }.newInstance()
+} catch (e: Exception) {
+	null
+}
+
+/**
+ * Field types decide everything except delegates, which do not keep their value type in the
+ * field signature so it is read from an instance
+ */
+private fun computeHashTracked(clazz: Class<*>, instance: Any?, visiting: MutableSet<Class<*>>): Boolean {
+	if (!visiting.add(clazz))
+		return true // a cycle is decided by the other fields
+	val obj = instance ?: newPrototype(clazz) ?: return false
+	return Reflector.getValues(clazz, false).keys.all { field ->
+		Modifier.isFinal(field.modifiers) && when (val value = field.get(obj)) {
+			// the setter marks the field dirty but changes inside the value are not seen
+			is DirtyDelegate<*> -> isImmutableType(value.type)
+			else -> isTrackedType(field.genericType, visiting)
+		}
+	}
+}
+
+private fun isTrackedType(type: Type, visiting: MutableSet<Class<*>>): Boolean {
+	val raw = (if (type is ParameterizedType) type.rawType else type) as? Class<*> ?: return false
+	if (IHashOwned::class.java.isAssignableFrom(raw)) {
+		val args = (type as? ParameterizedType)?.actualTypeArguments ?: return false
+		return if (Map::class.java.isAssignableFrom(raw))
+			isImmutableType(args[0]) && isTrackedType(args[1], visiting)
+		else
+			isTrackedType(args[0], visiting)
+	}
+	if (DirtyReflector::class.java.isAssignableFrom(raw)) {
+		// a subclass could add fields that are not tracked
+		return Modifier.isFinal(raw.modifiers) &&
+			(hashTrackedClasses[raw] ?: computeHashTracked(raw, null, visiting))
+	}
+	return isImmutableType(raw)
+}
+
+private fun isImmutableType(type: Type): Boolean {
+	val clazz = type as? Class<*> ?: return false
+	return immutableClasses.getOrPut(clazz) {
+		clazz.isPrimitive || clazz in immutableValueClasses || Enum::class.java.isAssignableFrom(clazz) ||
+			(Reflector::class.java.isAssignableFrom(clazz) && Reflector.isImmutable(newPrototype(clazz)))
+	}
+}
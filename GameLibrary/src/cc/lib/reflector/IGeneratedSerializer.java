@@ -0,0 +1,33 @@
+package cc.lib.reflector;
+
+/**
+ * Implemented by serializers that KSPReflector generates for classes annotated with
+ * cc.lib.ksp.reflector.GenerateSerializer.
+ * <p>
+ * Reflector looks for a class named [ClassName]Serializer in the same package as the class being
+ * serialized (nested class names are joined with '_') and uses it in place of reflection. Output
+ * is identical to the reflective path. Fields the generated code cannot access directly are
+ * delegated back to Reflector.serializeField / Reflector.copyField.
+ * <p>
+ * The serializer is only used when getFieldNames matches the fields registered with Reflector
+ * for that exact class.
+ */
+public interface IGeneratedSerializer<T> {
+
+    /**
+     * @return names of the serialized fields in the order Reflector writes them
+     */
+    String[] getFieldNames();
+
+    void serialize(T obj, RPrintWriter out) throws Exception;
+
+    /**
+     * @return false if the field needs to be handled by reflection
+     */
+    boolean deserializeField(T obj, String name, String value, boolean keepInstances) throws Exception;
+
+    /**
+     * Deep copy all the serialized fields from src into dst
+     */
+    void deepCopy(T src, T dst) throws Exception;
+}
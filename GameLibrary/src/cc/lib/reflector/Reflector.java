@@ -32,8 +32,7 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
-import java.util.zip.CRC32;
-import java.util.zip.Checksum;
+import java.util.concurrent.ConcurrentHashMap;
 
 import cc.lib.game.Utils;
 import cc.lib.logger.Logger;
@@ -120,11 +119,37 @@ public class Reflector<T> implements IDirty {
      */
     public static boolean STRIP_PACKAGE_QUALIFIER = false;
 
+    /**
+     * Use serializers generated by KSPReflector when available. See IGeneratedSerializer
+     */
+    public static boolean USE_GENERATED = true;
+
     private final static Logger log = LoggerFactory.getLogger(Reflector.class);
 
     private final static Map<Class<?>, Map<Field, Archiver>> classValues = new HashMap<>();
     private final static Map<String, Class<?>> classMap = new HashMap<>();
     private final static Map<Class, Map<Class, Boolean>> subclassOfCache = new HashMap<>();
+    private final static Map<Class<?>, Map<String, Field>> fieldNameCache = new ConcurrentHashMap<>();
+    private final static Map<Class<?>, IGeneratedSerializer> generatedSerializers = new ConcurrentHashMap<>();
+    private final static IGeneratedSerializer<?> NO_GENERATED_SERIALIZER = new IGeneratedSerializer<Object>() {
+        @Override
+        public String[] getFieldNames() {
+            return new String[0];
+        }
+
+        @Override
+        public void serialize(Object obj, RPrintWriter out) {
+        }
+
+        @Override
+        public boolean deserializeField(Object obj, String name, String value, boolean keepInstances) {
+            return false;
+        }
+
+        @Override
+        public void deepCopy(Object src, Object dst) {
+        }
+    };
 
     static Enum<?> findEnumEntry(Class<?> enumClass, String value) throws Exception {
         if (value == null || value.equals("null"))
@@ -950,11 +975,11 @@ public class Reflector<T> implements IDirty {
         }
     }
 
-    static String encodeString(String s) throws IOException {
+    public static String encodeString(String s) throws IOException {
         return URLEncoder.encode(s, "UTF-8").replace("\n", "%0A").replace("\t", "%09");
     }
 
-    static String decodeString(String in) throws IOException {
+    public static String decodeString(String in) throws IOException {
         return URLDecoder.decode(in, "UTF-8");
     }
 
@@ -962,20 +987,99 @@ public class Reflector<T> implements IDirty {
         return Utils.chopEnd(f.getName(), "$delegate");
     }
 
+    private void serializeField(Field field, Archiver archiver, RPrintWriter out) throws Exception {
+        field.setAccessible(true);
+        Object obj = field.get(Reflector.this);
+        String name = getName(field);
+        if (obj == null) {
+            out.writeNull(name);
+            return;
+        }
+        out.p(name).p("=").p(archiver.get(field, this));
+        serializeObject(obj, out, false);
+    }
+
+    private static Field getFieldByName(Class<?> clazz, String fieldName) {
+        Map<String, Field> fields = fieldNameCache.get(clazz);
+        if (fields == null) {
+            fields = new HashMap<>();
+            for (Field f : getValues(clazz, false).keySet()) {
+                fields.put(f.getName(), f);
+            }
+            fieldNameCache.put(clazz, fields);
+        }
+        Field field = fields.get(fieldName);
+        if (field == null)
+            throw new GException("No field '" + fieldName + "' for class " + clazz);
+        return field;
+    }
+
+    /**
+     * Serialize a single field with reflection. Used by generated serializers for fields they
+     * cannot access directly.
+     */
+    public static void serializeField(Reflector<?> obj, String fieldName, RPrintWriter out) throws Exception {
+        Field field = getFieldByName(obj.getClass(), fieldName);
+        obj.serializeField(field, getValues(obj.getClass(), false).get(field), out);
+    }
+
+    /**
+     * Deep copy a single field with reflection. Used by generated serializers for fields they
+     * cannot access directly.
+     */
+    public static void copyField(Reflector<?> src, Reflector<?> dst, String fieldName) throws Exception {
+        Field field = getFieldByName(src.getClass(), fieldName);
+        field.set(dst, deepCopy(field.get(src)));
+    }
+
+    /**
+     * @return the generated serializer for exactly this class or null if there is none or
+     * USE_GENERATED is false
+     */
+    static IGeneratedSerializer getGeneratedSerializer(Class<?> clazz) {
+        if (!USE_GENERATED)
+            return null;
+        IGeneratedSerializer gen = generatedSerializers.get(clazz);
+        if (gen == null) {
+            gen = loadGeneratedSerializer(clazz);
+            generatedSerializers.put(clazz, gen);
+        }
+        return gen == NO_GENERATED_SERIALIZER ? null : gen;
+    }
+
+    private static IGeneratedSerializer loadGeneratedSerializer(Class<?> clazz) {
+        String pkg = clazz.getPackage() == null ? "" : clazz.getPackage().getName() + ".";
+        String name = pkg + clazz.getName().substring(pkg.length()).replace('$', '_') + "Serializer";
+        IGeneratedSerializer gen;
+        try {
+            gen = (IGeneratedSerializer) Class.forName(name, true, clazz.getClassLoader()).newInstance();
+        } catch (ClassNotFoundException e) {
+            return NO_GENERATED_SERIALIZER;
+        } catch (Exception e) {
+            log.error("Failed to load " + name + ": " + e);
+            return NO_GENERATED_SERIALIZER;
+        }
+        List<String> expected = new ArrayList<>();
+        for (Field f : getValues(clazz, false).keySet()) {
+            expected.add(f.getName());
+        }
+        if (!expected.equals(Arrays.asList(gen.getFieldNames()))) {
+            log.warn(name + " is out of date. Expected fields " + expected + " but has " + Arrays.toString(gen.getFieldNames()));
+            return NO_GENERATED_SERIALIZER;
+        }
+        return gen;
+    }
+
     protected synchronized void serialize(RPrintWriter out) throws IOException {
         try {
+            IGeneratedSerializer gen = getGeneratedSerializer(getClass());
+            if (gen != null) {
+                gen.serialize(this, out);
+                return;
+            }
             Map<Field, Archiver> values = getValues(getClass(), false);
             for (Field field : values.keySet()) {
-                Archiver archiver = values.get(field);
-                field.setAccessible(true);
-                Object obj = field.get(Reflector.this);
-                String name = getName(field);
-                if (obj == null) {
-                    out.writeNull(name);
-                    continue;
-                }
-                out.p(name).p("=").p(archiver.get(field, this));
-                serializeObject(obj, out, false);
+                serializeField(field, values.get(field), out);
             }
         } catch (IOException e) {
             throw e;
@@ -1348,8 +1452,10 @@ public class Reflector<T> implements IDirty {
     }
 
     private synchronized void deserializeInternal(RBufferedReader input, boolean keepInstances) throws Exception {
+        invalidateHash();
 
         Map<Field, Archiver> values = getValues(getClass(), false);
+        IGeneratedSerializer gen = getGeneratedSerializer(getClass());
         final int depth = input.depth;
         while (true) {
             if (input.depth > depth)
@@ -1362,6 +1468,8 @@ public class Reflector<T> implements IDirty {
             if (parts.length < 2)
                 throw new ParseException(input.lineNum, " not of form 'name=value'");
             String name = parts[0].trim();
+            if (gen != null && gen.deserializeField(this, name, parts[1], keepInstances))
+                continue;
             for (Field field : values.keySet()) {
                 if (fieldMatches(field, name)) {
                     Archiver archiver = values.get(field);
@@ -1572,6 +1680,11 @@ public class Reflector<T> implements IDirty {
     public T deepCopy() {
         try {
             Object copy = getClass().newInstance();
+            IGeneratedSerializer gen = getGeneratedSerializer(getClass());
+            if (gen != null) {
+                gen.deepCopy(this, copy);
+                return (T) copy;
+            }
             Map<Field, Archiver> values = getValues(getClass(), false);
 
             for (Field f : values.keySet()) {
@@ -1645,6 +1758,7 @@ public class Reflector<T> implements IDirty {
             return (T) this;
         }
 
+        invalidateHash();
         try {
             Map<Field, Archiver> values = getValues(getClass(), false);
             Map<Field, Archiver> otherValues = getValues(other.getClass(), false);
@@ -1786,7 +1900,9 @@ public class Reflector<T> implements IDirty {
     }
 
     public final void serializeDirty(OutputStream out) throws IOException {
-        serialize(new RPrintWriter(out));
+        RPrintWriter writer = new RPrintWriter(out);
+        serializeDirty(writer);
+        writer.flush();
     }
 
 
@@ -1808,23 +1924,30 @@ public class Reflector<T> implements IDirty {
     }
 
     /**
-     * CRC32 Checksum
+     * Checksum of the archived fields. Walks the fields directly rather than serializing to text.
+     * Objects that track their own changes (DirtyReflector) reuse the hash of clean subtrees so
+     * only what changed since the last markClean is re-hashed.
      *
      * @return
      */
     public final long getChecksum() {
-        Checksum crc32 = new CRC32();
-        try {
-            serialize(new OutputStream() {
-                @Override
-                public void write(int b) {
-                    crc32.update(b);
-                }
-            });
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-        return crc32.getValue();
+        return getStructuralHash();
+    }
+
+    /**
+     * Hash of the archived fields of this object. See StructuralHash
+     *
+     * @return
+     */
+    protected long getStructuralHash() {
+        return StructuralHash.hashFields(this);
+    }
+
+    /**
+     * Called when fields are replaced by deserialize, merge or copyFrom so anything derived from
+     * them can be discarded
+     */
+    protected void invalidateHash() {
     }
 
     public static void dump() {
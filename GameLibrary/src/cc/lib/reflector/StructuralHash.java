@@ -0,0 +1,164 @@
+package cc.lib.reflector;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+import cc.lib.utils.GException;
+
+/**
+ * 64 bit hash of the archived fields of a Reflector. Used by Reflector.getChecksum in place of
+ * serializing to text.
+ *
+ * Values are hashed the same way on every jvm so two processes holding equal objects agree:
+ * strings by String.hashCode, enums by name, floating point by their bits. Sets and Maps are
+ * hashed independent of iteration order. Nested Reflectors are hashed through
+ * Reflector.getStructuralHash so DirtyReflector can return a cached value for clean subtrees.
+ */
+class StructuralHash {
+
+    private final static long SEED = 0xcbf29ce484222325L;
+    private final static long PRIME = 0x100000001b3L;
+    private final static long NULL = 0x9e3779b97f4a7c15L;
+
+    private final static Map<Class<?>, Boolean> customSerializeCache = new ConcurrentHashMap<>();
+
+    static long mix(long h, long v) {
+        h = (h ^ v) * PRIME;
+        return h ^ (h >>> 31);
+    }
+
+    static long hashFields(Reflector<?> obj) {
+        Class<?> clazz = obj.getClass();
+        try {
+            if (overridesSerialize(clazz))
+                return hashText(obj);
+            long h = mix(SEED, clazz.getName().hashCode());
+            for (Map.Entry<Field, Archiver> entry : Reflector.getValues(clazz, false).entrySet()) {
+                Field field = entry.getKey();
+                Archiver archiver = entry.getValue();
+                Object value = field.get(obj);
+                if (value != null && !Archivers.isBuiltIn(archiver)) {
+                    // custom archivers write the whole value on the field line
+                    h = mix(h, archiver.get(field, obj).hashCode());
+                } else {
+                    h = mix(h, hash(value));
+                }
+            }
+            return h;
+        } catch (GException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new GException("Failed to hash " + clazz, e);
+        }
+    }
+
+    static long hash(Object o) {
+        if (o == null)
+            return NULL;
+        if (o instanceof String)
+            return mix(((String) o).length(), o.hashCode());
+        if (o instanceof Integer || o instanceof Long || o instanceof Short || o instanceof Byte)
+            return ((Number) o).longValue();
+        if (o instanceof Float)
+            return Float.floatToIntBits((Float) o);
+        if (o instanceof Double)
+            return Double.doubleToLongBits((Double) o);
+        if (o instanceof Boolean)
+            return (Boolean) o ? 1231 : 1237;
+        if (o instanceof Character)
+            return (Character) o;
+        if (o instanceof Enum)
+            return ((Enum<?>) o).name().hashCode();
+        if (o instanceof Reflector)
+            return ((Reflector<?>) o).getStructuralHash();
+        if (o instanceof DirtyDelegate)
+            return hash(((DirtyDelegate<?>) o).getValue());
+        if (o instanceof Set) {
+            long sum = 0;
+            for (Object e : (Set<?>) o)
+                sum += hash(e);
+            return mix(((Set<?>) o).size(), sum);
+        }
+        if (o instanceof Collection) {
+            long h = mix(SEED, ((Collection<?>) o).size());
+            for (Object e : (Collection<?>) o)
+                h = mix(h, hash(e));
+            return h;
+        }
+        if (o instanceof Map) {
+            long sum = 0;
+            for (Map.Entry<?, ?> e : ((Map<?, ?>) o).entrySet())
+                sum += mix(hash(e.getKey()), hash(e.getValue()));
+            return mix(((Map<?, ?>) o).size(), sum);
+        }
+        if (o.getClass().isArray())
+            return hashArray(o);
+        // anything else is written with toString
+        return o.toString().hashCode();
+    }
+
+    private static long hashArray(Object o) {
+        long h = SEED;
+        if (o instanceof int[]) {
+            for (int v : (int[]) o)
+                h = mix(h, v);
+        } else if (o instanceof float[]) {
+            for (float v : (float[]) o)
+                h = mix(h, Float.floatToIntBits(v));
+        } else if (o instanceof long[]) {
+            for (long v : (long[]) o)
+                h = mix(h, v);
+        } else if (o instanceof double[]) {
+            for (double v : (double[]) o)
+                h = mix(h, Double.doubleToLongBits(v));
+        } else if (o instanceof boolean[]) {
+            for (boolean v : (boolean[]) o)
+                h = mix(h, v ? 1231 : 1237);
+        } else if (o instanceof byte[]) {
+            for (byte v : (byte[]) o)
+                h = mix(h, v);
+        } else if (o instanceof char[]) {
+            for (char v : (char[]) o)
+                h = mix(h, v);
+        } else if (o instanceof short[]) {
+            for (short v : (short[]) o)
+                h = mix(h, v);
+        } else {
+            for (Object v : (Object[]) o)
+                h = mix(h, hash(v));
+        }
+        return h;
+    }
+
+    /**
+     * Classes that write their own format may keep state outside of the archived fields so they
+     * are hashed from their text.
+     */
+    private static boolean overridesSerialize(Class<?> clazz) {
+        Boolean result = customSerializeCache.get(clazz);
+        if (result == null) {
+            result = false;
+            for (Class<?> c = clazz; c != null && c != Reflector.class && !result; c = c.getSuperclass()) {
+                for (Method m : c.getDeclaredMethods()) {
+                    if (m.getName().equals("serialize") && m.getParameterCount() == 1 && m.getParameterTypes()[0] == RPrintWriter.class) {
+                        result = true;
+                        break;
+                    }
+                }
+            }
+            customSerializeCache.put(clazz, result);
+        }
+        return result;
+    }
+
+    private static long hashText(Reflector<?> obj) throws Exception {
+        CRC32 crc = new CRC32();
+        crc.update(obj.serializeToString().getBytes("UTF-8"));
+        return mix(SEED, crc.getValue());
+    }
+}
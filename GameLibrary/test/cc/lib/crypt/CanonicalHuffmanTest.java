@@ -0,0 +1,253 @@
+package cc.lib.crypt;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import cc.lib.net.GameCommand;
+import cc.lib.net.GameCommandType;
+import cc.lib.net.HuffmanByteCounterOutputStream;
+
+/**
+ * Runs the SimpleCypherTest suite through the Cypher interface, then the streams, then a comparison with
+ * HuffmanEncoding.
+ */
+public class CanonicalHuffmanTest extends SimpleCypherTest {
+
+    final static GameCommandType TEST_COMMAND = new GameCommandType("CANONICAL_HUFFMAN_TEST");
+
+    @Override
+    protected Cypher getCypher() throws Exception {
+        HuffmanEncoding encoding = new HuffmanEncoding();
+        encoding.generateRandomCounts(0);
+        return new CanonicalHuffman(encoding);
+    }
+
+    byte [] loadResource(String name) throws Exception {
+        return loadFile(name).toByteArray();
+    }
+
+    byte [] encode(CanonicalHuffman code, byte [] data, int writeSize) throws Exception {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        try (OutputStream out = code.newOutputStream(buffer)) {
+            for (int i=0; i<data.length; i+=writeSize) {
+                out.write(data, i, Math.min(writeSize, data.length - i));
+            }
+        }
+        return buffer.toByteArray();
+    }
+
+    byte [] decode(CanonicalHuffman code, byte [] encoded, int readSize) throws Exception {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        try (InputStream in = code.newInputStream(new ByteArrayInputStream(encoded))) {
+            byte [] buf = new byte[readSize];
+            int num;
+            while ((num = in.read(buf)) >= 0) {
+                buffer.write(buf, 0, num);
+            }
+        }
+        return buffer.toByteArray();
+    }
+
+    @Override
+    public void testBinaryFile() throws Exception {
+        // signed_forms.pdf used by the base test is not in testResources
+        byte [] file = loadResource("librarybookszoom.jpg");
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (OutputStream out = new EncryptionOutputStream(bytes, getCypher())) {
+            out.write(file);
+        }
+        byte [] decoded = new byte[file.length];
+        new DataInputStream(new EncryptionInputStream(new ByteArrayInputStream(bytes.toByteArray()), getCypher())).readFully(decoded);
+        assertTrue(Arrays.equals(file, decoded));
+    }
+
+    public void testStreamRoundTrip() throws Exception {
+        byte [] data = loadResource("socsavegame.txt");
+        HuffmanEncoding counter = new HuffmanEncoding();
+        counter.increment(data, 0, data.length);
+        CanonicalHuffman code = new CanonicalHuffman(counter);
+        for (int size : new int [] { 1, 7, 1000, 100000 }) {
+            byte [] encoded = encode(code, data, size);
+            assertTrue(Arrays.equals(data, decode(code, encoded, size)));
+        }
+        byte [] encoded = encode(code, data, data.length);
+        System.out.println(String.format("socsavegame.txt %d -> %d bytes, %.2f bits per byte",
+                data.length, encoded.length, code.getAverageCodeLength(counter.getCounts())));
+        assertTrue(encoded.length < data.length * 3 / 4);
+
+        // bytes that were never counted still get through
+        byte [] all = new byte[256 * 4];
+        for (int i=0; i<all.length; i++)
+            all[i] = (byte)i;
+        assertTrue(Arrays.equals(all, decode(code, encode(code, all, 3), 5)));
+    }
+
+    public void testSingleBytesAndFlushes() throws Exception {
+        CanonicalHuffman code = (CanonicalHuffman)getCypher();
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(code.newOutputStream(buffer));
+        Random r = new Random(1);
+        for (int i=0; i<1000; i++) {
+            out.writeInt(r.nextInt());
+            out.write(i);
+            if (i % 17 == 0)
+                out.flush();
+        }
+        out.flush();
+        // empty flushes cost nothing
+        int size = buffer.size();
+        out.flush();
+        assertEquals(size, buffer.size());
+
+        DataInputStream in = new DataInputStream(code.newInputStream(new ByteArrayInputStream(buffer.toByteArray())));
+        r = new Random(1);
+        for (int i=0; i<1000; i++) {
+            assertEquals(r.nextInt(), in.readInt());
+            assertEquals(i & 0xff, in.read());
+        }
+        assertEquals(-1, in.read());
+    }
+
+    public void testLengthLimit() throws Exception {
+        // fibonacci counts give the deepest possible tree
+        long [] counts = new long[256];
+        long a = 1, b = 1;
+        for (int i=0; i<60; i++) {
+            counts[i] = a;
+            long t = a + b;
+            a = b;
+            b = t;
+        }
+        CanonicalHuffman code = new CanonicalHuffman(counts);
+        byte [] lengths = code.getCodeLengths();
+        int max = 0;
+        for (byte len : lengths)
+            max = Math.max(max, len);
+        assertTrue(max <= CanonicalHuffman.MAX_CODE_LENGTH);
+        byte [] data = new byte[10000];
+        new Random(2).nextBytes(data);
+        assertTrue(Arrays.equals(data, decode(code, encode(code, data, 333), 100)));
+    }
+
+    public void testCodeLengths() throws Exception {
+        CanonicalHuffman code = (CanonicalHuffman)getCypher();
+        CanonicalHuffman copy = CanonicalHuffman.fromCodeLengths(code.getCodeLengths());
+        assertTrue(Arrays.equals(code.codes, copy.codes));
+        assertTrue(Arrays.equals(code.table, copy.table));
+
+        byte [] lengths = new byte[256];
+        Arrays.fill(lengths, (byte)9); // only half the code space used
+        try {
+            CanonicalHuffman.fromCodeLengths(lengths);
+            fail();
+        } catch (HuffmanEncoding.HuffmanException e) {
+            // expected
+        }
+    }
+
+    public void testGameCommands() throws Exception {
+        // learn the counts from some traffic
+        HuffmanEncoding counter = new HuffmanEncoding();
+        String board = loadFile("socsavegame.txt").toString();
+        DataOutputStream sample = new DataOutputStream(new HuffmanByteCounterOutputStream(new ByteArrayOutputStream(), counter));
+        for (int i=0; i<100; i++) {
+            makeCommand(i, board).write(sample);
+        }
+        CanonicalHuffman code = new CanonicalHuffman(counter);
+
+        // one command per flush like GameClient / GameServer
+        ByteArrayOutputStream raw = new ByteArrayOutputStream();
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        DataOutputStream rawOut = new DataOutputStream(raw);
+        DataOutputStream out = new DataOutputStream(code.newOutputStream(compressed));
+        for (int i=0; i<50; i++) {
+            GameCommand cmd = makeCommand(1000 + i, board.substring(i * 100));
+            cmd.write(rawOut);
+            cmd.write(out);
+            out.flush();
+        }
+        System.out.println("GameCommands: " + raw.size() + " -> " + compressed.size() + " bytes");
+        assertTrue(compressed.size() < raw.size() * 3 / 4);
+
+        DataInputStream in = new DataInputStream(code.newInputStream(new ByteArrayInputStream(compressed.toByteArray())));
+        for (int i=0; i<50; i++) {
+            GameCommand cmd = GameCommand.Companion.parse(in);
+            assertEquals(TEST_COMMAND, cmd.getType());
+            assertEquals(1000 + i, cmd.getInt("index", -1));
+            assertEquals(board.substring(i * 100), cmd.getString("board", ""));
+        }
+    }
+
+    GameCommand makeCommand(int index, String board) {
+        return new GameCommand(TEST_COMMAND)
+                .setArg("index", index)
+                .setArg("board", board)
+                .setMessage("Player " + (index % 4) + " rolled " + (index % 11 + 2));
+    }
+
+    interface Codec {
+        void run(byte [] data) throws Exception;
+    }
+
+    static double megabytesPerSecond(byte [] data, int iterations, Codec codec) throws Exception {
+        // warm up
+        for (int i=0; i<Math.max(1, iterations / 4); i++)
+            codec.run(data);
+        long t = System.nanoTime();
+        for (int i=0; i<iterations; i++)
+            codec.run(data);
+        double seconds = (System.nanoTime() - t) / 1e9;
+        return (double)data.length * iterations / (1024 * 1024) / seconds;
+    }
+
+    /**
+     * Encode / decode throughput of HuffmanEncoding through EncryptionInput/OutputStream, CanonicalHuffman
+     * through the same streams and CanonicalHuffman through its own streams
+     * Only runs with -Dbenchmark=true
+     */
+    public void testThroughput() throws Exception {
+        if (!Boolean.getBoolean("benchmark"))
+            return;
+        final byte [] data = loadResource("socsavegame.txt");
+        final HuffmanEncoding legacy = new HuffmanEncoding();
+        legacy.increment(data, 0, data.length);
+        legacy.keepAllOccurances();
+        legacy.generate();
+        final CanonicalHuffman canonical = new CanonicalHuffman(legacy);
+
+        final Cypher [] cyphers = { legacy, canonical };
+        final String [] names = { "HuffmanEncoding", "CanonicalHuffman as Cypher" };
+        for (int c=0; c<cyphers.length; c++) {
+            final Cypher cypher = cyphers[c];
+            final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            double enc = megabytesPerSecond(data, 4, d -> {
+                buffer.reset();
+                try (OutputStream out = new EncryptionOutputStream(buffer, cypher)) {
+                    out.write(d);
+                }
+            });
+            final byte [] encoded = buffer.toByteArray();
+            double dec = megabytesPerSecond(data, 4, d -> {
+                InputStream in = new EncryptionInputStream(new ByteArrayInputStream(encoded), cypher);
+                while (in.read() >= 0);
+            });
+            System.out.println(String.format("%-30s encode %7.2f MB/s  decode %7.2f MB/s", names[c], enc, dec));
+        }
+
+        final byte [][] encoded = new byte[1][];
+        double enc = megabytesPerSecond(data, 200, d -> encoded[0] = encode(canonical, d, d.length));
+        final byte [] buf = new byte[4096];
+        double dec = megabytesPerSecond(data, 200, d -> {
+            InputStream in = canonical.newInputStream(new ByteArrayInputStream(encoded[0]));
+            while (in.read(buf) >= 0);
+        });
+        System.out.println(String.format("%-30s encode %7.2f MB/s  decode %7.2f MB/s", "CanonicalHuffman streams", enc, dec));
+        assertTrue(Arrays.equals(data, decode(canonical, encoded[0], 4096)));
+    }
+}
@@ -0,0 +1,129 @@
+package cc.lib.net
+
+import junit.framework.TestCase
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.OutputStream
+
+class CommandQueueWriterTest : TestCase() {
+
+	class CountingOutputStream : ByteArrayOutputStream() {
+		var numFlushes = 0
+
+		override fun flush() {
+			numFlushes++
+		}
+	}
+
+	companion object {
+		val TYPE = GameCommandType("QW")
+	}
+
+	private fun runWriter(writer: CommandQueueWriter, num: Int, pause: (Int) -> Unit = {}): CountingOutputStream {
+		val bout = CountingOutputStream()
+		val out = DataOutputStream(object : OutputStream() {
+			override fun write(b: Int) = synchronized(bout) { bout.write(b) }
+			override fun write(b: ByteArray, off: Int, len: Int) = synchronized(bout) { bout.write(b, off, len) }
+			override fun flush() = synchronized(bout) { bout.flush() }
+		})
+		writer.start(out)
+		for (i in 0 until num) {
+			writer.add(GameCommand(TYPE).setArg("i", i).setArg("msg", "message $i"))
+			pause(i)
+		}
+		writer.stop(true)
+		val din = DataInputStream(ByteArrayInputStream(bout.toByteArray()))
+		val reader = GameCommandCodec()
+		for (i in 0 until num) {
+			val cmd = reader.parse(din)
+			assertEquals(i, cmd.getInt("i"))
+			assertEquals("message $i", cmd.getString("msg"))
+		}
+		assertEquals(0, din.available())
+		return bout
+	}
+
+	fun testBatching() {
+		val writer = CommandQueueWriter("test")
+		writer.batching = true
+		writer.maxLingerMillis = 50
+		writer.codec.binary = true
+		val out = runWriter(writer, 30)
+		println("flushes=${out.numFlushes} stats=${writer.stats}")
+		assertTrue(out.numFlushes < 30)
+		assertTrue(writer.stats.maxBatchCommands > 1)
+	}
+
+	fun testBatchSizeLimit() {
+		val writer = CommandQueueWriter("test")
+		writer.batching = true
+		writer.maxLingerMillis = 50
+		writer.maxBatchBytes = 1
+		runWriter(writer, 10)
+		println("stats=${writer.stats}")
+		assertEquals(1, writer.stats.maxBatchCommands)
+	}
+
+	fun testOrderAndDrainOnStop() {
+		// far more than fit in the queue so add has to wait. Everything must arrive in order before stop returns
+		runWriter(CommandQueueWriter("test"), 5000)
+		val writer = CommandQueueWriter("test")
+		writer.batching = true
+		writer.maxLingerMillis = 5
+		runWriter(writer, 5000)
+	}
+
+	fun testLingerDoesNotDropCommands() {
+		val writer = CommandQueueWriter("test")
+		writer.batching = true
+		writer.maxLingerMillis = 2
+		// commands arrive around the end of the linger time
+		runWriter(writer, 300) { if (it % 3 == 0) Thread.sleep(2) }
+		println("stats=${writer.stats}")
+		assertEquals(300L, writer.stats.numCommands)
+	}
+
+	fun testAddWaitsWhenFull() {
+		val release = Object()
+		var blocked = true
+		val writer = CommandQueueWriter("test")
+		val out = DataOutputStream(object : OutputStream() {
+			override fun write(b: Int) = synchronized(release) {
+				while (blocked)
+					release.wait()
+			}
+		})
+		writer.start(out)
+		val adder = Thread {
+			for (i in 0 until CommandQueueWriter.QUEUE_SIZE * 2)
+				writer.add(GameCommand(TYPE).setArg("i", i))
+		}.also { it.start() }
+		adder.join(2000)
+		// the writer is stuck on the first command so the rest of the queue fills and add waits
+		assertTrue(adder.isAlive)
+		synchronized(release) {
+			blocked = false
+			release.notifyAll()
+		}
+		adder.join(5000)
+		assertFalse(adder.isAlive)
+		writer.stop(true)
+	}
+
+	fun testKeepAlive() {
+		var timeouts = 0
+		val writer = object : CommandQueueWriter("test") {
+			override fun onTimeout() {
+				timeouts++
+			}
+		}
+		writer.setTimeout(20)
+		writer.start(DataOutputStream(ByteArrayOutputStream()))
+		Thread.sleep(110)
+		writer.stop(true)
+		// scheduling on a loaded machine can stretch the delays so only check that it fired
+		assertTrue(timeouts >= 1)
+	}
+}
@@ -157,6 +157,48 @@ ${e.javaClass.simpleName}:${e.message}---------------------------------------
 		assertEquals(c.getReflector("color", GColor()), GColor.RED)
 	}
 
+	@Throws(Exception::class)
+	fun testBinaryGameCommand() {
+		val t = GameCommandType("B")
+		val writer = GameCommandCodec().also { it.binary = true }
+		val reader = GameCommandCodec()
+		val bigString = Utils.genRandomString(1000)
+		fun make(i: Int) = GameCommand(t)
+			.setArg("bool", true)
+			.setArg("int", -i)
+			.setArg("float", 2f)
+			.setArg("long", Long.MAX_VALUE - i)
+			.setArg("double", 4.0)
+			.setArg("string", "This is a string $i")
+			.setArg("big", bigString)
+			.setArg("color", GColor.RED)
+
+		val textOut = ByteArrayOutputStream()
+		val binOut = ByteArrayOutputStream()
+		for (i in 0..9) {
+			make(i).write(DataOutputStream(textOut))
+			writer.write(make(i), DataOutputStream(binOut))
+		}
+		println("text size=${textOut.size()} binary size=${binOut.size()}")
+		assertTrue(binOut.size() < textOut.size())
+		// a text command can arrive on a binary connection at any time
+		make(10).write(DataOutputStream(binOut))
+
+		val din = DataInputStream(ByteArrayInputStream(binOut.toByteArray()))
+		for (i in 0..10) {
+			val c = reader.parse(din)
+			assertEquals(c.type, t)
+			assertEquals(c.getBoolean("bool"), true)
+			assertEquals(c.getInt("int"), -i)
+			assertEquals(c.getFloat("float"), 2f)
+			assertEquals(c.getLong("long"), Long.MAX_VALUE - i)
+			assertEquals(c.getDouble("double"), 4.0)
+			assertEquals(c.getString("string"), "This is a string $i")
+			assertEquals(c.getString("big"), bigString)
+			assertEquals(c.getReflector("color", GColor()), GColor.RED)
+		}
+	}
+
 	@Throws(Exception::class)
 	fun testKick() {
 		runTest {
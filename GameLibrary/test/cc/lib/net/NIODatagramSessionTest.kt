@@ -0,0 +1,261 @@
+package cc.lib.net
+
+import cc.lib.net.nio.DatagramEventLoop
+import cc.lib.net.nio.NIODatagramSession
+import junit.framework.TestCase
+import java.net.DatagramSocket
+import java.net.InetAddress
+import java.util.Collections
+import java.util.Random
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Loopback tests for NIODatagramSession plus a throughput comparison with DatagramSession.
+ *
+ * Benchmark size can be changed with -Ddatagram.pairs=N and -Ddatagram.messages=N
+ */
+class NIODatagramSessionTest : TestCase() {
+
+	val loop = DatagramEventLoop()
+
+	override fun tearDown() {
+		loop.shutdown()
+	}
+
+	class Received(val userData: Long, val id: Long, val data: ByteArray)
+
+	inner class TestSession(port: Int = 0, packetSize: Int = 512) : NIODatagramSession(port, packetSize, 64, loop) {
+		val received: MutableList<Received> = Collections.synchronizedList(mutableListOf())
+		val dropped = AtomicInteger()
+		val partial = AtomicInteger()
+		val bytes = AtomicLong()
+
+		override fun onPacketRead(userData: Long, count: Long, data: ByteArray, size: Int) {
+			received.add(Received(userData, count, data.copyOf(size)))
+			bytes.addAndGet(size.toLong())
+		}
+
+		override fun onPacketDropped(count: Long) {
+			dropped.incrementAndGet()
+		}
+
+		override fun onPartialPacket(userData: Long, count: Long, data: ByteArray, size: Int) {
+			partial.incrementAndGet()
+		}
+
+		override fun logDebug(msg: String) {}
+
+		val numHandled: Int
+			get() = received.size + dropped.get() + partial.get()
+	}
+
+	inner class LegacySession(port: Int, packetSize: Int = 512) : DatagramSession(port, packetSize, 64) {
+		val received: MutableList<Received> = Collections.synchronizedList(mutableListOf())
+		val handled = AtomicInteger()
+		val bytes = AtomicLong()
+
+		override fun onPacketRead(userData: Long, count: Long, data: ByteArray, size: Int) {
+			received.add(Received(userData, count, data.copyOf(size)))
+			bytes.addAndGet(size.toLong())
+			handled.incrementAndGet()
+		}
+
+		override fun onPacketDropped(count: Long) {
+			handled.incrementAndGet()
+		}
+
+		override fun onPartialPacket(userData: Long, count: Long, data: ByteArray, size: Int) {
+			handled.incrementAndGet()
+		}
+
+		override fun logDebug(msg: String) {}
+	}
+
+	fun freePort(): Int = DatagramSocket(0).use { it.localPort }
+
+	fun connect(a: TestSession, b: TestSession) {
+		a.setRemote(InetAddress.getLoopbackAddress(), b.localPort)
+		b.setRemote(InetAddress.getLoopbackAddress(), a.localPort)
+		a.start()
+		b.start()
+	}
+
+	fun waitFor(timeoutMillis: Long, done: () -> Boolean) {
+		val end = System.currentTimeMillis() + timeoutMillis
+		while (!done() && System.currentTimeMillis() < end)
+			Thread.sleep(10)
+	}
+
+	fun testRoundTrip() {
+		val a = TestSession()
+		val b = TestSession()
+		connect(a, b)
+		val r = Random(0)
+		val sent = (0 until 200).map {
+			ByteArray(1 + r.nextInt(3000)).also { r.nextBytes(it) }
+		}
+		sent.forEachIndexed { index, bytes ->
+			assertEquals(index + 1L, a.write(index.toLong(), bytes, 0))
+			if (index % 2 == 0)
+				Thread.sleep(1)
+		}
+		waitFor(5000) { b.received.size == sent.size }
+		assertEquals(sent.size, b.received.size)
+		b.received.forEachIndexed { index, it ->
+			assertEquals(index + 1L, it.id)
+			assertEquals(index.toLong(), it.userData)
+			assertTrue(sent[index].contentEquals(it.data))
+		}
+		assertEquals(0, b.dropped.get())
+		a.stop()
+		b.stop()
+	}
+
+	fun testAckedWrite() {
+		val a = TestSession()
+		val b = TestSession()
+		connect(a, b)
+		val t = System.currentTimeMillis()
+		a.write(7, "hello".toByteArray(), 1)
+		// returned on the ack rather than the 1 second timeout
+		assertTrue(System.currentTimeMillis() - t < 1000)
+		waitFor(1000) { b.received.size == 1 }
+		assertEquals("hello", String(b.received[0].data))
+		assertEquals(7L, b.received[0].userData)
+	}
+
+	fun testMissingIdsReportedDropped() {
+		val a = TestSession()
+		val b = TestSession()
+		connect(a, b)
+		a.write("one".toByteArray(), 0)
+		a.writeEmpty()
+		a.write("three".toByteArray(), 0)
+		waitFor(1000) { b.received.size == 1 }
+		b.flush()
+		waitFor(1000) { b.numHandled == 3 }
+		assertEquals(listOf(1L, 3L), b.received.map { it.id })
+		assertEquals(1, b.dropped.get())
+	}
+
+	fun testWriterWaitsForRoom() {
+		val a = TestSession()
+		val b = TestSession()
+		a.setRemote(InetAddress.getLoopbackAddress(), b.localPort)
+		b.setRemote(InetAddress.getLoopbackAddress(), a.localPort)
+		b.start()
+		// nothing drains until a is started
+		val num = NIODatagramSession.MAX_OUTBOUND + 50
+		val writer = Thread {
+			for (i in 0 until num)
+				a.write(i.toLong(), "x".toByteArray(), 0)
+		}.also { it.start() }
+		waitFor(2000) { writer.state == Thread.State.TIMED_WAITING }
+		assertTrue(writer.isAlive)
+		assertEquals(0, b.received.size)
+		a.start()
+		writer.join(5000)
+		assertFalse(writer.isAlive)
+		waitFor(5000) { b.received.size == num }
+		assertEquals((0 until num).map { it.toLong() }, b.received.map { it.userData })
+		assertEquals(0, a.statSentDropped)
+		a.stop()
+		b.stop()
+	}
+
+	fun testInteropWithDatagramSession() {
+		val legacyPort = freePort()
+		val legacy = LegacySession(legacyPort)
+		val nio = TestSession()
+		nio.setRemote(InetAddress.getLoopbackAddress(), legacyPort)
+		legacy.setRemote(InetAddress.getLoopbackAddress(), nio.localPort)
+		nio.start()
+		legacy.start()
+		try {
+			// DatagramSession can only write messages that fit in one packet
+			val message = ByteArray(400) { it.toByte() }
+			nio.write(1, message, 0)
+			legacy.write(2, message, 0)
+			waitFor(2000) { legacy.received.size == 1 && nio.received.size == 1 }
+			assertTrue(message.contentEquals(legacy.received[0].data))
+			assertTrue(message.contentEquals(nio.received[0].data))
+			assertEquals(2L, nio.received[0].userData)
+		} finally {
+			legacy.stop()
+			nio.stop()
+		}
+	}
+
+	/**
+	 * Senders write as fast as they can on their own threads. Reports delivered throughput and threads used.
+	 * Only runs with -Dbenchmark=true
+	 */
+	fun testThroughput() {
+		if (!System.getProperty("benchmark").toBoolean()) return
+		val pairs = System.getProperty("datagram.pairs")?.toInt() ?: 8
+		val messages = System.getProperty("datagram.messages")?.toInt() ?: 2000
+		// one packet each since DatagramSession cannot write more
+		val message = ByteArray(400) { it.toByte() }
+
+		fun run(name: String, senders: List<(ByteArray) -> Unit>, handled: () -> Int, bytes: () -> Long, flush: () -> Unit) {
+			val t = System.currentTimeMillis()
+			val threads = senders.map { send ->
+				Thread {
+					repeat(messages) {
+						send(message)
+						if (it % 32 == 0)
+							Thread.yield()
+					}
+				}.also { it.start() }
+			}
+			threads.forEach { it.join() }
+			// wait for the tail then account for anything still missing
+			var last = -1
+			while (handled() != last && handled() < pairs * messages) {
+				last = handled()
+				Thread.sleep(200)
+			}
+			val elapsed = System.currentTimeMillis() - t
+			flush()
+			println(String.format("%-20s %d pairs x %d messages: %.1f MB/s delivered, %d%% of messages",
+				name, pairs, messages, bytes() / 1024.0 / 1024.0 / elapsed * 1000, bytes() / message.size * 100 / (pairs * messages)))
+		}
+
+		val nio = (0 until pairs).map { Pair(TestSession(), TestSession()) }
+		nio.forEach { connect(it.first, it.second) }
+		Thread.sleep(100)
+		println("NIODatagramSession threads: 1 for ${loop.numSessions} sessions")
+		run("NIODatagramSession", nio.map { p -> { m: ByteArray -> p.first.write(0, m, 0); Unit } },
+			{ nio.sumOf { it.second.numHandled } },
+			{ nio.sumOf { it.second.bytes.get() } },
+			{ nio.forEach { it.second.flush() } })
+		assertTrue(nio.sumOf { it.second.bytes.get() } > 0)
+		nio.forEach {
+			it.first.stop()
+			it.second.stop()
+		}
+
+		val threadsBefore = Thread.activeCount()
+		val legacy = (0 until pairs).map {
+			val portA = freePort()
+			val portB = freePort()
+			Pair(LegacySession(portA), LegacySession(portB)).also {
+				it.first.setRemote(InetAddress.getLoopbackAddress(), portB)
+				it.second.setRemote(InetAddress.getLoopbackAddress(), portA)
+				it.first.start()
+				it.second.start()
+			}
+		}
+		Thread.sleep(100)
+		println("DatagramSession threads: ${Thread.activeCount() - threadsBefore} for ${pairs * 2} sessions")
+		run("DatagramSession", legacy.map { p -> { m: ByteArray -> p.first.write(0, m, 0); Unit } },
+			{ legacy.sumOf { it.second.handled.get() } },
+			{ legacy.sumOf { it.second.bytes.get() } },
+			{ legacy.forEach { it.second.flush() } })
+		legacy.forEach {
+			it.first.stop()
+			it.second.stop()
+		}
+	}
+}
@@ -0,0 +1,215 @@
+package cc.lib.net
+
+import cc.lib.net.api.IClientConnection
+import cc.lib.net.api.IClientConnectionListener
+import cc.lib.net.api.IGameCommand
+import cc.lib.net.api.IServerListener
+import cc.lib.net.nio.NIOGameServer
+import junit.framework.TestCase
+import kotlinx.coroutines.CompletableDeferred
+import java.io.BufferedInputStream
+import java.io.BufferedOutputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.net.InetAddress
+import java.net.Socket
+import java.util.Collections
+import java.util.Random
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Load test for the selector based server. Connects many loopback clients and makes sure the
+ * server thread count does not grow with them.
+ *
+ * Number of clients can be changed with -Dnio.clients=N
+ */
+class NIOGameServerTest : TestCase() {
+
+	companion object {
+		const val PORT = 18999
+		const val VERSION = "NIOGameServerTest"
+	}
+
+	class TestClient(val socket: Socket) {
+		val dIn = DataInputStream(BufferedInputStream(socket.getInputStream()))
+		val dOut = DataOutputStream(BufferedOutputStream(socket.getOutputStream()))
+		val codec = GameCommandCodec()
+
+		fun send(cmd: GameCommand) {
+			codec.write(cmd, dOut)
+			dOut.flush()
+		}
+
+		fun read(): GameCommand = codec.parse(dIn)
+	}
+
+	private fun connect(name: String, binary: Boolean, port: Int = PORT): TestClient {
+		val client = TestClient(Socket(InetAddress.getLoopbackAddress(), port))
+		client.dOut.writeLong(NIOGameServer.MAGIC)
+		val cmd = GameCommandType.CL_CONNECT.make()
+			.setName(name)
+			.setVersion(VERSION)
+		if (binary)
+			cmd.setArg(GameCommandCodec.KEY_PROTOCOL, GameCommandCodec.PROTOCOL_BINARY)
+		client.send(cmd)
+		return client
+	}
+
+	fun testManyClients() {
+		val numClients = System.getProperty("nio.clients")?.toInt() ?: 2000
+		val server = NIOGameServer(numClients, VERSION, numEventLoops = 2)
+		val numCommands = AtomicInteger()
+		val connectionListener = object : IClientConnectionListener {
+			override suspend fun onCommand(c: IClientConnection, cmd: IGameCommand): Boolean {
+				numCommands.incrementAndGet()
+				return true
+			}
+		}
+		val serverListener = object : IServerListener {
+			override suspend fun onNewConnection(connection: IClientConnection) {
+				connection.addListener(connectionListener)
+			}
+		}
+		server.addListener(serverListener)
+		server.listen(PORT)
+		try {
+			val threadsBefore = Thread.activeCount()
+			var t = System.currentTimeMillis()
+			val clients = (0 until numClients).map {
+				connect("client$it", it % 2 == 0)
+			}
+			clients.forEach {
+				val cmd = it.read()
+				assertEquals(GameCommandType.SVR_CONNECTED, cmd.type)
+				it.codec.binary = cmd.getInt(GameCommandCodec.KEY_SERVER_PROTOCOL) >= GameCommandCodec.PROTOCOL_BINARY
+			}
+			println("Connected $numClients clients in ${System.currentTimeMillis() - t} ms")
+			assertEquals(numClients, server.numConnected)
+			val threadsAfter = Thread.activeCount()
+			println("threads before=$threadsBefore after=$threadsAfter")
+			assertTrue(threadsAfter - threadsBefore < 64)
+
+			t = System.currentTimeMillis()
+			server.broadcast(GameCommandType.MESSAGE.make().setMessage("hello"))
+			clients.forEach {
+				val cmd = it.read()
+				assertEquals(GameCommandType.MESSAGE, cmd.type)
+				assertEquals("hello", cmd.getMessage())
+			}
+			println("Broadcast to $numClients clients in ${System.currentTimeMillis() - t} ms")
+
+			val type = GameCommandType("NIO_TEST")
+			t = System.currentTimeMillis()
+			clients.forEachIndexed { index, client ->
+				client.send(type.make().setArg("index", index).setArg("payload", "x".repeat(index % 100)))
+			}
+			for (i in 0 until 100) {
+				if (numCommands.get() == numClients)
+					break
+				Thread.sleep(100)
+			}
+			assertEquals(numClients, numCommands.get())
+			println("Received $numClients commands in ${System.currentTimeMillis() - t} ms")
+
+			clients.forEach {
+				it.send(GameCommandType.CL_DISCONNECT.make())
+				it.socket.close()
+			}
+			for (i in 0 until 100) {
+				if (server.numSessions == 0)
+					break
+				Thread.sleep(100)
+			}
+			assertEquals(0, server.numConnected)
+			assertEquals(0, server.numSessions)
+			println("Buffers allocated=${server.bufferPool.allocated} pooled=${server.bufferPool.available}")
+		} finally {
+			server.close()
+		}
+	}
+
+	fun testRejectBadVersion() {
+		val server = NIOGameServer(2, VERSION)
+		server.listen(PORT + 1)
+		try {
+			val client = TestClient(Socket(InetAddress.getLoopbackAddress(), PORT + 1))
+			client.dOut.writeLong(NIOGameServer.MAGIC)
+			client.send(GameCommandType.CL_CONNECT.make().setName("bad").setVersion("0"))
+			val cmd = client.read()
+			assertEquals(GameCommandType.SVR_DISCONNECT, cmd.type)
+			assertEquals(-1, client.dIn.read())
+			assertEquals(0, server.numConnected)
+		} finally {
+			server.close()
+		}
+	}
+
+	fun testPassword() {
+		val server = NIOGameServer(2, VERSION, password = "secret")
+		server.listen(PORT + 2)
+		try {
+			val client = connect("good", false, PORT + 2)
+			assertEquals(GameCommandType.PASSWORD, client.read().type)
+			client.send(GameCommandType.PASSWORD.make().setArg("password", "secret"))
+			assertEquals(GameCommandType.SVR_CONNECTED, client.read().type)
+
+			val bad = connect("bad", false, PORT + 2)
+			assertEquals(GameCommandType.PASSWORD, bad.read().type)
+			bad.send(GameCommandType.PASSWORD.make().setArg("password", "guess"))
+			assertEquals(GameCommandType.SVR_DISCONNECT, bad.read().type)
+			assertEquals(1, server.numConnected)
+		} finally {
+			server.close()
+		}
+	}
+
+	fun testLargeCommandAndBackpressure() {
+		val server = NIOGameServer(2, VERSION, numEventLoops = 1)
+		val gate = CompletableDeferred<Unit>()
+		val received = Collections.synchronizedList(mutableListOf<GameCommand>())
+		// listeners are held weakly
+		val connectionListener = object : IClientConnectionListener {
+			override suspend fun onCommand(c: IClientConnection, cmd: IGameCommand): Boolean {
+				gate.await()
+				received.add(cmd as GameCommand)
+				return true
+			}
+		}
+		val serverListener = object : IServerListener {
+			override suspend fun onNewConnection(connection: IClientConnection) {
+				connection.addListener(connectionListener)
+			}
+		}
+		server.addListener(serverListener)
+		server.listen(PORT + 3)
+		try {
+			val client = connect("big", true, PORT + 3)
+			val connected = client.read()
+			assertEquals(GameCommandType.SVR_CONNECTED, connected.type)
+			client.codec.binary = true
+			val type = GameCommandType("NIO_BIG")
+			// random so it does not deflate to something smaller than a read buffer
+			val r = Random(0)
+			val payload = String(CharArray(300000) { 'a' + r.nextInt(26) })
+			val num = NIOGameServer.INBOUND_COMMANDS * 3
+			// the listener is stuck so the server has to stop reading rather than queue them all
+			client.send(type.make().setArg("payload", payload))
+			for (i in 1 until num)
+				client.send(type.make().setArg("index", i))
+			Thread.sleep(200)
+			assertEquals(1, server.numSessions)
+			gate.complete(Unit)
+			for (i in 0 until 100) {
+				if (received.size == num)
+					break
+				Thread.sleep(50)
+			}
+			assertEquals(num, received.size)
+			assertEquals(payload, received[0].getString("payload"))
+			for (i in 1 until num)
+				assertEquals(i, received[i].getInt("index"))
+		} finally {
+			server.close()
+		}
+	}
+}
@@ -0,0 +1,253 @@
+package cc.lib.net
+
+import cc.lib.logger.Logger
+import cc.lib.logger.LoggerFactory
+import cc.lib.net.api.IClientConnection
+import cc.lib.net.api.IClientConnectionListener
+import cc.lib.net.api.IClientListener
+import cc.lib.net.api.IGameClient
+import cc.lib.net.api.IGameCommand
+import cc.lib.reflector.DirtyArrayList
+import cc.lib.reflector.DirtyDelegate
+import cc.lib.reflector.DirtyReflector
+import junit.framework.TestCase
+import kotlinx.coroutines.runBlocking
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.util.LinkedList
+
+class SyncPlayer : DirtyReflector<SyncPlayer>() {
+	companion object {
+		init {
+			addAllFields(SyncPlayer::class.java)
+		}
+	}
+
+	var name: String by DirtyDelegate("")
+	var score: Int by DirtyDelegate(0)
+}
+
+class SyncGame : DirtyReflector<SyncGame>() {
+	companion object {
+		init {
+			addAllFields(SyncGame::class.java)
+		}
+	}
+
+	var turn: Int by DirtyDelegate(0)
+	val moves = DirtyArrayList<Int>()
+	val players = DirtyArrayList<SyncPlayer>()
+	var board = "x".repeat(2000)
+}
+
+/**
+ * Runs ReflectorSyncServer and ReflectorSyncClient against each other without sockets. Commands
+ * are queued so the test controls delivery and can drop or delay them.
+ */
+class ReflectorSyncTest : TestCase() {
+
+	class FakeConnection(val codec: GameCommandCodec) : IClientConnection {
+		override val log: Logger = LoggerFactory.getLogger(javaClass)
+		val listeners = mutableListOf<IClientConnectionListener>()
+		val outbound = LinkedList<GameCommand>()
+		var numBytes = 0L
+		override val name = "client"
+		override val connectionStatus = ConnectionStatus.GREEN
+		override var connected = true
+		override val properties = emptyMap<String, Any>()
+		override var kick = false
+
+		// send through the codec so we exercise the wire format and count the bytes
+		override fun send(cmd: IGameCommand) {
+			val bytes = ByteArrayOutputStream()
+			codec.write(cmd as GameCommand, DataOutputStream(bytes))
+			numBytes += bytes.size()
+			outbound.add(codec.parse(DataInputStream(ByteArrayInputStream(bytes.toByteArray()))))
+		}
+
+		override fun disconnect() {}
+		override fun addListener(listener: IClientConnectionListener) {
+			listeners.add(listener)
+		}
+
+		override fun removeListener(listener: IClientConnectionListener) {
+			listeners.remove(listener)
+		}
+
+		override fun close() {}
+	}
+
+	class FakeClient(val connection: FakeConnection) : IGameClient {
+		override val log: Logger = LoggerFactory.getLogger(javaClass)
+		val listeners = mutableListOf<IClientListener>()
+		override val properties = emptyMap<String, Any>()
+		override val connected = true
+		override fun updateProperties(properties: Map<String, Any>) {}
+		override fun connect(iPaddress: String, port: Int) {}
+		override fun disconnect() {}
+		override fun send(command: IGameCommand) = runBlocking {
+			connection.listeners.toList().forEach { it.onCommand(connection, command) }
+		}
+
+		override fun addListener(listener: IClientListener) {
+			listeners.add(listener)
+		}
+
+		override fun removeListener(listener: IClientListener) {
+			listeners.remove(listener)
+		}
+
+		override fun close() {}
+
+		fun deliver(num: Int = Int.MAX_VALUE) = runBlocking {
+			var n = 0
+			while (n++ < num && connection.outbound.isNotEmpty()) {
+				val cmd = connection.outbound.removeFirst()
+				listeners.toList().forEach { it.onCommand(cmd) }
+			}
+		}
+	}
+
+	lateinit var game: SyncGame
+	lateinit var server: ReflectorSyncServer<SyncGame>
+	lateinit var connection: FakeConnection
+	lateinit var client: FakeClient
+	lateinit var sync: ReflectorSyncClient<SyncGame>
+
+	override fun setUp() {
+		game = SyncGame()
+		game.players.add(SyncPlayer().also { it.name = "a" })
+		game.players.add(SyncPlayer().also { it.name = "b" })
+		game.markClean()
+		server = ReflectorSyncServer(game)
+		connection = FakeConnection(GameCommandCodec().also { it.binary = true })
+		client = FakeClient(connection)
+		sync = ReflectorSyncClient(client, SyncGame())
+		server.addClient(connection)
+		client.deliver()
+		assertEquals(0, sync.seq)
+		assertEquals(game.serializeToString(), sync.obj.serializeToString())
+	}
+
+	private fun move(i: Int) {
+		game.turn = i
+		game.moves.add(i)
+		game.players[i % 2].score += i
+	}
+
+	fun testDiffs() {
+		val fullBytes = connection.numBytes
+		for (i in 1..50) {
+			move(i)
+			server.sync()
+			client.deliver()
+			assertEquals(i, sync.seq)
+			assertEquals(game.getChecksum(), sync.obj.getChecksum())
+		}
+		println("full=$fullBytes total=${connection.numBytes} ${server.stats}")
+		assertEquals(1L, server.stats.numFull)
+		assertEquals(50L, server.stats.numDiffs)
+		assertEquals(0, sync.numResyncs)
+		// diffs should not contain the unchanged board
+		assertTrue(server.stats.diffChars / 50 < game.board.length)
+	}
+
+	fun testDroppedDiff() {
+		move(1)
+		server.sync()
+		connection.outbound.clear()
+		move(2)
+		server.sync()
+		client.deliver()
+		assertEquals(1, sync.numResyncs)
+		assertTrue(connection.outbound.isEmpty())
+		// the snapshot goes out with the next sync even though nothing changed
+		server.sync()
+		client.deliver()
+		assertEquals(2, sync.seq)
+		assertEquals(game.serializeToString(), sync.obj.serializeToString())
+		move(3)
+		server.sync()
+		client.deliver()
+		assertEquals(2L, server.stats.numFull)
+		assertEquals(3, sync.seq)
+		assertEquals(game.serializeToString(), sync.obj.serializeToString())
+	}
+
+	fun testChecksumMismatch() {
+		// change the client copy behind the servers back
+		sync.obj.board = "y"
+		sync.obj.markClean()
+		move(1)
+		server.sync()
+		client.deliver()
+		assertEquals(1, sync.numResyncs)
+		// no further changes needed for the client to be repaired
+		server.sync()
+		client.deliver()
+		assertEquals(1, sync.seq)
+		assertEquals(game.serializeToString(), sync.obj.serializeToString())
+	}
+
+	fun testClientBehind() {
+		server.maxUnacked = 4
+		for (i in 1..20) {
+			move(i)
+			server.sync()
+		}
+		// no more than maxUnacked + 1 diffs are in flight
+		assertEquals(5, connection.outbound.size)
+		client.deliver()
+		assertEquals(5, sync.seq)
+		move(21)
+		server.sync()
+		client.deliver()
+		assertEquals(21, sync.seq)
+		assertEquals(2L, server.stats.numFull)
+		assertEquals(game.serializeToString(), sync.obj.serializeToString())
+	}
+
+	fun testResyncWithPendingChanges() {
+		val other = FakeConnection(GameCommandCodec())
+		server.addClient(other)
+		move(1)
+		server.sync()
+		client.deliver()
+		// changed but not yet synced when the resync comes in
+		move(2)
+		client.send(GameCommand(ReflectorSyncServer.CL_STATE_RESYNC)
+			.setArg(ReflectorSyncServer.ARG_KEY, server.key)
+			.setArg(ReflectorSyncServer.ARG_SEQ, sync.seq))
+		// nothing is read or sent on the connection's thread
+		assertTrue(connection.outbound.isEmpty())
+		assertEquals(2, other.outbound.size)
+		server.sync()
+		client.deliver()
+		assertEquals(2, sync.seq)
+		assertEquals(game.serializeToString(), sync.obj.serializeToString())
+		// the other client gets the pending change as a diff
+		assertEquals(3, other.outbound.size)
+		assertEquals(ReflectorSyncServer.SVR_STATE_DIFF, other.outbound.last().type)
+	}
+
+	fun testReconnect() {
+		move(1)
+		server.sync()
+		client.deliver()
+		connection.connected = false
+		runBlocking {
+			connection.listeners.toList().forEach { it.onDisconnected(connection) }
+			sync.onReconnecting()
+		}
+		move(2)
+		server.sync()
+		assertTrue(connection.outbound.isEmpty())
+		connection.connected = true
+		server.sync()
+		client.deliver()
+		assertEquals(2, sync.seq)
+		assertEquals(game.serializeToString(), sync.obj.serializeToString())
+	}
+}
@@ -48,6 +48,41 @@ class TestDirty3 : DirtyReflector<TestDirty2>() {
 	val dirty2 = TestDirty2()
 }
 
+class TestDirtyList : DirtyReflector<TestDirtyList>() {
+	companion object {
+		init {
+			addAllFields(TestDirtyList::class.java)
+		}
+	}
+
+	val items = DirtyArrayList<TestDirty>()
+}
+
+class TestTracked : DirtyReflector<TestTracked>() {
+	companion object {
+		init {
+			addAllFields(TestTracked::class.java)
+		}
+	}
+
+	var count: Int by DirtyDelegate(0)
+	val names = DirtyArrayList<String>()
+	val children = DirtyArrayList<TestTracked>()
+}
+
+class TestPartlyTracked : DirtyReflector<TestPartlyTracked>() {
+	companion object {
+		init {
+			addAllFields(TestPartlyTracked::class.java)
+		}
+	}
+
+	var count: Int by DirtyDelegate(0)
+	var plain = 0
+	val list = ArrayList<Int>()
+	val tracked = TestTracked()
+}
+
 /**
  * Created by Chris Caron on 7/29/22.
  */
@@ -208,4 +243,115 @@ class DirtyTest : TestCase() {
 		g.markClean()
 		assertFalse(g.isDirty)
 	}
-}
\ No newline at end of file
+
+	fun testChecksum() {
+		val d = TestDirty2()
+		d.dirty.testIntList.addAll(listOf(1, 2, 3))
+		d.dirty.testStr = "x"
+		d.dirty.testMap["a"] = 1
+		val sum = d.getChecksum()
+		assertEquals(sum, d.deepCopy().getChecksum())
+		d.markClean()
+		assertEquals(sum, d.getChecksum())
+		// cached value must follow changes to the dirty tracked fields
+		d.dirty.testInt = 99
+		val sum2 = d.getChecksum()
+		assertFalse(sum == sum2)
+		d.markClean()
+		assertEquals(sum2, d.getChecksum())
+		assertEquals(sum2, d.deepCopy().getChecksum())
+		d.dirty.testIntList.add(4)
+		assertFalse(sum2 == d.getChecksum())
+		d.markClean()
+		// merging into a clean object replaces the cached value
+		val copy = TestDirty2()
+		copy.markClean()
+		copy.getChecksum()
+		copy.merge(d.serializeToString())
+		assertEquals(d.getChecksum(), copy.getChecksum())
+	}
+
+	fun testChecksumUntrackedFields() {
+		val d = TestPartlyTracked()
+		assertFalse(d.isHashTracked())
+		assertTrue(d.tracked.isHashTracked())
+		d.markClean()
+		val sum = d.getChecksum()
+		// a plain var does not mark anything dirty
+		d.plain = 5
+		assertFalse(d.isDirty)
+		val sum2 = d.getChecksum()
+		assertFalse(sum == sum2)
+		// neither does a mutable collection changed in place
+		d.list.add(1)
+		assertFalse(d.isDirty)
+		val sum3 = d.getChecksum()
+		assertFalse(sum2 == sum3)
+		assertEquals(sum3, d.deepCopy().getChecksum())
+
+		// fully tracked objects still follow their changes through the cache
+		val t = d.tracked
+		t.children.add(TestTracked())
+		t.markClean()
+		val sum4 = t.getChecksum()
+		assertEquals(sum4, t.getChecksum())
+		t.children[0].names.add("x")
+		assertFalse(sum4 == t.getChecksum())
+		assertEquals(t.deepCopy().getChecksum(), t.getChecksum())
+	}
+
+	fun testChecksumFollowsNestedChanges() {
+		val t = TestTracked()
+		val child = TestTracked()
+		val grandChild = TestTracked()
+		child.children.add(grandChild)
+		t.children.add(child)
+		t.markClean()
+		val sum = t.getChecksum()
+		// markClean does not change the hash
+		t.markClean()
+		assertEquals(sum, t.getChecksum())
+		grandChild.count = 5
+		val sum2 = t.getChecksum()
+		assertFalse(sum == sum2)
+		assertEquals(t.deepCopy().getChecksum(), sum2)
+		grandChild.names.add("x")
+		val sum3 = t.getChecksum()
+		assertFalse(sum2 == sum3)
+		assertEquals(t.deepCopy().getChecksum(), sum3)
+		// replaced by merge from below
+		child.merge(TestTracked().serializeToString())
+		assertEquals(t.deepCopy().getChecksum(), t.getChecksum())
+		assertEquals(0, child.children.size)
+	}
+
+	// run with -Dbenchmark=true
+	fun testChecksumBenchmark() {
+		if (!System.getProperty("benchmark").toBoolean()) return
+		val d = TestDirtyList()
+		for (i in 0 until 5000) {
+			d.items.add(TestDirty().also {
+				it.testInt = i
+				it.testStr = "item $i"
+				it.testIntList.addAll(0 until 10)
+			})
+		}
+		d.markClean()
+		val iterations = 20
+		var t = System.nanoTime()
+		repeat(iterations) { d.serializeToString().hashCode() }
+		val text = (System.nanoTime() - t) / iterations / 1000
+		t = System.nanoTime()
+		repeat(iterations) { d.deepCopy().getChecksum() }
+		val full = (System.nanoTime() - t) / iterations / 1000
+		t = System.nanoTime()
+		repeat(iterations) {
+			d.items[it].testInt = -it
+			d.getChecksum()
+			d.markClean()
+		}
+		val incremental = (System.nanoTime() - t) / iterations / 1000
+		println("text=${text}us full=${full}us incremental=${incremental}us")
+		assertEquals(d.getChecksum(), d.deepCopy().getChecksum())
+	}
+}
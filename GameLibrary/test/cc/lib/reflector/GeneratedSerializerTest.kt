@@ -0,0 +1,157 @@
+package cc.lib.reflector
+
+import cc.lib.ksp.reflector.GenerateSerializer
+import junit.framework.TestCase
+
+enum class GenType {
+	ROCK,
+	PAPER,
+	SCISSORS
+}
+
+@GenerateSerializer
+class GenItem : Reflector<GenItem>() {
+	companion object {
+		init {
+			addAllFields(GenItem::class.java)
+		}
+	}
+
+	var id = 0
+	var name = ""
+	var weight = 0f
+	var score = 0.0
+	var big = 0L
+	var flag = false
+	var type = GenType.ROCK
+	var opt: String? = null
+	var count: Int? = null
+	var optType: GenType? = null
+	val tags = ArrayList<String>()
+	private var secret = 3
+	var readOnly = 0
+		private set
+
+	fun setSecret(v: Int) {
+		secret = v
+		readOnly = v * 2
+	}
+}
+
+@GenerateSerializer
+class GenWorld : Reflector<GenWorld>() {
+	companion object {
+		init {
+			addAllFields(GenWorld::class.java)
+		}
+	}
+
+	var turn = 0
+	var title = "world"
+	val items = ArrayList<GenItem>()
+	var current: GenItem? = null
+}
+
+/**
+ * Generated serializers must produce exactly the same output as reflection
+ */
+class GeneratedSerializerTest : TestCase() {
+
+	override fun tearDown() {
+		Reflector.USE_GENERATED = true
+	}
+
+	private fun makeWorld(numItems: Int): GenWorld = GenWorld().also { w ->
+		w.turn = 7
+		w.title = "hello = world\n\"quoted\""
+		for (i in 0 until numItems) {
+			w.items.add(GenItem().also {
+				it.id = i
+				it.name = "item $i"
+				it.weight = i * 0.5f
+				it.score = i / 3.0
+				it.big = i.toLong() shl 40
+				it.flag = i % 2 == 0
+				it.type = GenType.values()[i % 3]
+				if (i % 3 == 0) {
+					it.opt = "opt$i"
+					it.count = i
+					it.optType = GenType.PAPER
+				}
+				it.tags.add("t$i")
+				it.setSecret(i)
+			})
+		}
+		w.current = w.items.firstOrNull()
+	}
+
+	private fun serialize(obj: Reflector<*>, generated: Boolean): String {
+		Reflector.USE_GENERATED = generated
+		return obj.serializeToString()
+	}
+
+	fun testGeneratedFound() {
+		makeWorld(1)
+		assertNotNull(Reflector.getGeneratedSerializer(GenItem::class.java))
+		assertNotNull(Reflector.getGeneratedSerializer(GenWorld::class.java))
+	}
+
+	fun testSameOutput() {
+		val world = makeWorld(10)
+		val reflected = serialize(world, false)
+		val generated = serialize(world, true)
+		assertEquals(reflected, generated)
+	}
+
+	fun testRoundTrip() {
+		val world = makeWorld(10)
+		val text = serialize(world, false)
+		Reflector.USE_GENERATED = true
+		val copy = GenWorld()
+		copy.deserialize(text)
+		assertTrue(world.deepEquals(copy))
+		assertEquals(text, copy.serializeToString())
+
+		val merged = makeWorld(10)
+		merged.items[3].name = "changed"
+		merged.turn = 100
+		merged.merge(text)
+		assertTrue(world.deepEquals(merged))
+	}
+
+	fun testDeepCopy() {
+		val world = makeWorld(10)
+		Reflector.USE_GENERATED = true
+		val copy = world.deepCopy()
+		assertTrue(world.deepEquals(copy))
+		assertNotSame(world.items[0], copy.items[0])
+		assertEquals(serialize(world, false), serialize(copy, false))
+	}
+
+	private fun time(generated: Boolean, iterations: Int, block: () -> Unit): Long {
+		Reflector.USE_GENERATED = generated
+		// warm up
+		repeat(2) { block() }
+		val t = System.nanoTime()
+		repeat(iterations) { block() }
+		return (System.nanoTime() - t) / iterations / 1000
+	}
+
+	/**
+	 * Compare generated and reflective paths for a large object. Size can be changed with
+	 * -Dreflector.items=N
+	 * Only runs with -Dbenchmark=true
+	 */
+	fun testBenchmark() {
+		if (!System.getProperty("benchmark").toBoolean()) return
+		val numItems = System.getProperty("reflector.items")?.toInt() ?: 20000
+		val world = makeWorld(numItems)
+		val text = world.serializeToString()
+		for (generated in listOf(false, true, false, true)) {
+			val ser = time(generated, 5) { world.serializeToString() }
+			val de = time(generated, 5) { GenWorld().deserialize(text) }
+			val copy = time(generated, 5) { world.deepCopy() }
+			println("items=$numItems generated=$generated serialize=${ser}us deserialize=${de}us deepCopy=${copy}us")
+		}
+	}
+}
@@ -0,0 +1,9 @@
+package cc.lib.ksp.reflector
+
+/**
+ * Classes extending cc.lib.reflector.Reflector marked with this annotation get a generated
+ * [ClassName]Serializer from KSPReflector that Reflector uses in place of reflection.
+ */
+@Target(AnnotationTarget.CLASS)
+@Retention(AnnotationRetention.SOURCE)
+annotation class GenerateSerializer
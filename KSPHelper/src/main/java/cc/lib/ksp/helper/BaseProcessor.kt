@@ -290,6 +290,13 @@ abstract class BaseProcessor(
 
 	abstract fun getClassFileName(symbol: String): String
 
+	/**
+	 * Package of the generated file for symbol. Defaults to the 'package' option or packageName
+	 */
+	open fun getPackageName(symbol: KSClassDeclaration): String = options["package"] ?: packageName
+
+	open fun getFileName(symbol: KSClassDeclaration): String = getClassFileName(symbol.simpleName.asString())
+
 	final override fun process(resolver: Resolver): List<KSAnnotated> {
 		this.resolver = resolver
 		val symbols = resolver
@@ -320,8 +327,8 @@ abstract class BaseProcessor(
 				// Learn more about incremental processing in KSP from the official docs:
 				// https://kotlinlang.org/docs/ksp-incremental.html
 				dependencies = Dependencies(false, *resolver.getAllFiles().toList().toTypedArray()),
-				packageName = options["package"] ?: packageName,
-				fileName = getClassFileName(symbol.simpleName.asString())
+				packageName = getPackageName(symbol),
+				fileName = getFileName(symbol)
 			)
 			tmpFile.streamTo(file)
 		} catch (e: DeferException) {
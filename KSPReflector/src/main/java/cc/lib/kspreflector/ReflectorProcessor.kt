@@ -1,7 +1,6 @@
 package cc.lib.kspreflector
 
 import cc.lib.ksp.helper.BaseProcessor
-import cc.lib.ksp.helper.print
 import cc.lib.ksp.reflector.Alternates
 import cc.lib.ksp.reflector.Omit
 import cc.lib.ksp.reflector.Reflect
@@ -0,0 +1,206 @@
+package cc.lib.kspreflector
+
+import cc.lib.ksp.helper.BaseProcessor
+import cc.lib.ksp.reflector.GenerateSerializer
+import com.google.devtools.ksp.getDeclaredProperties
+import com.google.devtools.ksp.getVisibility
+import com.google.devtools.ksp.processing.CodeGenerator
+import com.google.devtools.ksp.processing.KSPLogger
+import com.google.devtools.ksp.symbol.ClassKind
+import com.google.devtools.ksp.symbol.KSClassDeclaration
+import com.google.devtools.ksp.symbol.KSDeclaration
+import com.google.devtools.ksp.symbol.KSPropertyDeclaration
+import com.google.devtools.ksp.symbol.KSType
+import com.google.devtools.ksp.symbol.Modifier
+import com.google.devtools.ksp.symbol.Nullability
+import com.google.devtools.ksp.symbol.Origin
+import com.google.devtools.ksp.symbol.Visibility
+import java.io.OutputStream
+import kotlin.reflect.KClass
+
+/**
+ * Generates an IGeneratedSerializer for classes annotated with GenerateSerializer that extend
+ * cc.lib.reflector.Reflector.
+ *
+ * Fields are emitted in the same order and text format as Reflector. Primitives, Strings and
+ * enums that are publicly accessible are read and written directly. Everything else (collections,
+ * nested reflectors, arrays, delegates, private fields) is handed back to Reflector so the output
+ * stays identical to the reflective path.
+ */
+class SerializerProcessor(
+	codeGenerator: CodeGenerator,
+	logger: KSPLogger,
+	options: Map<String, String>,
+) : BaseProcessor(codeGenerator, logger, options) {
+
+	companion object {
+		const val REFLECTOR = "cc.lib.reflector.Reflector"
+		const val OMIT = "cc.lib.reflector.Omit"
+
+		private val primitives = mapOf(
+			"kotlin.Int" to "toInt()",
+			"kotlin.Long" to "toLong()",
+			"kotlin.Float" to "toFloat()",
+			"kotlin.Double" to "toDouble()",
+			"kotlin.Byte" to "toByte()",
+			"kotlin.Boolean" to "toBoolean()",
+		)
+	}
+
+	override val annotationClass: KClass<*> = GenerateSerializer::class
+	override val packageName: String = ""
+
+	override fun getPackageName(symbol: KSClassDeclaration): String = symbol.packageName.asString()
+
+	override fun getFileName(symbol: KSClassDeclaration): String = getClassFileName(symbol.binaryName())
+
+	override fun getClassFileName(symbol: String): String = symbol + "Serializer"
+
+	private fun KSClassDeclaration.binaryName(): String =
+		qualifiedName!!.asString().removePrefix(packageName.asString()).removePrefix(".").replace('.', '_')
+
+	private enum class Kind {
+		PRIMITIVE,
+		STRING,
+		ENUM,
+		OTHER
+	}
+
+	private inner class Field(val prop: KSPropertyDeclaration) {
+		val name = prop.simpleName.asString()
+		val jvmName = if (prop.isDelegated()) "$name\$delegate" else name
+		val type: KSType = prop.type.resolve()
+		val qualifiedType = type.declaration.qualifiedName?.asString() ?: ""
+
+		val kind = when {
+			prop.isDelegated() -> Kind.OTHER
+			primitives.containsKey(qualifiedType) -> Kind.PRIMITIVE
+			qualifiedType == "kotlin.String" -> Kind.STRING
+			(type.declaration as? KSClassDeclaration)?.classKind == ClassKind.ENUM_CLASS -> Kind.ENUM
+			else -> Kind.OTHER
+		}
+
+		// java object fields have platform nullability
+		val nullable = type.nullability != Nullability.NOT_NULL
+
+		private fun KSDeclaration.isAccessible() = when (getVisibility()) {
+			Visibility.PUBLIC, Visibility.INTERNAL -> true
+			else -> false
+		}
+
+		val canRead = kind != Kind.OTHER && prop.isAccessible() &&
+			!prop.modifiers.contains(Modifier.LATEINIT) &&
+			(prop.getter?.origin ?: Origin.SYNTHETIC) == Origin.SYNTHETIC
+
+		val canWrite = canRead && prop.isMutable &&
+			(prop.setter?.let {
+				it.origin == Origin.SYNTHETIC && !it.modifiers.contains(Modifier.PRIVATE) && !it.modifiers.contains(Modifier.PROTECTED)
+			} ?: true)
+
+		// escape for use inside a kotlin string literal
+		val literal = jvmName.replace("$", "\\$")
+	}
+
+	private fun KSPropertyDeclaration.isSerialized(): Boolean {
+		if (annotations.any { it.annotationType.resolve().declaration.qualifiedName?.asString() == OMIT })
+			return false
+		if (modifiers.contains(Modifier.JAVA_STATIC) || modifiers.contains(Modifier.CONST))
+			return false
+		return hasBackingField || isDelegated() || origin == Origin.JAVA || origin == Origin.JAVA_LIB
+	}
+
+	/**
+	 * Reflector registers fields of each class in the hierarchy and orders them by jvm field name.
+	 */
+	private fun collectFields(symbol: KSClassDeclaration): List<Field> {
+		val fields = sortedMapOf<String, Field>()
+		var decl: KSClassDeclaration? = symbol
+		while (decl != null && decl.qualifiedName?.asString() != REFLECTOR) {
+			decl.getDeclaredProperties().filter { it.isSerialized() }.forEach {
+				val field = Field(it)
+				fields.putIfAbsent(field.jvmName, field)
+			}
+			decl = decl.superTypes.map { it.resolve().declaration }
+				.filterIsInstance<KSClassDeclaration>()
+				.firstOrNull { it.classKind == ClassKind.CLASS }
+		}
+		return fields.values.toList()
+	}
+
+	private fun Field.writeValue(value: String): String = when (kind) {
+		Kind.STRING -> "out.write(\"$name=\\\"\")\n\t\tout.write(Reflector.encodeString($value))\n\t\tout.write(\"\\\"\")\n\t\tout.println()"
+		Kind.ENUM -> "out.write(\"$name=\")\n\t\tout.write($value.name)\n\t\tout.println()"
+		else -> "out.write(\"$name=\")\n\t\tout.write($value.toString())\n\t\tout.println()"
+	}
+
+	private fun Field.printSerialize(): String = when {
+		!canRead -> "Reflector.serializeField(obj, \"$literal\", out)"
+		nullable -> "obj.$name.let {\n\t\t\tif (it == null) out.writeNull(\"$name\") else {\n\t\t\t\t${writeValue("it").replace("\n", "\n\t\t")}\n\t\t\t}\n\t\t}"
+		else -> writeValue("obj.$name")
+	}
+
+	private fun Field.parse(): String {
+		val parsed = when (kind) {
+			Kind.PRIMITIVE -> "value.${primitives[qualifiedType]}"
+			Kind.STRING -> "Reflector.decodeString(value.substring(1, value.length - 1))"
+			Kind.ENUM -> "enumValueOf<$qualifiedType>(value)"
+			Kind.OTHER -> throw IllegalArgumentException("Cannot parse $name")
+		}
+		return if (nullable) "if (value == \"null\") null else $parsed" else parsed
+	}
+
+	override fun process(symbol: KSClassDeclaration, file: OutputStream) {
+		val fields = collectFields(symbol)
+		val typeName = symbol.qualifiedName!!.asString() + if (symbol.typeParameters.isEmpty()) "" else
+			symbol.typeParameters.joinToString(prefix = "<", postfix = ">") { "*" }
+
+		logger.info("$symbol fields: ${fields.joinToString { "${it.jvmName}:${it.kind}:${it.canRead}:${it.canWrite}" }}")
+
+		val serialize = fields.joinToString("\n\t\t") { it.printSerialize() }
+
+		val deserialize = fields.filter { it.canWrite }.joinToString("\n\t\t\t") {
+			"\"${it.name}\" -> obj.${it.name} = ${it.parse()}"
+		}
+
+		val copy = fields.joinToString("\n\t\t") {
+			if (it.canWrite)
+				"dst.${it.name} = src.${it.name}"
+			else
+				"Reflector.copyField(src, dst, \"${it.literal}\")"
+		}
+
+		file.print(
+			"""package ${symbol.packageName.asString()}
+
+import cc.lib.reflector.IGeneratedSerializer
+import cc.lib.reflector.RPrintWriter
+import cc.lib.reflector.Reflector
+
+/**
+ * Generated by KSPReflector from $typeName. Do not edit.
+ */
+@Suppress("UNCHECKED_CAST", "UNNECESSARY_SAFE_CALL", "SENSELESS_COMPARISON")
+class ${getFileName(symbol)} : IGeneratedSerializer<$typeName> {
+
+	override fun getFieldNames(): Array<String> = arrayOf(${fields.joinToString { "\"${it.literal}\"" }})
+
+	override fun serialize(obj: $typeName, out: RPrintWriter) {
+		$serialize
+	}
+
+	override fun deserializeField(obj: $typeName, name: String, value: String, keepInstances: Boolean): Boolean {
+		when (name) {
+			$deserialize
+			else -> return false
+		}
+		return true
+	}
+
+	override fun deepCopy(src: $typeName, dst: $typeName) {
+		$copy
+	}
+}
+"""
+		)
+	}
+}
@@ -0,0 +1,16 @@
+package cc.lib.kspreflector
+
+import com.google.devtools.ksp.processing.SymbolProcessor
+import com.google.devtools.ksp.processing.SymbolProcessorEnvironment
+import com.google.devtools.ksp.processing.SymbolProcessorProvider
+
+class SerializerProcessorProvider : SymbolProcessorProvider {
+
+	override fun create(environment: SymbolProcessorEnvironment): SymbolProcessor {
+		return SerializerProcessor(
+			codeGenerator = environment.codeGenerator,
+			logger = environment.logger,
+			options = environment.options
+		)
+	}
+}
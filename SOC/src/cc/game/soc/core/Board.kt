@@ -8,7 +8,6 @@ import cc.lib.math.Vector2D
 import cc.lib.reflector.Omit
 import cc.lib.reflector.Reflector
 import cc.lib.utils.GException
-import cc.lib.utils.LRUCache
 import java.io.File
 import java.io.IOException
 import java.util.*
@@ -96,11 +95,20 @@ class Board : Reflector<Board>() {
 	// optimization - To prevent excessive execution of the road len algorithm O(2^n) , we cache the result here.
 	@Omit
 	private val playerRoadLenCache = IntArray(16)
+
+	@Omit
+	private val routeNetwork = RouteNetwork()
+
+	@Omit
+	private var routeLenRoadBlock = false
 	var pirateRouteStartTile = -1 // when >= 0, then the pirate route starts at this tile.  each tile has a next index to form a route.
 	private var numAvaialbleVerts = -1
 
+	/**
+	 * Memoized results of computeDistances. Exposed so the memory budget can be tuned and hit rates inspected.
+	 */
 	@Omit
-	private val distancesCache = LRUCache<String, IDistances>(100)
+	val distancesCache = DistancesCache()
 
 	/**
 	 * Reset the board to its initial playable state.
@@ -121,6 +129,7 @@ class Board : Reflector<Board>() {
 			r.reset()
 		}
 		distancesCache.clear()
+		routeNetwork.reset()
 	}
 
 	private fun generateR2(cx: Float, cy: Float, w: Float, h: Float, z: Float, depth: Int, dir: Int, allowDup: Boolean, type: TileType) {
@@ -833,6 +842,7 @@ class Board : Reflector<Board>() {
 		clearRoutes()
 		displayName = ""
 		distancesCache.clear()
+		routeNetwork.reset()
 		merchantPlayer = -1
 		merchantTileIndex = -1
 		name = ""
@@ -845,6 +855,7 @@ class Board : Reflector<Board>() {
 	 */
 	fun clearRoutes() {
 		routes.clear()
+		routeNetwork.reset()
 		clearRouteLenCache()
 	}
 
@@ -1379,55 +1390,62 @@ class Board : Reflector<Board>() {
 	}
 
 	/**
-	 * O(2^n) algorithm to solve the longest path problem.
+	 * Longest route through vertex vIndex for playerNum. visitedEdges must be all false on entry and is left dirty.
+	 */
+	internal fun computeRouteLengthFromVertex(vIndex: Int, playerNum: Int, enableRoadBlock: Boolean, visitedEdges: BooleanArray): Int {
+		val v = getVertex(vIndex)
+		if (v.type !== VertexType.OPEN && !v.isKnight) // TOOD: should we check here for enableRoadBlock and only consider knights if true?
+			return 0 // skip past verts with settlements on them
+		val len = intArrayOf(0, 0, 0)
+		for (ii in 0 until v.numAdjacentVerts) {
+			val v1 = v.adjacentVerts[ii]
+			val eIndex = getRouteIndex(vIndex, v1)
+			if (eIndex < 0) continue
+			if (visitedEdges[eIndex]) continue
+			visitedEdges[eIndex] = true
+			val e = getRoute(eIndex)
+			if (e.player != playerNum) continue
+			len[ii] = traversePath(vIndex, v1, visitedEdges, playerNum, 1, enableRoadBlock)
+		}
+		val a = len[0] + len[1]
+		val b = len[1] + len[2]
+		val c = len[0] + len[2]
+		val m = if (a > b) a else b
+		return if (m > c) m else c
+	}
+
+	/**
+	 * Longest route for a player. The result is cached per player until clearRouteLenCache or a route changes
+	 * owner. When recomputed only the road networks touched since the last call are searched again.
 	 * @param playerNum
 	 * @return
 	 */
 	fun computeMaxRouteLengthForPlayer(playerNum: Int, enableRoadBlock: Boolean): Int {
-		return if (playerRoadLenCache[playerNum] >= 0) {
-			//System.out.println("DEBUG: Road len for player " + playerNum + " cached too: " + playerRoadLenCache[playerNum]);
-			playerRoadLenCache[playerNum]
-		} else try {
-			val visitedEdges = BooleanArray(numRoutes)
-			var max = 0
-			for (i in 0 until numAvailableVerts) {
-				val v = getVertex(i)
-				if (v.type !== VertexType.OPEN && !v.isKnight) // TOOD: should we check here for enableRoadBlock and only consider knights if true?
-					continue  // skip past verts with settlements on them
-				//Utils.fillArray(visited, false);
-				Arrays.fill(visitedEdges, false)
-				val len = intArrayOf(0, 0, 0)
-				for (ii in 0 until v.numAdjacentVerts) {
-					val v1 = v.adjacentVerts[ii]
-					val eIndex = getRouteIndex(i, v1)
-					if (eIndex < 0) continue
-					if (visitedEdges[eIndex]) continue
-					visitedEdges[eIndex] = true
-					val e = getRoute(eIndex)
-					if (e.player != playerNum) continue
-					//System.out.println("traverse path starting at edge " + eIndex);
-					len[ii] = traversePath(i, v1, visitedEdges, playerNum, 1, enableRoadBlock)
-					//System.out.println("Road len from vertex " + i + " = " + len[ii]);
-				}
-				val a = len[0] + len[1]
-				val b = len[1] + len[2]
-				val c = len[0] + len[2]
-				var m = if (a > b) a else b
-				m = if (m > c) m else c
-				if (m > max) {
-					max = m
-				}
-			}
-
-			//System.out.println("Computed max road len for player " + playerNum + " = " + max);
-			playerRoadLenCache[playerNum] = max
-			max
-		} finally {
-			//if (Profiler.ENABLED) Profiler.pop("SOCBoard::computeMaxRoadLengthForPlayer");
+		if (enableRoadBlock != routeLenRoadBlock) {
+			routeLenRoadBlock = enableRoadBlock
+			clearRouteLenCache()
 		}
+		if (playerRoadLenCache[playerNum] < 0)
+			playerRoadLenCache[playerNum] = routeNetwork.computeMaxRouteLengthForPlayer(this, playerNum, enableRoadBlock)
+		return playerRoadLenCache[playerNum]
+	}
 
-		//System.out.println("Recompute road length");
-		//if (Profiler.ENABLED) Profiler.push("SOCBoard::computeMaxRoadLengthForPlayer");
+	/**
+	 * O(2^n) algorithm to solve the longest path problem over the whole board. Not cached.
+	 * @param playerNum
+	 * @return
+	 */
+	fun computeMaxRouteLengthForPlayerDFS(playerNum: Int, enableRoadBlock: Boolean): Int {
+		val visitedEdges = BooleanArray(numRoutes)
+		var max = 0
+		for (i in 0 until numAvailableVerts) {
+			Arrays.fill(visitedEdges, false)
+			val m = computeRouteLengthFromVertex(i, playerNum, enableRoadBlock, visitedEdges)
+			if (m > max) {
+				max = m
+			}
+		}
+		return max
 	}
 
 	/**
@@ -2199,199 +2217,14 @@ class Board : Reflector<Board>() {
 	/**
 	 * Return a structure that can compute the distance/path between any 2 vertices.
 	 * When transitioning from land to water, these routes must pass through a structure and/or port depending on rules.
+	 * The result is shared through distancesCache and should not be kept after the routes change.
 	 *
 	 * @param rules
 	 * @param playerNum
 	 * @return
 	 */
 	fun computeDistances(rules: Rules, playerNum: Int): IDistances {
-		return if (rules.isEnableSeafarersExpansion) {
-			try {
-				computeDistancesLandWater(rules, playerNum)
-			} catch (e: OutOfMemoryError) {
-				System.gc()
-				computeDistancesLandWater(rules, playerNum)
-			}
-		} else {
-			val rcache = IntArray(routes.size)
-			var rcacheLen = 0
-
-			// Assign distances to edges
-			for (rIndex in routes.indices) {
-				val r = routes[rIndex]
-				val v0 = r.from
-				val v1 = r.to
-				if (r.player == playerNum) {
-					when (r.type) {
-						RouteType.DAMAGED_ROAD, RouteType.ROAD -> rcache[rcacheLen++] = rIndex
-						RouteType.SHIP, RouteType.WARSHIP, RouteType.OPEN -> assert(false)
-						else                                              -> assert(false)
-					}
-				}
-			}
-
-			// OPTIMIZATION: check if the current route configuration has already been done, then no need to do it again
-			//Arrays.sort(rcache, 0, rcacheLen); // do we really need to sort?
-			val str = Utils.toString(rcache, 0, rcacheLen) // decompose the array into a hashable string
-			distancesCache[str]?.let { return it }
-			val numV = numAvailableVerts
-			assert(numV <= 100)
-			val dist = Array(numV) { ByteArray(numV) }
-			val next = Array(numV) { ByteArray(numV) }
-			for (i in 0 until numV) {
-				for (ii in 0 until numV) {
-					dist[i][ii] = IDistances.DISTANCE_INFINITY
-					next[i][ii] = ii.toByte()
-				}
-				dist[i][i] = 0
-			}
-			for (rIndex in routes.indices) {
-				val r = routes[rIndex]
-				val v0 = r.from
-				val v1 = r.to
-				if (r.player == 0) {
-					dist[v1][v0] = 1
-					dist[v0][v1] = dist[v1][v0]
-				} else if (r.player == playerNum) {
-					when (r.type) {
-						RouteType.DAMAGED_ROAD, RouteType.ROAD -> {
-							dist[v1][v0] = 0
-							dist[v0][v1] = dist[v1][v0]
-						}
-						RouteType.SHIP, RouteType.WARSHIP, RouteType.OPEN -> assert(false)
-						else                                              -> assert(false)
-					}
-				}
-			}
-
-
-			// All-Pairs shortest paths [Floyd-Marshall O(|V|^3)] algorithm.  This is a good choice for dense graphs like ours
-			// where every vertex has 2 or 3 edges.  The memory usage and complexity of a Dijkstra's make it less desirable.
-			// However this is very expensive computationally especially on lesser tablets, hence the optimization above.
-			for (k in 0 until numV) {
-				for (i in 0 until numV) {
-					for (j in 0 until numV) {
-						val sum = dist[i][k] + dist[k][j]
-						if (sum < dist[i][j]) {
-							assert(sum < IDistances.DISTANCE_INFINITY)
-							dist[i][j] = sum.toByte()
-							next[i][j] = next[i][k]
-						}
-					}
-				}
-			}
-			val d: IDistances = DistancesLand(dist, next)
-			distancesCache[str] = d
-			d
-		}
-	}
-
-	private fun computeDistancesLandWater(rules: Rules, playerNum: Int): IDistances {
-		val rcache = IntArray(routes.size)
-		var rcacheLen = 0
-
-		// Assign distances to edges
-		for (rIndex in routes.indices) {
-			val r = routes[rIndex]
-			if (r.player == playerNum) {
-				when (r.type) {
-					RouteType.DAMAGED_ROAD, RouteType.ROAD -> rcache[rcacheLen++] = rIndex
-					RouteType.SHIP, RouteType.WARSHIP -> rcache[rcacheLen++] = rIndex * 1000 // for water we scale by 1000 so that it produces a different distanceCache string
-					RouteType.OPEN -> assert(false)
-					else                                   -> assert(false)
-				}
-			}
-		}
-
-		// OPTIMIZATION: check if the current route configuration has already been done, then no need to do it again
-		Arrays.sort(rcache, 0, rcacheLen)
-		val str = Utils.toString(rcache, 0, rcacheLen)
-		distancesCache[str]?.let { return it }
-		val numV = numAvailableVerts
-		val distLand = Array(numV) { ByteArray(numV) }
-		val distAqua = Array(numV) { ByteArray(numV) }
-		val nextLand = Array(numV) { ByteArray(numV) }
-		val nextAqua = Array(numV) { ByteArray(numV) }
-		for (i in 0 until numV) {
-			for (ii in 0 until numV) {
-				distLand[i][ii] = IDistances.DISTANCE_INFINITY
-				distAqua[i][ii] = IDistances.DISTANCE_INFINITY
-				nextLand[i][ii] = ii.toByte()
-				nextAqua[i][ii] = ii.toByte()
-			}
-			distLand[i][i] = 0
-			distAqua[i][i] = 0
-		}
-
-		// Assign distances to edges
-		for (rIndex in routes.indices) {
-			val r = routes[rIndex]
-			val v0 = r.from
-			val v1 = r.to
-			if (r.player == 0) {
-				if (r.isAdjacentToLand) {
-					distLand[v1][v0] = 1
-					distLand[v0][v1] = distLand[v1][v0]
-				}
-				if (r.isAdjacentToWater) {
-					distAqua[v1][v0] = 1
-					distAqua[v0][v1] = distAqua[v1][v0]
-				}
-			} else if (r.player == playerNum) {
-				when (r.type) {
-					RouteType.DAMAGED_ROAD, RouteType.ROAD -> {
-						distLand[v1][v0] = 0
-						distLand[v0][v1] = distLand[v1][v0]
-					}
-					RouteType.SHIP, RouteType.WARSHIP -> {
-						distAqua[v1][v0] = 0
-						distAqua[v0][v1] = distAqua[v1][v0]
-					}
-					RouteType.OPEN -> assert(false)
-				}
-			}
-		}
-
-		// All-Pairs shortest paths [Floyd-Marshall O(|V|^3)] algorithm.  This is a good choice for dense graphs like ours
-		// where every vertex has 2 or 3 edges.  The memory usage and complexity of a Dijkstra's make it less desirable.
-		for (k in 0 until numV) {
-			for (i in 0 until numV) {
-				for (j in 0 until numV) {
-					// this is wrong!
-					var sum: Int = max(IDistances.DISTANCE_INFINITY.toInt(), distLand[i][k] + distLand[k][j])
-					if (sum < distLand[i][j]) {
-						distLand[i][j] = sum.toByte()
-						nextLand[i][j] = nextLand[i][k]
-					}
-					sum = distAqua[i][k] + distAqua[k][j]
-					if (sum < distAqua[i][j]) {
-						distAqua[i][j] = sum.toByte()
-						nextAqua[i][j] = nextAqua[i][k]
-					}
-				}
-			}
-		}
-		val launchVerts: MutableSet<Int> = HashSet()
-
-		// find all vertices where we can launch a ship from
-		for (vIndex in 0 until numAvailableVerts) {
-			val v = getVertex(vIndex)
-			if (v.isAdjacentToWater) {
-				if (v.isStructure && v.player == playerNum) {
-					launchVerts.add(vIndex)
-				} else if (v.player == 0 && rules.isEnableBuildShipsFromPort && isVertexAdjacentToPlayerRoute(vIndex, playerNum)) {
-					for (t in getVertexTiles(vIndex)) {
-						if (t.type.isPort) {
-							launchVerts.add(vIndex)
-							break
-						}
-					}
-				}
-			}
-		}
-		val d: IDistances = DistancesLandWater(distLand, nextLand, distAqua, nextAqua, launchVerts)
-		distancesCache[str] = d
-		return d
+		return distancesCache.getDistances(this, rules, playerNum)
 	}
 
 	@Throws(IOException::class)
@@ -12,7 +12,8 @@ enum class CommodityType(val _nameId: String, val helpTextId: String) : ICardTyp
 		    Coin -> DevelopmentArea.Politics
     	}
 
-	override val cardType = CardType.Commodity
+	override val cardType: CardType
+		get() = CardType.Commodity
 
 	override fun getHelpText(rules: Rules): String {
 		return helpTextId
@@ -0,0 +1,97 @@
+package cc.game.soc.core
+
+/**
+ * All pairs shortest distances and next hops between the first numV verts of a board, stored row major.
+ * Instances are recycled by DistancesCache. version changes each time the matrix is reused so stale
+ * IDistances can detect it.
+ *
+ * @author Chris Caron
+ */
+class DistanceMatrix(val numV: Int) {
+
+	val dist = ByteArray(numV * numV)
+	val next = ByteArray(numV * numV) // unsigned vertex index
+	var version = 0
+		internal set
+
+	val bytes: Int
+		get() = dist.size + next.size
+
+	fun getDist(from: Int, to: Int): Int = dist[from * numV + to].toInt()
+
+	fun getNext(from: Int, to: Int): Int = next[from * numV + to].toInt() and 0xff
+
+	/**
+	 * Set all distances to infinity except for each vertex to itself
+	 */
+	fun reset() {
+		dist.fill(IDistances.DISTANCE_INFINITY)
+		for (i in 0 until numV) {
+			val row = i * numV
+			for (j in 0 until numV)
+				next[row + j] = j.toByte()
+			dist[row + i] = 0
+		}
+	}
+
+	fun setEdge(v0: Int, v1: Int, d: Int) {
+		dist[v0 * numV + v1] = d.toByte()
+		dist[v1 * numV + v0] = d.toByte()
+	}
+
+	fun copyFrom(m: DistanceMatrix) {
+		System.arraycopy(m.dist, 0, dist, 0, dist.size)
+		System.arraycopy(m.next, 0, next, 0, next.size)
+	}
+
+	/**
+	 * All-Pairs shortest paths [Floyd-Marshall O(|V|^3)] algorithm.  This is a good choice for dense graphs like ours
+	 * where every vertex has 2 or 3 edges.
+	 */
+	fun computeAllPairs() {
+		for (k in 0 until numV) {
+			val kRow = k * numV
+			for (i in 0 until numV) {
+				val iRow = i * numV
+				val dik = dist[iRow + k].toInt()
+				if (dik >= IDistances.DISTANCE_INFINITY)
+					continue
+				for (j in 0 until numV) {
+					val sum = dik + dist[kRow + j]
+					if (sum < dist[iRow + j]) {
+						dist[iRow + j] = sum.toByte()
+						next[iRow + j] = next[iRow + k]
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Update in O(|V|^2) after the edge between u and v has dropped to 0. A shortest path can use the new
+	 * edge at most once so each pair only needs to consider i->u->v->j and i->v->u->j.
+	 */
+	fun relaxZeroEdge(u: Int, v: Int) {
+		val uRow = u * numV
+		val vRow = v * numV
+		for (i in 0 until numV) {
+			val iRow = i * numV
+			val diu = dist[iRow + u].toInt()
+			val div = dist[iRow + v].toInt()
+			val niu = if (i == u) v.toByte() else next[iRow + u]
+			val niv = if (i == v) u.toByte() else next[iRow + v]
+			for (j in 0 until numV) {
+				val d = dist[iRow + j]
+				val a = diu + dist[vRow + j]
+				val b = div + dist[uRow + j]
+				if (a < d && a <= b) {
+					dist[iRow + j] = a.toByte()
+					next[iRow + j] = niu
+				} else if (b < d) {
+					dist[iRow + j] = b.toByte()
+					next[iRow + j] = niv
+				}
+			}
+		}
+	}
+}
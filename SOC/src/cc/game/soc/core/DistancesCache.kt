@@ -0,0 +1,269 @@
+package cc.game.soc.core
+
+/**
+ * Memoized distances for Board.computeDistances.
+ *
+ * Entries are keyed by a 64 bit hash of the routes as seen by a player (open, own road, own ship or blocked) and
+ * evicted least recently used first once their matrices exceed maxBytes. Evicted matrices are pooled and reused.
+ * When the routes differ from a recently computed entry by a single added road or ship, the new distances are
+ * derived from it in O(|V|^2) instead of recomputing all pairs in O(|V|^3).
+ *
+ * IDistances returned from here throw SOCException if used after their entry has been evicted.
+ *
+ * A board is read from the UI thread and the bot thread at the same time so access is synchronized.
+ *
+ * @author Chris Caron
+ */
+class DistancesCache @JvmOverloads constructor(var maxBytes: Long = DEFAULT_MAX_BYTES) {
+
+	companion object {
+		const val DEFAULT_MAX_BYTES = 8L shl 20
+
+		private const val ROUTE_OPEN: Byte = 0
+		private const val ROUTE_ROAD: Byte = 1
+		private const val ROUTE_SHIP: Byte = 2
+		private const val ROUTE_BLOCKED: Byte = 3
+
+		private const val NUM_RECENT = 4
+		private const val MAX_POOLED = 8
+
+		private fun mix(h: Long, v: Long): Long {
+			val x = (h xor v) * -0x61c8864680b583ebL
+			return x xor (x ushr 29)
+		}
+	}
+
+	private class Entry(val playerNum: Int, val seafarers: Boolean, val routes: ByteArray, val land: DistanceMatrix, val aqua: DistanceMatrix?) {
+		var launchVerts = IntArray(0)
+		var distances: IDistances? = null
+		val bytes: Long
+			get() = routes.size + land.bytes.toLong() + (aqua?.bytes ?: 0)
+	}
+
+	private val entries = LinkedHashMap<Long, Entry>(16, 0.75f, true)
+	private val recent = ArrayList<Entry>() // candidates for incremental update, most recent first
+	private val pool = ArrayList<DistanceMatrix>()
+	private var routes = ByteArray(0) // the routes of the current request
+	private var launch = IntArray(0)
+	private var numLaunch = 0
+
+	var hits = 0L
+		private set
+	var misses = 0L
+		private set
+	var incrementalUpdates = 0L
+		private set
+	var evictions = 0L
+		private set
+	var bytesUsed = 0L
+		private set
+
+	val size: Int
+		@Synchronized get() = entries.size
+
+	@Synchronized
+	fun getDistances(b: Board, rules: Rules, playerNum: Int): IDistances {
+		val seafarers = rules.isEnableSeafarersExpansion
+		val numV = b.numAvailableVerts
+		val key = classifyRoutes(b, playerNum, seafarers)
+		var e = entries[key]
+		if (e != null && (e.playerNum != playerNum || e.seafarers != seafarers || e.land.numV != numV || !e.routes.contentEquals(routes))) {
+			// hash collision
+			release(entries.remove(key)!!)
+			e = null
+		}
+		if (e != null) {
+			hits++
+			recent.remove(e)
+		} else {
+			misses++
+			e = compute(b, numV, playerNum, seafarers)
+			put(key, e)
+		}
+		recent.add(0, e)
+		if (recent.size > NUM_RECENT)
+			recent.removeAt(recent.size - 1)
+		if (!seafarers) {
+			return e.distances ?: DistancesLand(e.land).also { e.distances = it }
+		}
+		// launch verts depend on structures, not routes so they are checked each time
+		computeLaunchVerts(b, rules, playerNum)
+		e.distances?.let {
+			if (e.launchVerts.size == numLaunch && (0 until numLaunch).all { i -> e.launchVerts[i] == launch[i] })
+				return it
+		}
+		e.launchVerts = launch.copyOf(numLaunch)
+		return DistancesLandWater(e.land, e.aqua!!, e.launchVerts.toHashSet()).also { e.distances = it }
+	}
+
+	@Synchronized
+	fun clear() {
+		for (e in entries.values)
+			release(e)
+		entries.clear()
+		recent.clear()
+	}
+
+	@Synchronized
+	fun resetStats() {
+		hits = 0
+		misses = 0
+		incrementalUpdates = 0
+		evictions = 0
+	}
+
+	@Synchronized
+	override fun toString(): String {
+		return String.format("DistancesCache entries=%d bytes=%d/%d hits=%d misses=%d incremental=%d evictions=%d",
+			entries.size, bytesUsed, maxBytes, hits, misses, incrementalUpdates, evictions)
+	}
+
+	/**
+	 * Fill routes with the route types relative to playerNum and return their hash
+	 */
+	private fun classifyRoutes(b: Board, playerNum: Int, seafarers: Boolean): Long {
+		if (routes.size != b.numRoutes)
+			routes = ByteArray(b.numRoutes)
+		var h = mix(playerNum.toLong(), if (seafarers) 1 else 0)
+		for (i in routes.indices) {
+			val r = b.getRoute(i)
+			val type = when {
+				r.player == 0 -> ROUTE_OPEN
+				r.player != playerNum -> ROUTE_BLOCKED
+				r.type.isRoad -> ROUTE_ROAD
+				r.type.isVessel && seafarers -> ROUTE_SHIP
+				else -> ROUTE_BLOCKED
+			}
+			routes[i] = type
+			if (type != ROUTE_OPEN)
+				h = mix(h, (i.toLong() shl 2) or type.toLong())
+		}
+		return h
+	}
+
+	private fun compute(b: Board, numV: Int, playerNum: Int, seafarers: Boolean): Entry {
+		for (parent in recent) {
+			if (parent.playerNum != playerNum || parent.seafarers != seafarers || parent.land.numV != numV || parent.routes.size != routes.size)
+				continue
+			val rIndex = findAddedRoute(b, parent)
+			if (rIndex < 0)
+				continue
+			val e = Entry(playerNum, seafarers, routes.copyOf(), obtain(numV), if (seafarers) obtain(numV) else null)
+			e.land.copyFrom(parent.land)
+			e.aqua?.copyFrom(parent.aqua!!)
+			val r = b.getRoute(rIndex)
+			if (routes[rIndex] == ROUTE_ROAD)
+				e.land.relaxZeroEdge(r.from, r.to)
+			else
+				e.aqua!!.relaxZeroEdge(r.from, r.to)
+			incrementalUpdates++
+			return e
+		}
+		val e = Entry(playerNum, seafarers, routes.copyOf(), obtain(numV), if (seafarers) obtain(numV) else null)
+		val land = e.land
+		val aqua = e.aqua
+		land.reset()
+		aqua?.reset()
+		for (rIndex in routes.indices) {
+			val r = b.getRoute(rIndex)
+			if (r.from >= numV || r.to >= numV)
+				continue
+			when (routes[rIndex]) {
+				ROUTE_OPEN -> {
+					if (aqua == null || r.isAdjacentToLand)
+						land.setEdge(r.from, r.to, 1)
+					if (aqua != null && r.isAdjacentToWater)
+						aqua.setEdge(r.from, r.to, 1)
+				}
+				ROUTE_ROAD -> land.setEdge(r.from, r.to, 0)
+				ROUTE_SHIP -> aqua?.setEdge(r.from, r.to, 0)
+			}
+		}
+		land.computeAllPairs()
+		aqua?.computeAllPairs()
+		return e
+	}
+
+	/**
+	 * @return index of the single route that was open in parent and is now owned and only lowers
+	 * distances, or -1 if the routes differ in any other way
+	 */
+	private fun findAddedRoute(b: Board, parent: Entry): Int {
+		var added = -1
+		for (i in routes.indices) {
+			if (routes[i] == parent.routes[i])
+				continue
+			if (added >= 0 || parent.routes[i] != ROUTE_OPEN)
+				return -1
+			added = i
+		}
+		if (added < 0 || routes[added] == ROUTE_BLOCKED)
+			return -1
+		val r = b.getRoute(added)
+		if (r.from >= parent.land.numV || r.to >= parent.land.numV)
+			return -1
+		if (parent.seafarers) {
+			// an open route is in both graphs. Claiming it removes it from the other one
+			if (routes[added] == ROUTE_ROAD && r.isAdjacentToWater)
+				return -1
+			if (routes[added] == ROUTE_SHIP && r.isAdjacentToLand)
+				return -1
+		}
+		return added
+	}
+
+	private fun put(key: Long, e: Entry) {
+		entries[key] = e
+		bytesUsed += e.bytes
+		val it = entries.values.iterator()
+		while (bytesUsed > maxBytes && it.hasNext()) {
+			val old = it.next()
+			if (old === e)
+				break
+			it.remove()
+			release(old)
+			evictions++
+		}
+	}
+
+	private fun release(e: Entry) {
+		bytesUsed -= e.bytes
+		recent.remove(e)
+		recycle(e.land)
+		e.aqua?.let { recycle(it) }
+	}
+
+	private fun recycle(m: DistanceMatrix) {
+		m.version++
+		if (pool.size < MAX_POOLED)
+			pool.add(m)
+	}
+
+	private fun obtain(numV: Int): DistanceMatrix {
+		for (i in pool.indices.reversed()) {
+			if (pool[i].numV == numV)
+				return pool.removeAt(i)
+		}
+		return DistanceMatrix(numV)
+	}
+
+	/**
+	 * Find all vertices where we can launch a ship from
+	 */
+	private fun computeLaunchVerts(b: Board, rules: Rules, playerNum: Int) {
+		numLaunch = 0
+		if (launch.size < b.numAvailableVerts)
+			launch = IntArray(b.numAvailableVerts)
+		for (vIndex in 0 until b.numAvailableVerts) {
+			val v = b.getVertex(vIndex)
+			if (!v.isAdjacentToWater)
+				continue
+			if (v.isStructure && v.player == playerNum) {
+				launch[numLaunch++] = vIndex
+			} else if (v.player == 0 && rules.isEnableBuildShipsFromPort && b.isVertexAdjacentToPlayerRoute(vIndex, playerNum)) {
+				if (b.getVertexTiles(vIndex).any { it.type.isPort })
+					launch[numLaunch++] = vIndex
+			}
+		}
+	}
+}
@@ -2,14 +2,22 @@ package cc.game.soc.core
 
 import java.util.*
 
-class DistancesLand @JvmOverloads constructor(private val dist: Array<ByteArray> = arrayOf(), private val next: Array<ByteArray> = arrayOf()) : IDistances {
+class DistancesLand(private val land: DistanceMatrix) : IDistances {
+
+	private val version = land.version
+
+	private fun checkValid() {
+		if (land.version != version) throw SOCException("Distances have been evicted from the cache")
+	}
+
 	override fun getShortestPath(fromVertex: Int, toVertex: Int): List<Int> {
+		checkValid()
 		var fromVertex = fromVertex
 		val path: MutableList<Int> = ArrayList()
-		if (dist[fromVertex][toVertex] != IDistances.DISTANCE_INFINITY) {
+		if (land.getDist(fromVertex, toVertex) != IDistances.DISTANCE_INFINITY.toInt()) {
 			path.add(fromVertex)
 			while (fromVertex != toVertex) {
-				fromVertex = next!![fromVertex][toVertex].toInt()
+				fromVertex = land.getNext(fromVertex, toVertex)
 				path.add(fromVertex)
 			}
 		}
@@ -17,6 +25,7 @@ class DistancesLand @JvmOverloads constructor(private val dist: Array<ByteArray>
 	}
 
 	override fun getDist(from: Int, to: Int): Int {
-		return dist[from][to].toInt()
+		checkValid()
+		return land.getDist(from, to)
 	}
-}
\ No newline at end of file
+}
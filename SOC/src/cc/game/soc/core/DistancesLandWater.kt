@@ -3,11 +3,20 @@ package cc.game.soc.core
 import java.util.*
 import kotlin.math.min
 
-class DistancesLandWater @JvmOverloads constructor(
-	private val distLand: Array<ByteArray> = arrayOf(), private val nextLand: Array<ByteArray> = arrayOf(),
-	private val distAqua: Array<ByteArray> = arrayOf(), private val nextAqua: Array<ByteArray> = arrayOf(),
-	private val launchVerts: MutableCollection<Int> = mutableListOf()) : IDistances {
+class DistancesLandWater(
+	private val land: DistanceMatrix,
+	private val aqua: DistanceMatrix,
+	private val launchVerts: MutableCollection<Int>) : IDistances {
+
+	private val landVersion = land.version
+	private val aquaVersion = aqua.version
+
+	private fun checkValid() {
+		if (land.version != landVersion || aqua.version != aquaVersion) throw SOCException("Distances have been evicted from the cache")
+	}
+
 	override fun getShortestPath(fromVertex: Int, toVertex: Int): List<Int> {
+		checkValid()
 		val path: MutableList<Int> = ArrayList()
 		getShortestPathR(fromVertex, toVertex, path)
 		return path
@@ -23,63 +32,64 @@ class DistancesLandWater @JvmOverloads constructor(
 		// land->shore->water->shore->land
 		var index: Int
 		val copyVerts: MutableList<Int> = ArrayList(launchVerts)
-		if (distLand[fromVertex][toVertex] != IDistances.DISTANCE_INFINITY) {
+		if (land.getDist(fromVertex, toVertex) != IDistances.DISTANCE_INFINITY.toInt()) {
 			// land->land
-			getShortestPath(fromVertex, toVertex, path, distLand, nextLand)
-		} else if (distAqua[fromVertex][toVertex] != IDistances.DISTANCE_INFINITY) {
+			getShortestPath(fromVertex, toVertex, path, land)
+		} else if (aqua.getDist(fromVertex, toVertex) != IDistances.DISTANCE_INFINITY.toInt()) {
 			// water->water
-			getShortestPath(fromVertex, toVertex, path, distAqua, nextAqua)
-		} else if (nearestShorelineIndex(fromVertex, distLand, copyVerts).also { index = it } >= 0) {
+			getShortestPath(fromVertex, toVertex, path, aqua)
+		} else if (nearestShorelineIndex(fromVertex, land, copyVerts).also { index = it } >= 0) {
 			//land->shore->?
-			if (distLand[fromVertex][index] != IDistances.DISTANCE_INFINITY) {
-				getShortestPath(fromVertex, index, path, distLand, nextLand)
+			if (land.getDist(fromVertex, index) != IDistances.DISTANCE_INFINITY.toInt()) {
+				getShortestPath(fromVertex, index, path, land)
 				getShortestPathR(index, toVertex, path)
 			}
-		} else if (nearestShorelineIndex(fromVertex, distAqua, copyVerts).also { index = it } >= 0) {
+		} else if (nearestShorelineIndex(fromVertex, aqua, copyVerts).also { index = it } >= 0) {
 			//water->shore->?
-			if (distAqua[fromVertex][index] != IDistances.DISTANCE_INFINITY) {
-				getShortestPath(fromVertex, index, path, distAqua, nextAqua)
+			if (aqua.getDist(fromVertex, index) != IDistances.DISTANCE_INFINITY.toInt()) {
+				getShortestPath(fromVertex, index, path, aqua)
 				getShortestPathR(index, toVertex, path)
 			}
 		}
 	}
 
-	private fun getShortestPath(fromVertex: Int, toVertex: Int, path: MutableList<Int>, dist: Array<ByteArray>, next: Array<ByteArray>) {
+	private fun getShortestPath(fromVertex: Int, toVertex: Int, path: MutableList<Int>, m: DistanceMatrix) {
 		var fromVertex = fromVertex
-		if (dist[fromVertex][toVertex] != IDistances.DISTANCE_INFINITY) {
+		if (m.getDist(fromVertex, toVertex) != IDistances.DISTANCE_INFINITY.toInt()) {
 			path.add(fromVertex)
 			while (fromVertex != toVertex) {
-				fromVertex = next[fromVertex][toVertex].toInt()
+				fromVertex = m.getNext(fromVertex, toVertex)
 				path.add(fromVertex)
 			}
 		}
 	}
 
 	override fun getDist(from: Int, to: Int): Int {
+		checkValid()
 		return getDistR(from, to, ArrayList(launchVerts))
 	}
 
 	private fun getDistR(from: Int, to: Int, copyVerts: MutableList<Int>): Int {
 		var index: Int
-		if (distLand[from][to] != IDistances.DISTANCE_INFINITY) {
-			return distLand[from][to].toInt()
-		} else if (distAqua[from][to] != IDistances.DISTANCE_INFINITY) {
-			return distAqua[from][to].toInt()
-		} else if (nearestShorelineIndex(from, distLand, copyVerts).also { index = it } >= 0) {
-			return min(IDistances.DISTANCE_INFINITY.toInt(), distLand[from][index] + getDistR(index, to, copyVerts))
-		} else if (nearestShorelineIndex(from, distAqua, copyVerts).also { index = it } >= 0) {
-			return min(IDistances.DISTANCE_INFINITY.toInt(), distAqua[from][index] + getDistR(index, to, copyVerts))
+		if (land.getDist(from, to) != IDistances.DISTANCE_INFINITY.toInt()) {
+			return land.getDist(from, to)
+		} else if (aqua.getDist(from, to) != IDistances.DISTANCE_INFINITY.toInt()) {
+			return aqua.getDist(from, to)
+		} else if (nearestShorelineIndex(from, land, copyVerts).also { index = it } >= 0) {
+			return min(IDistances.DISTANCE_INFINITY.toInt(), land.getDist(from, index) + getDistR(index, to, copyVerts))
+		} else if (nearestShorelineIndex(from, aqua, copyVerts).also { index = it } >= 0) {
+			return min(IDistances.DISTANCE_INFINITY.toInt(), aqua.getDist(from, index) + getDistR(index, to, copyVerts))
 		}
 		return IDistances.DISTANCE_INFINITY.toInt()
 	}
 
 	companion object {
-		private fun nearestShorelineIndex(from: Int, dist: Array<ByteArray>, launchVerts: MutableCollection<Int>): Int {
-			var d = IDistances.DISTANCE_INFINITY
+		private fun nearestShorelineIndex(from: Int, m: DistanceMatrix, launchVerts: MutableCollection<Int>): Int {
+			var d = IDistances.DISTANCE_INFINITY.toInt()
 			var index = -1
 			for (vIndex in launchVerts) {
-				if (dist[from][vIndex] < d) {
-					d = dist[from][vIndex]
+				if (m.getDist(from, vIndex) < d) {
+					d = m.getDist(from, vIndex)
 					index = vIndex
 				}
 			}
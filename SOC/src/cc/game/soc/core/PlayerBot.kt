@@ -9,6 +9,8 @@ import java.io.File
 import java.io.IOException
 import java.io.PrintStream
 import java.util.*
+import java.util.concurrent.ForkJoinPool
+import java.util.concurrent.ForkJoinTask
 import kotlin.math.absoluteValue
 
 open class PlayerBot : Player() {
@@ -20,6 +22,30 @@ open class PlayerBot : Player() {
 	private val usedMoves: MutableSet<MoveType> = HashSet()
 	private var numLeafs = 0
 
+	/**
+	 * Number of threads used to build and evaluate the moves tree in chooseMove. 1 is serial.
+	 */
+	@JvmField
+	var parallelism = 1
+
+	/**
+	 * When > 0, only this many of the most productive vertices and routes are expanded for settlements, cities,
+	 * knights, roads and ships.
+	 */
+	@JvmField
+	var beamWidth = 0
+
+	/**
+	 * When > 0, stop expanding the moves tree after this many milliseconds.
+	 */
+	@JvmField
+	var maxTimeMillis = 0L
+
+	private var deadline = 0L
+	private var random: Random? = null // set per top level move in chooseMove so each subtree has its own numbers
+	private var checkedMoves: MutableSet<MoveType>? = null // use once moves looked at by a worker of a parallel build
+	private var pool: ForkJoinPool? = null
+
 	class Statistics {
 		var numOccurances = 0
 		var accumulatedValue = 0.0
@@ -30,6 +56,40 @@ open class PlayerBot : Player() {
 		movesPath = null
 	}
 
+	private val isOutOfTime: Boolean
+		get() = deadline > 0 && System.currentTimeMillis() > deadline
+
+	private fun rand(): Int = random?.let { Math.abs(it.nextInt()) } ?: Utils.rand()
+
+	private fun getVertexValue(soc: SOC, b: Board, vIndex: Int): Double {
+		var value = 0.0
+		for (t in b.getVertexTiles(vIndex)) {
+			if (t.isDistributionTile) value += getDiePossibility(t.dieNum, soc.rules)
+		}
+		return value
+	}
+
+	/**
+	 * Keep the beamWidth vertices adjacent to the most productive tiles. Order is preserved.
+	 */
+	private fun beamVerts(soc: SOC, b: Board, verts: List<Int>): List<Int> {
+		if (beamWidth <= 0 || verts.size <= beamWidth) return verts
+		val best = verts.sortedByDescending { getVertexValue(soc, b, it) }.subList(0, beamWidth).toSet()
+		return verts.filter { best.contains(it) }
+	}
+
+	/**
+	 * Keep the beamWidth routes leading to the most productive vertices. Order is preserved.
+	 */
+	private fun beamRoutes(soc: SOC, b: Board, routes: List<Int>): List<Int> {
+		if (beamWidth <= 0 || routes.size <= beamWidth) return routes
+		val best = routes.sortedByDescending {
+			val r = b.getRoute(it)
+			Math.max(getVertexValue(soc, b, r.from), getVertexValue(soc, b, r.to))
+		}.subList(0, beamWidth).toSet()
+		return routes.filter { best.contains(it) }
+	}
+
 	private fun createNewTree(desc: String): BotNode {
 		val node: BotNode = BotNodeRoot(desc)
 
@@ -422,8 +482,8 @@ open class PlayerBot : Player() {
 			}
 			return
 		}
-		val roads: List<Int> = if (allowRoads) SOC.computeRoadRouteIndices(p.playerNum, b) else listOf()
-		val ships: List<Int> = if (allowShips) SOC.computeShipRouteIndices(soc, p.playerNum, b) else listOf()
+		val roads: List<Int> = if (allowRoads) beamRoutes(soc, b, SOC.computeRoadRouteIndices(p.playerNum, b)) else listOf()
+		val ships: List<Int> = if (allowShips) beamRoutes(soc, b, SOC.computeShipRouteIndices(soc, p.playerNum, b)) else listOf()
 		val numRoads = roads.size
 		val numShips = ships.size
 
@@ -522,748 +582,851 @@ open class PlayerBot : Player() {
 		p.addCards(area.commodity, numCards)
 	}
 
-	private fun buildChooseMoveTreeR(soc: SOC, p: Player, b: Board, _root: BotNode, moves: Collection<MoveType>) {
-		for (move in moves) {
+	private fun buildChooseMoveTreeR(soc: SOC, p: Player, b: Board, _root: BotNode, moves: Collection<MoveType>, seeds: LongArray? = null) {
+		for ((i, move) in moves.withIndex()) {
 			if (move.aiUseOnce) {
+				checkedMoves?.add(move)
 				if (usedMoves.contains(move)) continue
 				usedMoves.add(move)
 			}
-			if (numLeafs > 500) {
+			if (numLeafs > MAX_LEAFS || isOutOfTime) {
 				doEvaluateAll(_root, soc, p, b)
 				break
 			}
-			val root = _root.attach(BotNodeEnum(move))
-			when (move) {
-				MoveType.CONTINUE ->                    //doEvaluate(root, soc, p, b, 1);
-					// nothing to evaluate since we inherit all values from our parent
-					doEvaluateAll(root, soc, p, b)
-				MoveType.TRADE -> {
-					val trades = SOC.computeTrades(p, b)
-					for (trade in trades) {
-						val n = root.attach(BotNodeTrade(trade))
-						p.incrementResource(trade.getType(), -trade.amount)
-						for (r in ResourceType.values()) {
-							if (r === trade.getType()) // as an optimization we skip trades for the same type
-								continue  //
-							p.addCard(r)
-							val node = n.attach(BotNodeCard(r))
-							//evaluatePlayer(node, soc, p, b);
-							buildChooseMoveTreeR(soc, p, b, node, SOC.computeMoves(p, b, soc))
-							p.removeCard(r)
-						}
-						if (soc.rules.isEnableCitiesAndKnightsExpansion) {
-							for (c in CommodityType.values()) {
-								if (c === trade.getType()) continue
-								p.addCard(c)
-								buildChooseMoveTreeR(soc, p, b, n.attach(BotNodeCard(c)), SOC.computeMoves(p, b, soc))
-								p.removeCard(c)
-							}
-						}
-						p.incrementResource(trade.getType(), trade.amount)
-					}
-				}
-				MoveType.BUILD_SETTLEMENT -> {
-					val verts = SOC.computeSettlementVertexIndices(soc, p.playerNum, b)
-					p.adjustResourcesForBuildable(BuildableType.Settlement, -1)
-					for (vIndex in verts) {
-						val v = b.getVertex(vIndex)
-						v.setPlayerAndType(p.playerNum, VertexType.SETTLEMENT)
-						onBoardChanged()
-						val node = root.attach(BotNodeVertex(v, vIndex))
-						//evaluateVertices(node, soc.getRules(), p.getPlayerNum(), b);
-						buildChooseMoveTreeR(soc, p, b, node, SOC.computeMoves(p, b, soc))
-						v.setOpen()
-					}
-					p.adjustResourcesForBuildable(BuildableType.Settlement, 1)
+			seeds?.let { random = Random(it[i]) }
+			buildMoveTree(soc, p, b, _root.attach(BotNodeEnum(move)), move)
+
+			// TODO: Why did I put this here?
+			// break; // break out of for loop
+		} // end for
+	}
+
+	/**
+	 * Creates the bots that build subtrees in parallel. Uses the no argument constructor of this class so its
+	 * overrides apply to the subtrees too. Override if there is no such constructor.
+	 */
+	protected open fun newWorker(): PlayerBot = javaClass.getDeclaredConstructor().let {
+		it.isAccessible = true
+		it.newInstance()
+	}
+
+	private class Subtree(val worker: PlayerBot, val node: BotNode, val usedMoves: Set<MoveType>, val startLeafs: Int) {
+		val addedMoves: Set<MoveType>
+			get() = worker.usedMoves - usedMoves
+
+		val leafs: Int
+			get() = worker.numLeafs - startLeafs
+	}
+
+	/**
+	 * Build the top level moves of buildChooseMoveTreeR on a ForkJoinPool into the same tree as the serial build.
+	 *
+	 * Each move is built by a worker on its own copy of the game, starting from a guess of the use once moves and
+	 * leaf count the moves before it leave behind. The subtrees are then taken in move order. One is kept when the
+	 * use once moves it looked at and its leaf limit are the same as in the serial build, otherwise it and the
+	 * moves after it are built again starting from the serial state. Random numbers come from the seed of each
+	 * top level move in both builds.
+	 */
+	private fun buildChooseMoveTreeParallel(soc: SOC, root: BotNode, moves: List<MoveType>, seeds: LongArray) {
+		val p = soc.getPlayerByPlayerNum(playerNum)
+		val b = soc.board
+		val pool = pool?.takeIf { it.parallelism == parallelism } ?: ForkJoinPool(parallelism).also {
+			pool?.shutdown()
+			pool = it
+		}
+		var next = 0
+		var previous = arrayOfNulls<Subtree>(moves.size)
+		while (next < moves.size) {
+			val subtrees = arrayOfNulls<Subtree>(moves.size)
+			val used = HashSet(usedMoves)
+			var leafs = numLeafs
+			val tasks = ArrayList<ForkJoinTask<*>>()
+			try {
+				for (i in next until moves.size) {
+					val move = moves[i]
+					if (move.aiUseOnce) {
+						if (used.contains(move)) continue
+						used.add(move)
+					}
+					val worker = newWorker()
+					worker.playerNum = playerNum
+					worker.usedMoves.addAll(used)
+					worker.numLeafs = leafs
+					worker.beamWidth = beamWidth
+					worker.deadline = deadline
+					worker.random = Random(seeds[i])
+					worker.checkedMoves = HashSet()
+					// attached for the parent and properties but only added to the children once kept
+					val node = root.attach(BotNodeEnum(move))
+					root.children.remove(node)
+					subtrees[i] = Subtree(worker, node, HashSet(used), leafs)
+					val game = SOC()
+					game.copyFrom(soc)
+					tasks.add(pool.submit {
+						worker.buildMoveTree(game, game.getPlayerByPlayerNum(playerNum), game.board, node, move)
+					})
+					// guess what this move leaves behind from the last attempt at it
+					previous[i]?.let {
+						used.addAll(it.addedMoves)
+						leafs += it.leafs
+					}
+				}
+			} finally {
+				tasks.forEach { it.join() }
+			}
+			while (next < moves.size) {
+				val move = moves[next]
+				if (move.aiUseOnce && usedMoves.contains(move)) {
+					next++
+					continue
 				}
-				MoveType.BUILD_CITY -> {
-					val verts = SOC.computeCityVertxIndices(p.playerNum, b)
-					p.adjustResourcesForBuildable(BuildableType.City, -1)
-					for (vIndex in verts) {
-						val v = b.getVertex(vIndex)
-						v.setPlayerAndType(p.playerNum, VertexType.CITY)
-						onBoardChanged()
-						val node = root.attach(BotNodeVertex(v, vIndex))
-						//evaluateVertices(node, soc.getRules(), p.getPlayerNum(), b);
-						buildChooseMoveTreeR(soc, p, b, node, SOC.computeMoves(p, b, soc))
-						v.setPlayerAndType(p.playerNum, VertexType.SETTLEMENT)
-					}
-					p.adjustResourcesForBuildable(BuildableType.City, 1)
+				if (numLeafs > MAX_LEAFS || isOutOfTime) {
+					doEvaluateAll(root, soc, p, b)
+					return
 				}
-				MoveType.BUILD_CITY_WALL -> {
-					val verts = SOC.computeCityWallVertexIndices(p.playerNum, b)
-					p.adjustResourcesForBuildable(BuildableType.CityWall, -1)
-					for (vIndex in verts) {
-						val v = b.getVertex(vIndex)
-						v.setPlayerAndType(p.playerNum, VertexType.WALLED_CITY)
-						onBoardChanged()
-						val node = root.attach(BotNodeVertex(v, vIndex))
-						//evaluateVertices(node, soc.getRules(), p.getPlayerNum(), b);
+				val subtree = subtrees[next] ?: break
+				if (subtree.worker.checkedMoves!!.any { subtree.usedMoves.contains(it) != (it == move || usedMoves.contains(it)) })
+					break
+				if (subtree.startLeafs != numLeafs && Math.max(subtree.startLeafs, numLeafs) + subtree.leafs > MAX_LEAFS)
+					break
+				if (move.aiUseOnce)
+					usedMoves.add(move)
+				usedMoves.addAll(subtree.addedMoves)
+				numLeafs += subtree.leafs
+				root.children.add(subtree.node)
+				next++
+			}
+			previous = subtrees
+		}
+	}
+
+	private fun buildMoveTree(soc: SOC, p: Player, b: Board, root: BotNode, move: MoveType) {
+		when (move) {
+			MoveType.CONTINUE ->                    //doEvaluate(root, soc, p, b, 1);
+				// nothing to evaluate since we inherit all values from our parent
+				doEvaluateAll(root, soc, p, b)
+			MoveType.TRADE -> {
+				val trades = SOC.computeTrades(p, b)
+				for (trade in trades) {
+					val n = root.attach(BotNodeTrade(trade))
+					p.incrementResource(trade.getType(), -trade.amount)
+					for (r in ResourceType.values()) {
+						if (r === trade.getType()) // as an optimization we skip trades for the same type
+							continue  //
+						p.addCard(r)
+						val node = n.attach(BotNodeCard(r))
+						//evaluatePlayer(node, soc, p, b);
 						buildChooseMoveTreeR(soc, p, b, node, SOC.computeMoves(p, b, soc))
-						v.setPlayerAndType(p.playerNum, VertexType.CITY)
+						p.removeCard(r)
+					}
+					if (soc.rules.isEnableCitiesAndKnightsExpansion) {
+						for (c in CommodityType.values()) {
+							if (c === trade.getType()) continue
+							p.addCard(c)
+							buildChooseMoveTreeR(soc, p, b, n.attach(BotNodeCard(c)), SOC.computeMoves(p, b, soc))
+							p.removeCard(c)
+						}
 					}
-					p.adjustResourcesForBuildable(BuildableType.CityWall, 1)
+					p.incrementResource(trade.getType(), trade.amount)
 				}
-				MoveType.REPAIR_ROAD -> {
-					p.adjustResourcesForBuildable(BuildableType.Road, -1)
-					p.removeCard(SpecialVictoryType.DamagedRoad)
-					//evaluatePlayer(root, soc, p, b);
-					buildChooseMoveTreeR(soc, p, b, root, SOC.computeMoves(p, b, soc))
-					p.addCard(SpecialVictoryType.DamagedRoad)
-					p.adjustResourcesForBuildable(BuildableType.Road, 1)
-				}
-				MoveType.BUILD_ROAD -> {
-					p.adjustResourcesForBuildable(BuildableType.Road, -1)
-					addRouteBuildingMovesR(soc, p, b, root, true, false, 1, true)
-					p.adjustResourcesForBuildable(BuildableType.Road, 1)
-				}
-				MoveType.ROAD_BUILDING_CARD -> {
-					val copy = p.deepCopy()
-					if (!soc.rules.isEnableCitiesAndKnightsExpansion) {
-						copy.removeCard(DevelopmentCardType.RoadBuilding)
-						copy.setCardsUsable(CardType.Development, false)
-					}
-					addRouteBuildingMovesR(soc, copy, b, root, true, soc.rules.isEnableSeafarersExpansion, 2, true)
-				}
-				MoveType.BISHOP_CARD, MoveType.SOLDIER_CARD -> {
-					val saveRobber = b.robberTileIndex
-					val savePirate = b.pirateTileIndex
-					val opts = SOC.computeRobberTileIndices(soc, b)
-					for (tIndex in opts) {
-						val t = b.getTile(tIndex)
-						if (t.isWater) b.setPirate(tIndex) else b.setRobber(tIndex)
-						onBoardChanged()
-						val node = root.attach(BotNodeTile(t, tIndex))
-						doEvaluateAll(node, soc, p, b)
-						b.setRobber(saveRobber)
-						b.setPirate(savePirate)
-					}
+			}
+			MoveType.BUILD_SETTLEMENT -> {
+				val verts = beamVerts(soc, b, SOC.computeSettlementVertexIndices(soc, p.playerNum, b))
+				p.adjustResourcesForBuildable(BuildableType.Settlement, -1)
+				for (vIndex in verts) {
+					val v = b.getVertex(vIndex)
+					v.setPlayerAndType(p.playerNum, VertexType.SETTLEMENT)
+					onBoardChanged()
+					val node = root.attach(BotNodeVertex(v, vIndex))
+					//evaluateVertices(node, soc.getRules(), p.getPlayerNum(), b);
+					buildChooseMoveTreeR(soc, p, b, node, SOC.computeMoves(p, b, soc))
+					v.setOpen()
+				}
+				p.adjustResourcesForBuildable(BuildableType.Settlement, 1)
+			}
+			MoveType.BUILD_CITY -> {
+				val verts = beamVerts(soc, b, SOC.computeCityVertxIndices(p.playerNum, b))
+				p.adjustResourcesForBuildable(BuildableType.City, -1)
+				for (vIndex in verts) {
+					val v = b.getVertex(vIndex)
+					v.setPlayerAndType(p.playerNum, VertexType.CITY)
+					onBoardChanged()
+					val node = root.attach(BotNodeVertex(v, vIndex))
+					//evaluateVertices(node, soc.getRules(), p.getPlayerNum(), b);
+					buildChooseMoveTreeR(soc, p, b, node, SOC.computeMoves(p, b, soc))
+					v.setPlayerAndType(p.playerNum, VertexType.SETTLEMENT)
 				}
-				MoveType.YEAR_OF_PLENTY_CARD -> {
-
-					// we want to avoid duplicates (wood/brick == brick/wwod) so ....
-					val copy = p.deepCopy()
-					copy.removeCard(DevelopmentCardType.YearOfPlenty)
+				p.adjustResourcesForBuildable(BuildableType.City, 1)
+			}
+			MoveType.BUILD_CITY_WALL -> {
+				val verts = SOC.computeCityWallVertexIndices(p.playerNum, b)
+				p.adjustResourcesForBuildable(BuildableType.CityWall, -1)
+				for (vIndex in verts) {
+					val v = b.getVertex(vIndex)
+					v.setPlayerAndType(p.playerNum, VertexType.WALLED_CITY)
+					onBoardChanged()
+					val node = root.attach(BotNodeVertex(v, vIndex))
+					//evaluateVertices(node, soc.getRules(), p.getPlayerNum(), b);
+					buildChooseMoveTreeR(soc, p, b, node, SOC.computeMoves(p, b, soc))
+					v.setPlayerAndType(p.playerNum, VertexType.CITY)
+				}
+				p.adjustResourcesForBuildable(BuildableType.CityWall, 1)
+			}
+			MoveType.REPAIR_ROAD -> {
+				p.adjustResourcesForBuildable(BuildableType.Road, -1)
+				p.removeCard(SpecialVictoryType.DamagedRoad)
+				//evaluatePlayer(root, soc, p, b);
+				buildChooseMoveTreeR(soc, p, b, root, SOC.computeMoves(p, b, soc))
+				p.addCard(SpecialVictoryType.DamagedRoad)
+				p.adjustResourcesForBuildable(BuildableType.Road, 1)
+			}
+			MoveType.BUILD_ROAD -> {
+				p.adjustResourcesForBuildable(BuildableType.Road, -1)
+				addRouteBuildingMovesR(soc, p, b, root, true, false, 1, true)
+				p.adjustResourcesForBuildable(BuildableType.Road, 1)
+			}
+			MoveType.ROAD_BUILDING_CARD -> {
+				val copy = p.deepCopy()
+				if (!soc.rules.isEnableCitiesAndKnightsExpansion) {
+					copy.removeCard(DevelopmentCardType.RoadBuilding)
 					copy.setCardsUsable(CardType.Development, false)
-					var i = 0
-					while (i < ResourceType.values().size) {
-						val r = ResourceType.values()[i]
-						copy.incrementResource(r, 1)
-						val n = root.attach(BotNodeCard(r))
-						var ii = i
-						while (ii < ResourceType.values().size) {
-							val r2 = ResourceType.values()[ii]
-							copy.incrementResource(r2, 1)
-							val node = n.attach(BotNodeCard(r2))
-							//evaluatePlayer(node, soc, p, b);
-							buildChooseMoveTreeR(soc, copy, b, node, SOC.computeMoves(copy, b, soc))
-							copy.incrementResource(r2, -1)
-							ii++
-						}
-						copy.incrementResource(r, -1)
-						i++
-					}
-				}
-				MoveType.BUILD_SHIP -> {
-					p.adjustResourcesForBuildable(BuildableType.Ship, -1)
-					addRouteBuildingMovesR(soc, p, b, root, false, true, 1, true)
-					p.adjustResourcesForBuildable(BuildableType.Ship, 1)
-				}
-				MoveType.BUILD_WARSHIP -> {
-					p.adjustResourcesForBuildable(BuildableType.Warship, -1)
-					for (rIndex in b.getRoutesIndicesOfType(playerNum, RouteType.SHIP)) {
-						val r = b.getRoute(rIndex)
-						r.type = RouteType.WARSHIP
-						var movePirate = false
-						val node = root.attach(BotNodeRoute(r, rIndex))
-						if (!soc.isPirateAttacksEnabled) {
-							for (t in b.getRouteTiles(r)) {
-								if (b.getPirateTile() === t) {
-									for (tIndex in SOC.computePirateTileIndices(soc, b)) {
-										b.setPirate(tIndex)
-										doEvaluateAll(node.attach(BotNodeTile(b.getTile(tIndex), tIndex)), soc, p, b)
-									}
-									movePirate = true
-									b.setPirateTile(t)
-									break
+				}
+				addRouteBuildingMovesR(soc, copy, b, root, true, soc.rules.isEnableSeafarersExpansion, 2, true)
+			}
+			MoveType.BISHOP_CARD, MoveType.SOLDIER_CARD -> {
+				val saveRobber = b.robberTileIndex
+				val savePirate = b.pirateTileIndex
+				val opts = SOC.computeRobberTileIndices(soc, b)
+				for (tIndex in opts) {
+					val t = b.getTile(tIndex)
+					if (t.isWater) b.setPirate(tIndex) else b.setRobber(tIndex)
+					onBoardChanged()
+					val node = root.attach(BotNodeTile(t, tIndex))
+					doEvaluateAll(node, soc, p, b)
+					b.setRobber(saveRobber)
+					b.setPirate(savePirate)
+				}
+			}
+			MoveType.YEAR_OF_PLENTY_CARD -> {
+
+				// we want to avoid duplicates (wood/brick == brick/wwod) so ....
+				val copy = p.deepCopy()
+				copy.removeCard(DevelopmentCardType.YearOfPlenty)
+				copy.setCardsUsable(CardType.Development, false)
+				var i = 0
+				while (i < ResourceType.values().size) {
+					val r = ResourceType.values()[i]
+					copy.incrementResource(r, 1)
+					val n = root.attach(BotNodeCard(r))
+					var ii = i
+					while (ii < ResourceType.values().size) {
+						val r2 = ResourceType.values()[ii]
+						copy.incrementResource(r2, 1)
+						val node = n.attach(BotNodeCard(r2))
+						//evaluatePlayer(node, soc, p, b);
+						buildChooseMoveTreeR(soc, copy, b, node, SOC.computeMoves(copy, b, soc))
+						copy.incrementResource(r2, -1)
+						ii++
+					}
+					copy.incrementResource(r, -1)
+					i++
+				}
+			}
+			MoveType.BUILD_SHIP -> {
+				p.adjustResourcesForBuildable(BuildableType.Ship, -1)
+				addRouteBuildingMovesR(soc, p, b, root, false, true, 1, true)
+				p.adjustResourcesForBuildable(BuildableType.Ship, 1)
+			}
+			MoveType.BUILD_WARSHIP -> {
+				p.adjustResourcesForBuildable(BuildableType.Warship, -1)
+				for (rIndex in b.getRoutesIndicesOfType(playerNum, RouteType.SHIP)) {
+					val r = b.getRoute(rIndex)
+					r.type = RouteType.WARSHIP
+					var movePirate = false
+					val node = root.attach(BotNodeRoute(r, rIndex))
+					if (!soc.isPirateAttacksEnabled) {
+						for (t in b.getRouteTiles(r)) {
+							if (b.getPirateTile() === t) {
+								for (tIndex in SOC.computePirateTileIndices(soc, b)) {
+									b.setPirate(tIndex)
+									doEvaluateAll(node.attach(BotNodeTile(b.getTile(tIndex), tIndex)), soc, p, b)
 								}
+								movePirate = true
+								b.setPirateTile(t)
+								break
 							}
 						}
-						if (!movePirate) {
-							buildChooseMoveTreeR(soc, p, b, node, SOC.computeMoves(p, b, soc))
-						}
-						r.type = RouteType.SHIP
-					}
-					p.adjustResourcesForBuildable(BuildableType.Warship, 1)
-				}
-				MoveType.ATTACK_SHIP -> {
-					for (rIndex in SOC.computeAttackableShips(soc, playerNum, b)) {
-						val r = b.getRoute(rIndex)
-						val defenderNum = r.player
-						val dieToWin = SOC.computeDiceToWinAttackShip(b, playerNum, defenderNum)
-						val node = root.attach(BotNodeRoute(r, rIndex))
-						node.chance = .7f + 1f / dieToWin
-						val savedPlayer = r.player
-						b.setPlayerForRoute(r, playerNum, r.type)
+					}
+					if (!movePirate) {
 						buildChooseMoveTreeR(soc, p, b, node, SOC.computeMoves(p, b, soc))
-						b.setPlayerForRoute(r, savedPlayer, r.type)
 					}
+					r.type = RouteType.SHIP
 				}
-				MoveType.DRAW_DEVELOPMENT -> {
-					root.chance = 0.8f + 0.4f * (Utils.rand() % 101)
-					p.adjustResourcesForBuildable(BuildableType.Development, -1)
-					val temp = Card(DevelopmentCardType.Soldier, CardStatus.UNUSABLE)
-					p.addCard(temp)
-					doEvaluateAll(root, soc, p, b)
-					p.removeCard(temp)
-					p.adjustResourcesForBuildable(BuildableType.Development, 1)
+				p.adjustResourcesForBuildable(BuildableType.Warship, 1)
+			}
+			MoveType.ATTACK_SHIP -> {
+				for (rIndex in SOC.computeAttackableShips(soc, playerNum, b)) {
+					val r = b.getRoute(rIndex)
+					val defenderNum = r.player
+					val dieToWin = SOC.computeDiceToWinAttackShip(b, playerNum, defenderNum)
+					val node = root.attach(BotNodeRoute(r, rIndex))
+					node.chance = .7f + 1f / dieToWin
+					val savedPlayer = r.player
+					b.setPlayerForRoute(r, playerNum, r.type)
+					buildChooseMoveTreeR(soc, p, b, node, SOC.computeMoves(p, b, soc))
+					b.setPlayerForRoute(r, savedPlayer, r.type)
 				}
-				MoveType.HIRE_KNIGHT -> {
-					p.adjustResourcesForBuildable(BuildableType.Knight, -1)
-					val verts = SOC.computeNewKnightVertexIndices(p.playerNum, b)
-					for (vIndex in verts) {
-						val v = b.getVertex(vIndex)
-						v.setPlayerAndType(p.playerNum, VertexType.BASIC_KNIGHT_INACTIVE)
-						val node = root.attach(BotNodeVertex(v, vIndex))
+			}
+			MoveType.DRAW_DEVELOPMENT -> {
+				root.chance = 0.8f + 0.4f * (rand() % 101)
+				p.adjustResourcesForBuildable(BuildableType.Development, -1)
+				val temp = Card(DevelopmentCardType.Soldier, CardStatus.UNUSABLE)
+				p.addCard(temp)
+				doEvaluateAll(root, soc, p, b)
+				p.removeCard(temp)
+				p.adjustResourcesForBuildable(BuildableType.Development, 1)
+			}
+			MoveType.HIRE_KNIGHT -> {
+				p.adjustResourcesForBuildable(BuildableType.Knight, -1)
+				val verts = beamVerts(soc, b, SOC.computeNewKnightVertexIndices(p.playerNum, b))
+				for (vIndex in verts) {
+					val v = b.getVertex(vIndex)
+					v.setPlayerAndType(p.playerNum, VertexType.BASIC_KNIGHT_INACTIVE)
+					val node = root.attach(BotNodeVertex(v, vIndex))
+					onBoardChanged()
+					var robberTile = -1
+					if (isKnightNextToRobber(v, b).also { robberTile = it } >= 0) {
+						b.setRobber(-1)
+						doEvaluateAll(node, soc, p, b)
+						//buildChooseMoveTreeR(soc, p, b, node, SOC.computeMoves(p, b, soc));
+						b.setRobber(robberTile)
+					} else {
+						doEvaluateAll(node, soc, p, b)
+					}
+					v.setOpen()
+				}
+				p.adjustResourcesForBuildable(BuildableType.Knight, 1)
+			}
+			MoveType.ACTIVATE_KNIGHT -> {
+				p.adjustResourcesForBuildable(BuildableType.ActivateKnight, -1)
+				val verts = SOC.computeActivateKnightVertexIndices(p.playerNum, b)
+				for (vIndex in verts) {
+					val v = b.getVertex(vIndex)
+					v.activateKnight()
+					onBoardChanged()
+					buildChooseMoveTreeR(soc, p, b, root.attach(BotNodeVertex(v, vIndex)), SOC.computeMoves(p, b, soc))
+					v.deactivateKnight()
+				}
+				p.adjustResourcesForBuildable(BuildableType.ActivateKnight, 1)
+			}
+			MoveType.IMPROVE_CITY_POLITICS -> {
+				processMetropolis(p, soc, b, root, DevelopmentArea.Politics, 0)
+			}
+			MoveType.IMPROVE_CITY_SCIENCE -> {
+				processMetropolis(p, soc, b, root, DevelopmentArea.Science, 0)
+			}
+			MoveType.IMPROVE_CITY_TRADE -> {
+				processMetropolis(p, soc, b, root, DevelopmentArea.Trade, 0)
+			}
+			MoveType.MOVE_KNIGHT -> {
+				val knights = SOC.computeMovableKnightVertexIndices(soc, p.playerNum, b)
+				for (knightIndex in knights) {
+					val knight = b.getVertex(knightIndex)
+					val knightCopy = knight.deepCopy()
+					val knightChoice = root.attach(BotNodeVertex(knight, knightIndex))
+					val knightMoves = SOC.computeKnightMoveVertexIndices(soc, knightIndex, b)
+					knight.setOpen()
+					for (moveIndex in knightMoves) {
+						val knightMove = b.getVertex(moveIndex)
+						val knightMoveCopy = knightMove.deepCopy()
+						knightMove.setPlayerAndType(p.playerNum, knightCopy!!.type)
+						val knightMoveChoice = knightChoice.attach(BotNodeVertex(knightMove, moveIndex))
 						onBoardChanged()
 						var robberTile = -1
-						if (isKnightNextToRobber(v, b).also { robberTile = it } >= 0) {
+						if (isKnightNextToRobber(knightMove, b).also { robberTile = it } >= 0) {
 							b.setRobber(-1)
-							doEvaluateAll(node, soc, p, b)
-							//buildChooseMoveTreeR(soc, p, b, node, SOC.computeMoves(p, b, soc));
+							doEvaluateAll(knightMoveChoice, soc, p, b)
+							//buildChooseMoveTreeR(soc, p, b, knightMoveChoice, SOC.computeMoves(p, b, soc));
 							b.setRobber(robberTile)
 						} else {
-							doEvaluateAll(node, soc, p, b)
+							doEvaluateAll(knightMoveChoice, soc, p, b)
 						}
+						knightMove.copyFrom(knightMoveCopy)
+					}
+					knight.copyFrom(knightCopy)
+				}
+			}
+			MoveType.MOVE_SHIP -> {
+				val shipVerts = SOC.computeMovableShips(soc, p, b)
+				for (shipIndex in shipVerts) {
+					val shipToMove = b.getRoute(shipIndex)
+					val shipType = shipToMove.type
+					b.setRouteOpen(shipToMove)
+					shipToMove.isLocked = true
+					val shipChoice = root.attach(BotNodeRoute(shipToMove, shipIndex))
+					val newPositions = SOC.computeShipRouteIndices(soc, p.playerNum, b)
+					for (moveIndex in newPositions) {
+						if (moveIndex == shipIndex) continue
+						val newPos = b.getRoute(moveIndex)
+						b.setPlayerForRoute(newPos, p.playerNum, shipType)
+						newPos.isLocked = true
+						val node: BotNode = BotNodeRoute(newPos, moveIndex)
+						onBoardChanged()
+						//evaluateEdges(node, soc, p, b);
+						buildChooseMoveTreeR(soc, p, b, shipChoice.attach(node), SOC.computeMoves(p, b, soc))
+						b.setRouteOpen(newPos)
+						newPos.isLocked = false
+					}
+					b.setPlayerForRoute(shipToMove, p.playerNum, shipType)
+					shipToMove.isLocked = false
+				}
+			}
+			MoveType.PROMOTE_KNIGHT -> {
+				val promotable = SOC.computePromoteKnightVertexIndices(p, b)
+				p.adjustResourcesForBuildable(BuildableType.PromoteKnight, -1)
+				//					doEvaluateAll(root, soc, p, b);
+				for (knightIndex in promotable) {
+					val knight = b.getVertex(knightIndex)
+					knight.promoteKnight()
+					val node = root.attach(BotNodeVertex(knight, knightIndex))
+					onBoardChanged()
+					//evaluateVertices(node, soc.getRules(), p.getPlayerNum(), b);
+					buildChooseMoveTreeR(soc, p, b, node, SOC.computeMoves(p, b, soc))
+					knight.demoteKnight()
+				}
+				p.adjustResourcesForBuildable(BuildableType.PromoteKnight, 1)
+			}
+			MoveType.DEAL_EVENT_CARD,
+			MoveType.ROLL_DICE,
+			MoveType.ROLL_DICE_NEUTRAL_PLAYER,
+			MoveType.DEAL_EVENT_CARD_NEUTRAL_PLAYER -> root.properties.clear()
+			MoveType.ALCHEMIST_CARD -> {
+
+				// cycle throught the 2nd die first, since this affects progress card distribution
+				var i = 1
+				while (i <= 6) {
+					var ii = i
+					while (ii <= 6) {
+						val dice = root.attach(BotNodeDice(ii, i))
+						evaluateDice(dice, ii, i, soc, p, b)
+						root.attach(dice)
+						ii++
+					}
+					i++
+				}
+			}
+			MoveType.CRANE_CARD -> {
+				p.removeCard(ProgressCardType.Crane)
+				for (area in SOC.computeCraneCardImprovements(p)) {
+					processMetropolis(p, soc, b, root.attach(BotNodeEnum(area)), area, 1)
+					/*
+					int level = p.getCityDevelopment(area);
+					p.incrementResource(area.commodity, -level);
+					p.setCityDevelopment(area, level+1);
+					BotNode node = root.attach(new BotNodeEnum(area));
+					//evaluatePlayer(node, soc, p, b);
+					buildChooseMoveTreeR(soc, p, b, node, SOC.computeMoves(p, b, soc));
+					p.setCityDevelopment(area, level);
+					p.incrementResource(area.commodity, level);
+					*/
+				}
+			}
+			MoveType.DESERTER_CARD -> {
+				p.removeCard(ProgressCardType.Deserter)
+				val knightOptions = SOC.computeNewKnightVertexIndices(playerNum, b)
+				if (knightOptions.size == 0) {
+					root.clear()
+				} else for (pIndex in SOC.computeDeserterPlayers(soc, b, p)) {
+					val node = root.attach(BotNodePlayer(soc.getPlayerByPlayerNum(pIndex)))
+					val oIndex = b.getKnightsForPlayer(pIndex)[0]
+					val oVertex = b.getVertex(oIndex)
+					val oType = oVertex.type
+					oVertex.setOpen()
+					for (kIndex in knightOptions) {
+						val v = b.getVertex(kIndex)
+						assert(v.type === VertexType.OPEN)
+						v.setPlayerAndType(p.playerNum, oType)
+						onBoardChanged()
+						val b2 = node.attach(BotNodeVertex(v, kIndex))
+						doEvaluateAll(b2, soc, p, b)
+						// dont recurse since this step is a bit random
 						v.setOpen()
 					}
-					p.adjustResourcesForBuildable(BuildableType.Knight, 1)
-				}
-				MoveType.ACTIVATE_KNIGHT -> {
-					p.adjustResourcesForBuildable(BuildableType.ActivateKnight, -1)
-					val verts = SOC.computeActivateKnightVertexIndices(p.playerNum, b)
-					for (vIndex in verts) {
-						val v = b.getVertex(vIndex)
-						v.activateKnight()
-						onBoardChanged()
-						buildChooseMoveTreeR(soc, p, b, root.attach(BotNodeVertex(v, vIndex)), SOC.computeMoves(p, b, soc))
-						v.deactivateKnight()
-					}
-					p.adjustResourcesForBuildable(BuildableType.ActivateKnight, 1)
-				}
-				MoveType.IMPROVE_CITY_POLITICS -> {
-					processMetropolis(p, soc, b, root, DevelopmentArea.Politics, 0)
-				}
-				MoveType.IMPROVE_CITY_SCIENCE -> {
-					processMetropolis(p, soc, b, root, DevelopmentArea.Science, 0)
-				}
-				MoveType.IMPROVE_CITY_TRADE -> {
-					processMetropolis(p, soc, b, root, DevelopmentArea.Trade, 0)
-				}
-				MoveType.MOVE_KNIGHT -> {
-					val knights = SOC.computeMovableKnightVertexIndices(soc, p.playerNum, b)
-					for (knightIndex in knights) {
-						val knight = b.getVertex(knightIndex)
-						val knightCopy = knight.deepCopy()
-						val knightChoice = root.attach(BotNodeVertex(knight, knightIndex))
-						val knightMoves = SOC.computeKnightMoveVertexIndices(soc, knightIndex, b)
-						knight.setOpen()
-						for (moveIndex in knightMoves) {
-							val knightMove = b.getVertex(moveIndex)
-							val knightMoveCopy = knightMove.deepCopy()
-							knightMove.setPlayerAndType(p.playerNum, knightCopy!!.type)
-							val knightMoveChoice = knightChoice.attach(BotNodeVertex(knightMove, moveIndex))
-							onBoardChanged()
-							var robberTile = -1
-							if (isKnightNextToRobber(knightMove, b).also { robberTile = it } >= 0) {
-								b.setRobber(-1)
-								doEvaluateAll(knightMoveChoice, soc, p, b)
-								//buildChooseMoveTreeR(soc, p, b, knightMoveChoice, SOC.computeMoves(p, b, soc));
-								b.setRobber(robberTile)
-							} else {
-								doEvaluateAll(knightMoveChoice, soc, p, b)
-							}
-							knightMove.copyFrom(knightMoveCopy)
-						}
-						knight.copyFrom(knightCopy)
-					}
-				}
-				MoveType.MOVE_SHIP -> {
-					val shipVerts = SOC.computeMovableShips(soc, p, b)
-					for (shipIndex in shipVerts) {
-						val shipToMove = b.getRoute(shipIndex)
-						val shipType = shipToMove.type
-						b.setRouteOpen(shipToMove)
-						shipToMove.isLocked = true
-						val shipChoice = root.attach(BotNodeRoute(shipToMove, shipIndex))
-						val newPositions = SOC.computeShipRouteIndices(soc, p.playerNum, b)
-						for (moveIndex in newPositions) {
-							if (moveIndex == shipIndex) continue
-							val newPos = b.getRoute(moveIndex)
-							b.setPlayerForRoute(newPos, p.playerNum, shipType)
-							newPos.isLocked = true
-							val node: BotNode = BotNodeRoute(newPos, moveIndex)
+					oVertex.setPlayerAndType(pIndex, oType)
+				}
+			}
+			MoveType.DIPLOMAT_CARD -> {
+				p.removeCard(ProgressCardType.Diplomat)
+				val allOpenRoutes = SOC.computeDiplomatOpenRouteIndices(soc, b)
+				for (rIndex1 in allOpenRoutes) {
+					val r = b.getRoute(rIndex1)
+					val savePlayer = r.player
+					b.setRouteOpen(r)
+					val n = root.attach(BotNodeRoute(r, rIndex1))
+					if (savePlayer == p.playerNum) {
+						val newPos = SOC.computeRoadRouteIndices(p.playerNum, b).toMutableList()
+						newPos.remove(rIndex1 as Any)
+						for (rIndex2 in newPos) {
+							val r2 = b.getRoute(rIndex2)
+							b.setPlayerForRoute(r2, p.playerNum, RouteType.ROAD)
+							val node = n.attach(BotNodeRoute(r2, rIndex2))
 							onBoardChanged()
 							//evaluateEdges(node, soc, p, b);
-							buildChooseMoveTreeR(soc, p, b, shipChoice.attach(node), SOC.computeMoves(p, b, soc))
-							b.setRouteOpen(newPos)
-							newPos.isLocked = false
+							buildChooseMoveTreeR(soc, p, b, node, SOC.computeMoves(p, b, soc))
+							b.setRouteOpen(r2)
 						}
-						b.setPlayerForRoute(shipToMove, p.playerNum, shipType)
-						shipToMove.isLocked = false
-					}
-				}
-				MoveType.PROMOTE_KNIGHT -> {
-					val promotable = SOC.computePromoteKnightVertexIndices(p, b)
-					p.adjustResourcesForBuildable(BuildableType.PromoteKnight, -1)
-					//					doEvaluateAll(root, soc, p, b);
-					for (knightIndex in promotable) {
-						val knight = b.getVertex(knightIndex)
-						knight.promoteKnight()
-						val node = root.attach(BotNodeVertex(knight, knightIndex))
+					} else {
 						onBoardChanged()
-						//evaluateVertices(node, soc.getRules(), p.getPlayerNum(), b);
-						buildChooseMoveTreeR(soc, p, b, node, SOC.computeMoves(p, b, soc))
-						knight.demoteKnight()
-					}
-					p.adjustResourcesForBuildable(BuildableType.PromoteKnight, 1)
-				}
-				MoveType.DEAL_EVENT_CARD,
-				MoveType.ROLL_DICE,
-				MoveType.ROLL_DICE_NEUTRAL_PLAYER,
-				MoveType.DEAL_EVENT_CARD_NEUTRAL_PLAYER -> root.properties.clear()
-				MoveType.ALCHEMIST_CARD -> {
-
-					// cycle throught the 2nd die first, since this affects progress card distribution
-					var i = 1
-					while (i <= 6) {
-						var ii = i
-						while (ii <= 6) {
-							val dice = root.attach(BotNodeDice(ii, i))
-							evaluateDice(dice, ii, i, soc, p, b)
-							root.attach(dice)
+						//evaluateEdges(n, soc, p, b);
+						buildChooseMoveTreeR(soc, p, b, n, SOC.computeMoves(p, b, soc))
+					}
+					b.setPlayerForRoute(r, savePlayer, RouteType.ROAD)
+				}
+			}
+			MoveType.ENGINEER_CARD -> {
+				p.removeCard(ProgressCardType.Engineer)
+				val cities = SOC.computeCityWallVertexIndices(p.playerNum, b)
+				for (cIndex in cities) {
+					val city = b.getVertex(cIndex)
+					city.setPlayerAndType(p.playerNum, VertexType.WALLED_CITY)
+					onBoardChanged()
+					val node = root.attach(BotNodeVertex(city, cIndex))
+					//evaluateVertices(node, soc.getRules(), p.getPlayerNum(), b);
+					buildChooseMoveTreeR(soc, p, b, node, SOC.computeMoves(p, b, soc))
+					city.setPlayerAndType(p.playerNum, VertexType.CITY)
+				}
+			}
+			MoveType.HARBOR_CARD -> {
+				p.removeCard(ProgressCardType.Harbor)
+				val harborPlayers = SOC.computeHarborTradePlayers(p, soc)
+				for (pNum in harborPlayers) {
+					val p2 = soc.getPlayerByPlayerNum(pNum)
+					val n = root.attach(BotNodePlayer(p2))
+					evaluateOpponent(n, soc, p, b)
+				}
+			}
+			MoveType.INTRIGUE_CARD -> {
+				p.removeCard(ProgressCardType.Intrigue)
+				val intrigueKnights = SOC.computeIntrigueKnightsVertexIndices(p.playerNum, b)
+				for (vIndex in intrigueKnights) {
+					val v = b.getVertex(vIndex)
+					val savePlayer = v.player
+					val saveType = v.type
+					v.setOpen()
+					// since we dont know where the opponent will position the displaced knight, we evaluate here
+					val node = root.attach(BotNodeVertex(v, vIndex))
+					onBoardChanged()
+					doEvaluateAll(node, soc, p, b)
+					v.setPlayerAndType(savePlayer, saveType)
+				}
+			}
+			MoveType.INVENTOR_CARD -> {
+				p.removeCard(ProgressCardType.Inventor)
+				val tiles = SOC.computeInventorTileIndices(b, soc)
+				var i = 0
+				while (i < tiles.size - 1) {
+					var ii = i + 1
+					while (ii < tiles.size) {
+						val i0 = tiles[i]
+						val i1 = tiles[ii]
+						val t0 = b.getTile(i0)
+						val t1 = b.getTile(i1)
+						val die0 = t0.dieNum
+						val die1 = t1.dieNum
+						if (die0 == die1) {
 							ii++
+							continue  // ignore these
 						}
-						i++
-					}
-				}
-				MoveType.CRANE_CARD -> {
-					p.removeCard(ProgressCardType.Crane)
-					for (area in SOC.computeCraneCardImprovements(p)) {
-						processMetropolis(p, soc, b, root.attach(BotNodeEnum(area)), area, 1)
-						/*
-						int level = p.getCityDevelopment(area);
-						p.incrementResource(area.commodity, -level);
-						p.setCityDevelopment(area, level+1);
-						BotNode node = root.attach(new BotNodeEnum(area));
-						//evaluatePlayer(node, soc, p, b);
-						buildChooseMoveTreeR(soc, p, b, node, SOC.computeMoves(p, b, soc));
-						p.setCityDevelopment(area, level);
-						p.incrementResource(area.commodity, level);
-						*/
-					}
-				}
-				MoveType.DESERTER_CARD -> {
-					p.removeCard(ProgressCardType.Deserter)
-					val knightOptions = SOC.computeNewKnightVertexIndices(playerNum, b)
-					if (knightOptions.size == 0) {
-						root.clear()
-					} else for (pIndex in SOC.computeDeserterPlayers(soc, b, p)) {
-						val node = root.attach(BotNodePlayer(soc.getPlayerByPlayerNum(pIndex)))
-						val oIndex = b.getKnightsForPlayer(pIndex)[0]
-						val oVertex = b.getVertex(oIndex)
-						val oType = oVertex.type
-						oVertex.setOpen()
-						for (kIndex in knightOptions) {
-							val v = b.getVertex(kIndex)
-							assert(v.type === VertexType.OPEN)
-							v.setPlayerAndType(p.playerNum, oType)
-							onBoardChanged()
-							val b2 = node.attach(BotNodeVertex(v, kIndex))
-							doEvaluateAll(b2, soc, p, b)
-							// dont recurse since this step is a bit random
-							v.setOpen()
-						}
-						oVertex.setPlayerAndType(pIndex, oType)
-					}
-				}
-				MoveType.DIPLOMAT_CARD -> {
-					p.removeCard(ProgressCardType.Diplomat)
-					val allOpenRoutes = SOC.computeDiplomatOpenRouteIndices(soc, b)
-					for (rIndex1 in allOpenRoutes) {
-						val r = b.getRoute(rIndex1)
-						val savePlayer = r.player
-						b.setRouteOpen(r)
-						val n = root.attach(BotNodeRoute(r, rIndex1))
-						if (savePlayer == p.playerNum) {
-							val newPos = SOC.computeRoadRouteIndices(p.playerNum, b).toMutableList()
-							newPos.remove(rIndex1 as Any)
-							for (rIndex2 in newPos) {
-								val r2 = b.getRoute(rIndex2)
-								b.setPlayerForRoute(r2, p.playerNum, RouteType.ROAD)
-								val node = n.attach(BotNodeRoute(r2, rIndex2))
-								onBoardChanged()
-								//evaluateEdges(node, soc, p, b);
-								buildChooseMoveTreeR(soc, p, b, node, SOC.computeMoves(p, b, soc))
-								b.setRouteOpen(r2)
-							}
-						} else {
-							onBoardChanged()
-							//evaluateEdges(n, soc, p, b);
-							buildChooseMoveTreeR(soc, p, b, n, SOC.computeMoves(p, b, soc))
-						}
-						b.setPlayerForRoute(r, savePlayer, RouteType.ROAD)
-					}
-				}
-				MoveType.ENGINEER_CARD -> {
-					p.removeCard(ProgressCardType.Engineer)
-					val cities = SOC.computeCityWallVertexIndices(p.playerNum, b)
-					for (cIndex in cities) {
-						val city = b.getVertex(cIndex)
-						city.setPlayerAndType(p.playerNum, VertexType.WALLED_CITY)
+						t0.dieNum = die1
+						t1.dieNum = die0
+						val node = root.attach(BotNodeTile(t0, i0)).attach(BotNodeTile(t1, i1))
 						onBoardChanged()
-						val node = root.attach(BotNodeVertex(city, cIndex))
-						//evaluateVertices(node, soc.getRules(), p.getPlayerNum(), b);
-						buildChooseMoveTreeR(soc, p, b, node, SOC.computeMoves(p, b, soc))
-						city.setPlayerAndType(p.playerNum, VertexType.CITY)
+						doEvaluateAll(node, soc, p, b)
+						t0.dieNum = die0
+						t1.dieNum = die1
+						ii++
 					}
+					i++
+				}
+			}
+			MoveType.IRRIGATION_CARD -> {
+				val numGained = SOC.computeNumStructuresAdjacentToTileType(p.playerNum, b, TileType.FIELDS)
+				p.removeCard(ProgressCardType.Irrigation)
+				//doEvaluateAll(root, soc, p, b);
+				if (numGained > 0) {
+					p.incrementResource(ResourceType.Wheat, numGained)
+					//evaluatePlayer(root, soc, p, b);
+					buildChooseMoveTreeR(soc, p, b, root, SOC.computeMoves(p, b, soc))
+					p.incrementResource(ResourceType.Wheat, -numGained)
 				}
-				MoveType.HARBOR_CARD -> {
-					p.removeCard(ProgressCardType.Harbor)
-					val harborPlayers = SOC.computeHarborTradePlayers(p, soc)
-					for (pNum in harborPlayers) {
-						val p2 = soc.getPlayerByPlayerNum(pNum)
-						val n = root.attach(BotNodePlayer(p2))
-						evaluateOpponent(n, soc, p, b)
+			}
+			MoveType.MASTER_MERCHANT_CARD -> {
+				p.removeCard(ProgressCardType.MasterMerchant)
+				var playerToChoose = -1
+				var largestHand = 0
+				for (playerNum in SOC.computeMasterMerchantPlayers(soc, p)) {
+					val num = soc.getPlayerByPlayerNum(playerNum).unusedCardCount
+					if (num > largestHand) {
+						largestHand = num
+						playerToChoose = playerNum
 					}
 				}
-				MoveType.INTRIGUE_CARD -> {
-					p.removeCard(ProgressCardType.Intrigue)
-					val intrigueKnights = SOC.computeIntrigueKnightsVertexIndices(p.playerNum, b)
-					for (vIndex in intrigueKnights) {
-						val v = b.getVertex(vIndex)
-						val savePlayer = v.player
-						val saveType = v.type
-						v.setOpen()
-						// since we dont know where the opponent will position the displaced knight, we evaluate here
-						val node = root.attach(BotNodeVertex(v, vIndex))
-						onBoardChanged()
-						doEvaluateAll(node, soc, p, b)
-						v.setPlayerAndType(savePlayer, saveType)
-					}
-				}
-				MoveType.INVENTOR_CARD -> {
-					p.removeCard(ProgressCardType.Inventor)
-					val tiles = SOC.computeInventorTileIndices(b, soc)
-					var i = 0
-					while (i < tiles.size - 1) {
-						var ii = i + 1
-						while (ii < tiles.size) {
-							val i0 = tiles[i]
-							val i1 = tiles[ii]
-							val t0 = b.getTile(i0)
-							val t1 = b.getTile(i1)
-							val die0 = t0.dieNum
-							val die1 = t1.dieNum
-							if (die0 == die1) {
-								ii++
-								continue  // ignore these
-							}
-							t0.dieNum = die1
-							t1.dieNum = die0
-							val node = root.attach(BotNodeTile(t0, i0)).attach(BotNodeTile(t1, i1))
-							onBoardChanged()
-							doEvaluateAll(node, soc, p, b)
-							t0.dieNum = die0
-							t1.dieNum = die1
-							ii++
-						}
-						i++
-					}
-				}
-				MoveType.IRRIGATION_CARD -> {
-					val numGained = SOC.computeNumStructuresAdjacentToTileType(p.playerNum, b, TileType.FIELDS)
-					p.removeCard(ProgressCardType.Irrigation)
-					//doEvaluateAll(root, soc, p, b);
-					if (numGained > 0) {
-						p.incrementResource(ResourceType.Wheat, numGained)
-						//evaluatePlayer(root, soc, p, b);
-						buildChooseMoveTreeR(soc, p, b, root, SOC.computeMoves(p, b, soc))
-						p.incrementResource(ResourceType.Wheat, -numGained)
-					}
-				}
-				MoveType.MASTER_MERCHANT_CARD -> {
-					p.removeCard(ProgressCardType.MasterMerchant)
-					var playerToChoose = -1
-					var largestHand = 0
-					for (playerNum in SOC.computeMasterMerchantPlayers(soc, p)) {
-						val num = soc.getPlayerByPlayerNum(playerNum).unusedCardCount
-						if (num > largestHand) {
-							largestHand = num
-							playerToChoose = playerNum
-						}
+				if (playerToChoose >= 0) {
+					val node = root.attach(BotNodePlayer(soc.getPlayerByPlayerNum(playerToChoose)))
+					val num = Math.min(2, largestHand)
+					val cards: Array<ICardType<*>> = Array(num) {
+						ResourceType.values()[rand() % ResourceType.values().size]
 					}
-					if (playerToChoose >= 0) {
-						val node = root.attach(BotNodePlayer(soc.getPlayerByPlayerNum(playerToChoose)))
-						val num = Math.min(2, largestHand)
-						val cards: Array<ICardType<*>> = Array(num) {
-							Utils.randItem(ResourceType.values())
-						}
-						cards.forEach {
-							p.addCard(it)
-						}
-						doEvaluateAll(node, soc, p, b)
-						cards.forEach {
-							p.removeCard(it)
-						}
+					cards.forEach {
+						p.addCard(it)
 					}
-				}
-				MoveType.MEDICINE_CARD -> {
-					p.removeCard(ProgressCardType.Medicine)
-					if (p.getCardCount(ResourceType.Ore) >= 2 && p.getCardCount(ResourceType.Wheat) >= 1) {
-						p.incrementResource(ResourceType.Ore, -2)
-						p.incrementResource(ResourceType.Wheat, -1)
-						val settlements = b.getSettlementsForPlayer(p.playerNum)
-						if (settlements.size > 0) {
-							for (vIndex in settlements) {
-								val v = b.getVertex(vIndex)
-								v.setPlayerAndType(p.playerNum, VertexType.CITY)
-								onBoardChanged()
-								val node = root.attach(BotNodeVertex(v, vIndex))
-								//evaluateVertices(node, soc.getRules(), p.getPlayerNum(), b);
-								buildChooseMoveTreeR(soc, p, b, node, SOC.computeMoves(p, b, soc))
-								v.setPlayerAndType(p.playerNum, VertexType.SETTLEMENT)
-							}
-						}
-						p.incrementResource(ResourceType.Ore, 2)
-						p.incrementResource(ResourceType.Wheat, 1)
-					}
-				}
-				MoveType.MERCHANT_CARD -> {
-					p.removeCard(ProgressCardType.Merchant)
-					val tiles = SOC.computeMerchantTileIndices(soc, p.playerNum, b)
-					val saveMerchantTile = b.merchantTileIndex
-					val saveMerchantPlayer = b.merchantPlayer
-					for (tIndex in tiles) {
-						val t = b.getTile(tIndex)
-						b.setMerchant(tIndex, p.playerNum)
-						val node = root.attach(BotNodeTile(t, tIndex))
-						//evaluateVertices(node, soc.getRules(), p.getPlayerNum(), b);
-						//evaluateTiles(node, soc, p, b);
-						buildChooseMoveTreeR(soc, p, b, node, SOC.computeMoves(p, b, soc))
-						b.setMerchant(saveMerchantTile, saveMerchantPlayer)
+					doEvaluateAll(node, soc, p, b)
+					cards.forEach {
+						p.removeCard(it)
 					}
 				}
-				MoveType.MERCHANT_FLEET_CARD -> {
-					val opts = SOC.computeMerchantFleetCards(p)
-					if (opts.size > 0) {
-						val copy = p.deepCopy()
-						copy.getCard(ProgressCardType.MerchantFleet)!!.setUsed()
-						for (c in opts) {
-							copy.merchantFleetTradable = c
-							buildChooseMoveTreeR(soc, copy, b, root.attach(BotNodeCard(c)), SOC.computeMoves(copy, b, soc))
+			}
+			MoveType.MEDICINE_CARD -> {
+				p.removeCard(ProgressCardType.Medicine)
+				if (p.getCardCount(ResourceType.Ore) >= 2 && p.getCardCount(ResourceType.Wheat) >= 1) {
+					p.incrementResource(ResourceType.Ore, -2)
+					p.incrementResource(ResourceType.Wheat, -1)
+					val settlements = b.getSettlementsForPlayer(p.playerNum)
+					if (settlements.size > 0) {
+						for (vIndex in settlements) {
+							val v = b.getVertex(vIndex)
+							v.setPlayerAndType(p.playerNum, VertexType.CITY)
+							onBoardChanged()
+							val node = root.attach(BotNodeVertex(v, vIndex))
+							//evaluateVertices(node, soc.getRules(), p.getPlayerNum(), b);
+							buildChooseMoveTreeR(soc, p, b, node, SOC.computeMoves(p, b, soc))
+							v.setPlayerAndType(p.playerNum, VertexType.SETTLEMENT)
 						}
 					}
+					p.incrementResource(ResourceType.Ore, 2)
+					p.incrementResource(ResourceType.Wheat, 1)
 				}
-				MoveType.MINING_CARD -> {
-					p.removeCard(ProgressCardType.Mining)
-					val numGained = SOC.computeNumStructuresAdjacentToTileType(p.playerNum, b, TileType.MOUNTAINS)
-					if (numGained > 0) {
-						p.incrementResource(ResourceType.Ore, numGained)
-						buildChooseMoveTreeR(soc, p, b, root, SOC.computeMoves(p, b, soc))
-						p.incrementResource(ResourceType.Ore, -numGained)
-						//						p.addCard(ProgressCardType.Mining);
-					}
+			}
+			MoveType.MERCHANT_CARD -> {
+				p.removeCard(ProgressCardType.Merchant)
+				val tiles = SOC.computeMerchantTileIndices(soc, p.playerNum, b)
+				val saveMerchantTile = b.merchantTileIndex
+				val saveMerchantPlayer = b.merchantPlayer
+				for (tIndex in tiles) {
+					val t = b.getTile(tIndex)
+					b.setMerchant(tIndex, p.playerNum)
+					val node = root.attach(BotNodeTile(t, tIndex))
+					//evaluateVertices(node, soc.getRules(), p.getPlayerNum(), b);
+					//evaluateTiles(node, soc, p, b);
+					buildChooseMoveTreeR(soc, p, b, node, SOC.computeMoves(p, b, soc))
+					b.setMerchant(saveMerchantTile, saveMerchantPlayer)
 				}
-				MoveType.MONOPOLY_CARD -> {
+			}
+			MoveType.MERCHANT_FLEET_CARD -> {
+				val opts = SOC.computeMerchantFleetCards(p)
+				if (opts.size > 0) {
 					val copy = p.deepCopy()
-					copy.setCardsUsable(CardType.Development, false)
-					copy.removeCard(DevelopmentCardType.Monopoly)
-					for (t in ResourceType.values()) {
-						val n = root.attach(BotNodeEnum(t))
-						copy.incrementResource(t, soc.numPlayers - 1)
-						n.chance = computeChanceForResource(soc, b, copy)
-						doEvaluateAll(n, soc, copy, b)
-						// for random things we need to add some extra randomness
-						//n.addValue("randomness", Utils.randFloatX(1));
-						copy.incrementResource(t, -(soc.numPlayers - 1))
-					}
-				}
-				MoveType.RESOURCE_MONOPOLY_CARD -> {
-					p.removeCard(ProgressCardType.ResourceMonopoly)
-					//					evaluatePlayer(root, soc, p, b);
-					val num = 2 * (soc.numPlayers - 1)
-					for (t in ResourceType.values()) {
-						val n = root.attach(BotNodeEnum(t))
-						p.incrementResource(t, num)
-						doEvaluateAll(n, soc, p, b)
-						p.incrementResource(t, -num)
-					}
-				}
-				MoveType.SABOTEUR_CARD -> {
-					p.removeCard(ProgressCardType.Saboteur)
-					var totalCardsToSabotage = 0.0
-					val sabotagePlayers = SOC.computeSaboteurPlayers(soc, playerNum)
-					for (pNum in sabotagePlayers) {
-						val player = soc.getPlayerByPlayerNum(pNum)
-						totalCardsToSabotage += (1 + player.unusedCardCount) / 2
+					copy.getCard(ProgressCardType.MerchantFleet)!!.setUsed()
+					for (c in opts) {
+						copy.merchantFleetTradable = c
+						buildChooseMoveTreeR(soc, copy, b, root.attach(BotNodeCard(c)), SOC.computeMoves(copy, b, soc))
 					}
-					doEvaluateAll(root, soc, p, b)
-					root.addValue("sabotagedCards", if (totalCardsToSabotage > 0) totalCardsToSabotage else -100.0)
-				}
-				MoveType.SMITH_CARD -> {
-					p.removeCard(ProgressCardType.Smith)
-					val promotableKnights = SOC.computePromoteKnightVertexIndices(p, b)
-					if (promotableKnights.size > 0) {
-						if (promotableKnights.size == 1) {
-							// promotion is automatic
-							val kIndex = promotableKnights[0]
-							val v = b.getVertex(kIndex)
-							v.promoteKnight()
-							val n = root.attach(BotNodeVertex(v, kIndex))
-							buildChooseMoveTreeR(soc, p, b, n, SOC.computeMoves(p, b, soc))
-							v.demoteKnight()
-						} else if (promotableKnights.size == 2) {
-							// promotion is automatic
-							val k0 = promotableKnights[0]
-							val k1 = promotableKnights[1]
-							val v0 = b.getVertex(k0)
-							val v1 = b.getVertex(k1)
-							v0.promoteKnight()
-							v1.promoteKnight()
-							val n = root.attach(BotNodeVertex(v0, k0)).attach(BotNodeVertex(v1, k1))
-							buildChooseMoveTreeR(soc, p, b, n, SOC.computeMoves(p, b, soc))
-							v0.demoteKnight()
-							v1.demoteKnight()
-						} else {
-							// compute permutations
-							var i = 0
-							while (i < promotableKnights.size - 1) {
-								var ii = i + 1
-								while (ii < promotableKnights.size) {
-									val k0 = promotableKnights[i]
-									val k1 = promotableKnights[ii]
-									val v0 = b.getVertex(k0)
-									val v1 = b.getVertex(k1)
-									v0.promoteKnight()
-									v1.promoteKnight()
-									buildChooseMoveTreeR(soc, p, b, root.attach(BotNodeVertex(v0, k0)).attach(BotNodeVertex(v1, k1)), SOC.computeMoves(p, b, soc))
-									v1.demoteKnight()
-									v0.demoteKnight()
-									ii++
-								}
-								i++
+				}
+			}
+			MoveType.MINING_CARD -> {
+				p.removeCard(ProgressCardType.Mining)
+				val numGained = SOC.computeNumStructuresAdjacentToTileType(p.playerNum, b, TileType.MOUNTAINS)
+				if (numGained > 0) {
+					p.incrementResource(ResourceType.Ore, numGained)
+					buildChooseMoveTreeR(soc, p, b, root, SOC.computeMoves(p, b, soc))
+					p.incrementResource(ResourceType.Ore, -numGained)
+					//						p.addCard(ProgressCardType.Mining);
+				}
+			}
+			MoveType.MONOPOLY_CARD -> {
+				val copy = p.deepCopy()
+				copy.setCardsUsable(CardType.Development, false)
+				copy.removeCard(DevelopmentCardType.Monopoly)
+				for (t in ResourceType.values()) {
+					val n = root.attach(BotNodeEnum(t))
+					copy.incrementResource(t, soc.numPlayers - 1)
+					n.chance = computeChanceForResource(soc, b, copy)
+					doEvaluateAll(n, soc, copy, b)
+					// for random things we need to add some extra randomness
+					//n.addValue("randomness", Utils.randFloatX(1));
+					copy.incrementResource(t, -(soc.numPlayers - 1))
+				}
+			}
+			MoveType.RESOURCE_MONOPOLY_CARD -> {
+				p.removeCard(ProgressCardType.ResourceMonopoly)
+				//					evaluatePlayer(root, soc, p, b);
+				val num = 2 * (soc.numPlayers - 1)
+				for (t in ResourceType.values()) {
+					val n = root.attach(BotNodeEnum(t))
+					p.incrementResource(t, num)
+					doEvaluateAll(n, soc, p, b)
+					p.incrementResource(t, -num)
+				}
+			}
+			MoveType.SABOTEUR_CARD -> {
+				p.removeCard(ProgressCardType.Saboteur)
+				var totalCardsToSabotage = 0.0
+				val sabotagePlayers = SOC.computeSaboteurPlayers(soc, playerNum)
+				for (pNum in sabotagePlayers) {
+					val player = soc.getPlayerByPlayerNum(pNum)
+					totalCardsToSabotage += (1 + player.unusedCardCount) / 2
+				}
+				doEvaluateAll(root, soc, p, b)
+				root.addValue("sabotagedCards", if (totalCardsToSabotage > 0) totalCardsToSabotage else -100.0)
+			}
+			MoveType.SMITH_CARD -> {
+				p.removeCard(ProgressCardType.Smith)
+				val promotableKnights = SOC.computePromoteKnightVertexIndices(p, b)
+				if (promotableKnights.size > 0) {
+					if (promotableKnights.size == 1) {
+						// promotion is automatic
+						val kIndex = promotableKnights[0]
+						val v = b.getVertex(kIndex)
+						v.promoteKnight()
+						val n = root.attach(BotNodeVertex(v, kIndex))
+						buildChooseMoveTreeR(soc, p, b, n, SOC.computeMoves(p, b, soc))
+						v.demoteKnight()
+					} else if (promotableKnights.size == 2) {
+						// promotion is automatic
+						val k0 = promotableKnights[0]
+						val k1 = promotableKnights[1]
+						val v0 = b.getVertex(k0)
+						val v1 = b.getVertex(k1)
+						v0.promoteKnight()
+						v1.promoteKnight()
+						val n = root.attach(BotNodeVertex(v0, k0)).attach(BotNodeVertex(v1, k1))
+						buildChooseMoveTreeR(soc, p, b, n, SOC.computeMoves(p, b, soc))
+						v0.demoteKnight()
+						v1.demoteKnight()
+					} else {
+						// compute permutations
+						var i = 0
+						while (i < promotableKnights.size - 1) {
+							var ii = i + 1
+							while (ii < promotableKnights.size) {
+								val k0 = promotableKnights[i]
+								val k1 = promotableKnights[ii]
+								val v0 = b.getVertex(k0)
+								val v1 = b.getVertex(k1)
+								v0.promoteKnight()
+								v1.promoteKnight()
+								buildChooseMoveTreeR(soc, p, b, root.attach(BotNodeVertex(v0, k0)).attach(BotNodeVertex(v1, k1)), SOC.computeMoves(p, b, soc))
+								v1.demoteKnight()
+								v0.demoteKnight()
+								ii++
 							}
+							i++
 						}
 					}
 				}
-				MoveType.SPY_CARD -> {
-					p.removeCard(ProgressCardType.Spy)
-					doEvaluateAll(root, soc, p, b)
-					val players = SOC.computeSpyOpponents(soc, p.playerNum)
-					for (num in players) {
-						val player = soc.getPlayerByPlayerNum(num)
-						val n = root.attach(BotNodePlayer(player))
-						//Card removed = player.removeRandomUnusedCard(CardType.Progress);
-						evaluateOpponent(n, soc, player, b)
-						//player.addCard(removed);
-					}
-				}
-				MoveType.TRADE_MONOPOLY_CARD -> {
-					p.removeCard(ProgressCardType.TradeMonopoly)
-					for (t in CommodityType.values()) {
-						val node = root.attach(BotNodeEnum(t))
-						node.chance = computeChanceForCommodity(soc, this)
-						p.addCards(t, 2)
-						doEvaluateAll(node, soc, p, b) // dont recurse since the outcome is random
-						//buildChooseMoveTreeR(soc, p, b, node, SOC.computeMoves(p, b, soc));
-						p.removeCards(t, 2)
+			}
+			MoveType.SPY_CARD -> {
+				p.removeCard(ProgressCardType.Spy)
+				doEvaluateAll(root, soc, p, b)
+				val players = SOC.computeSpyOpponents(soc, p.playerNum)
+				for (num in players) {
+					val player = soc.getPlayerByPlayerNum(num)
+					val n = root.attach(BotNodePlayer(player))
+					//Card removed = player.removeRandomUnusedCard(CardType.Progress);
+					evaluateOpponent(n, soc, player, b)
+					//player.addCard(removed);
+				}
+			}
+			MoveType.TRADE_MONOPOLY_CARD -> {
+				p.removeCard(ProgressCardType.TradeMonopoly)
+				for (t in CommodityType.values()) {
+					val node = root.attach(BotNodeEnum(t))
+					node.chance = computeChanceForCommodity(soc, this)
+					p.addCards(t, 2)
+					doEvaluateAll(node, soc, p, b) // dont recurse since the outcome is random
+					//buildChooseMoveTreeR(soc, p, b, node, SOC.computeMoves(p, b, soc));
+					p.removeCards(t, 2)
+				}
+			}
+			MoveType.WARLORD_CARD -> {
+				p.removeCard(ProgressCardType.Warlord)
+				val verts = b.getVertIndicesOfType(p.playerNum, VertexType.BASIC_KNIGHT_INACTIVE, VertexType.STRONG_KNIGHT_INACTIVE, VertexType.MIGHTY_KNIGHT_INACTIVE)
+				if (verts.size > 0) {
+					for (vIndex in verts) {
+						b.getVertex(vIndex).activateKnight()
 					}
-				}
-				MoveType.WARLORD_CARD -> {
-					p.removeCard(ProgressCardType.Warlord)
-					val verts = b.getVertIndicesOfType(p.playerNum, VertexType.BASIC_KNIGHT_INACTIVE, VertexType.STRONG_KNIGHT_INACTIVE, VertexType.MIGHTY_KNIGHT_INACTIVE)
-					if (verts.size > 0) {
-						for (vIndex in verts) {
-							b.getVertex(vIndex).activateKnight()
-						}
-						//evaluateVertices(root, soc.getRules(), p.getPlayerNum(), b);
-						buildChooseMoveTreeR(soc, p, b, root, SOC.computeMoves(p, b, soc))
-						for (vIndex in verts) {
-							b.getVertex(vIndex).deactivateKnight()
-						}
+					//evaluateVertices(root, soc.getRules(), p.getPlayerNum(), b);
+					buildChooseMoveTreeR(soc, p, b, root, SOC.computeMoves(p, b, soc))
+					for (vIndex in verts) {
+						b.getVertex(vIndex).deactivateKnight()
 					}
 				}
-				MoveType.WEDDING_CARD -> {
-					p.removeCard(ProgressCardType.Wedding)
-					doEvaluateAll(root, soc, p, b)
-					val weddingPlayers = SOC.computeWeddingOpponents(soc, p)
-					if (weddingPlayers.size == 0) root.clear() else {
-						root.addValue("wedding", 0.1 * weddingPlayers.size)
-					}
-				}
-				MoveType.ATTACK_PIRATE_FORTRESS -> {
-					for (vIndex in SOC.computeAttackablePirateFortresses(b, p)) {
-						val v = b.getVertex(vIndex)
-						assert(v.type === VertexType.PIRATE_FORTRESS)
-						assert(v.player == 0)
-						val playerHealth = b.getRoutesOfType(playerNum, RouteType.WARSHIP).size.toFloat()
-						val node = root.attach(BotNodeVertex(v, vIndex))
-						node.chance = 1.0f + playerHealth / 6
-						val health = v.pirateHealth
-						if (health <= 1) v.setPlayerAndType(playerNum, VertexType.SETTLEMENT) else v.pirateHealth = health - 1
-						doEvaluateAll(node, soc, p, b)
-						v.setPirateFortress()
-						v.pirateHealth = health
-					}
-				}
-				MoveType.KNIGHT_ATTACK_ROAD -> {
-					for (rIndex in SOC.computeAttackableRoads(soc, playerNum, b)) {
-						val info = SOC.computeAttackRoad(rIndex, soc, b, playerNum)
-						val route = b.getRoute(rIndex)
-						val node = root.attach(BotNodeRoute(route, rIndex))
-						node.chance = .5f + (info.knightStrength - info.minScore).toFloat() / 6
-						val savedType = route.type
-						route.type = info.destroyedType?:RouteType.OPEN
-						if (info.destroyedType === RouteType.OPEN) b.clearRouteLenCache()
-						doEvaluateAll(node, soc, p, b)
-						route.type = savedType
-						if (info.destroyedType === RouteType.OPEN) b.clearRouteLenCache()
-						for (k in info.attackingKnights) {
-							b.getVertex(k).activateKnight()
-						}
-					}
+			}
+			MoveType.WEDDING_CARD -> {
+				p.removeCard(ProgressCardType.Wedding)
+				doEvaluateAll(root, soc, p, b)
+				val weddingPlayers = SOC.computeWeddingOpponents(soc, p)
+				if (weddingPlayers.size == 0) root.clear() else {
+					root.addValue("wedding", 0.1 * weddingPlayers.size)
 				}
-				MoveType.KNIGHT_ATTACK_STRUCTURE -> {
-					for (vIndex in SOC.computeAttackableStructures(soc, playerNum, b)) {
-						val info = SOC.computeStructureAttack(vIndex, soc, b, playerNum)
-						val v = b.getVertex(vIndex)
-						val node = root.attach(BotNodeVertex(v, vIndex))
-						node.chance = .5f + (info.knightStrength - info.minScore).toFloat() / 6
-						val copy = v.deepCopy()
-						v.setType(info.destroyedType!!)
-						doEvaluateAll(node, soc, p, b)
-						v.copyFrom(copy)
-						for (k in info.attackingKnights) {
-							b.getVertex(k).activateKnight()
-						}
+			}
+			MoveType.ATTACK_PIRATE_FORTRESS -> {
+				for (vIndex in SOC.computeAttackablePirateFortresses(b, p)) {
+					val v = b.getVertex(vIndex)
+					assert(v.type === VertexType.PIRATE_FORTRESS)
+					assert(v.player == 0)
+					val playerHealth = b.getRoutesOfType(playerNum, RouteType.WARSHIP).size.toFloat()
+					val node = root.attach(BotNodeVertex(v, vIndex))
+					node.chance = 1.0f + playerHealth / 6
+					val health = v.pirateHealth
+					if (health <= 1) v.setPlayerAndType(playerNum, VertexType.SETTLEMENT) else v.pirateHealth = health - 1
+					doEvaluateAll(node, soc, p, b)
+					v.setPirateFortress()
+					v.pirateHealth = health
+				}
+			}
+			MoveType.KNIGHT_ATTACK_ROAD -> {
+				for (rIndex in SOC.computeAttackableRoads(soc, playerNum, b)) {
+					val info = SOC.computeAttackRoad(rIndex, soc, b, playerNum)
+					val route = b.getRoute(rIndex)
+					val node = root.attach(BotNodeRoute(route, rIndex))
+					node.chance = .5f + (info.knightStrength - info.minScore).toFloat() / 6
+					val savedType = route.type
+					route.type = info.destroyedType?:RouteType.OPEN
+					if (info.destroyedType === RouteType.OPEN) b.clearRouteLenCache()
+					doEvaluateAll(node, soc, p, b)
+					route.type = savedType
+					if (info.destroyedType === RouteType.OPEN) b.clearRouteLenCache()
+					for (k in info.attackingKnights) {
+						b.getVertex(k).activateKnight()
 					}
 				}
-				MoveType.WARSHIP_CARD -> {
-					for (rIndex in b.getRoutesIndicesOfType(playerNum, RouteType.SHIP)) {
-						val r = b.getRoute(rIndex)
-						r.type = RouteType.WARSHIP
-						doEvaluateAll(root.attach(BotNodeRoute(r, rIndex)), soc, p, b)
-						r.type = RouteType.SHIP
+			}
+			MoveType.KNIGHT_ATTACK_STRUCTURE -> {
+				for (vIndex in SOC.computeAttackableStructures(soc, playerNum, b)) {
+					val info = SOC.computeStructureAttack(vIndex, soc, b, playerNum)
+					val v = b.getVertex(vIndex)
+					val node = root.attach(BotNodeVertex(v, vIndex))
+					node.chance = .5f + (info.knightStrength - info.minScore).toFloat() / 6
+					val copy = v.deepCopy()
+					v.setType(info.destroyedType!!)
+					doEvaluateAll(node, soc, p, b)
+					v.copyFrom(copy)
+					for (k in info.attackingKnights) {
+						b.getVertex(k).activateKnight()
 					}
 				}
-				MoveType.INVALID -> TODO("Why???")
 			}
-
-
-			// TODO: Why did I put this here?
-			// break; // break out of for loop
-		} // end for
+			MoveType.WARSHIP_CARD -> {
+				for (rIndex in b.getRoutesIndicesOfType(playerNum, RouteType.SHIP)) {
+					val r = b.getRoute(rIndex)
+					r.type = RouteType.WARSHIP
+					doEvaluateAll(root.attach(BotNodeRoute(r, rIndex)), soc, p, b)
+					r.type = RouteType.SHIP
+				}
+			}
+			MoveType.INVALID -> TODO("Why???")
+		}
 	}
 
 	private fun isKnightNextToRobber(v: Vertex, b: Board): Int {
@@ -1330,7 +1493,14 @@ open class PlayerBot : Player() {
 //		setCardsUsable(CardType.Development, false); // prevent generating development card moves on subsequent calls
 		val copy = SOC()
 		copy.copyFrom(soc)
-		buildChooseMoveTreeR(copy, copy.getPlayerByPlayerNum(playerNum), copy.board, root, moves)
+		deadline = if (maxTimeMillis > 0) System.currentTimeMillis() + maxTimeMillis else 0
+		val seeds = LongArray(moves.size) { rand().toLong() }
+		if (parallelism > 1)
+			buildChooseMoveTreeParallel(copy, root, moves.toList(), seeds)
+		else
+			buildChooseMoveTreeR(copy, copy.getPlayerByPlayerNum(playerNum), copy.board, root, moves, seeds)
+		deadline = 0
+		random = null
 		try {
 
 			/*for (Player p : copy.getPlayers()) {
@@ -1587,6 +1757,7 @@ open class PlayerBot : Player() {
 
 	companion object {
 		val log = LoggerFactory.getLogger(PlayerBot::class.java)
+		const val MAX_LEAFS = 500
 		@JvmField
         var DEBUG_ENABLED = false
 		val stats: MutableMap<String, Statistics> = HashMap()
@@ -2280,6 +2451,8 @@ open class PlayerBot : Player() {
 	}
 
 	private fun doEvaluateAll(node: BotNode, soc: SOC, p: Player, b: Board) {
+		// route lengths are cached per player and vertex changes made while building the tree do not clear them
+		b.clearRouteLenCache()
 		doEvaluateEdges(node, soc, p, b)
 		doEvaluatePlayer(node, soc, p, b)
 		doEvaluateSeafarers(node, soc, p, b)
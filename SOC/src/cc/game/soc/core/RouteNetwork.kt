@@ -0,0 +1,195 @@
+package cc.game.soc.core
+
+import java.util.Arrays
+
+/**
+ * Incremental longest route computation for Board.
+ *
+ * Each player's routes are grouped into connected components that share a vertex. The longest route of a
+ * player is the max over its components, and each component caches its own length. Routes and vertices
+ * are modified all over the code (SOC, PlayerBot, Vertex.setPlayerAndType) without going through the board,
+ * so changes are found by comparing route owners and vertex states against a snapshot taken at the last
+ * update. Only components touching a changed route, settlement or knight are recomputed.
+ *
+ * @author Chris Caron
+ */
+internal class RouteNetwork {
+
+	private class Component(val player: Int) {
+		val routes = ArrayList<Int>()
+		var length = -1
+	}
+
+	private var routePlayer = IntArray(0)
+	private var vertexState = IntArray(0)
+	private var vertRoutes = IntArray(0) // 3 route indices per vertex, -1 when none
+	private var componentOf = arrayOfNulls<Component>(0)
+	private val components = HashSet<Component>()
+	private var visitedEdges = BooleanArray(0)
+	private var enableRoadBlock = false
+	private var valid = false
+
+	/**
+	 * Force a full rebuild on next use. Call when routes or verts are added or removed.
+	 */
+	fun reset() {
+		valid = false
+	}
+
+	fun computeMaxRouteLengthForPlayer(b: Board, playerNum: Int, enableRoadBlock: Boolean): Int {
+		update(b, enableRoadBlock)
+		var max = 0
+		for (c in components) {
+			if (c.player != playerNum)
+				continue
+			if (c.length < 0)
+				c.length = computeLength(b, c)
+			if (c.length > max)
+				max = c.length
+		}
+		return max
+	}
+
+	private fun vertexState(v: Vertex): Int = (v.player shl 8) or v.type.ordinal
+
+	private fun update(b: Board, enableRoadBlock: Boolean) {
+		if (!valid || routePlayer.size != b.numRoutes || vertexState.size != b.numVerts) {
+			rebuild(b)
+		} else {
+			val changed = ArrayList<Int>()
+			for (i in routePlayer.indices) {
+				val player = b.getRoute(i).player
+				if (player != routePlayer[i]) {
+					routePlayer[i] = player
+					changed.add(i)
+				}
+			}
+			if (changed.isNotEmpty())
+				reflood(b, changed)
+			for (i in vertexState.indices) {
+				val state = vertexState(b.getVertex(i))
+				if (state != vertexState[i]) {
+					vertexState[i] = state
+					// a settlement or knight can block or open a route through this vertex
+					for (k in 0 until 3) {
+						val r = vertRoutes[i * 3 + k]
+						if (r >= 0)
+							componentOf[r]?.length = -1
+					}
+				}
+			}
+		}
+		if (enableRoadBlock != this.enableRoadBlock) {
+			this.enableRoadBlock = enableRoadBlock
+			for (c in components)
+				c.length = -1
+		}
+	}
+
+	private fun rebuild(b: Board) {
+		val numRoutes = b.numRoutes
+		val numVerts = b.numVerts
+		routePlayer = IntArray(numRoutes) { b.getRoute(it).player }
+		vertexState = IntArray(numVerts) { vertexState(b.getVertex(it)) }
+		vertRoutes = IntArray(numVerts * 3)
+		Arrays.fill(vertRoutes, -1)
+		for (i in 0 until numVerts) {
+			val v = b.getVertex(i)
+			for (k in 0 until v.numAdjacentVerts) {
+				vertRoutes[i * 3 + k] = b.getRouteIndex(i, v.adjacentVerts[k])
+			}
+		}
+		componentOf = arrayOfNulls(numRoutes)
+		components.clear()
+		visitedEdges = BooleanArray(numRoutes)
+		for (i in 0 until numRoutes) {
+			if (routePlayer[i] > 0 && componentOf[i] == null)
+				flood(b, i)
+		}
+		valid = true
+	}
+
+	/**
+	 * Split the components of routes that were removed and merge the components joined by routes that were added.
+	 */
+	private fun reflood(b: Board, changed: List<Int>) {
+		val pending = ArrayList<Int>(changed)
+		for (r in changed) {
+			componentOf[r]?.let { release(it, pending) }
+			val player = routePlayer[r]
+			if (player <= 0)
+				continue
+			val route = b.getRoute(r)
+			for (v in intArrayOf(route.from, route.to)) {
+				for (k in 0 until 3) {
+					val rr = vertRoutes[v * 3 + k]
+					if (rr >= 0 && routePlayer[rr] == player)
+						componentOf[rr]?.let { release(it, pending) }
+				}
+			}
+		}
+		for (r in pending) {
+			if (routePlayer[r] > 0 && componentOf[r] == null)
+				flood(b, r)
+		}
+	}
+
+	private fun release(c: Component, pending: MutableList<Int>) {
+		components.remove(c)
+		for (r in c.routes) {
+			componentOf[r] = null
+			pending.add(r)
+		}
+	}
+
+	private fun flood(b: Board, start: Int) {
+		val c = Component(routePlayer[start])
+		val stack = ArrayList<Int>()
+		componentOf[start] = c
+		stack.add(start)
+		while (stack.isNotEmpty()) {
+			val r = stack.removeAt(stack.size - 1)
+			c.routes.add(r)
+			val route = b.getRoute(r)
+			for (v in intArrayOf(route.from, route.to)) {
+				for (k in 0 until 3) {
+					val rr = vertRoutes[v * 3 + k]
+					if (rr >= 0 && componentOf[rr] == null && routePlayer[rr] == c.player) {
+						componentOf[rr] = c
+						stack.add(rr)
+					}
+				}
+			}
+		}
+		components.add(c)
+	}
+
+	/**
+	 * Same search as Board.computeMaxRouteLengthForPlayerDFS but only starting from the verts of this component.
+	 */
+	private fun computeLength(b: Board, c: Component): Int {
+		val verts = HashSet<Int>()
+		for (r in c.routes) {
+			val route = b.getRoute(r)
+			verts.add(route.from)
+			verts.add(route.to)
+		}
+		var max = 0
+		for (v in verts) {
+			if (v >= b.numAvailableVerts)
+				continue
+			val len = b.computeRouteLengthFromVertex(v, c.player, enableRoadBlock, visitedEdges)
+			if (len > max)
+				max = len
+			// only edges adjacent to verts of this component are ever visited
+			for (vv in verts) {
+				for (k in 0 until 3) {
+					val r = vertRoutes[vv * 3 + k]
+					if (r >= 0)
+						visitedEdges[r] = false
+				}
+			}
+		}
+		return max
+	}
+}
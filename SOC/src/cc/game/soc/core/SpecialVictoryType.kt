@@ -45,7 +45,8 @@ enum class SpecialVictoryType(val _nameId: String, val points: Int, val descript
 	CapturePirateFortress("Capture Pirate Fortress", 0, "Given for each pirate fortress conquered"),
 	Explorer("Explorer", 1, "Given to player who has discovered most territories");
 
-	override val cardType = CardType.SpecialVictory
+	override val cardType: CardType
+		get() = CardType.SpecialVictory
 
 	override fun getHelpText(rules: Rules): String {
 		return descriptionId
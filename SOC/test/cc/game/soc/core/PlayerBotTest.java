@@ -0,0 +1,124 @@
+package cc.game.soc.core;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import cc.lib.game.Utils;
+import junit.framework.TestCase;
+
+public class PlayerBotTest extends TestCase {
+
+    static class Decision {
+        final SOC soc;
+        final int playerNum;
+        final List<MoveType> moves;
+
+        Decision(SOC soc, int playerNum, Collection<MoveType> moves) {
+            this.soc = new SOC();
+            this.soc.copyFrom(soc);
+            this.playerNum = playerNum;
+            this.moves = new ArrayList<>(moves);
+        }
+    }
+
+    public static class RecordingBot extends PlayerBot {
+        List<Decision> decisions; // null in copies
+
+        @Override
+        public MoveType chooseMove(SOC soc, Collection<? extends MoveType> moves) {
+            if (decisions != null && moves.size() > 1)
+                decisions.add(new Decision(soc, getPlayerNum(), (Collection<MoveType>)moves));
+            return super.chooseMove(soc, moves);
+        }
+    }
+
+    /**
+     * Play a seeded 2 player game and record the state at every move decision
+     */
+    private List<Decision> recordGame(long seed, int maxDecisions) {
+        Utils.setRandomSeed(seed);
+        List<Decision> decisions = new ArrayList<>();
+        SOC soc = new SOC();
+        Board b = soc.getBoard();
+        b.generateHexBoard(4, TileType.WATER);
+        for (int i=0; i<b.getNumTiles(); i++) {
+            b.getTile(i).setType(TileType.RANDOM_RESOURCE_OR_DESERT);
+        }
+        b.trim();
+        b.assignRandom();
+        for (int i=0; i<2; i++) {
+            RecordingBot bot = new RecordingBot();
+            bot.decisions = decisions;
+            bot.setPlayerNum(i+1);
+            soc.addPlayer(bot);
+        }
+        for (int i=0; i<5000 && !soc.isGameOver() && decisions.size() < maxDecisions; i++)
+            soc.runGame();
+        return decisions;
+    }
+
+    private MoveType replay(Decision d, PlayerBot bot, long seed) {
+        bot.reset(); // discard the path left from the previous decision
+        bot.setPlayerNum(d.playerNum);
+        Utils.setRandomSeed(seed);
+        return bot.chooseMove(d.soc, d.moves);
+    }
+
+    public static class CountingBot extends PlayerBot {
+        static final AtomicInteger boardChanges = new AtomicInteger();
+
+        @Override
+        protected void onBoardChanged() {
+            boardChanges.incrementAndGet();
+        }
+    }
+
+    public void testParallelMatchesSerial() {
+        List<Decision> decisions = recordGame(0, 200);
+        assertTrue(decisions.size() > 0);
+        PlayerBot serial = new PlayerBot();
+        PlayerBot parallel = new CountingBot();
+        parallel.parallelism = 4;
+        CountingBot.boardChanges.set(0);
+        for (int i=0; i<decisions.size(); i++) {
+            Decision d = decisions.get(i);
+            assertEquals("decision " + i, replay(d, serial, i), replay(d, parallel, i));
+        }
+        // the workers are CountingBots too
+        assertTrue(CountingBot.boardChanges.get() > 0);
+    }
+
+    // run with -Dbenchmark=true
+    public void testReplayBenchmark() {
+        if (!Boolean.getBoolean("benchmark"))
+            return;
+        List<Decision> decisions = recordGame(1, 60);
+        int threads = Math.max(2, Runtime.getRuntime().availableProcessors());
+        PlayerBot serial = new PlayerBot();
+        PlayerBot parallel = new PlayerBot();
+        parallel.parallelism = threads;
+        PlayerBot pruned = new PlayerBot();
+        pruned.parallelism = threads;
+        pruned.beamWidth = 3;
+        pruned.maxTimeMillis = 50;
+        for (int pass=0; pass<2; pass++) {
+            long serialTime = 0, parallelTime = 0, prunedTime = 0;
+            for (int i=0; i<decisions.size(); i++) {
+                Decision d = decisions.get(i);
+                long t = System.nanoTime();
+                replay(d, serial, i);
+                serialTime += System.nanoTime() - t;
+                t = System.nanoTime();
+                replay(d, parallel, i);
+                parallelTime += System.nanoTime() - t;
+                t = System.nanoTime();
+                replay(d, pruned, i);
+                prunedTime += System.nanoTime() - t;
+            }
+            System.out.println(String.format("decisions=%d threads=%d serial=%.1f/s parallel=%.1f/s pruned=%.1f/s", decisions.size(), threads,
+                    1e9 * decisions.size() / serialTime, 1e9 * decisions.size() / parallelTime, 1e9 * decisions.size() / prunedTime));
+        }
+    }
+}
@@ -3,6 +3,9 @@ package cc.game.soc.core;
 import java.io.File;
 import java.io.IOException;
 import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
 
 import cc.lib.game.Utils;
 import junit.framework.TestCase;
@@ -101,4 +104,254 @@ public class SOCBoardTest extends TestCase {
     	
     	
     }
+
+    private Board generateLargeBoard(int sideLen) {
+        Board b = new Board();
+        b.generateHexBoard(sideLen, TileType.FIELDS);
+        b.trim();
+        return b;
+    }
+
+    /**
+     * Randomly grow, cut and block player roads. Each change is followed by a check of the
+     * incremental route length against the full DFS.
+     */
+    private void mutate(Board b, Random r, int numPlayers, int maxRoutes) {
+        int player = 1 + r.nextInt(numPlayers);
+        int n = r.nextInt(10);
+        if (n < 6) {
+            // extend from one of the player's roads or start a new one
+            int start = r.nextInt(b.getNumRoutes());
+            for (int i=0; i<b.getNumRoutes(); i++) {
+                Route e = b.getRoute((start + i) % b.getNumRoutes());
+                if (e.getPlayer() != player)
+                    continue;
+                for (int vIndex : new int[] { e.getFrom(), e.getTo() }) {
+                    Vertex v = b.getVertex(vIndex);
+                    int ii = r.nextInt(v.getNumAdjacentVerts());
+                    Route next = b.getRoute(vIndex, v.getAdjacentVerts()[ii]);
+                    if (next != null && next.getPlayer() == 0 && b.getRoutesOfType(player, RouteType.ROAD, RouteType.SHIP).size() < maxRoutes) {
+                        b.setPlayerForRoute(next, player, r.nextBoolean() ? RouteType.ROAD : RouteType.SHIP);
+                        return;
+                    }
+                }
+            }
+            Route e = b.getRoute(r.nextInt(b.getNumRoutes()));
+            if (e.getPlayer() == 0)
+                b.setPlayerForRoute(e, player, RouteType.ROAD);
+        } else if (n < 8) {
+            Route e = b.getRoute(r.nextInt(b.getNumRoutes()));
+            if (e.getPlayer() != 0)
+                b.setRouteOpen(e);
+        } else {
+            Vertex v = b.getVertex(r.nextInt(b.getNumAvailableVerts()));
+            VertexType [] types = { VertexType.OPEN, VertexType.SETTLEMENT, VertexType.CITY, VertexType.BASIC_KNIGHT_ACTIVE };
+            VertexType type = types[r.nextInt(types.length)];
+            if (type == VertexType.OPEN)
+                v.setOpen();
+            else
+                v.setPlayerAndType(player, type);
+            // vertex changes are not seen by the per player cache
+            b.clearRouteLenCache();
+        }
+    }
+
+    public void testIncrementalRouteLength() {
+        Board b = generateLargeBoard(7);
+        Random r = new Random(0);
+        for (int i=0; i<3000; i++) {
+            mutate(b, r, 4, 30);
+            boolean roadBlock = (i / 500) % 2 == 0;
+            for (int p=1; p<=4; p++) {
+                assertEquals("iteration " + i + " player " + p, b.computeMaxRouteLengthForPlayerDFS(p, roadBlock), b.computeMaxRouteLengthForPlayer(p, roadBlock));
+            }
+        }
+    }
+
+    /**
+     * Compare incremental route length against full DFS. Board size can be changed with -Dsoc.side=N
+     * Only runs with -Dbenchmark=true
+     */
+    public void testIncrementalRouteLengthBenchmark() {
+        if (!Boolean.getBoolean("benchmark"))
+            return;
+        int side = Integer.parseInt(System.getProperty("soc.side", "8"));
+        int iterations = 2000;
+        for (int pass=0; pass<2; pass++) {
+            Board b = generateLargeBoard(side);
+            Random r = new Random(1);
+            long dfsTime = 0, incTime = 0;
+            int dfsSum = 0, incSum = 0;
+            for (int i=0; i<iterations; i++) {
+                mutate(b, r, 4, 40);
+                b.clearRouteLenCache();
+                long t = System.nanoTime();
+                for (int p=1; p<=4; p++)
+                    incSum += b.computeMaxRouteLengthForPlayer(p, true);
+                incTime += System.nanoTime() - t;
+                t = System.nanoTime();
+                for (int p=1; p<=4; p++)
+                    dfsSum += b.computeMaxRouteLengthForPlayerDFS(p, true);
+                dfsTime += System.nanoTime() - t;
+            }
+            assertEquals(dfsSum, incSum);
+            System.out.println(String.format("side=%d routes=%d iterations=%d dfs=%dms incremental=%dms", side, b.getNumRoutes(), iterations, dfsTime / 1000000, incTime / 1000000));
+        }
+    }
+
+    private void assertSameDistances(Board b, IDistances expected, IDistances actual, int playerNum, boolean checkPaths) {
+        for (int i=0; i<b.getNumAvailableVerts(); i++) {
+            for (int ii=0; ii<b.getNumAvailableVerts(); ii++) {
+                int d = expected.getDist(i, ii);
+                assertEquals(d, actual.getDist(i, ii));
+                if (!checkPaths || d == IDistances.DISTANCE_INFINITY)
+                    continue;
+                List<Integer> path = actual.getShortestPath(i, ii);
+                assertTrue(path.size() <= b.getNumAvailableVerts());
+                int len = 0;
+                for (int k=1; k<path.size(); k++) {
+                    Route r = b.getRoute(path.get(k-1), path.get(k));
+                    assertNotNull(r);
+                    len += r.getPlayer() == playerNum ? 0 : 1;
+                }
+                assertEquals(d, len);
+            }
+        }
+    }
+
+    /**
+     * Simulate the bot trying each road from a position. Every result is checked against an uncached computation.
+     */
+    private void checkDistances(Board b, Rules rules, Random r, int iterations, boolean checkPaths) {
+        for (int i=0; i<iterations; i++) {
+            mutate(b, r, 2, 40);
+            for (int p=1; p<=2; p++) {
+                assertSameDistances(b, new DistancesCache().getDistances(b, rules, p), b.computeDistances(rules, p), p, checkPaths);
+                for (int ii=0; ii<3; ii++) {
+                    Route e = b.getRoute(r.nextInt(b.getNumRoutes()));
+                    if (e.getPlayer() != 0)
+                        continue;
+                    b.setPlayerForRoute(e, p, rules.isEnableSeafarersExpansion() && r.nextBoolean() ? RouteType.SHIP : RouteType.ROAD);
+                    assertSameDistances(b, new DistancesCache().getDistances(b, rules, p), b.computeDistances(rules, p), p, checkPaths);
+                    b.setRouteOpen(e);
+                }
+            }
+        }
+    }
+
+    public void testDistancesCache() {
+        Board b = generateLargeBoard(5);
+        Rules rules = new Rules();
+        checkDistances(b, rules, new Random(2), 100, true);
+        System.out.println(b.getDistancesCache());
+        assertTrue(b.getDistancesCache().getIncrementalUpdates() > 0);
+        assertTrue(b.getDistancesCache().getHits() > 0);
+
+        b = new Board();
+        b.generateHexBoard(5, TileType.FIELDS);
+        Random r = new Random(3);
+        for (int i=0; i<b.getNumTiles(); i++) {
+            if (r.nextInt(3) == 0)
+                b.getTile(i).setType(TileType.WATER);
+        }
+        b.trim();
+        rules.setEnableSeafarersExpansion(true);
+        checkDistances(b, rules, r, 100, false);
+        System.out.println(b.getDistancesCache());
+    }
+
+    /**
+     * The UI and the bot thread compute distances on the same board
+     */
+    public void testDistancesCacheThreads() throws Exception {
+        final Board b = generateLargeBoard(5);
+        final Rules rules = new Rules();
+        final Random r = new Random(6);
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+        for (int round=0; round<10; round++) {
+            for (int i=0; i<5; i++)
+                mutate(b, r, 2, 40);
+            final IDistances [] expected = new IDistances[3];
+            for (int p=1; p<=2; p++)
+                expected[p] = new DistancesCache().getDistances(b, rules, p);
+            Thread [] threads = new Thread[2];
+            for (int t=0; t<threads.length; t++) {
+                final int first = t + 1;
+                threads[t] = new Thread(() -> {
+                    try {
+                        for (int i=0; i<50; i++) {
+                            int p = 1 + (first + i) % 2;
+                            assertSameDistances(b, expected[p], b.computeDistances(rules, p), p, false);
+                        }
+                    } catch (Throwable e) {
+                        error.compareAndSet(null, e);
+                    }
+                });
+                threads[t].start();
+            }
+            for (Thread t : threads)
+                t.join();
+            if (error.get() != null)
+                throw new AssertionError(error.get());
+        }
+    }
+
+    public void testDistancesCacheEviction() {
+        Board b = generateLargeBoard(5);
+        Rules rules = new Rules();
+        DistancesCache cache = b.getDistancesCache();
+        IDistances d = b.computeDistances(rules, 1);
+        int bytes = (int)cache.getBytesUsed();
+        cache.setMaxBytes(bytes * 3);
+        Random r = new Random(4);
+        for (int i=0; i<20; i++) {
+            mutate(b, r, 2, 40);
+            b.computeDistances(rules, 1 + r.nextInt(2));
+            assertTrue(cache.getBytesUsed() <= cache.getMaxBytes());
+        }
+        assertTrue(cache.getEvictions() > 0);
+        try {
+            d.getDist(0, 1);
+            fail();
+        } catch (SOCException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Time the bot pattern of trying every open route next to the player against computing distances from scratch.
+     * Only runs with -Dbenchmark=true
+     */
+    public void testDistancesCacheBenchmark() {
+        if (!Boolean.getBoolean("benchmark"))
+            return;
+        Board b = generateLargeBoard(6);
+        Rules rules = new Rules();
+        Random r = new Random(5);
+        for (int i=0; i<200; i++)
+            mutate(b, r, 2, 30);
+        for (int pass=0; pass<2; pass++) {
+            long uncached = 0, cached = 0;
+            int count = 0;
+            for (int i=0; i<20; i++) {
+                mutate(b, r, 2, 30);
+                for (int rIndex=0; rIndex<b.getNumRoutes(); rIndex++) {
+                    Route e = b.getRoute(rIndex);
+                    if (e.getPlayer() != 0 || !b.isRouteAvailableForRoad(e, 1))
+                        continue;
+                    b.setPlayerForRoute(e, 1, RouteType.ROAD);
+                    long t = System.nanoTime();
+                    new DistancesCache().getDistances(b, rules, 1);
+                    uncached += System.nanoTime() - t;
+                    t = System.nanoTime();
+                    b.computeDistances(rules, 1);
+                    cached += System.nanoTime() - t;
+                    b.setRouteOpen(e);
+                    b.computeDistances(rules, 1);
+                    count++;
+                }
+            }
+            System.out.println(String.format("verts=%d lookups=%d uncached=%dms cached=%dms %s", b.getNumAvailableVerts(), count, uncached / 1000000, cached / 1000000, b.getDistancesCache()));
+        }
+    }
 }
@@ -0,0 +1,192 @@
+package cc.game.sudoku;
+
+import java.util.Random;
+
+/**
+ * Knuth's dancing links exact cover for 9x9 sudoku.
+ *
+ * The matrix has a row for every (cell, digit) and a column for every constraint: each cell has a digit and
+ * each row, column and box has each digit once. It is built once and every solve covers the given cells,
+ * searches and then uncovers them again, so an instance can be reused without allocating. Nodes are kept in
+ * int arrays instead of objects.
+ *
+ * Not thread safe. Use one per thread.
+ *
+ * @author chriscaron
+ */
+final class DancingLinks {
+
+	private static final int DIM = Sudoku.SUDOKU_DIM;
+	private static final int BOX = 3;
+	private static final int CELLS = DIM*DIM;
+	private static final int COLS = 4*CELLS;
+	private static final int ROWS = CELLS*DIM;
+
+	// node 0 is the root, 1..COLS are the column headers
+	private final int [] L, R, U, D, C, rowOf;
+	private final int [] S = new int[COLS+1];
+	private final boolean [] covered = new boolean[COLS+1];
+	private final int [] rowStart = new int[ROWS];
+
+	private final int [] chosen = new int[CELLS];
+	private final int [] givenCols = new int[COLS];
+
+	private int count, limit;
+	private int [] grid, solution;
+	private Random random;
+
+	DancingLinks() {
+		int size = 1 + COLS + ROWS*4;
+		L = new int[size];
+		R = new int[size];
+		U = new int[size];
+		D = new int[size];
+		C = new int[size];
+		rowOf = new int[size];
+		for (int i=0; i<=COLS; i++) {
+			L[i] = i == 0 ? COLS : i-1;
+			R[i] = i == COLS ? 0 : i+1;
+			U[i] = D[i] = C[i] = i;
+		}
+		int node = COLS+1;
+		for (int cell=0; cell<CELLS; cell++) {
+			int row = cell / DIM, col = cell % DIM;
+			int box = (row/BOX)*BOX + col/BOX;
+			for (int d=0; d<DIM; d++) {
+				int r = cell*DIM + d;
+				int [] cols = {
+						1 + cell,
+						1 + CELLS + row*DIM + d,
+						1 + 2*CELLS + col*DIM + d,
+						1 + 3*CELLS + box*DIM + d
+				};
+				rowStart[r] = node;
+				for (int i=0; i<4; i++) {
+					int c = cols[i];
+					int n = node + i;
+					C[n] = c;
+					rowOf[n] = r;
+					// append to the bottom of the column
+					U[n] = U[c];
+					D[n] = c;
+					D[U[c]] = n;
+					U[c] = n;
+					S[c]++;
+					L[n] = node + (i+3) % 4;
+					R[n] = node + (i+1) % 4;
+				}
+				node += 4;
+			}
+		}
+	}
+
+	/**
+	 * @param grid 81 values in row major order, 0 for empty. Not modified
+	 * @param limit stop after this many solutions
+	 * @param solution if not null receives the first solution
+	 * @param random if not null the search tries rows in a random order, used to generate random grids
+	 * @return number of solutions up to limit. 0 if the givens conflict
+	 */
+	int solve(int [] grid, int limit, int [] solution, Random random) {
+		int numGiven = 0;
+		boolean ok = true;
+		for (int cell=0; cell<CELLS && ok; cell++) {
+			int v = grid[cell];
+			if (v == 0)
+				continue;
+			int n = rowStart[cell*DIM + v-1];
+			int j = n;
+			do {
+				if (covered[C[j]])
+					ok = false;
+				j = R[j];
+			} while (j != n);
+			if (!ok)
+				break;
+			do {
+				cover(C[j]);
+				givenCols[numGiven++] = C[j];
+				j = R[j];
+			} while (j != n);
+		}
+		count = 0;
+		if (ok) {
+			this.limit = Math.max(1, limit);
+			this.grid = grid;
+			this.solution = solution;
+			this.random = random;
+			search(0);
+			this.grid = this.solution = null;
+			this.random = null;
+		}
+		while (numGiven > 0)
+			uncover(givenCols[--numGiven]);
+		return count;
+	}
+
+	private void search(int k) {
+		if (R[0] == 0) {
+			if (count++ == 0 && solution != null) {
+				System.arraycopy(grid, 0, solution, 0, CELLS);
+				for (int i=0; i<k; i++)
+					solution[chosen[i] / DIM] = chosen[i] % DIM + 1;
+			}
+			return;
+		}
+		// column with the fewest rows
+		int c = R[0];
+		for (int j=R[c]; j!=0 && S[c]>1; j=R[j]) {
+			if (S[j] < S[c])
+				c = j;
+		}
+		if (S[c] == 0)
+			return;
+		cover(c);
+		int start = D[c];
+		if (random != null) {
+			for (int skip=random.nextInt(S[c]); skip>0; skip--)
+				start = D[start];
+		}
+		int r = start;
+		do {
+			if (r != c) {
+				chosen[k] = rowOf[r];
+				for (int j=R[r]; j!=r; j=R[j])
+					cover(C[j]);
+				search(k+1);
+				for (int j=L[r]; j!=r; j=L[j])
+					uncover(C[j]);
+				if (count >= limit)
+					break;
+			}
+			r = D[r];
+		} while (r != start);
+		uncover(c);
+	}
+
+	private void cover(int c) {
+		covered[c] = true;
+		L[R[c]] = L[c];
+		R[L[c]] = R[c];
+		for (int i=D[c]; i!=c; i=D[i]) {
+			for (int j=R[i]; j!=i; j=R[j]) {
+				U[D[j]] = U[j];
+				D[U[j]] = D[j];
+				S[C[j]]--;
+			}
+		}
+	}
+
+	private void uncover(int c) {
+		for (int i=U[c]; i!=c; i=U[i]) {
+			for (int j=L[i]; j!=i; j=L[j]) {
+				S[C[j]]++;
+				D[U[j]] = j;
+				U[D[j]] = j;
+			}
+		}
+		R[L[c]] = c;
+		L[R[c]] = c;
+		covered[c] = false;
+	}
+}
@@ -17,6 +17,7 @@ public class Sudoku  {
 	private int [][] 	fixed;
 	
 	private Random randGen;
+	private final SudokuSolver solver = new SudokuSolver();
 
     public Sudoku(Random randGen) {
     	solution = makeMatrix();
@@ -69,9 +70,11 @@ public class Sudoku  {
 	}
 	
 	private boolean isInCell(int cell, int num) {
-		for (int i=0; i<SUDOKU_DIM; i++) {
-			for (int j=0; j<SUDOKU_DIM; j++) {
-				if (getCell(i,j) == cell && getBoard(i,j) == num)
+		final int row0 = (cell/CELL_DIM) * CELL_DIM;
+		final int col0 = (cell%CELL_DIM) * CELL_DIM;
+		for (int i=row0; i<row0+CELL_DIM; i++) {
+			for (int j=col0; j<col0+CELL_DIM; j++) {
+				if (getBoard(i,j) == num)
 					return true;
 			}
 		}
@@ -105,126 +108,37 @@ public class Sudoku  {
 				dest[i][j] = src[i][j];		
 	}
 	
-	private boolean generateR(int num, int cell) {
-		if (num > SUDOKU_DIM)
-			return true;
-		if (cell >= SUDOKU_DIM) {
-			return generateR(num+1, 0);
-		}
-		int [] cellPos = new int[SUDOKU_DIM];
-		for (int i=0; i<SUDOKU_DIM; i++)
-			cellPos[i] = i;
-		shuffle(cellPos, SUDOKU_DIM);
-		for (int i=0; i<SUDOKU_DIM; i++) {
-			int cx = cellPos[i] % CELL_DIM;
-			int cy = cellPos[i] / CELL_DIM;
-			// transform cx, cy to the cell
-			int tx = CELL_DIM * (cell%CELL_DIM);
-			int ty = CELL_DIM * (cell/CELL_DIM);
-			cx += tx;
-			cy += ty;
-			if (getBoard(cx, cy) == 0 && canSetSquare(num, cx, cy)) {
-				setBoard(cx, cy, num);
-				if (generateR(num, cell+1)) {
-					return true;
-				}
-				setBoard(cx, cy, 0);
-			}
-		}
-		return false;
-	}
-	
-	private int countOccurances(int num) {
-		int count = 0;
-		for (int i=0; i<SUDOKU_DIM; i++) {
-			for (int j=0; j<SUDOKU_DIM; j++) {
-				if (getBoard(i,j) == num)
-					count++;
-			}
-		}
-		return count;		
-	}
-	
-	private int countCellElems(int cell) {
-		int count = 0;
-		for (int i=0; i<SUDOKU_DIM; i++) {
-			for (int j=0; j<SUDOKU_DIM; j++) {
-				if (getCell(i, j) == cell && getBoard(i,j) > 0)
-					count ++;
-			}
-		}
-		return count;		
-	}
-	
-	private int countRowElems(int row) {
-	    int count = 0;
-	    for (int i=0; i<SUDOKU_DIM; i++) {
-	        if (this.getBoard(i, row) > 0)
-	            count++;
-	    }
-	    return count;
-	}
-
-    private int countColumnElems(int col) {
-        int count = 0;
-        for (int i=0; i<SUDOKU_DIM; i++) {
-            if (this.getBoard(col, i) > 0)
-                count++;
-        }
-        return count;
-    }
-	
 	private void hide(int difficulty) {
-		int numHidden = SUDOKU_DIM*SUDOKU_DIM;
-		int minOccurances = 0;
-		int minCellElems = 0;
-		int minRowColElems = 0;
+		// least number of clues to leave so easier puzzles are not too sparse
+		int minClues;
 		switch (difficulty) {
 		case EASY:
-			numHidden = (numHidden * 1) / 2;
-			minOccurances = SUDOKU_DIM / 3;
-			minCellElems = SUDOKU_DIM / 3;
-			minRowColElems = SUDOKU_DIM / 3 + 1;
+			minClues = (SUDOKU_DIM*SUDOKU_DIM) / 2;
 			break;
-
 		case MEDIUM:
-			numHidden = (numHidden * 5) / 9;
-			minOccurances = SUDOKU_DIM / 4;
-			minCellElems = SUDOKU_DIM / 4;
-            minRowColElems = SUDOKU_DIM / 3;
+			minClues = (SUDOKU_DIM*SUDOKU_DIM * 4) / 9;
 			break;
-
 		default:
-			numHidden = (numHidden * 4) / 7;
-			minOccurances = SUDOKU_DIM / 4;
-			minCellElems = SUDOKU_DIM / 4;
-            minRowColElems = SUDOKU_DIM / 3 - 1;
+			minClues = 0;
 			break;
 		}
 
-		int tries = 0;
-		while (tries++ < 10000 && numHidden > 0) {
-			final int cx = rand() % SUDOKU_DIM;
-			final int cy = rand() % SUDOKU_DIM;
-			final int cell = getCell(cx, cy);
-
-			final int num = getBoard(cx, cy);
-			if (num == 0)
-				continue;
-
-			if (countOccurances(num) <= minOccurances)
-				continue;
-
-			if (countCellElems(cell) <= minCellElems)
-				continue;
-			
-			if (countRowElems(cy) <= minRowColElems || countColumnElems(cx) <= minRowColElems)
-			    continue;
+		// retry until the rating matches, keep the closest otherwise
+		SudokuGenerator.Puzzle best = null;
+		for (int tries=0; tries<20; tries++) {
+			SudokuGenerator.Puzzle p = SudokuGenerator.generate(randGen, solver, difficulty, minClues);
+			if (best == null || p.difficulty > best.difficulty)
+				best = p;
+			if (best.difficulty >= difficulty)
+				break;
+		}
 
-			setBoard(cx, cy, 0);
-			numHidden--;
-		}		
-		
+		for (int i=0; i<SUDOKU_DIM; i++) {
+			for (int j=0; j<SUDOKU_DIM; j++) {
+				solution[i][j] = best.solution[i*SUDOKU_DIM + j];
+				board[i][j] = best.cells[i*SUDOKU_DIM + j];
+			}
+		}
 	}
 	
 	private void setFixed() {
@@ -278,8 +192,6 @@ public class Sudoku  {
 		zero(board);
 		zero(fixed);
 		zero(solution);
-		generateR(1,0);
-		copy(board, solution);
 		hide(difficulty);
 		setFixed();
 	}
@@ -0,0 +1,122 @@
+package cc.game.sudoku;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Generates sudoku puzzles with a unique solution.
+ *
+ * A random complete grid is made with DancingLinks, then cells are removed in random order and each removal is
+ * kept only if the puzzle still has one solution and is not harder than asked for. The puzzle is rated by the
+ * techniques SudokuSolver needed.
+ *
+ * Usage: SudokuGenerator [count] [threads]
+ *
+ * @author chriscaron
+ */
+public class SudokuGenerator {
+
+	public static final class Puzzle {
+		public final int [] cells; // row major, 0 for empty
+		public final int [] solution;
+		public final int difficulty; // Sudoku.EASY, MEDIUM or HARD
+
+		Puzzle(int [] cells, int [] solution, int difficulty) {
+			this.cells = cells;
+			this.solution = solution;
+			this.difficulty = difficulty;
+		}
+
+		public int getNumClues() {
+			int n = 0;
+			for (int c : cells)
+				if (c != 0)
+					n++;
+			return n;
+		}
+	}
+
+	/**
+	 * @param random
+	 * @param solver
+	 * @param maxDifficulty Sudoku.EASY, MEDIUM or HARD
+	 * @param minClues stop removing cells at this many
+	 * @return
+	 */
+	public static Puzzle generate(Random random, SudokuSolver solver, int maxDifficulty, int minClues) {
+		final int [] solution = solver.generateSolution(random);
+		final int [] cells = solution.clone();
+		final int [] order = new int[SudokuSolver.NUM_CELLS];
+		for (int i=0; i<order.length; i++)
+			order[i] = i;
+		for (int i=order.length-1; i>0; i--) {
+			int j = random.nextInt(i+1);
+			int t = order[i];
+			order[i] = order[j];
+			order[j] = t;
+		}
+		int numClues = cells.length;
+		for (int i=0; i<order.length && numClues > minClues; i++) {
+			int cell = order[i];
+			int v = cells[cell];
+			cells[cell] = 0;
+			if (solver.solve(cells, 2) != 1 || solver.getDifficulty() > maxDifficulty)
+				cells[cell] = v;
+			else
+				numClues--;
+		}
+		solver.solve(cells, 2);
+		return new Puzzle(cells, solution, solver.getDifficulty());
+	}
+
+	/**
+	 * Generate count rated puzzles on numThreads threads. Each thread has its own solver and random
+	 * seeded from seed so the result only depends on seed, count and numThreads.
+	 */
+	public static List<Puzzle> generate(final int count, int numThreads, final long seed) throws Exception {
+		numThreads = Math.max(1, Math.min(numThreads, count));
+		ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+		try {
+			List<Future<List<Puzzle>>> futures = new ArrayList<>();
+			for (int t=0; t<numThreads; t++) {
+				final int n = count / numThreads + (t < count % numThreads ? 1 : 0);
+				final long threadSeed = seed + t;
+				futures.add(pool.submit(() -> {
+					Random random = new Random(threadSeed);
+					SudokuSolver solver = new SudokuSolver();
+					List<Puzzle> list = new ArrayList<>(n);
+					for (int i=0; i<n; i++)
+						list.add(generate(random, solver, Sudoku.HARD, 0));
+					return list;
+				}));
+			}
+			List<Puzzle> result = new ArrayList<>(count);
+			for (Future<List<Puzzle>> f : futures)
+				result.addAll(f.get());
+			return result;
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	public static void main(String [] args) throws Exception {
+		int count = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+		int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+		long t = System.currentTimeMillis();
+		List<Puzzle> puzzles = generate(count, threads, t);
+		long dt = Math.max(1, System.currentTimeMillis() - t);
+		int [] ratings = new int[Sudoku.HARD+1];
+		long clues = 0;
+		for (Puzzle p : puzzles) {
+			ratings[p.difficulty]++;
+			clues += p.getNumClues();
+		}
+		System.out.println(String.format("%d puzzles in %d ms on %d threads: %.0f puzzles/sec, avg clues %.1f, easy %d medium %d hard %d",
+				count, dt, threads, 1000.0 * count / dt, (double)clues / count,
+				ratings[Sudoku.EASY], ratings[Sudoku.MEDIUM], ratings[Sudoku.HARD]));
+	}
+}
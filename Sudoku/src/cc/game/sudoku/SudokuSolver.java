@@ -0,0 +1,224 @@
+package cc.game.sudoku;
+
+import java.util.Random;
+
+/**
+ * Solves 9x9 sudoku and rates how hard it is.
+ *
+ * Each empty cell keeps its candidates as a bit mask and placing a digit removes it from the 20 peers. The
+ * solver first applies hidden singles (a digit that fits only one cell of a row, column or box) and then naked
+ * singles (a cell with one candidate) until neither finds anything. Whatever is left is finished with
+ * DancingLinks, which also counts solutions so a puzzle can be checked for uniqueness.
+ *
+ * The techniques a solve needed give the rating: hidden singles only is EASY, naked singles is MEDIUM and
+ * having to search is HARD.
+ *
+ * Grids are 81 ints in row major order with 0 for empty. Not thread safe. Use one per thread.
+ *
+ * @author chriscaron
+ */
+public final class SudokuSolver {
+
+	public static final int DIM = Sudoku.SUDOKU_DIM;
+	public static final int NUM_CELLS = DIM*DIM;
+	private static final int BOX = 3;
+	private static final int ALL = (1<<DIM)-1;
+
+	// techniques
+	public static final int HIDDEN_SINGLE = 1;
+	public static final int NAKED_SINGLE = 2;
+	public static final int SEARCH = 4;
+
+	// rows, columns then boxes
+	private static final int [][] UNITS = new int[3*DIM][DIM];
+	private static final int [][] PEERS = new int[NUM_CELLS][20];
+
+	static {
+		for (int i=0; i<DIM; i++) {
+			for (int j=0; j<DIM; j++) {
+				UNITS[i][j] = i*DIM + j;
+				UNITS[DIM+i][j] = j*DIM + i;
+				UNITS[2*DIM+i][j] = ((i/BOX)*BOX + j/BOX)*DIM + (i%BOX)*BOX + j%BOX;
+			}
+		}
+		for (int cell=0; cell<NUM_CELLS; cell++) {
+			int row = cell / DIM, col = cell % DIM;
+			int n = 0;
+			for (int p=0; p<NUM_CELLS; p++) {
+				int r = p / DIM, c = p % DIM;
+				if (p != cell && (r == row || c == col || (r/BOX == row/BOX && c/BOX == col/BOX)))
+					PEERS[cell][n++] = p;
+			}
+		}
+	}
+
+	private final int [] grid = new int[NUM_CELLS];
+	private final int [] candidates = new int[NUM_CELLS];
+	private final int [] solution = new int[NUM_CELLS];
+	private final DancingLinks dlx = new DancingLinks();
+	private int numFilled;
+	private int techniques;
+
+	/**
+	 * @param puzzle
+	 * @param limit stop counting after this many solutions. 2 is enough to test uniqueness
+	 * @return number of solutions up to limit
+	 */
+	public int solve(int [] puzzle, int limit) {
+		techniques = 0;
+		if (!load(puzzle) || !propagate())
+			return 0;
+		if (numFilled == NUM_CELLS) {
+			// solved by logic alone so there is no other solution
+			System.arraycopy(grid, 0, solution, 0, NUM_CELLS);
+			return 1;
+		}
+		techniques |= SEARCH;
+		return dlx.solve(grid, limit, solution, null);
+	}
+
+	public boolean isUnique(int [] puzzle) {
+		return solve(puzzle, 2) == 1;
+	}
+
+	/**
+	 * @return the first solution found by the last solve
+	 */
+	public int [] getSolution() {
+		return solution;
+	}
+
+	/**
+	 * @return HIDDEN_SINGLE, NAKED_SINGLE, SEARCH flags used by the last solve
+	 */
+	public int getTechniques() {
+		return techniques;
+	}
+
+	/**
+	 * @return Sudoku.EASY, MEDIUM or HARD for the last solve
+	 */
+	public int getDifficulty() {
+		if ((techniques & SEARCH) != 0)
+			return Sudoku.HARD;
+		if ((techniques & NAKED_SINGLE) != 0)
+			return Sudoku.MEDIUM;
+		return Sudoku.EASY;
+	}
+
+	/**
+	 * @return a new random complete grid
+	 */
+	public int [] generateSolution(Random random) {
+		int [] result = new int[NUM_CELLS];
+		dlx.solve(new int[NUM_CELLS], 1, result, random);
+		return result;
+	}
+
+	private boolean load(int [] puzzle) {
+		numFilled = 0;
+		for (int i=0; i<NUM_CELLS; i++) {
+			grid[i] = 0;
+			candidates[i] = ALL;
+		}
+		for (int i=0; i<NUM_CELLS; i++) {
+			if (puzzle[i] != 0 && !assign(i, puzzle[i]))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * @return false if a peer already has digit or is left without candidates
+	 */
+	private boolean assign(int cell, int digit) {
+		final int bit = 1 << (digit-1);
+		if ((candidates[cell] & bit) == 0)
+			return false;
+		grid[cell] = digit;
+		candidates[cell] = 0;
+		numFilled++;
+		for (int p : PEERS[cell]) {
+			if (grid[p] == 0) {
+				if ((candidates[p] &= ~bit) == 0)
+					return false;
+			} else if (grid[p] == digit) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return false on a contradiction
+	 */
+	private boolean propagate() {
+		while (numFilled < NUM_CELLS) {
+			int n = hiddenSingles();
+			if (n < 0)
+				return false;
+			if (n > 0) {
+				techniques |= HIDDEN_SINGLE;
+				continue;
+			}
+			n = nakedSingles();
+			if (n < 0)
+				return false;
+			if (n == 0)
+				break;
+			techniques |= NAKED_SINGLE;
+		}
+		return true;
+	}
+
+	/**
+	 * @return number of cells filled or -1 on a contradiction
+	 */
+	private int hiddenSingles() {
+		int count = 0;
+		for (int [] unit : UNITS) {
+			int once = 0, twice = 0, placed = 0;
+			for (int cell : unit) {
+				if (grid[cell] != 0) {
+					placed |= 1 << (grid[cell]-1);
+				} else {
+					int m = candidates[cell];
+					twice |= once & m;
+					once |= m;
+				}
+			}
+			if ((once | placed) != ALL)
+				return -1; // a digit has nowhere to go
+			for (int singles = once & ~twice & ~placed; singles != 0; singles &= singles-1) {
+				int bit = singles & -singles;
+				int target = -1;
+				for (int cell : unit) {
+					if ((candidates[cell] & bit) != 0) {
+						target = cell;
+						break;
+					}
+				}
+				if (target < 0 || !assign(target, Integer.numberOfTrailingZeros(bit)+1))
+					return -1;
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * @return number of cells filled or -1 on a contradiction
+	 */
+	private int nakedSingles() {
+		int count = 0;
+		for (int cell=0; cell<NUM_CELLS; cell++) {
+			int m = candidates[cell];
+			if (grid[cell] == 0 && (m & (m-1)) == 0) {
+				if (m == 0 || !assign(cell, Integer.numberOfTrailingZeros(m)+1))
+					return -1;
+				count++;
+			}
+		}
+		return count;
+	}
+}
@@ -0,0 +1,241 @@
+package cc.game.sudoku;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class SudokuSolverTest extends TestCase {
+
+	// solvable with hidden singles
+	static final String EASY_PUZZLE =
+			"53..7...." +
+			"6..195..." +
+			".98....6." +
+			"8...6...3" +
+			"4..8.3..1" +
+			"7...2...6" +
+			".6....28." +
+			"...419..5" +
+			"....8..79";
+	static final String EASY_SOLUTION =
+			"534678912" +
+			"672195348" +
+			"198342567" +
+			"859761423" +
+			"426853791" +
+			"713924856" +
+			"961537284" +
+			"287419635" +
+			"345286179";
+
+	// stalls on hidden singles and needs a naked single
+	static final String MEDIUM_PUZZLE =
+			"..79.8..." +
+			".3.6....." +
+			"1...438.7" +
+			".2...5.6." +
+			"......4.." +
+			".6.49..12" +
+			"6......7." +
+			"..1.2.6.5" +
+			"..45863..";
+	static final String MEDIUM_SOLUTION =
+			"247958136" +
+			"538671294" +
+			"196243857" +
+			"429815763" +
+			"715362489" +
+			"863497512" +
+			"652134978" +
+			"381729645" +
+			"974586321";
+
+	// needs search
+	static final String HARD_PUZZLE =
+			"8........" +
+			"..36....." +
+			".7..9.2.." +
+			".5...7..." +
+			"....457.." +
+			"...1...3." +
+			"..1....68" +
+			"..85...1." +
+			".9....4..";
+	static final String HARD_SOLUTION =
+			"812753649" +
+			"943682175" +
+			"675491283" +
+			"154237896" +
+			"369845721" +
+			"287169534" +
+			"521974368" +
+			"438526917" +
+			"796318452";
+
+	static int [] parse(String s) {
+		int [] grid = new int[SudokuSolver.NUM_CELLS];
+		for (int i=0; i<grid.length; i++) {
+			char c = s.charAt(i);
+			grid[i] = c == '.' ? 0 : c - '0';
+		}
+		return grid;
+	}
+
+	static String toString(int [] grid) {
+		StringBuilder s = new StringBuilder();
+		for (int v : grid)
+			s.append(v == 0 ? '.' : (char)('0' + v));
+		return s.toString();
+	}
+
+	// every row, column and box has 1-9 and the givens are kept
+	static void assertSolves(int [] puzzle, int [] solution) {
+		final int dim = SudokuSolver.DIM;
+		for (int i=0; i<SudokuSolver.NUM_CELLS; i++) {
+			if (puzzle[i] != 0)
+				assertEquals("given " + i, puzzle[i], solution[i]);
+		}
+		for (int i=0; i<dim; i++) {
+			int row = 0, col = 0, box = 0;
+			for (int j=0; j<dim; j++) {
+				row |= 1 << solution[i*dim + j];
+				col |= 1 << solution[j*dim + i];
+				box |= 1 << solution[((i/3)*3 + j/3)*dim + (i%3)*3 + j%3];
+			}
+			assertEquals("row " + i, 0x3fe, row);
+			assertEquals("col " + i, 0x3fe, col);
+			assertEquals("box " + i, 0x3fe, box);
+		}
+	}
+
+	// cells r1c1, r1c2, r2c1, r2c2 with r1, r2 in the same band and c1, c2 in different stacks where
+	// r1c1 == r2c2 and r1c2 == r2c1
+	static int [] findRectangle(int [] g) {
+		for (int r1=0; r1<9; r1++)
+			for (int r2=r1+1; r2<(r1/3+1)*3; r2++)
+				for (int c1=0; c1<9; c1++)
+					for (int c2=(c1/3+1)*3; c2<9; c2++)
+						if (g[r1*9+c1] == g[r2*9+c2] && g[r1*9+c2] == g[r2*9+c1])
+							return new int [] { r1*9+c1, r1*9+c2, r2*9+c1, r2*9+c2 };
+		return null;
+	}
+
+	public void testSolveKnown() {
+		SudokuSolver solver = new SudokuSolver();
+		assertEquals(1, solver.solve(parse(EASY_PUZZLE), 2));
+		assertEquals(EASY_SOLUTION, toString(solver.getSolution()));
+		assertEquals(1, solver.solve(parse(HARD_PUZZLE), 2));
+		assertEquals(HARD_SOLUTION, toString(solver.getSolution()));
+		assertSolves(parse(HARD_PUZZLE), solver.getSolution());
+		assertEquals(1, solver.solve(parse(MEDIUM_PUZZLE), 2));
+		assertEquals(MEDIUM_SOLUTION, toString(solver.getSolution()));
+		// a solved grid is its own solution
+		assertEquals(1, solver.solve(parse(HARD_SOLUTION), 2));
+		assertEquals(HARD_SOLUTION, toString(solver.getSolution()));
+	}
+
+	public void testCountSolutions() {
+		SudokuSolver solver = new SudokuSolver();
+		// conflicting givens
+		int [] puzzle = parse(EASY_PUZZLE);
+		puzzle[2] = 5;
+		assertEquals(0, solver.solve(puzzle, 2));
+		// no digit left for the last cell of the first row
+		puzzle = parse("12345678." + "........9" + ".........".repeat(7));
+		assertEquals(0, solver.solve(puzzle, 2));
+
+		assertEquals(1, solver.solve(parse(EASY_PUZZLE), 2));
+		assertTrue(solver.isUnique(parse(HARD_PUZZLE)));
+
+		// the 4 corners of a rectangle over 2 boxes holding 2 digits can be swapped
+		puzzle = parse(EASY_SOLUTION);
+		int [] corners = findRectangle(puzzle);
+		assertNotNull(corners);
+		for (int cell : corners)
+			puzzle[cell] = 0;
+		assertEquals(2, solver.solve(puzzle, 10));
+		assertFalse(solver.isUnique(puzzle));
+		assertSolves(puzzle, solver.getSolution());
+
+		// counting stops at the limit
+		int [] empty = new int[SudokuSolver.NUM_CELLS];
+		assertEquals(2, solver.solve(empty, 2));
+		assertEquals(100, solver.solve(empty, 100));
+		assertSolves(empty, solver.getSolution());
+	}
+
+	public void testDancingLinks() {
+		DancingLinks dlx = new DancingLinks();
+		int [] solution = new int[SudokuSolver.NUM_CELLS];
+		assertEquals(1, dlx.solve(parse(HARD_PUZZLE), 2, solution, null));
+		assertEquals(HARD_SOLUTION, toString(solution));
+		int [] puzzle = parse(HARD_PUZZLE);
+		puzzle[1] = 8;
+		assertEquals(0, dlx.solve(puzzle, 2, null, null));
+		// givens are uncovered again so the next solve starts clean
+		assertEquals(1, dlx.solve(parse(EASY_PUZZLE), 2, solution, null));
+		assertEquals(EASY_SOLUTION, toString(solution));
+		assertEquals(5, dlx.solve(new int[SudokuSolver.NUM_CELLS], 5, null, null));
+	}
+
+	public void testRating() {
+		SudokuSolver solver = new SudokuSolver();
+		solver.solve(parse(EASY_PUZZLE), 2);
+		assertEquals(SudokuSolver.HIDDEN_SINGLE, solver.getTechniques());
+		assertEquals(Sudoku.EASY, solver.getDifficulty());
+
+		solver.solve(parse(MEDIUM_PUZZLE), 2);
+		assertEquals(SudokuSolver.HIDDEN_SINGLE | SudokuSolver.NAKED_SINGLE, solver.getTechniques());
+		assertEquals(Sudoku.MEDIUM, solver.getDifficulty());
+		assertEquals(MEDIUM_SOLUTION, toString(solver.getSolution()));
+
+		solver.solve(parse(HARD_PUZZLE), 2);
+		assertTrue((solver.getTechniques() & SudokuSolver.SEARCH) != 0);
+		assertEquals(Sudoku.HARD, solver.getDifficulty());
+	}
+
+	public void testGenerator() {
+		Random random = new Random(1);
+		SudokuSolver solver = new SudokuSolver();
+		SudokuSolver check = new SudokuSolver();
+		for (int difficulty=Sudoku.EASY; difficulty<=Sudoku.HARD; difficulty++) {
+			for (int i=0; i<10; i++) {
+				SudokuGenerator.Puzzle p = SudokuGenerator.generate(random, solver, difficulty, 0);
+				assertEquals(1, check.solve(p.cells, 2));
+				assertEquals(toString(p.solution), toString(check.getSolution()));
+				assertSolves(p.cells, p.solution);
+				assertEquals(check.getDifficulty(), p.difficulty);
+				assertTrue(p.difficulty <= difficulty);
+			}
+		}
+	}
+
+	public void testGenerate() {
+		SudokuSolver check = new SudokuSolver();
+		for (int difficulty=Sudoku.EASY; difficulty<=Sudoku.HARD; difficulty++) {
+			Sudoku sudoku = new Sudoku(new Random(difficulty));
+			sudoku.generate(difficulty);
+			int [] puzzle = new int[SudokuSolver.NUM_CELLS];
+			for (int i=0; i<Sudoku.SUDOKU_DIM; i++) {
+				for (int j=0; j<Sudoku.SUDOKU_DIM; j++) {
+					puzzle[i*Sudoku.SUDOKU_DIM + j] = sudoku.getBoard(i, j);
+					assertEquals(sudoku.getBoard(i, j) == 0, sudoku.canEdit(i, j));
+				}
+			}
+			assertEquals(1, check.solve(puzzle, 2));
+			assertEquals(difficulty, check.getDifficulty());
+			sudoku.solve();
+			assertTrue(sudoku.isSolved());
+			for (int i=0; i<SudokuSolver.NUM_CELLS; i++)
+				assertEquals(check.getSolution()[i], sudoku.getBoard(i / Sudoku.SUDOKU_DIM, i % Sudoku.SUDOKU_DIM));
+		}
+	}
+
+	public void testBatch() throws Exception {
+		SudokuSolver check = new SudokuSolver();
+		for (SudokuGenerator.Puzzle p : SudokuGenerator.generate(20, 2, 1)) {
+			assertTrue(check.isUnique(p.cells));
+			assertEquals(check.getDifficulty(), p.difficulty);
+		}
+	}
+}
@@ -75,6 +75,7 @@ const val MAZE_MARGIN = 25f
 const val MAZE_WALL_THICKNESS = 3f
 const val MAZE_WIDTH = MAZE_CELL_DIM * MAZE_NUMCELLS_X //1440; // width of world
 const val MAZE_HEIGHT = MAZE_CELL_DIM * MAZE_NUMCELLS_Y //1240; // height of world
+const val SPATIAL_HASH_CELL_DIM = MAZE_CELL_DIM / 2 // cell size of the collision grid
 
 // used to make comparisons close to zero
 const val EPSILON = 0.00001f
@@ -421,6 +422,8 @@ val ENEMY_RADIUS = floatArrayOf(
 	require(it.size == ENEMY_INDEX_NUM)
 }
 
+val MAX_ENEMY_RADIUS = ENEMY_RADIUS.max()
+
 // enum
 const val HIT_TYPE_ENEMY = 0
 const val HIT_TYPE_TANK_MISSLE = 1
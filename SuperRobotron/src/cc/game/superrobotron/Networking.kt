@@ -2,10 +2,12 @@ package cc.game.superrobotron
 
 import cc.lib.game.GDimension
 import cc.lib.ksp.binaryserializer.readBoolean
+import cc.lib.ksp.binaryserializer.readInt
 import cc.lib.ksp.binaryserializer.readUByte
 import cc.lib.ksp.binaryserializer.readUShort
 import cc.lib.ksp.binaryserializer.writeBoolean
 import cc.lib.ksp.binaryserializer.writeByte
+import cc.lib.ksp.binaryserializer.writeInt
 import cc.lib.ksp.binaryserializer.writeLong
 import cc.lib.ksp.binaryserializer.writeUByte
 import cc.lib.ksp.binaryserializer.writeUShort
@@ -54,6 +56,11 @@ interface IRoboClient {
 
 	fun sendScreenDimension(dim: GDimension)
 
+	/**
+	 * Move replicated objects toward the latest frame. Called before each draw
+	 */
+	fun interpolate() {}
+
 	fun disconnect()
 
 }
@@ -64,7 +71,7 @@ interface IRoboClientConnection {
 
 	val connected: Boolean
 
-	fun send(data: ByteArray)
+	fun send(data: ByteArray, length: Int = data.size)
 
 	fun send(cmd: GameCommand)
 }
@@ -74,16 +81,12 @@ interface IRoboServer {
 	val roboConnections: List<IRoboClientConnection>
 
 	fun broadcastNewGame()
-	fun broadcastGameState()
-	fun broadcastPlayers(players: ManagedArray<Player>)
-	fun broadcastPeople(people: ManagedArray<People>)
-	fun broadcastPlayerMissiles(playerId: Int, missiles: ManagedArray<Missile>)
-
-	fun broadcastEnemies(enemies: ManagedArray<Enemy>)
-	fun broadcastEnemyMissiles(enemyMissiles: ManagedArray<Missile>, tankMissiles: ManagedArray<Missile>, snakeMissiles: ManagedArray<MissileSnake>)
-	fun broadcastPowerups(powerups: ManagedArray<Powerup>)
 
-	fun broadcastWalls(walls: Collection<Wall>)
+	/**
+	 * Send the state of this tick to every client as a delta against what it last acknowledged.
+	 * Called once per frame
+	 */
+	fun broadcastFrame()
 
 	fun broadcastExecuteMethod(method: String, vararg args: Any?)
 
@@ -106,16 +109,11 @@ object UDPCommon {
 
 	private const val CLIENT_TIME_REQ_ID = 1
 	private const val CLIENT_INPUT_ID = 2
+	private const val CLIENT_ACK_ID = 3
 
 	private const val SERVER_TIME_SYNC_RESP = 1
-	private const val SERVER_PLAYERS_ID = 2
-	private const val SERVER_PEOPLE_ID = 3
-	private const val SERVER_PLAYER_MISSILES_ID = 4
-	private const val SERVER_ENEMIES_ID = 5
-	private const val SERVER_ENEMY_MISSILES_ID = 6
-	private const val SERVER_POWERUPS_ID = 7
 	private const val SERVER_WALLS_ID = 8
-	private const val SERVER_GAME_ID = 9
+	private const val SERVER_FRAME_ID = 10
 
 	fun write(buffer: ByteBuffer, id: Int, array: ManagedArray<*>) {
 		buffer.writeUByte(id)
@@ -141,7 +139,12 @@ object UDPCommon {
 		writer.writeBoolean(firing)
 	}
 
-	fun serverProcessInput(clientId: Int, reader: ByteBuffer, robo: Robotron) {
+	fun clientWriteAck(writer: ByteBuffer, frame: Int) {
+		writer.writeByte(CLIENT_ACK_ID)
+		writer.writeInt(frame)
+	}
+
+	fun serverProcessInput(clientId: Int, reader: ByteBuffer, robo: Robotron, replication: ReplicationServer) {
 		while (reader.hasRemaining()) {
 			when (reader.readUByte()) {
 				EOF -> break
@@ -155,32 +158,19 @@ object UDPCommon {
 						firing = reader.readBoolean()
 					}
 				}
+
+				CLIENT_ACK_ID -> replication.onAck(clientId, reader.readInt())
 			}
 		}
 	}
 
-	fun clientProcessInput(reader: ByteBuffer, robo: Robotron) {
+	fun clientProcessInput(reader: ByteBuffer, robo: Robotron, replication: ReplicationClient) {
 		while (reader.hasRemaining()) {
 			val packetId = reader.readUByte()
 			when (packetId) {
 				EOF -> break
-				SERVER_PLAYERS_ID -> robo.players.deserialize(reader)
-				SERVER_PEOPLE_ID -> robo.people.deserialize(reader)
-				SERVER_PLAYER_MISSILES_ID -> {
-					val id = reader.readUByte()
-					robo.players[id].missles.deserialize(reader)
-				}
-
-				SERVER_ENEMIES_ID -> robo.enemies.deserialize(reader)
-				SERVER_ENEMY_MISSILES_ID -> {
-					robo.enemy_missiles.deserialize(reader)
-					robo.tank_missiles.deserialize(reader)
-					robo.snake_missiles.deserialize(reader)
-				}
-
-				SERVER_POWERUPS_ID -> robo.powerups.deserialize(reader)
+				SERVER_FRAME_ID -> replication.read(reader)
 				SERVER_WALLS_ID -> clientReadWalls(robo.wall_lookup, reader)
-				SERVER_GAME_ID -> robo.deserialze(reader)
 				else -> error("Unknown server packet id: $packetId")
 			}
 		}
@@ -191,40 +181,15 @@ object UDPCommon {
 		return Pair(ByteBuffer.wrap(array).order(ByteOrder.BIG_ENDIAN).position(headerBytes), array)
 	}
 
-	fun serverWriteGameState(robo: Robotron, output: ByteBuffer) {
-		output.writeByte(SERVER_GAME_ID)
-		robo.serialize(output)
-	}
-
-	fun serverWritePlayers(players: ManagedArray<Player>, output: ByteBuffer) {
-		output.writeUByte(SERVER_PLAYERS_ID)
-		players.serialize(output)
-	}
-
-	fun serverWritePeople(people: ManagedArray<People>, output: ByteBuffer) {
-		output.writeUByte(SERVER_PEOPLE_ID)
-		people.serialize(output)
-	}
-
-	fun serverWritePlayerMissles(playerId: Int, missiles: ManagedArray<Missile>, output: ByteBuffer) {
-		output.writeUByte(SERVER_PLAYER_MISSILES_ID)
-		output.writeUByte(playerId)
-		missiles.serialize(output)
-	}
-
-	fun serverWriteEnemies(enemies: ManagedArray<Enemy>, output: ByteBuffer) {
-		output.writeUByte(SERVER_ENEMIES_ID)
-		enemies.serialize(output)
-	}
-
-	fun serverWriteEnemyMissiles(missiles: ManagedArray<Missile>, output: ByteBuffer) {
-		output.writeUByte(SERVER_ENEMY_MISSILES_ID)
-		missiles.serialize(output)
-	}
-
-	fun serverWritePowerups(powerups: ManagedArray<Powerup>, output: ByteBuffer) {
-		output.writeUByte(SERVER_POWERUPS_ID)
-		powerups.serialize(output)
+	/**
+	 * Number of parts is written as 0 and filled in once the frame is done
+	 */
+	fun serverWriteFrameHeader(output: ByteBuffer, frame: Int, baseline: Int, part: Int) {
+		output.writeUByte(SERVER_FRAME_ID)
+		output.writeInt(frame)
+		output.writeInt(baseline)
+		output.writeUByte(part)
+		output.writeUByte(0)
 	}
 
 	fun serverWriteWalls(walls: Collection<Wall>, output: ByteBuffer) {
@@ -18,6 +18,7 @@ import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.Job
 import kotlinx.coroutines.launch
 import kotlinx.coroutines.runBlocking
+import java.io.IOException
 import java.net.DatagramPacket
 import java.net.DatagramSocket
 import java.net.InetAddress
@@ -53,7 +54,6 @@ class RoboClientConnection(
 
 	override val clientId: Int = attributes["clientId"] as Int
 
-	val writeUDPScope = CoroutineScope(Dispatchers.IO + CoroutineName("conn UDP write $clientId"))
 	val readUDPScope = CoroutineScope(Dispatchers.IO + CoroutineName("conn UDP read $clientId"))
 
 	private var udpSocket: DatagramSocket? = null
@@ -68,6 +68,7 @@ class RoboClientConnection(
 		udpAddress = clientAddress
 		udpPort = SERVER_UDP_READ_PORT
 		udpSocket = DatagramSocket(udpPort)
+		roboServer.replication.reset(clientId)
 		roboServer.robotron.players.getOrAdd(clientId).also {
 			it.displayName = displayName
 			roboServer.robotron.initNewPlayer(it)
@@ -79,7 +80,7 @@ class RoboClientConnection(
 			while (connected && udpSocket != null) {
 				val packet = DatagramPacket(array, array.size)
 				udpSocket?.receive(packet)
-				UDPCommon.serverProcessInput(clientId, ByteBuffer.wrap(array, 0, packet.length), roboServer.robotron)
+				UDPCommon.serverProcessInput(clientId, ByteBuffer.wrap(array, 0, packet.length), roboServer.robotron, roboServer.replication)
 			}
 			udpSocket?.close()
 		}
@@ -91,9 +92,12 @@ class RoboClientConnection(
 		readJob = null
 	}
 
-	override fun send(data: ByteArray) {
-		writeUDPScope.launch {
-			udpSocket?.send(DatagramPacket(data, data.size, udpAddress, SERVER_UDP_SEND_PORT))
+	// sent before returning since the replication reuses the buffer
+	override fun send(data: ByteArray, length: Int) {
+		try {
+			udpSocket?.send(DatagramPacket(data, length, udpAddress, SERVER_UDP_SEND_PORT))
+		} catch (e: IOException) {
+			// socket closed under us, the tcp connection reports the disconnect
 		}
 	}
 
@@ -121,7 +125,8 @@ class RoboServer @JvmOverloads constructor(
 ), IRoboServer {
 
 	val writeTCPScope = CoroutineScope(Dispatchers.IO + CoroutineName("SVR write tcp"))
-	val writeUDPScope = CoroutineScope(Dispatchers.IO + CoroutineName("SVR write udp"))
+
+	val replication = ReplicationServer(robotron)
 
 	fun refreshPlayersStatus() {
 		robotron.players.mapIndexed { index, player ->
@@ -159,83 +164,11 @@ class RoboServer @JvmOverloads constructor(
 		}
 	}
 
-	override fun broadcastGameState() {
-		writeUDPScope.launch {
-			val (buffer, array) = UDPCommon.createBuffer(UDPCommon.SERVER_PACKET_LENGTH)
-			UDPCommon.serverWriteGameState(robotron, buffer)
-			roboConnections.forEach {
-				it.send(array)
-			}
-		}
-	}
-
-	override fun broadcastPlayers(players: ManagedArray<Player>) {
-		writeUDPScope.launch {
-			val (buffer, array) = UDPCommon.createBuffer(UDPCommon.SERVER_PACKET_LENGTH)
-			UDPCommon.serverWritePlayers(players, buffer)
-			roboConnections.forEach {
-				it.send(array)
-			}
-		}
-	}
-
-	override fun broadcastPeople(people: ManagedArray<People>) {
-		writeUDPScope.launch {
-			val (buffer, array) = UDPCommon.createBuffer(UDPCommon.SERVER_PACKET_LENGTH)
-			UDPCommon.serverWritePeople(people, buffer)
-			roboConnections.forEach {
-				it.send(array)
-			}
-		}
-	}
-
-	override fun broadcastPlayerMissiles(playerId: Int, missiles: ManagedArray<Missile>) {
-		writeUDPScope.launch {
-			val (buffer, array) = UDPCommon.createBuffer(UDPCommon.SERVER_PACKET_LENGTH)
-			UDPCommon.serverWritePlayerMissles(playerId, missiles, buffer)
-			roboConnections.forEach {
-				it.send(array)
-			}
-		}
-	}
-
-	override fun broadcastEnemies(enemies: ManagedArray<Enemy>) {
-		writeUDPScope.launch {
-			val (buffer, array) = UDPCommon.createBuffer(UDPCommon.SERVER_PACKET_LENGTH)
-			UDPCommon.serverWriteEnemies(enemies, buffer)
-			roboConnections.forEach {
-				it.send(array)
-			}
-		}
-	}
-
-	override fun broadcastEnemyMissiles(enemyMissiles: ManagedArray<Missile>, tankMissiles: ManagedArray<Missile>, snakeMissiles: ManagedArray<MissileSnake>) {
-		writeUDPScope.launch {
-			val (buffer, array) = UDPCommon.createBuffer(UDPCommon.SERVER_PACKET_LENGTH)
-			UDPCommon.serverWriteEnemyMissiles(enemyMissiles, buffer)
-			roboConnections.forEach {
-				it.send(array)
-			}
-		}
-	}
-
-	override fun broadcastPowerups(powerups: ManagedArray<Powerup>) {
-		writeUDPScope.launch {
-			val (buffer, array) = UDPCommon.createBuffer(UDPCommon.SERVER_PACKET_LENGTH)
-			UDPCommon.serverWritePowerups(powerups, buffer)
-			roboConnections.forEach {
-				it.send(array)
-			}
-		}
-	}
-
-	override fun broadcastWalls(walls: Collection<Wall>) {
-		writeUDPScope.launch {
-			val (buffer, array) = UDPCommon.createBuffer(UDPCommon.SERVER_PACKET_LENGTH)
-			UDPCommon.serverWriteWalls(walls, buffer)
-			roboConnections.forEach {
-				it.send(array)
-			}
+	override fun broadcastFrame() {
+		replication.capture()
+		roboConnections.forEach { conn ->
+			if (conn.connected)
+				replication.write(conn.clientId) { array, length -> conn.send(array, length) }
 		}
 	}
 
@@ -270,6 +203,8 @@ class RoboClient @JvmOverloads constructor(
 
 	private var clientId: Int = -1
 
+	private val replication = ReplicationClient(robotron)
+
 	init {
 		addListener(this, deviceName)
 		register(ROBO_ID, robotron)
@@ -283,7 +218,7 @@ class RoboClient @JvmOverloads constructor(
 						//readBuffer.first.reset()
 						val readBuffer = UDPCommon.createBuffer(UDPCommon.SERVER_PACKET_LENGTH)
 						it.receive(DatagramPacket(readBuffer.second, readBuffer.second.size))
-						UDPCommon.clientProcessInput(readBuffer.first, robotron)
+						UDPCommon.clientProcessInput(readBuffer.first, robotron, replication)
 					}
 				}
 			} catch (e: CancellationException) {
@@ -350,6 +285,7 @@ class RoboClient @JvmOverloads constructor(
 		udpWriteScope.launch {
 			val inputsBuffer = UDPCommon.createBuffer(UDPCommon.CLIENT_PACKET_LENGTH)//.first.reset()
 			UDPCommon.clientWriteInput(inputsBuffer.first, motionDv, targetDv, firing)
+			UDPCommon.clientWriteAck(inputsBuffer.first, replication.ackFrame)
 			udpSocket?.send(DatagramPacket(inputsBuffer.second, inputsBuffer.first.position(), connectAddress, SERVER_UDP_READ_PORT))
 		}
 	}
@@ -357,4 +293,6 @@ class RoboClient @JvmOverloads constructor(
 	override fun sendScreenDimension(dim: GDimension) {
 		setProperty("dimension", Reflector.serializeObject(dim))
 	}
+
+	override fun interpolate() = replication.interpolate()
 }
\ No newline at end of file
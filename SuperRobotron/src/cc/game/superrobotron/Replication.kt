@@ -0,0 +1,520 @@
+package cc.game.superrobotron
+
+import cc.lib.ksp.binaryserializer.IBinarySerializable
+import cc.lib.ksp.binaryserializer.readInt
+import cc.lib.ksp.binaryserializer.readUByte
+import cc.lib.ksp.binaryserializer.readUShort
+import cc.lib.ksp.binaryserializer.writeInt
+import cc.lib.ksp.binaryserializer.writeUByte
+import cc.lib.ksp.binaryserializer.writeUShort
+import cc.lib.logger.LoggerFactory
+import cc.lib.math.MutableVector2D
+import java.nio.ByteBuffer
+import java.util.concurrent.atomic.AtomicIntegerArray
+import kotlin.math.hypot
+import kotlin.math.roundToInt
+
+/**
+ * Snapshot replication of the game from the server to the clients.
+ *
+ * Every tick the server captures each replicated object into a snapshot by serializing it with
+ * IBinarySerializable. Each client is sent one frame holding only the bytes that changed since the last
+ * snapshot that client acknowledged. Clients ack with their inputs. Positions and velocities are rounded to
+ * POSITION_QUANTUM before serializing so small movements leave the low bytes of the floats alone. A frame
+ * bigger than one packet is split into parts and a client applies it once it has all of them. Clients draw
+ * positions interpolated from the previous frame to the latest over the time between them.
+ */
+
+const val POSITION_QUANTUM = 1f / 8
+const val SNAPSHOT_HISTORY = 32 // frames kept to delta against
+const val SEND_POOL_SIZE = 16 // packet buffers per client
+const val MAX_SLOT_BYTES = 512 // largest serialized object
+const val MAX_INTERPOLATE_DISTANCE = 2f * PLAYER_MISSLE_SPEED // objects that jump further are snapped
+const val MAX_INTERPOLATE_MILLIS = 250L
+
+private const val MODE_REMOVED = 0
+private const val MODE_FULL = 1
+private const val MODE_DELTA = 2
+
+private const val FRAME_HEADER_BYTES = 1 + 4 + 4 + 1 + 1 // id, frame, baseline, part, num parts
+
+/**
+ * A list of objects to replicate. Slots 0 until size are sent
+ */
+abstract class ReplicatedSection(val maxSlots: Int) {
+
+	abstract val size: Int
+
+	/**
+	 * Serialize the object in slot. Write nothing if the slot is empty
+	 */
+	abstract fun write(slot: Int, output: ByteBuffer)
+
+	abstract fun read(slot: Int, input: ByteBuffer)
+
+	/**
+	 * Client side. Position of the object in slot to interpolate or null if it has none
+	 */
+	open fun position(slot: Int): MutableVector2D? = null
+
+	/**
+	 * Client side. Called before the slots are read
+	 */
+	open fun resize(size: Int) {}
+}
+
+class ManagedArraySection<T : IBinarySerializable<T>>(
+	val array: () -> ManagedArray<T>,
+	maxSlots: Int,
+	factory: () -> T
+) : ReplicatedSection(maxSlots) {
+
+	private val scratch = factory()
+
+	override val size: Int
+		get() = array().size
+
+	override fun write(slot: Int, output: ByteBuffer) {
+		scratch.copy(array()[slot])
+		quantize(scratch)
+		scratch.serialize(output)
+	}
+
+	override fun read(slot: Int, input: ByteBuffer) {
+		array()[slot].deserialize(input)
+	}
+
+	override fun position(slot: Int): MutableVector2D? = (array()[slot] as? Object)?.pos
+
+	override fun resize(size: Int) {
+		with(array()) {
+			clear()
+			repeat(size) { add() }
+		}
+	}
+}
+
+private fun MutableVector2D.quantize() {
+	assign((x / POSITION_QUANTUM).roundToInt() * POSITION_QUANTUM, (y / POSITION_QUANTUM).roundToInt() * POSITION_QUANTUM)
+}
+
+fun quantize(obj: Any) {
+	if (obj is Object)
+		obj.pos.quantize()
+	if (obj is AMissile)
+		obj.dv.quantize()
+}
+
+/**
+ * Everything the server replicates, in the order it is sent
+ */
+fun createReplicatedSections(robo: Robotron): Array<ReplicatedSection> = listOf(
+	object : ReplicatedSection(1) {
+		override val size = 1
+		override fun write(slot: Int, output: ByteBuffer) = robo.serialize(output)
+		override fun read(slot: Int, input: ByteBuffer) = robo.deserialze(input)
+	},
+	ManagedArraySection({ robo.players }, MAX_PLAYERS) { Player() },
+	*Array(MAX_PLAYERS) { id ->
+		ManagedArraySection({ robo.players[id].missles }, MAX_PLAYER_MISSLES) { Missile() }
+	},
+	ManagedArraySection({ robo.people }, MAX_PEOPLE) { People() },
+	ManagedArraySection({ robo.enemies }, MAX_ENEMIES) { Enemy() },
+	ManagedArraySection({ robo.enemy_missiles }, MAX_ENEMY_MISSLES) { Missile() },
+	ManagedArraySection({ robo.tank_missiles }, MAX_TANK_MISSLES) { Missile() },
+	ManagedArraySection({ robo.snake_missiles }, MAX_SNAKE_MISSLES) { MissileSnake() },
+	ManagedArraySection({ robo.powerups }, MAX_POWERUPS) { Powerup() },
+	// walls by id, indestructible walls never change so are not sent
+	object : ReplicatedSection(256) {
+		override val size: Int
+			get() = robo.wall_lookup.size + 1
+
+		override fun write(slot: Int, output: ByteBuffer) {
+			robo.wall_lookup[slot]?.takeIf { it.type != WALL_TYPE_INDESTRUCTIBLE }?.serialize(output)
+		}
+
+		override fun read(slot: Int, input: ByteBuffer) {
+			robo.wall_lookup[slot]?.deserialize(input)
+		}
+	}
+).toTypedArray()
+
+/**
+ * Serialized state of all sections for one frame. Slot bytes are kept in one array
+ */
+class Snapshot(val numSections: Int, numSlots: Int) {
+	var frame = -1
+	val sizes = IntArray(numSections)
+	val offset = IntArray(numSlots)
+	val length = IntArray(numSlots)
+	var data = ByteArray(4096)
+		private set
+	var used = 0
+		private set
+
+	// client side
+	var numParts = 0
+	var partsReceived = 0L
+
+	val isComplete: Boolean
+		get() = numParts > 0 && partsReceived == (1L shl numParts) - 1
+
+	fun reset(frame: Int) {
+		this.frame = frame
+		sizes.fill(0)
+		length.fill(0)
+		used = 0
+		numParts = 0
+		partsReceived = 0
+	}
+
+	/**
+	 * @return offset in data of num new bytes for slot
+	 */
+	fun allocate(slot: Int, num: Int): Int {
+		if (used + num > data.size)
+			data = data.copyOf(maxOf(data.size * 2, used + num))
+		offset[slot] = used
+		length[slot] = num
+		used += num
+		return offset[slot]
+	}
+
+	fun copySlots(other: Snapshot) {
+		other.sizes.copyInto(sizes)
+		for (i in offset.indices) {
+			length[i] = 0
+			if (other.length[i] > 0)
+				other.data.copyInto(data, allocate(i, other.length[i]), other.offset[i], other.offset[i] + other.length[i])
+		}
+	}
+
+	fun slotEquals(slot: Int, other: Snapshot): Boolean {
+		val len = length[slot]
+		if (len != other.length[slot])
+			return false
+		val a = offset[slot]
+		val b = other.offset[slot]
+		for (i in 0 until len) {
+			if (data[a + i] != other.data[b + i])
+				return false
+		}
+		return true
+	}
+}
+
+private fun Array<ReplicatedSection>.slotBase(): IntArray {
+	val base = IntArray(size + 1)
+	for (i in indices)
+		base[i + 1] = base[i] + this[i].maxSlots
+	return base
+}
+
+/**
+ * Server side. Call capture once per tick then write for each client.
+ */
+class ReplicationServer(robo: Robotron, maxClients: Int = MAX_PLAYERS, val packetSize: Int = UDPCommon.SERVER_PACKET_LENGTH) {
+
+	private val log = LoggerFactory.getLogger(ReplicationServer::class.java)
+
+	private val sections = createReplicatedSections(robo)
+	private val slotBase = sections.slotBase()
+	private val snapshots = Array(SNAPSHOT_HISTORY) { Snapshot(sections.size, slotBase.last()) }
+	private val scratch = ByteBuffer.allocate(MAX_SLOT_BYTES)
+
+	private val acks = AtomicIntegerArray(maxClients).also {
+		for (i in 0 until maxClients)
+			it.set(i, -1)
+	}
+
+	private val sendPool = Array(maxClients) { Array(SEND_POOL_SIZE) { UDPCommon.createBuffer(packetSize) } }
+	private val nextBuffer = IntArray(maxClients)
+
+	private val bytesSent = LongArray(maxClients)
+	private val ticksSent = IntArray(maxClients)
+
+	var frame = -1
+		private set
+
+	/**
+	 * Number of bytes in the last captured snapshot. This is what a full update would send
+	 */
+	val fullStateBytes: Int
+		get() = if (frame < 0) 0 else current.used
+
+	private val current: Snapshot
+		get() = snapshots[frame % SNAPSHOT_HISTORY]
+
+	fun capture() {
+		frame++
+		val snap = current
+		snap.reset(frame)
+		sections.forEachIndexed { s, section ->
+			val size = section.size.coerceAtMost(section.maxSlots)
+			snap.sizes[s] = size
+			for (i in 0 until size) {
+				scratch.clear()
+				section.write(i, scratch)
+				if (scratch.position() > 0)
+					scratch.array().copyInto(snap.data, snap.allocate(slotBase[s] + i, scratch.position()), 0, scratch.position())
+			}
+		}
+	}
+
+	fun onAck(clientId: Int, frame: Int) {
+		acks.accumulateAndGet(clientId, frame) { a, b -> maxOf(a, b) }
+	}
+
+	/**
+	 * Forget what a client has so the next frame is sent in full
+	 */
+	fun reset(clientId: Int) {
+		acks.set(clientId, -1)
+		bytesSent[clientId] = 0
+		ticksSent[clientId] = 0
+	}
+
+	fun getBytesPerTick(clientId: Int): Float = if (ticksSent[clientId] == 0) 0f else bytesSent[clientId].toFloat() / ticksSent[clientId]
+
+	/**
+	 * Encode the captured frame for a client as one or more packets from the pool.
+	 * The buffers are reused so send must be done with a packet before it returns.
+	 */
+	fun write(clientId: Int, send: (ByteArray, Int) -> Unit) {
+		val cur = current
+		val ack = acks.get(clientId)
+		val base = if (ack < 0) null else snapshots[ack % SNAPSHOT_HISTORY].takeIf { it.frame == ack && ack < frame }
+		val pool = sendPool[clientId]
+		val first = nextBuffer[clientId]
+		var numParts = 0
+
+		fun nextPart(): ByteBuffer {
+			val (buffer, _) = pool[(first + numParts) % SEND_POOL_SIZE]
+			require(numParts < SEND_POOL_SIZE) { "Frame needs more than $SEND_POOL_SIZE packets" }
+			buffer.clear()
+			UDPCommon.serverWriteFrameHeader(buffer, frame, base?.frame ?: -1, numParts++)
+			return buffer
+		}
+
+		var buffer = nextPart()
+		for (s in sections.indices) {
+			buffer.writeUShort(cur.sizes[s])
+		}
+		for (s in sections.indices) {
+			for (i in 0 until cur.sizes[s]) {
+				val slot = slotBase[s] + i
+				val len = cur.length[slot]
+				val baseLen = base?.length?.get(slot) ?: 0
+				if (len == 0 && baseLen == 0 || base != null && cur.slotEquals(slot, base))
+					continue
+				// section, slot, mode, then at most a length and every byte
+				if (buffer.remaining() < 3 + 2 + len + 1) {
+					finishPart(buffer)
+					buffer = nextPart()
+				}
+				buffer.writeUByte(s + 1)
+				buffer.writeUByte(i)
+				if (len == 0) {
+					buffer.writeUByte(MODE_REMOVED)
+				} else if (base == null || baseLen != len || !writeDelta(buffer, cur, base, slot)) {
+					buffer.writeUByte(MODE_FULL)
+					buffer.writeUShort(len)
+					buffer.put(cur.data, cur.offset[slot], len)
+				}
+			}
+		}
+		finishPart(buffer)
+		var total = 0
+		for (p in 0 until numParts) {
+			val (b, array) = pool[(first + p) % SEND_POOL_SIZE]
+			b.put(FRAME_HEADER_BYTES - 1, numParts.toByte())
+			total += b.position()
+			send(array, b.position())
+		}
+		nextBuffer[clientId] = (first + numParts) % SEND_POOL_SIZE
+		bytesSent[clientId] += total.toLong()
+		if (++ticksSent[clientId] % 300 == 0)
+			log.debug("client $clientId: %.0f bytes/tick, full state %d bytes", getBytesPerTick(clientId), fullStateBytes)
+	}
+
+	private fun finishPart(buffer: ByteBuffer) {
+		buffer.writeUByte(UDPCommon.EOF)
+	}
+
+	/**
+	 * Write the mode, a bit mask of changed bytes then the changed bytes.
+	 * @return false without writing anything if this is not smaller than the full bytes
+	 */
+	private fun writeDelta(buffer: ByteBuffer, cur: Snapshot, base: Snapshot, slot: Int): Boolean {
+		val len = cur.length[slot]
+		val a = cur.offset[slot]
+		val b = base.offset[slot]
+		val maskBytes = (len + 7) / 8
+		var changed = 0
+		for (i in 0 until len) {
+			if (cur.data[a + i] != base.data[b + i])
+				changed++
+		}
+		if (maskBytes + changed >= 2 + len)
+			return false
+		buffer.writeUByte(MODE_DELTA)
+		for (m in 0 until maskBytes) {
+			var mask = 0
+			for (bit in 0 until 8) {
+				val i = m * 8 + bit
+				if (i < len && cur.data[a + i] != base.data[b + i])
+					mask = mask or (1 shl bit)
+			}
+			buffer.writeUByte(mask)
+		}
+		for (i in 0 until len) {
+			if (cur.data[a + i] != base.data[b + i])
+				buffer.put(cur.data[a + i])
+		}
+		return true
+	}
+}
+
+/**
+ * Client side. Rebuilds each frame from its baseline and applies it to the robotron once all parts are in.
+ * Call interpolate before drawing to move objects from where they were drawn toward the applied frame.
+ */
+class ReplicationClient(val robo: Robotron, private val clock: () -> Long = System::currentTimeMillis) {
+
+	private val sections = createReplicatedSections(robo)
+	private val slotBase = sections.slotBase()
+	private val snapshots = Array(SNAPSHOT_HISTORY) { Snapshot(sections.size, slotBase.last()) }
+	private var reader = ByteBuffer.allocate(0)
+
+	// x, y pairs per slot
+	private val fromPos = FloatArray(slotBase.last() * 2)
+	private val toPos = FloatArray(slotBase.last() * 2)
+	private val moving = BooleanArray(slotBase.last())
+	private var appliedTime = 0L
+	private var frameMillis = MAX_INTERPOLATE_MILLIS
+
+	/**
+	 * Last frame applied. Sent back to the server with the inputs
+	 */
+	@Volatile
+	var ackFrame = -1
+		private set
+
+	/**
+	 * Read a frame packet after its id. Consumes the rest of the packet
+	 */
+	fun read(input: ByteBuffer) {
+		val frame = input.readInt()
+		val baseline = input.readInt()
+		val part = input.readUByte()
+		val numParts = input.readUByte()
+		val snap = snapshots[frame % SNAPSHOT_HISTORY]
+		if (frame <= ackFrame || (snap.frame == frame && snap.partsReceived and (1L shl part) != 0L)) {
+			input.position(input.limit())
+			return
+		}
+		if (snap.frame != frame) {
+			val base = if (baseline < 0) null else snapshots[baseline % SNAPSHOT_HISTORY].takeIf {
+				it.frame == baseline && it.isComplete
+			}
+			if (baseline >= 0 && base == null) {
+				// we no longer have it, server will move to a newer one
+				input.position(input.limit())
+				return
+			}
+			snap.reset(frame)
+			base?.let { snap.copySlots(it) }
+			snap.numParts = numParts
+		}
+		if (part == 0) {
+			for (s in sections.indices)
+				snap.sizes[s] = input.readUShort()
+		}
+		while (true) {
+			val s = input.readUByte()
+			if (s == UDPCommon.EOF)
+				break
+			val slot = slotBase[s - 1] + input.readUByte()
+			when (val mode = input.readUByte()) {
+				MODE_REMOVED -> snap.length[slot] = 0
+				MODE_FULL -> {
+					val len = input.readUShort()
+					input.get(snap.data, snap.allocate(slot, len), len)
+				}
+
+				MODE_DELTA -> {
+					val len = snap.length[slot]
+					val off = snap.offset[slot]
+					val maskStart = input.position()
+					input.position(maskStart + (len + 7) / 8)
+					for (i in 0 until len) {
+						if (input.get(maskStart + i / 8).toInt() and (1 shl (i % 8)) != 0)
+							snap.data[off + i] = input.get()
+					}
+				}
+
+				else -> error("Unknown mode $mode")
+			}
+		}
+		snap.partsReceived = snap.partsReceived or (1L shl part)
+		if (snap.isComplete)
+			apply(snap)
+	}
+
+	private fun apply(snap: Snapshot) {
+		if (reader.array() !== snap.data)
+			reader = ByteBuffer.wrap(snap.data)
+		val now = clock()
+		frameMillis = (now - appliedTime).coerceIn(1, MAX_INTERPOLATE_MILLIS)
+		appliedTime = now
+		synchronized(robo) {
+			sections.forEachIndexed { s, section ->
+				val prevSize = section.size
+				section.resize(snap.sizes[s])
+				for (i in 0 until snap.sizes[s]) {
+					val slot = slotBase[s] + i
+					moving[slot] = false
+					if (snap.length[slot] > 0) {
+						val pos = section.position(i)
+						pos?.let {
+							fromPos[slot * 2] = it.x
+							fromPos[slot * 2 + 1] = it.y
+						}
+						reader.clear().position(snap.offset[slot])
+						reader.limit(snap.offset[slot] + snap.length[slot])
+						section.read(i, reader)
+						if (pos != null && i < prevSize) {
+							toPos[slot * 2] = pos.x
+							toPos[slot * 2 + 1] = pos.y
+							moving[slot] = hypot(pos.x - fromPos[slot * 2], pos.y - fromPos[slot * 2 + 1]) <= MAX_INTERPOLATE_DISTANCE
+						}
+					}
+				}
+			}
+		}
+		ackFrame = snap.frame
+	}
+
+	/**
+	 * Place each object that moved in the last applied frame between where it was drawn then and where that
+	 * frame has it, by how much of the time between the last two frames has passed since.
+	 */
+	fun interpolate() {
+		val t = ((clock() - appliedTime).toFloat() / frameMillis).coerceIn(0f, 1f)
+		synchronized(robo) {
+			sections.forEachIndexed { s, section ->
+				for (i in 0 until minOf(section.size, section.maxSlots)) {
+					val slot = slotBase[s] + i
+					if (!moving[slot])
+						continue
+					section.position(i)?.assign(
+						fromPos[slot * 2] + (toPos[slot * 2] - fromPos[slot * 2]) * t,
+						fromPos[slot * 2 + 1] + (toPos[slot * 2 + 1] - fromPos[slot * 2 + 1]) * t
+					)
+					if (t >= 1f)
+						moving[slot] = false
+				}
+			}
+		}
+	}
+}
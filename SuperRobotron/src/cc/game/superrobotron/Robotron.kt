@@ -32,6 +32,7 @@ import cc.lib.utils.unhandledCase
 import java.nio.ByteBuffer
 import java.util.Arrays
 import kotlin.math.abs
+import kotlin.math.max
 import kotlin.math.min
 import kotlin.math.roundToInt
 import kotlin.math.sign
@@ -241,6 +242,14 @@ abstract class Robotron : Reflector<Robotron>(), IRemote {
 	@Omit
 	val people = ManagedArray(Array(MAX_PEOPLE) { People() })
 
+	// collision grids rebuilt each frame before they are used
+	@Omit
+	private val enemyHash = SpatialHash(SPATIAL_HASH_CELL_DIM, MAX_ENEMIES)
+	@Omit
+	private val peopleHash = SpatialHash(SPATIAL_HASH_CELL_DIM, MAX_PEOPLE)
+	@Omit
+	private val tankMissileHash = SpatialHash(SPATIAL_HASH_CELL_DIM, MAX_TANK_MISSLES)
+
 	// north, 2 = east, 3 =
 	// south, 4 = west
 	private var people_points = PEOPLE_START_POINTS
@@ -1651,6 +1660,7 @@ abstract class Robotron : Reflector<Robotron>(), IRemote {
 		// cache the frame number
 		val frame_num = frameNumber
 		total_enemies = 0
+		peopleHash.build(people)
 		val iter = enemies.iterator()
 		while (iter.hasNext()) {
 			val e = iter.next()
@@ -1671,13 +1681,15 @@ abstract class Robotron : Reflector<Robotron>(), IRemote {
 
 			// see if we have squashed some people
 			if (e.type in ENEMY_INDEX_THUG_N..ENEMY_INDEX_THUG_W) {
-				val piter = people.iterator()
-				while (piter.hasNext()) {
-					val p = piter.next()
+				val num = peopleHash.query(e.pos, radius + PEOPLE_RADIUS)
+				for (i in 0 until num) {
+					val idx = peopleHash[i]
+					val p = people[idx]
 					if (p.state > 0 && p.pos.isWithinDistance(e.pos, radius + PEOPLE_RADIUS)) {
 						addBloodParticle(p.pos)
 						addMsg(e.pos.withJitter(10f), "NOOOO!")
-						piter.remove()
+						people.remove(idx)
+						peopleHash.remove(idx, people.size)
 					}
 				}
 			}
@@ -1751,9 +1763,7 @@ abstract class Robotron : Reflector<Robotron>(), IRemote {
 					if (frameNumber % ENEMY_BRAIN_FIRE_FREQ == 0 && random(0..ENEMY_BRAIN_FIRE_CHANCE) <= (1 + difficulty) * gameLevel)
 						addSnakeMissile(e.pos)
 
-					people.filter { it.state != 0 }.minByOrNull {
-						it.pos.sub(e.pos).magFast()
-					}?.let { p ->
+					getClosestPerson(e.pos)?.let { p ->
 						if (e.pos.isWithinDistance(p.pos, ENEMY_BRAIN_RADIUS + PEOPLE_RADIUS)) {
 							p.state = -1
 							e.next_update = frame_num + ENEMY_BRAIN_ZOMBIFY_FRAMES
@@ -1818,6 +1828,33 @@ abstract class Robotron : Reflector<Robotron>(), IRemote {
 		}
 	}
 
+	// -----------------------------------------------------------------------------------------------
+	// closest person with nonzero state by Utils.fastLen, lowest index on a tie. Searches peopleHash in a
+	// growing square until the best found is closer than anything outside of it could be.
+	private fun getClosestPerson(v: Vector2D): People? {
+		var range = SPATIAL_HASH_CELL_DIM
+		while (true) {
+			var best = -1
+			var bestDist = Float.MAX_VALUE
+			val num = peopleHash.query(v, range)
+			for (i in 0 until num) {
+				val idx = peopleHash[i]
+				val p = people[idx]
+				if (p.state == 0)
+					continue
+				val d = Utils.fastLen(p.pos.x - v.x, p.pos.y - v.y)
+				if (d < bestDist || (d == bestDist && idx < best)) {
+					best = idx
+					bestDist = d
+				}
+			}
+			// anything outside the square is more than range away and fastLen is never less than 0.92 * length
+			if ((best >= 0 && bestDist <= range * 0.92f) || range >= MAZE_WIDTH + MAZE_HEIGHT)
+				return people.getOrNull(best)
+			range *= 2
+		}
+	}
+
 	// -----------------------------------------------------------------------------------------------
 	// return 0,1,2,3 [NESW] for a direction.
 	// random is a value between 0.0 and 1.0
@@ -1948,22 +1985,38 @@ abstract class Robotron : Reflector<Robotron>(), IRemote {
 				}
 			}
 
-			val enemyIter = enemies.iterator()
-			while (enemyIter.hasNext()) {
-				val enemy = enemyIter.next()
+			val megaGun = isMegaGunActive(player)
+			val x0 = min(m.pos.x, m.pos.x + m.dv.x)
+			val y0 = min(m.pos.y, m.pos.y + m.dv.y)
+			val x1 = max(m.pos.x, m.pos.x + m.dv.x)
+			val y1 = max(m.pos.y, m.pos.y + m.dv.y)
+			var num = enemyHash.query(x0 - MAX_ENEMY_RADIUS, y0 - MAX_ENEMY_RADIUS, x1 + MAX_ENEMY_RADIUS, y1 + MAX_ENEMY_RADIUS)
+			for (i in 0 until num) {
+				// candidates are highest index first so the mega gun can remove as it goes. Otherwise the missile
+				// stops at the first hit so check from the lowest index
+				val idx = enemyHash[if (megaGun) i else num - 1 - i]
+				val enemy = enemies[idx]
 				if (enemy.type == ENEMY_INDEX_JAWS || enemy.type == ENEMY_INDEX_LAVA) {
 					continue
 				}
 				if (Utils.isCircleIntersectingLineSeg(m.pos, m.pos + m.dv, enemy.pos, ENEMY_RADIUS[enemy.type])) {
 					var factor = (ENEMY_THUG_PUSHBACK - difficulty.toFloat()).coerceAtLeast(4f) / PLAYER_MISSLE_SPEED
-					if (isMegaGunActive(player))
+					if (megaGun)
 						factor *= 2
 					val dv = m.dv * factor
-					if (enemyHit(player, enemy, dv)) {
-						enemyIter.remove()
+					val numEnemies = enemies.size
+					val destroyed = enemyHit(player, enemy, dv)
+					// generators spawn more
+					for (ii in numEnemies until enemies.size)
+						enemyHash.add(ii, enemies[ii].pos)
+					if (destroyed) {
+						enemies.remove(idx)
+						enemyHash.remove(idx, enemies.size)
+					} else {
+						enemyHash.move(idx, enemy.pos)
 					}
 
-					if (!isMegaGunActive(player)) {
+					if (!megaGun) {
 						playerMissleIter.remove()
 						continue@here
 					}
@@ -1971,14 +2024,16 @@ abstract class Robotron : Reflector<Robotron>(), IRemote {
 			}
 
 			// look for collisions with enemy_tank_missiles
-			val tankMissileIter = tank_missiles.iterator()
-			while (tankMissileIter.hasNext()) {
-				val m2 = tankMissileIter.next()
+			num = tankMissileHash.query(x0 - TANK_MISSLE_RADIUS, y0 - TANK_MISSLE_RADIUS, x1 + TANK_MISSLE_RADIUS, y1 + TANK_MISSLE_RADIUS)
+			for (i in num - 1 downTo 0) {
+				val idx = tankMissileHash[i]
+				val m2 = tank_missiles[idx]
 				if (m.pos.isWithinDistance(m2.pos, TANK_MISSLE_RADIUS)
 					|| m.pos.add(m.dv).isWithinDistance(m2.pos, TANK_MISSLE_RADIUS)
 				) {
 					playerMissleIter.remove()
-					tankMissileIter.remove()
+					tank_missiles.remove(idx)
+					tankMissileHash.remove(idx, tank_missiles.size)
 					continue@here
 				}
 			}
@@ -2101,16 +2156,16 @@ abstract class Robotron : Reflector<Robotron>(), IRemote {
 
 	// -----------------------------------------------------------------------------------------------
 	private fun updateMissiles() {
-		players.forEachIndexed { id, player ->
+		enemyHash.build(enemies)
+		tankMissileHash.build(tank_missiles)
+		players.forEach { player ->
 			updatePlayerMissiles(player)
-			server?.broadcastPlayerMissiles(id, player.missles)
 		}
 		updateRobotMissiles()
 		updateTankMissiles()
 		players.forEach {
 			updateSnakeMissiles(it)
 		}
-		server?.broadcastEnemyMissiles(enemy_missiles, tank_missiles, snake_missiles)
 	}
 
 	// -----------------------------------------------------------------------------------------------
@@ -4490,7 +4545,6 @@ abstract class Robotron : Reflector<Robotron>(), IRemote {
 	fun drawGame(g: AGraphics) {
 		g.ortho(0f, screen_width, 0f, screen_height)
 		frameNumber += 1
-		server?.broadcastGameState()
 		g.clearScreen(GColor.BLACK)
 		client?.sendInputs(player.motion_dv, player.target_dv, player.firing)
 		drawCursor(g)
@@ -4499,18 +4553,15 @@ abstract class Robotron : Reflector<Robotron>(), IRemote {
 			GAME_STATE_PLAY -> {
 				g.pushMatrix()
 				g.translate(-screen_x, -screen_y)
-				client?.let { updatePlayerScreen(player) } ?: updatePlayers()
-				server?.broadcastPlayers(players)
+				client?.let {
+					it.interpolate()
+					updatePlayerScreen(player)
+				} ?: updatePlayers()
 				client ?: updatePeople()
-				server?.broadcastPeople(people)
 				client ?: updateMissiles()
 				client ?: updateEnemies()
-				server?.broadcastEnemies(enemies)
 				client ?: updatePowerups()
-				server?.broadcastPowerups(powerups)
 				updateAndDrawZombieTracers(g)
-				if (game_type == GAME_TYPE_ROBOCRAZE)
-					server?.broadcastWalls(wall_lookup.values.filterNot { it.type == WALL_TYPE_INDESTRUCTIBLE })
 				players.forEach {
 					updateAndDrawPlayerTracers(it, g)
 				}
@@ -4556,6 +4607,7 @@ abstract class Robotron : Reflector<Robotron>(), IRemote {
 				drawGameOver(g)
 			}
 		}
+		server?.broadcastFrame()
 		updateThrobbingWhite()
 	}
 
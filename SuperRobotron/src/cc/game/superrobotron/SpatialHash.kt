@@ -0,0 +1,124 @@
+package cc.game.superrobotron
+
+import cc.lib.game.IVector2D
+import cc.lib.ksp.binaryserializer.IBinarySerializable
+import kotlin.math.max
+
+/**
+ * Uniform grid over the maze used as the broad phase for collision and proximity checks. Holds the indices of
+ * a ManagedArray bucketed by the cell their position is in. Buckets are linked lists in int arrays so a build
+ * each frame does not allocate. Positions off the maze are clamped into the border cells.
+ *
+ * ManagedArray.remove moves the last element into the removed slot so removals and moves made while the hash
+ * is in use must be mirrored with remove / move / add here to keep the indices valid.
+ */
+class SpatialHash(val cellDim: Float, capacity: Int, width: Float = MAZE_WIDTH, height: Float = MAZE_HEIGHT) {
+
+	val numCellsX = max(1, (width / cellDim).toInt() + 1)
+	val numCellsY = max(1, (height / cellDim).toInt() + 1)
+
+	private val head = IntArray(numCellsX * numCellsY) { -1 }
+	private val next = IntArray(capacity)
+	private val prev = IntArray(capacity)
+	private val cellOf = IntArray(capacity)
+	private val candidates = IntArray(capacity)
+
+	private fun cellX(x: Float): Int = (x / cellDim).toInt().coerceIn(0, numCellsX - 1)
+
+	private fun cellY(y: Float): Int = (y / cellDim).toInt().coerceIn(0, numCellsY - 1)
+
+	private fun link(idx: Int, cell: Int) {
+		val h = head[cell]
+		next[idx] = h
+		prev[idx] = -1
+		if (h >= 0)
+			prev[h] = idx
+		head[cell] = idx
+		cellOf[idx] = cell
+	}
+
+	private fun unlink(idx: Int) {
+		val n = next[idx]
+		val p = prev[idx]
+		if (p >= 0)
+			next[p] = n
+		else
+			head[cellOf[idx]] = n
+		if (n >= 0)
+			prev[n] = p
+	}
+
+	/**
+	 * Clear and insert every element of array
+	 */
+	fun <T> build(array: ManagedArray<T>) where T : Object, T : IBinarySerializable<T> {
+		head.fill(-1)
+		for (i in array.indices) {
+			add(i, array[i].pos)
+		}
+	}
+
+	fun add(idx: Int, pos: IVector2D) {
+		link(idx, cellX(pos.x) + cellY(pos.y) * numCellsX)
+	}
+
+	/**
+	 * Call when the element at idx has moved
+	 */
+	fun move(idx: Int, pos: IVector2D) {
+		val cell = cellX(pos.x) + cellY(pos.y) * numCellsX
+		if (cell != cellOf[idx]) {
+			unlink(idx)
+			link(idx, cell)
+		}
+	}
+
+	/**
+	 * Mirror ManagedArray.remove(idx)
+	 *
+	 * @param last the index of the element that was moved into idx. This is the size of the array after the remove
+	 */
+	fun remove(idx: Int, last: Int) {
+		unlink(idx)
+		if (last != idx) {
+			val cell = cellOf[last]
+			unlink(last)
+			link(idx, cell)
+		}
+	}
+
+	/**
+	 * Collect the indices in all cells that overlap the rectangle. They are sorted from highest to lowest so
+	 * the caller can remove as it goes without invalidating the ones not yet visited.
+	 *
+	 * @return the number of candidates. Access with get
+	 */
+	fun query(minX: Float, minY: Float, maxX: Float, maxY: Float): Int {
+		var num = 0
+		val x1 = cellX(maxX)
+		val y1 = cellY(maxY)
+		for (cy in cellY(minY)..y1) {
+			for (cx in cellX(minX)..x1) {
+				var idx = head[cx + cy * numCellsX]
+				while (idx >= 0) {
+					// insertion sort, there are only ever a few per query
+					var i = num++
+					while (i > 0 && candidates[i - 1] < idx) {
+						candidates[i] = candidates[i - 1]
+						i--
+					}
+					candidates[i] = idx
+					idx = next[idx]
+				}
+			}
+		}
+		return num
+	}
+
+	fun query(pos: IVector2D, radius: Float): Int = query(pos.x - radius, pos.y - radius, pos.x + radius, pos.y + radius)
+
+	/**
+	 * @return the candidate at i from the last query
+	 */
+	operator fun get(i: Int): Int = candidates[i]
+}
@@ -1,17 +1,51 @@
 package cc.game.superrobotron
 
-import cc.lib.ksp.binaryserializer.readULong
-import cc.lib.ksp.binaryserializer.writeULong
+import cc.lib.ksp.binaryserializer.readUByte
+import cc.lib.ksp.binaryserializer.readUShort
+import cc.lib.ksp.binaryserializer.writeUByte
+import cc.lib.ksp.binaryserializer.writeUShort
 import kotlinx.coroutines.CoroutineName
 import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.isActive
 import kotlinx.coroutines.launch
-import java.net.DatagramPacket
-import java.net.DatagramSocket
+import java.io.IOException
 import java.net.InetAddress
+import java.net.InetSocketAddress
 import java.nio.ByteBuffer
+import java.nio.channels.DatagramChannel
+import kotlin.math.abs
+import kotlin.math.max
+import kotlin.math.min
+
+enum class ChannelType {
+	/**
+	 * Sent once. Anything older than the newest received is dropped and a message still waiting to go out is
+	 * replaced by the next one sent. For state that is resent every frame
+	 */
+	UNRELIABLE_SEQUENCED,
+
+	/**
+	 * Resent until acked and delivered in the order sent. For events like deaths, level changes and powerups
+	 */
+	RELIABLE_ORDERED
+}
 
 /**
+ * Messages over UDP multiplexed onto channels.
+ *
+ * Every packet carries its sequence number plus the newest sequence received from the other side and a bit
+ * for each of the 32 before it, so each packet acks many. A reliable message stays queued until a packet
+ * holding it is acked and is resent when it has been out longer than the retransmit timeout. Round trip time
+ * comes from acked packets and loss from the ones that fall out of the ack window. Packets are paced by a
+ * send rate that grows as packets are acked and is cut back on loss at most once per round trip.
+ *
+ * Packet: seq int, ack int, ack bits int, then messages of channel ubyte, seq ushort, length ushort, payload
+ *
+ * Message buffers are pooled direct buffers. Call start once constructed and close when done.
+ *
  * Created by Chris Caron on 5/23/25.
  */
 abstract class UDPSession2(
@@ -20,45 +54,406 @@ abstract class UDPSession2(
 	val writeAddress: InetAddress,
 	val sendBufferSize: Int,
 	val readBufferSize: Int,
-	val id: Int
+	val id: Int,
+	val channelTypes: Array<ChannelType> = arrayOf(ChannelType.UNRELIABLE_SEQUENCED, ChannelType.RELIABLE_ORDERED)
 ) {
 
+	companion object {
+		const val HEADER_BYTES = 12
+		const val MESSAGE_HEADER_BYTES = 5
+		const val ACK_WINDOW = 32
+		const val PACKET_HISTORY = 256
+		const val RELIABLE_WINDOW = 1024 // max unacked messages on a reliable channel
+		const val TICK_MILLIS = 5L
+		const val INITIAL_RTO = 200f
+		const val MIN_RTO = 30f
+		const val MAX_RTO = 2000f
+		const val INITIAL_SEND_RATE = 64f * 1024 // bytes per second
+		const val MIN_SEND_RATE = 4f * 1024
+		const val MAX_SEND_RATE = 4f * 1024 * 1024
+		const val LOSS_ALPHA = 0.05f
+	}
+
 	private val writeUDPScope = CoroutineScope(Dispatchers.IO + CoroutineName("conn UDP write $id"))
 	private val readUDPScope = CoroutineScope(Dispatchers.IO + CoroutineName("conn UDP read $id"))
-	private val socket = DatagramSocket(readPort)
-
-	private var readId = 0UL
-	private var writeId = 0UL
-
-	private var dropped = 0
-
-	private val readJob = readUDPScope.launch {
-		val array = ByteArray(readBufferSize)
-		while (!socket.isClosed) {
-			val packet = DatagramPacket(array, array.size)
-			socket.receive(packet)
-			val buffer = ByteBuffer.wrap(array, 0, packet.length)
-			val id = buffer.readULong()
-			if (id > readId) {
-				readId = id
-				onPacketReceived(buffer)
+	private val socket = DatagramChannel.open().bind(InetSocketAddress(readPort))
+	private val target = InetSocketAddress(writeAddress, writePort)
+	private val jobs = mutableListOf<Job>()
+	private val lock = Any()
+
+	val maxMessageSize = sendBufferSize - HEADER_BYTES - MESSAGE_HEADER_BYTES
+
+	private class Message(size: Int) {
+		val buffer: ByteBuffer = ByteBuffer.allocateDirect(size)
+		var channel = 0
+		var seq = 0
+		var lastSent = -1L
+		var acked = false
+		var generation = 0 // changes when returned to the pool so stale references can be detected
+	}
+
+	private class SentPacket(maxMessages: Int) {
+		var seq = -1
+		var time = 0L
+		var acked = false
+		var resolved = false
+		var numMessages = 0
+		val messages = arrayOfNulls<Message>(maxMessages)
+		val generations = IntArray(maxMessages)
+	}
+
+	private inner class ChannelState(val type: ChannelType) {
+		var nextSendSeq = 0
+
+		// reliable: sent and not acked yet in order. unreliable: the newest not sent yet
+		val outgoing = ArrayDeque<Message>()
+		var nextReceiveSeq = 0 // reliable
+		var lastReceivedSeq = -1 // unreliable
+		val outOfOrder = arrayOfNulls<Message>(if (type == ChannelType.RELIABLE_ORDERED) RELIABLE_WINDOW else 0)
+	}
+
+	private val channels = Array(channelTypes.size) { ChannelState(channelTypes[it]) }
+	private val maxMessagesPerPacket = (sendBufferSize - HEADER_BYTES) / MESSAGE_HEADER_BYTES
+	private val sent = Array(PACKET_HISTORY) { SentPacket(maxMessagesPerPacket) }
+	private val pool = ArrayDeque<Message>()
+	private val writeBuffer = ByteBuffer.allocateDirect(sendBufferSize)
+	private val readBuffer = ByteBuffer.allocateDirect(readBufferSize)
+
+	private var nextPacketSeq = 0
+	private var oldestUnresolved = 0
+	private var remoteSeq = -1
+	private var remoteAckBits = 0
+	private var ackPending = false
+
+	private var tokens = 0f
+	private var lastFlush = 0L
+	private var lastRateDecrease = 0L
+	private var srtt = 0f
+	private var rttVar = 0f
+
+	var rto = INITIAL_RTO
+		private set
+
+	val rttMillis: Float
+		get() = srtt
+
+	/**
+	 * Fraction of packets lost, smoothed
+	 */
+	var lossRate = 0f
+		private set
+
+	/**
+	 * Bytes per second we allow ourselves to send
+	 */
+	var sendRate = INITIAL_SEND_RATE
+		private set
+
+	var numPacketsSent = 0
+		private set
+	var numPacketsLost = 0
+		private set
+	var numRetransmits = 0
+		private set
+
+	/**
+	 * Packets and messages that arrived too late to be of use
+	 */
+	var dropped = 0
+		private set
+
+	/**
+	 * Unreliable messages replaced by a newer one before they went out
+	 */
+	var superseded = 0
+		private set
+
+	/**
+	 * Called on the read thread with the message between position and limit. Only valid during the call
+	 */
+	abstract fun onMessage(channel: Int, message: ByteBuffer)
+
+	fun start() {
+		lastFlush = clock()
+		jobs.add(readUDPScope.launch {
+			try {
+				while (socket.isOpen) {
+					readBuffer.clear()
+					socket.receive(readBuffer) ?: continue
+					readBuffer.flip()
+					synchronized(lock) {
+						receive(readBuffer, clock())
+					}
+				}
+			} catch (e: IOException) {
+				// closed
+			}
+		})
+		jobs.add(writeUDPScope.launch {
+			while (isActive && socket.isOpen) {
+				synchronized(lock) {
+					flush(clock())
+				}
+				delay(TICK_MILLIS)
+			}
+		})
+	}
+
+	fun close() {
+		jobs.forEach { it.cancel() }
+		jobs.clear()
+		socket.close()
+	}
+
+	/**
+	 * Queue a message. It goes out with the next packet the send rate allows. On an unreliable channel it
+	 * replaces any message still waiting so a throttled sender never falls behind.
+	 *
+	 * @param write fill in the message, at most maxMessageSize bytes
+	 * @return false if a reliable channel already has RELIABLE_WINDOW messages waiting on acks
+	 */
+	fun send(channel: Int, write: (ByteBuffer) -> Unit): Boolean = synchronized(lock) {
+		val ch = channels[channel]
+		if (ch.type == ChannelType.RELIABLE_ORDERED && ch.outgoing.size >= RELIABLE_WINDOW)
+			return false
+		if (ch.type == ChannelType.UNRELIABLE_SEQUENCED) {
+			while (ch.outgoing.isNotEmpty()) {
+				release(ch.outgoing.removeFirst())
+				superseded++
+			}
+		}
+		val m = obtain()
+		m.buffer.limit(maxMessageSize)
+		write(m.buffer)
+		m.buffer.flip()
+		m.channel = channel
+		m.seq = ch.nextSendSeq
+		ch.nextSendSeq = (ch.nextSendSeq + 1) and 0xffff
+		ch.outgoing.addLast(m)
+		true
+	}
+
+	/**
+	 * Put a packet on the wire. Overridable so tests can simulate a bad network
+	 */
+	protected open fun transmit(packet: ByteBuffer) {
+		socket.send(packet, target)
+	}
+
+	private fun obtain(): Message = (pool.removeLastOrNull() ?: Message(maxMessageSize)).also {
+		it.buffer.clear()
+		it.lastSent = -1
+		it.acked = false
+	}
+
+	private fun release(m: Message) {
+		m.generation++
+		pool.addLast(m)
+	}
+
+	// -----------------------------------------------------------------------------------------------
+	// sending
+
+	private fun flush(now: Long) {
+		tokens = min(tokens + sendRate * (now - lastFlush) / 1000, 2f * sendBufferSize)
+		lastFlush = now
+		val rtoMillis = rto.toLong()
+		while (tokens > 0) {
+			val packet = sent[nextPacketSeq % PACKET_HISTORY]
+			if (packet.seq >= 0 && !packet.resolved)
+				resolve(packet, now)
+			packet.numMessages = 0
+			writeBuffer.clear().position(HEADER_BYTES)
+			for (ch in channels) {
+				if (ch.type == ChannelType.RELIABLE_ORDERED) {
+					for (m in ch.outgoing) {
+						if (m.acked || (m.lastSent >= 0 && now - m.lastSent < rtoMillis))
+							continue
+						if (!fits(m) || packet.numMessages == maxMessagesPerPacket)
+							break
+						write(m)
+						if (m.lastSent >= 0)
+							numRetransmits++
+						m.lastSent = now
+						packet.messages[packet.numMessages] = m
+						packet.generations[packet.numMessages++] = m.generation
+					}
+				} else {
+					while (ch.outgoing.isNotEmpty() && fits(ch.outgoing.first())) {
+						write(ch.outgoing.first())
+						release(ch.outgoing.removeFirst())
+					}
+				}
+			}
+			val hasMessages = writeBuffer.position() > HEADER_BYTES
+			if (!hasMessages && !ackPending)
+				break
+			packet.seq = nextPacketSeq++
+			packet.time = now
+			packet.acked = false
+			packet.resolved = !hasMessages // acks alone are not acked so they say nothing about loss
+			writeBuffer.putInt(0, packet.seq)
+			writeBuffer.putInt(4, remoteSeq)
+			writeBuffer.putInt(8, remoteAckBits)
+			writeBuffer.flip()
+			tokens -= writeBuffer.remaining()
+			transmit(writeBuffer)
+			numPacketsSent++
+			ackPending = false
+		}
+	}
+
+	private fun fits(m: Message): Boolean = writeBuffer.remaining() >= MESSAGE_HEADER_BYTES + m.buffer.limit()
+
+	private fun write(m: Message) {
+		writeBuffer.writeUByte(m.channel)
+		writeBuffer.writeUShort(m.seq)
+		writeBuffer.writeUShort(m.buffer.limit())
+		writeBuffer.put(m.buffer.duplicate().position(0))
+	}
+
+	// -----------------------------------------------------------------------------------------------
+	// receiving
+
+	private fun receive(input: ByteBuffer, now: Long) {
+		if (input.remaining() < HEADER_BYTES)
+			return
+		val seq = input.getInt()
+		val ack = input.getInt()
+		val ackBits = input.getInt()
+		if (seq > remoteSeq) {
+			val shift = seq - remoteSeq
+			remoteAckBits = when {
+				remoteSeq < 0 || shift > ACK_WINDOW -> 0
+				shift == ACK_WINDOW -> 1 shl (ACK_WINDOW - 1)
+				else -> (remoteAckBits shl shift) or (1 shl (shift - 1))
+			}
+			remoteSeq = seq
+		} else if (seq < remoteSeq && remoteSeq - seq <= ACK_WINDOW) {
+			remoteAckBits = remoteAckBits or (1 shl (remoteSeq - seq - 1))
+		} else if (seq < remoteSeq) {
+			dropped++
+		}
+		if (input.hasRemaining())
+			ackPending = true
+		processAcks(ack, ackBits, now)
+		while (input.remaining() >= MESSAGE_HEADER_BYTES) {
+			val channel = input.readUByte()
+			val mseq = input.readUShort()
+			val len = input.readUShort()
+			val end = input.position() + len
+			if (channel >= channels.size || end > input.limit())
+				return // garbage
+			val limit = input.limit()
+			input.limit(end)
+			deliver(channels[channel], channel, mseq, input)
+			input.limit(limit).position(end)
+		}
+	}
+
+	private fun isNewer(a: Int, b: Int): Boolean = ((a - b) and 0xffff).let { it != 0 && it < 0x8000 }
+
+	private fun deliver(ch: ChannelState, channel: Int, seq: Int, message: ByteBuffer) {
+		if (ch.type == ChannelType.UNRELIABLE_SEQUENCED) {
+			if (ch.lastReceivedSeq < 0 || isNewer(seq, ch.lastReceivedSeq)) {
+				ch.lastReceivedSeq = seq
+				onMessage(channel, message)
 			} else {
 				dropped++
 			}
+			return
 		}
+		val ahead = (seq - ch.nextReceiveSeq) and 0xffff
+		if (ahead == 0) {
+			onMessage(channel, message)
+			ch.nextReceiveSeq = (ch.nextReceiveSeq + 1) and 0xffff
+			// anything that was waiting on this one
+			while (true) {
+				val idx = ch.nextReceiveSeq % RELIABLE_WINDOW
+				val m = ch.outOfOrder[idx]?.takeIf { it.seq == ch.nextReceiveSeq } ?: break
+				ch.outOfOrder[idx] = null
+				onMessage(channel, m.buffer)
+				release(m)
+				ch.nextReceiveSeq = (ch.nextReceiveSeq + 1) and 0xffff
+			}
+		} else if (ahead < RELIABLE_WINDOW) {
+			val idx = seq % RELIABLE_WINDOW
+			if (ch.outOfOrder[idx] == null && message.remaining() <= maxMessageSize) {
+				ch.outOfOrder[idx] = obtain().also {
+					it.seq = seq
+					it.buffer.put(message).flip()
+				}
+			}
+		}
+		// else a resend of one already delivered
 	}
 
-	abstract suspend fun onPacketReceived(buffer: ByteBuffer)
+	// -----------------------------------------------------------------------------------------------
+	// acks, rtt, loss and rate
 
-	fun close() {
-		readJob.cancel()
+	private fun processAcks(ack: Int, ackBits: Int, now: Long) {
+		if (ack < 0 || ack >= nextPacketSeq)
+			return
+		for (i in -1 until ACK_WINDOW) {
+			if (i >= 0 && (ackBits and (1 shl i)) == 0)
+				continue
+			val s = ack - 1 - i
+			if (s < 0)
+				break
+			val packet = sent[s % PACKET_HISTORY]
+			if (packet.seq == s && !packet.acked)
+				onAcked(packet, now)
+		}
+		// anything that fell out of the ack window without an ack is lost
+		while (oldestUnresolved < ack - ACK_WINDOW) {
+			val packet = sent[oldestUnresolved % PACKET_HISTORY]
+			if (packet.seq == oldestUnresolved && !packet.resolved)
+				resolve(packet, now)
+			oldestUnresolved++
+		}
+		for (ch in channels) {
+			if (ch.type == ChannelType.RELIABLE_ORDERED) {
+				while (ch.outgoing.isNotEmpty() && ch.outgoing.first().acked)
+					release(ch.outgoing.removeFirst())
+			}
+		}
 	}
 
-	fun send(data: ByteBuffer) {
-		writeUDPScope.launch {
-			data.position(0).writeULong(writeId++)
-			socket.send(DatagramPacket(data.array(), data.array().size, writeAddress, writePort))
+	private fun onAcked(packet: SentPacket, now: Long) {
+		packet.acked = true
+		val sample = (now - packet.time).toFloat()
+		if (srtt == 0f) {
+			srtt = sample
+			rttVar = sample / 2
+		} else {
+			rttVar = 0.75f * rttVar + 0.25f * abs(srtt - sample)
+			srtt = 0.875f * srtt + 0.125f * sample
+		}
+		rto = (srtt + 4 * rttVar).coerceIn(MIN_RTO, MAX_RTO)
+		for (i in 0 until packet.numMessages) {
+			packet.messages[i]?.let {
+				if (it.generation == packet.generations[i])
+					it.acked = true
+			}
+			packet.messages[i] = null
 		}
+		packet.numMessages = 0
+		if (!packet.resolved)
+			resolve(packet, now)
+	}
 
+	private fun resolve(packet: SentPacket, now: Long) {
+		packet.resolved = true
+		val lost = !packet.acked
+		lossRate += LOSS_ALPHA * ((if (lost) 1f else 0f) - lossRate)
+		if (lost) {
+			numPacketsLost++
+			if (now - lastRateDecrease > max(srtt, MIN_RTO)) {
+				sendRate = max(MIN_SEND_RATE, sendRate * 0.75f)
+				lastRateDecrease = now
+			}
+		} else {
+			sendRate = min(MAX_SEND_RATE, sendRate + sendBufferSize)
+		}
 	}
-}
\ No newline at end of file
+}
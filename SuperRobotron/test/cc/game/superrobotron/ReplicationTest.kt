@@ -0,0 +1,196 @@
+package cc.game.superrobotron
+
+import cc.lib.ksp.binaryserializer.IBinarySerializable
+import org.junit.Assert
+import org.junit.Test
+import java.nio.ByteBuffer
+import java.util.Random
+
+class ReplicationTest {
+
+	class TestRobotron : Robotron() {
+		override val imageKey: Int
+			get() = TODO("Not yet implemented")
+		override val imageLogo: Int
+			get() = TODO("Not yet implemented")
+		override val animJaws: IntArray
+			get() = TODO("Not yet implemented")
+		override val animLava: IntArray
+			get() = TODO("Not yet implemented")
+		override val animPeople: Array<IntArray>
+			get() = TODO("Not yet implemented")
+		override val clock: Long
+			get() = TODO("Not yet implemented")
+	}
+
+	val r = Random(0)
+	val server = TestRobotron()
+	val client = TestRobotron()
+
+	init {
+		server.buildAndPopulateRobocraze()
+		client.merge(server.toString())
+	}
+
+	// roughly what a frame does: some enemies step, missiles fly, things come and go
+	fun step() {
+		server.enemies.forEach {
+			if (r.nextInt(4) == 0)
+				it.pos.addEq(r.nextInt(7) - 3, r.nextInt(7) - 3)
+		}
+		server.players.forEach {
+			it.pos.addEq(r.nextFloat() * 4 - 2, r.nextFloat() * 4 - 2)
+			it.missles.forEach { m -> m.pos.addEq(m.dv) }
+			if (r.nextInt(5) == 0)
+				it.missles.addOrNull()?.init(it.pos, r.nextVector().scaleEq(PLAYER_MISSLE_SPEED), PLAYER_MISSLE_DURATION)
+			if (r.nextInt(7) == 0 && it.missles.isNotEmpty())
+				it.missles.remove(r.nextInt(it.missles.size))
+		}
+		server.people.forEach {
+			if (r.nextInt(3) == 0)
+				it.pos.addEq(r.nextInt(3) - 1, r.nextInt(3) - 1)
+		}
+		if (r.nextInt(10) == 0 && server.enemies.isNotEmpty())
+			server.enemies.remove(r.nextInt(server.enemies.size))
+		if (r.nextInt(10) == 0)
+			server.enemies.addOrNull()?.let {
+				it.pos.assign(r.nextFloat() * MAZE_WIDTH, r.nextFloat() * MAZE_HEIGHT)
+				it.type = r.nextInt(ENEMY_INDEX_NUM)
+			}
+		if (r.nextInt(20) == 0)
+			server.wall_lookup.values.random().health++
+	}
+
+	fun Wall.toBytes(): List<Byte> = ByteBuffer.allocate(MAX_SLOT_BYTES).also { serialize(it) }.let {
+		it.array().take(it.position())
+	}
+
+	fun Random.nextVector() = cc.lib.math.MutableVector2D(nextFloat() - .5f, nextFloat() - .5f).normEq()
+
+	fun <T : IBinarySerializable<T>> assertReplicated(expected: ManagedArray<T>, actual: ManagedArray<T>, scratch: T) {
+		Assert.assertEquals(expected.size, actual.size)
+		for (i in expected.indices) {
+			scratch.copy(expected[i])
+			quantize(scratch)
+			Assert.assertTrue("index $i", scratch.contentEquals(actual[i]))
+		}
+	}
+
+	fun assertReplicated() {
+		assertReplicated(server.players, client.players, Player())
+		for (i in server.players.indices)
+			assertReplicated(server.players[i].missles, client.players[i].missles, Missile())
+		assertReplicated(server.people, client.people, People())
+		assertReplicated(server.enemies, client.enemies, Enemy())
+		// Wall.contentEquals compares more than is serialized
+		for (w in server.wall_lookup.values) {
+			if (w.type != WALL_TYPE_INDESTRUCTIBLE)
+				Assert.assertEquals(w.toBytes(), client.wall_lookup[w.id]!!.toBytes())
+		}
+	}
+
+	@Test
+	fun testLossyDelivery() {
+		val replication = ReplicationServer(server)
+		val receiver = ReplicationClient(client)
+		val inFlight = mutableListOf<ByteArray>()
+		var applied = 0
+		for (tick in 0 until 1000) {
+			step()
+			replication.capture()
+			replication.write(1) { array, length -> inFlight.add(array.copyOf(length)) }
+			// drop, duplicate and reorder some
+			inFlight.shuffle(r)
+			val delivered = inFlight.filter { r.nextInt(10) != 0 }
+			inFlight.clear()
+			if (r.nextInt(4) == 0)
+				inFlight.addAll(delivered.take(1))
+			val before = receiver.ackFrame
+			delivered.forEach {
+				UDPCommon.clientProcessInput(ByteBuffer.wrap(it), client, receiver)
+			}
+			if (receiver.ackFrame == replication.frame) {
+				assertReplicated()
+				applied++
+			}
+			Assert.assertTrue(receiver.ackFrame >= before)
+			// acks get lost too
+			if (r.nextInt(5) != 0)
+				replication.onAck(1, receiver.ackFrame)
+		}
+		println("applied $applied of 1000 frames on time, ${replication.getBytesPerTick(1)} bytes/tick")
+		Assert.assertTrue(applied > 500)
+
+		// clean link catches up
+		replication.capture()
+		replication.write(1) { array, length -> UDPCommon.clientProcessInput(ByteBuffer.wrap(array, 0, length), client, receiver) }
+		replication.onAck(1, receiver.ackFrame)
+		step()
+		replication.capture()
+		replication.write(1) { array, length -> UDPCommon.clientProcessInput(ByteBuffer.wrap(array, 0, length), client, receiver) }
+		Assert.assertEquals(replication.frame, receiver.ackFrame)
+		assertReplicated()
+	}
+
+	@Test
+	fun testInterpolation() {
+		var now = 1000L
+		val replication = ReplicationServer(server)
+		val receiver = ReplicationClient(client) { now }
+		fun tick() {
+			replication.capture()
+			replication.write(1) { array, length -> UDPCommon.clientProcessInput(ByteBuffer.wrap(array, 0, length), client, receiver) }
+			replication.onAck(1, receiver.ackFrame)
+		}
+		tick()
+		now += 20
+		tick()
+		val x0 = client.enemies[0].pos.x
+		val y0 = client.enemies[0].pos.y
+		val x1 = client.enemies[1].pos.x
+		server.enemies[0].pos.addEq(8, 0)
+		server.enemies[1].pos.addEq(MAX_INTERPOLATE_DISTANCE * 2, 0f)
+		now += 20
+		tick()
+		assertReplicated()
+
+		// drawn where it was then moved across the 20ms between frames, the jump is not interpolated
+		receiver.interpolate()
+		Assert.assertEquals(x0, client.enemies[0].pos.x, 0f)
+		Assert.assertEquals(x1 + MAX_INTERPOLATE_DISTANCE * 2, client.enemies[1].pos.x, 0f)
+		now += 10
+		receiver.interpolate()
+		Assert.assertEquals(x0 + 4, client.enemies[0].pos.x, 0.001f)
+		Assert.assertEquals(y0, client.enemies[0].pos.y, 0f)
+		now += 30
+		receiver.interpolate()
+		assertReplicated()
+	}
+
+	@Test
+	fun testBytesPerTick() {
+		val replication = ReplicationServer(server)
+		val receiver = ReplicationClient(client)
+		var packets = 0
+		var firstFrameBytes = 0
+		for (tick in 0 until 600) {
+			step()
+			replication.capture()
+			replication.write(1) { array, length ->
+				packets++
+				if (tick == 0)
+					firstFrameBytes += length
+				Assert.assertTrue(length <= UDPCommon.SERVER_PACKET_LENGTH)
+				UDPCommon.clientProcessInput(ByteBuffer.wrap(array, 0, length), client, receiver)
+			}
+			replication.onAck(1, receiver.ackFrame)
+		}
+		assertReplicated()
+		// one datagram of SERVER_PACKET_LENGTH per ManagedArray plus game state and walls, and one per player for missiles
+		val broadcastBytes = (7 + server.players.size) * UDPCommon.SERVER_PACKET_LENGTH
+		val bytesPerTick = replication.getBytesPerTick(1)
+		println(String.format("%d enemies: first frame %d bytes, then %.0f bytes/tick in %.2f packets/tick. Full state %d bytes, full broadcasts %d bytes/tick",
+			server.enemies.size, firstFrameBytes, bytesPerTick, packets / 600f, replication.fullStateBytes, broadcastBytes))
+		Assert.assertTrue(bytesPerTick < replication.fullStateBytes / 2)
+	}
+}
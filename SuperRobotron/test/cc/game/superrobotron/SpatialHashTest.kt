@@ -0,0 +1,130 @@
+package cc.game.superrobotron
+
+import cc.lib.game.Utils
+import org.junit.Assert
+import org.junit.Test
+import java.util.Random
+import kotlin.math.max
+import kotlin.math.min
+
+class SpatialHashTest {
+
+	val r = Random(0)
+
+	fun randomize(array: ManagedArray<Enemy>, num: Int) {
+		array.clear()
+		repeat(num) {
+			array.add().apply {
+				// include some just off the maze to test clamping
+				pos.assign(r.nextFloat() * (MAZE_WIDTH + 40) - 20, r.nextFloat() * (MAZE_HEIGHT + 40) - 20)
+				type = r.nextInt(ENEMY_INDEX_NUM)
+			}
+		}
+	}
+
+	fun brute(array: ManagedArray<Enemy>, minX: Float, minY: Float, maxX: Float, maxY: Float): Set<Int> =
+		array.indices.filter {
+			val p = array[it].pos
+			p.x in minX..maxX && p.y in minY..maxY
+		}.toSet()
+
+	@Test
+	fun testQueryMatchesBruteForce() {
+		val enemies = ManagedArray(Array(MAX_ENEMIES) { Enemy() })
+		val hash = SpatialHash(SPATIAL_HASH_CELL_DIM, MAX_ENEMIES)
+		repeat(100) {
+			randomize(enemies, r.nextInt(MAX_ENEMIES + 1))
+			hash.build(enemies)
+			repeat(50) {
+				when (r.nextInt(3)) {
+					0 -> if (enemies.isNotEmpty()) {
+						val idx = r.nextInt(enemies.size)
+						enemies.remove(idx)
+						hash.remove(idx, enemies.size)
+					}
+
+					1 -> if (enemies.isNotEmpty()) {
+						val idx = r.nextInt(enemies.size)
+						enemies[idx].pos.addEq(r.nextFloat() * 200 - 100, r.nextFloat() * 200 - 100)
+						hash.move(idx, enemies[idx].pos)
+					}
+
+					2 -> enemies.addOrNull()?.let {
+						it.pos.assign(r.nextFloat() * MAZE_WIDTH, r.nextFloat() * MAZE_HEIGHT)
+						hash.add(enemies.size - 1, it.pos)
+					}
+				}
+				val x = r.nextFloat() * MAZE_WIDTH
+				val y = r.nextFloat() * MAZE_HEIGHT
+				val rad = r.nextFloat() * 300
+				val num = hash.query(x - rad, y - rad, x + rad, y + rad)
+				val found = (0 until num).map { hash[it] }
+				Assert.assertEquals(found.sortedDescending(), found)
+				Assert.assertEquals(found.size, found.toSet().size)
+				Assert.assertTrue(found.all { it < enemies.size })
+				Assert.assertTrue(found.toSet().containsAll(brute(enemies, x - rad, y - rad, x + rad, y + rad)))
+			}
+		}
+	}
+
+	// one frame of player missiles against enemies, the same test updatePlayerMissiles does
+	fun countHitsBrute(enemies: ManagedArray<Enemy>, missiles: ManagedArray<Missile>): Int {
+		var hits = 0
+		for (m in missiles) {
+			for (e in enemies) {
+				if (Utils.isCircleIntersectingLineSeg(m.pos, m.pos + m.dv, e.pos, ENEMY_RADIUS[e.type]))
+					hits++
+			}
+		}
+		return hits
+	}
+
+	fun countHitsHash(enemies: ManagedArray<Enemy>, missiles: ManagedArray<Missile>, hash: SpatialHash): Int {
+		var hits = 0
+		hash.build(enemies)
+		for (m in missiles) {
+			val num = hash.query(
+				min(m.pos.x, m.pos.x + m.dv.x) - MAX_ENEMY_RADIUS,
+				min(m.pos.y, m.pos.y + m.dv.y) - MAX_ENEMY_RADIUS,
+				max(m.pos.x, m.pos.x + m.dv.x) + MAX_ENEMY_RADIUS,
+				max(m.pos.y, m.pos.y + m.dv.y) + MAX_ENEMY_RADIUS
+			)
+			for (i in 0 until num) {
+				val e = enemies[hash[i]]
+				if (Utils.isCircleIntersectingLineSeg(m.pos, m.pos + m.dv, e.pos, ENEMY_RADIUS[e.type]))
+					hits++
+			}
+		}
+		return hits
+	}
+
+	// run with -Dbenchmark=true
+	@Test
+	fun testFrameTime() {
+		if (!System.getProperty("benchmark").toBoolean()) return
+		val enemies = ManagedArray(Array(MAX_ENEMIES) { Enemy() })
+		val missiles = ManagedArray(Array(MAX_PLAYERS * MAX_PLAYER_MISSLES) { Missile() })
+		val hash = SpatialHash(SPATIAL_HASH_CELL_DIM, MAX_ENEMIES)
+		val frames = 20000
+		for (pass in 0..1) {
+			var bruteTime = 0L
+			var hashTime = 0L
+			repeat(frames) {
+				randomize(enemies, MAX_ENEMIES)
+				missiles.clear()
+				repeat(missiles.capacity) {
+					missiles.add().pos.assign(r.nextFloat() * MAZE_WIDTH, r.nextFloat() * MAZE_HEIGHT)
+					missiles.last().dv.assign(r.nextFloat() * 2 - 1, r.nextFloat() * 2 - 1).normEq().scaleEq(PLAYER_MISSLE_SPEED)
+				}
+				var t = System.nanoTime()
+				val expected = countHitsBrute(enemies, missiles)
+				bruteTime += System.nanoTime() - t
+				t = System.nanoTime()
+				Assert.assertEquals(expected, countHitsHash(enemies, missiles, hash))
+				hashTime += System.nanoTime() - t
+			}
+			println(String.format("%d enemies x %d missiles: brute force %.1f us/frame, spatial hash %.1f us/frame",
+				enemies.size, missiles.size, bruteTime / 1000.0 / frames, hashTime / 1000.0 / frames))
+		}
+	}
+}
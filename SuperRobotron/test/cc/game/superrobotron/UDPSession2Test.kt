@@ -0,0 +1,139 @@
+package cc.game.superrobotron
+
+import org.junit.After
+import org.junit.Assert
+import org.junit.Test
+import java.net.DatagramSocket
+import java.net.InetAddress
+import java.nio.ByteBuffer
+import java.util.Collections
+import java.util.Random
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+class UDPSession2Test {
+
+	val simulator = Executors.newSingleThreadScheduledExecutor()
+	val sessions = mutableListOf<TestSession>()
+
+	/**
+	 * Loopback session that drops lossPercent of its packets and delivers the rest after latency to
+	 * latency + jitter millis, which also reorders them
+	 */
+	inner class TestSession(readPort: Int, writePort: Int, val lossPercent: Int, val latency: Long, val jitter: Long, seed: Long) :
+		UDPSession2(readPort, writePort, InetAddress.getLoopbackAddress(), 512, 512, readPort) {
+
+		val r = Random(seed)
+		val received = Array(channelTypes.size) { Collections.synchronizedList(mutableListOf<Int>()) }
+
+		override fun onMessage(channel: Int, message: ByteBuffer) {
+			received[channel].add(message.getInt())
+		}
+
+		override fun transmit(packet: ByteBuffer) {
+			if (r.nextInt(100) < lossPercent)
+				return
+			val copy = ByteBuffer.allocate(packet.remaining()).put(packet).flip()
+			val delay = latency + if (jitter > 0) r.nextInt(jitter.toInt()) else 0
+			simulator.schedule({ super.transmit(copy) }, delay, TimeUnit.MILLISECONDS)
+		}
+	}
+
+	fun freePort(): Int = DatagramSocket(0).use { it.localPort }
+
+	fun connect(lossPercent: Int, latency: Long, jitter: Long): Pair<TestSession, TestSession> {
+		val portA = freePort()
+		val portB = freePort()
+		val a = TestSession(portA, portB, lossPercent, latency, jitter, 1)
+		val b = TestSession(portB, portA, lossPercent, latency, jitter, 2)
+		sessions.add(a)
+		sessions.add(b)
+		a.start()
+		b.start()
+		return Pair(a, b)
+	}
+
+	fun waitFor(timeoutMillis: Long, done: () -> Boolean) {
+		val end = System.currentTimeMillis() + timeoutMillis
+		while (!done() && System.currentTimeMillis() < end)
+			Thread.sleep(10)
+	}
+
+	@After
+	fun tearDown() {
+		sessions.forEach { it.close() }
+		simulator.shutdownNow()
+	}
+
+	@Test
+	fun testReliableOrderedOverLossyLink() {
+		val (a, b) = connect(20, 20, 30)
+		val num = 2000
+		for (i in 0 until num) {
+			// a frame worth at a time
+			if (i % 20 == 0)
+				Thread.sleep(16)
+			Assert.assertTrue(a.send(1) { it.putInt(i) })
+			b.send(1) { it.putInt(i) }
+		}
+		waitFor(20000) { b.received[1].size == num && a.received[1].size == num }
+		Assert.assertEquals((0 until num).toList(), b.received[1].toList())
+		Assert.assertEquals((0 until num).toList(), a.received[1].toList())
+		println(String.format("20%% loss, 20-50ms latency: rtt %.1f ms, rto %.0f ms, loss estimate %.2f, rate %.0f bytes/s, %d packets, %d lost, %d resends",
+			a.rttMillis, a.rto, a.lossRate, a.sendRate, a.numPacketsSent, a.numPacketsLost, a.numRetransmits))
+		Assert.assertTrue(a.rttMillis in 30f..500f)
+		Assert.assertTrue(a.numPacketsLost > 0)
+		Assert.assertTrue(a.numRetransmits > 0)
+	}
+
+	@Test
+	fun testUnreliableSequencedDropsStale() {
+		val (a, b) = connect(10, 10, 40)
+		for (i in 0 until 300) {
+			a.send(0) { it.putInt(i) }
+			Thread.sleep(3)
+		}
+		waitFor(1000) { b.received[0].lastOrNull() == 299 }
+		val got = b.received[0].toList()
+		println("unreliable: ${got.size} of 300 delivered, ${b.dropped} stale")
+		// never goes backwards or repeats
+		Assert.assertEquals(got.sorted().distinct(), got)
+		Assert.assertTrue(got.size in 30 until 300)
+		Assert.assertEquals(0, a.numRetransmits)
+	}
+
+	@Test
+	fun testUnreliableSendKeepsNewest() {
+		val portA = freePort()
+		val portB = freePort()
+		val a = TestSession(portA, portB, 0, 0, 0, 1)
+		val b = TestSession(portB, portA, 0, 0, 0, 2)
+		sessions.add(a)
+		sessions.add(b)
+		b.start()
+		// nothing flushes until started so every send but the last is replaced
+		for (i in 0 until 500)
+			a.send(0) { it.putInt(i) }
+		Assert.assertEquals(499, a.superseded)
+		a.start()
+		waitFor(1000) { b.received[0].isNotEmpty() }
+		Thread.sleep(50)
+		Assert.assertEquals(listOf(499), b.received[0].toList())
+	}
+
+	@Test
+	fun testPacingBacksOffUnderLoss() {
+		val (clean, _) = connect(0, 5, 0)
+		val (lossy, _) = connect(30, 5, 0)
+		val payload = ByteArray(400)
+		repeat(200) {
+			clean.send(1) { it.put(payload) }
+			lossy.send(1) { it.put(payload) }
+			Thread.sleep(2)
+		}
+		waitFor(5000) { lossy.numPacketsSent > 300 }
+		println(String.format("send rate clean %.0f, 30%% loss %.0f bytes/s", clean.sendRate, lossy.sendRate))
+		Assert.assertTrue(lossy.lossRate > 0.1f)
+		Assert.assertTrue(lossy.sendRate < clean.sendRate)
+	}
+}
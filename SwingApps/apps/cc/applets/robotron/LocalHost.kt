@@ -1,22 +1,17 @@
 package cc.applets.robotron
 
-import cc.game.superrobotron.Enemy
 import cc.game.superrobotron.IRoboClient
 import cc.game.superrobotron.IRoboClientConnection
 import cc.game.superrobotron.IRoboClientListener
 import cc.game.superrobotron.IRoboServer
 import cc.game.superrobotron.MAX_PLAYERS
-import cc.game.superrobotron.ManagedArray
-import cc.game.superrobotron.Missile
-import cc.game.superrobotron.MissileSnake
 import cc.game.superrobotron.PLAYER_STATE_SPECTATOR
-import cc.game.superrobotron.People
 import cc.game.superrobotron.Player
 import cc.game.superrobotron.PlayerConnectionInfo
-import cc.game.superrobotron.Powerup
+import cc.game.superrobotron.ReplicationClient
+import cc.game.superrobotron.ReplicationServer
 import cc.game.superrobotron.Robotron
 import cc.game.superrobotron.UDPCommon
-import cc.game.superrobotron.Wall
 import cc.lib.game.GDimension
 import cc.lib.logger.LoggerFactory
 import cc.lib.math.Vector2D
@@ -59,10 +54,12 @@ class LocalRoboClientConnection(override val clientId: Int, val player: Player)
 	override var connected = false
 		private set
 
-	override fun send(data: ByteArray) {
+	override fun send(data: ByteArray, length: Int) {
 		if (connected) {
+			// data is a pooled buffer so copy before it is reused
+			val copy = data.copyOf(length)
 			connWriteScope.launch {
-				toClientUDP.send(data)
+				toClientUDP.send(copy)
 			}
 		}
 	}
@@ -109,7 +106,7 @@ class LocalRoboClientConnection(override val clientId: Int, val player: Player)
 		jobs.add(readScopeUDP.launch {
 			while (connected) {
 				host?.let {
-					UDPCommon.serverProcessInput(clientId, ByteBuffer.wrap(fromClientUDP.receive()), it.robotron)
+					UDPCommon.serverProcessInput(clientId, ByteBuffer.wrap(fromClientUDP.receive()), it.robotron, it.replication)
 				} ?: break
 			}
 		})
@@ -137,6 +134,8 @@ private class LocalHost(val robotron: Robotron) : IRoboServer {
 
 	override val roboConnections = mutableListOf<LocalRoboClientConnection>()
 
+	val replication = ReplicationServer(robotron)
+
 	init {
 		refreshPlayersStatus()
 	}
@@ -220,6 +219,7 @@ private class LocalHost(val robotron: Robotron) : IRoboServer {
 		val newPl = robotron.players.getOrAdd(connection.clientId)
 		newPl.displayName = displayName
 		robotron.initNewPlayer(newPl)
+		replication.reset(connection.clientId)
 		connection.connect()
 		refreshPlayersStatus()
 		svrWriteScope.launch {
@@ -230,73 +230,11 @@ private class LocalHost(val robotron: Robotron) : IRoboServer {
 		return connection
 	}
 
-	override fun broadcastPlayers(players: ManagedArray<Player>) {
-		svrWriteScope.launch {
-			val (buffer, array) = UDPCommon.createBuffer()
-			UDPCommon.serverWritePlayers(players, buffer)
-			roboConnections.forEach {
-				it.send(array)
-			}
-		}
-	}
-
-	override fun broadcastPeople(people: ManagedArray<People>) {
-		svrWriteScope.launch {
-			val (buffer, array) = UDPCommon.createBuffer()
-			UDPCommon.serverWritePeople(people, buffer)
-			roboConnections.forEach {
-				it.send(array)
-			}
-		}
-	}
-
-	override fun broadcastPlayerMissiles(playerId: Int, missiles: ManagedArray<Missile>) {
-		svrWriteScope.launch {
-			val (buffer, array) = UDPCommon.createBuffer()
-			UDPCommon.serverWritePlayerMissles(playerId, missiles, buffer)
-			roboConnections.forEach {
-				it.send(array)
-			}
-		}
-	}
-
-	override fun broadcastEnemies(enemies: ManagedArray<Enemy>) {
-		svrWriteScope.launch {
-			val (buffer, array) = UDPCommon.createBuffer()
-			UDPCommon.serverWriteEnemies(enemies, buffer)
-			roboConnections.forEach {
-				it.send(array)
-			}
-		}
-	}
-
-	override fun broadcastEnemyMissiles(enemyMissiles: ManagedArray<Missile>, tankMissiles: ManagedArray<Missile>, snakeMissiles: ManagedArray<MissileSnake>) {
-		svrWriteScope.launch {
-			val (buffer, array) = UDPCommon.createBuffer()
-			UDPCommon.serverWriteEnemyMissiles(enemyMissiles, buffer)
-			roboConnections.forEach {
-				it.send(array)
-			}
-		}
-	}
-
-	override fun broadcastPowerups(powerups: ManagedArray<Powerup>) {
-		svrWriteScope.launch {
-			val (buffer, array) = UDPCommon.createBuffer()
-			UDPCommon.serverWritePowerups(powerups, buffer)
-			roboConnections.forEach {
-				it.send(array)
-			}
-		}
-	}
-
-	override fun broadcastWalls(walls: Collection<Wall>) {
-		svrWriteScope.launch {
-			val (buffer, array) = UDPCommon.createBuffer()
-			UDPCommon.serverWriteWalls(walls, buffer)
-			roboConnections.forEach {
-				it.send(array)
-			}
+	override fun broadcastFrame() {
+		replication.capture()
+		roboConnections.forEach { conn ->
+			if (conn.connected)
+				replication.write(conn.clientId) { array, length -> conn.send(array, length) }
 		}
 	}
 
@@ -313,18 +251,6 @@ private class LocalHost(val robotron: Robotron) : IRoboServer {
 			}
 		}
 	}
-
-	override fun broadcastGameState() {
-		svrWriteScope.launch {
-			roboConnections.forEach {
-				val (buffer, array) = UDPCommon.createBuffer()
-				UDPCommon.serverWriteGameState(robotron, buffer)
-				roboConnections.forEach {
-					it.send(array)
-				}
-			}
-		}
-	}
 }
 
 @Throws(IOException::class)
@@ -348,6 +274,7 @@ private class LocalClient(
 
 	private val listeners = mutableSetOf<IRoboClientListener>()
 	private val jobs = mutableListOf<Job>()
+	private val replication = ReplicationClient(robotron)
 	override val connected: Boolean
 		get() = connection.connected
 
@@ -403,7 +330,7 @@ private class LocalClient(
 
 		jobs.add(readScopeUDP.launch {
 			while (connected) {
-				UDPCommon.clientProcessInput(ByteBuffer.wrap(connection.toClientUDP.receive()), robotron)
+				UDPCommon.clientProcessInput(ByteBuffer.wrap(connection.toClientUDP.receive()), robotron, replication)
 			}
 		})
 	}
@@ -417,6 +344,7 @@ private class LocalClient(
 			connection.let { conn ->
 				UDPCommon.createBuffer().let { (buffer, array) ->
 					UDPCommon.clientWriteInput(buffer, motionDv, targetDv, firing)
+					UDPCommon.clientWriteAck(buffer, replication.ackFrame)
 					conn.fromClientUDP.send(array)
 				}
 			}
@@ -431,6 +359,8 @@ private class LocalClient(
 		}
 	}
 
+	override fun interpolate() = replication.interpolate()
+
 	override fun disconnect() {
 		jobs.forEach {
 			it.cancel()
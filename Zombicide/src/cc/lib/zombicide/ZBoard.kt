@@ -19,6 +19,7 @@ import kotlin.math.roundToInt
 class ZBoard : Reflector<ZBoard>, IDimension {
     companion object {
         private val log = LoggerFactory.getLogger(ZBoard::class.java)
+	    private val wallFlags = ZWallFlag.values()
 
 	    init {
 		    addAllFields(ZBoard::class.java)
@@ -294,13 +295,146 @@ class ZBoard : Reflector<ZBoard>, IDimension {
 		return true
 	}
 
+	/**
+	 * BFS distance from every cell to a target zone. Actors that are blocked by the same set of
+	 * wall types share a field.
+	 */
+	private class DistanceField(val blockedMask: Int, val dist: IntArray)
+
+	// keyed by blockedMask shl 32 or zoneIndex
+	@Omit
+	private val distanceFields = HashMap<Long, DistanceField>()
+
+	// open or closed doors indexed by the cell they lead into
 	@Omit
-	private val shortestPathCache = mutableMapOf<Pos, MutableMap<Int, List<List<ZDir>>>>()
+	private var doorsInto: Array<MutableList<ZDoor>>? = null
+
+	private fun blockedMask(actor: ZActor): Int {
+		var mask = 0
+		for (flag in wallFlags) {
+			if (actor.isBlockedBy(flag))
+				mask = mask or (1 shl flag.ordinal)
+		}
+		return mask
+	}
+
+	private fun cellIndex(pos: Pos): Int = pos.row * grid.cols + pos.column
+
+	private fun getDoorsInto(): Array<MutableList<ZDoor>> = doorsInto ?: Array(grid.rows * grid.cols) { mutableListOf<ZDoor>() }.also { into ->
+		zones.forEach { zone ->
+			zone.doors.forEach { door ->
+				// movement only uses doors listed in the zone they start from
+				if (grid.isOnGrid(door.cellPosEnd) && grid[door.cellPosStart].zoneIndex == zone.zoneIndex)
+					into[cellIndex(door.cellPosEnd)].add(door)
+			}
+		}
+		doorsInto = into
+	}
+
+	/**
+	 * Can an actor with blockedMask step from pos in dir to next. Matches the rules actors use to
+	 * move: walls are checked against the actor, the cell moved into cannot be full unless it is
+	 * entered through a door.
+	 */
+	private fun canStep(blockedMask: Int, pos: Pos, dir: ZDir, next: Pos, flag: ZWallFlag = grid[pos].getWallFlag(dir)): Boolean {
+		if (dir.isCompass && grid.isOnGrid(next)) {
+			if (blockedMask and (1 shl flag.ordinal) == 0 && !grid[next].isFull)
+				return true
+		}
+		// doors do not depend on the actor
+		return !flag.closed && zones[grid[pos].zoneIndex].doors.any { door ->
+			door.cellPosStart == pos && door.moveDirection == dir && door.cellPosEnd == next
+		}
+	}
+
+	private val ZDir.isCompass: Boolean
+		get() = this != ZDir.ASCEND && this != ZDir.DESCEND
+
+	/**
+	 * Lower the distance of everything upstream of the cells in queue[0 until size]
+	 */
+	private fun propagate(field: DistanceField, queue: IntArray, size: Int) {
+		val dist = field.dist
+		val into = getDoorsInto()
+		var head = 0
+		var tail = size
+		while (head < tail) {
+			val idx = queue[head++]
+			val pos = Pos(idx / grid.cols, idx % grid.cols)
+			val d = dist[idx] + 1
+			for (dir in compassValues) {
+				val prev = Pos(pos.row - dir.dy, pos.column - dir.dx)
+				if (!grid.isOnGrid(prev))
+					continue
+				val prevIdx = cellIndex(prev)
+				if (dist[prevIdx] > d && canStep(field.blockedMask, prev, dir, pos)) {
+					dist[prevIdx] = d
+					queue[tail++] = prevIdx
+				}
+			}
+			for (door in into[idx]) {
+				val prevIdx = cellIndex(door.cellPosStart)
+				if (dist[prevIdx] > d && !door.isClosed(this)) {
+					dist[prevIdx] = d
+					queue[tail++] = prevIdx
+				}
+			}
+		}
+	}
+
+	private fun getDistanceField(blockedMask: Int, toZoneIndex: Int): DistanceField {
+		val key = blockedMask.toLong() shl 32 or toZoneIndex.toLong()
+		return distanceFields.getOrPut(key) {
+			val field = DistanceField(blockedMask, IntArray(grid.rows * grid.cols) { Int.MAX_VALUE })
+			// every cell is queued at most once
+			val queue = IntArray(grid.rows * grid.cols)
+			var size = 0
+			for (pos in getZone(toZoneIndex).cells) {
+				val idx = cellIndex(pos)
+				field.dist[idx] = 0
+				queue[size++] = idx
+			}
+			propagate(field, queue, size)
+			field
+		}
+	}
+
+	/**
+	 * Keep the distance fields current when the wall at pos in dir changes from before. Opening a
+	 * wall can only shorten routes so the new edge is relaxed in place. Closing a wall only matters
+	 * to fields that had a shortest route through it, those are dropped and rebuilt when next used.
+	 */
+	private fun updateDistanceFields(pos: Pos, dir: ZDir, next: Pos, before: ZWallFlag) {
+		if (!grid.isOnGrid(next))
+			return
+		val idx = cellIndex(pos)
+		val nextIdx = cellIndex(next)
+		val after = grid[pos].getWallFlag(dir)
+		val it = distanceFields.values.iterator()
+		while (it.hasNext()) {
+			val field = it.next()
+			val dist = field.dist
+			val canStepNow = canStep(field.blockedMask, pos, dir, next, after)
+			val couldStep = canStep(field.blockedMask, pos, dir, next, before)
+			if (canStepNow == couldStep || dist[nextIdx] == Int.MAX_VALUE)
+				continue
+			if (canStepNow) {
+				if (dist[nextIdx] + 1 < dist[idx]) {
+					dist[idx] = dist[nextIdx] + 1
+					propagate(field, IntArray(dist.size).also { q -> q[0] = idx }, 1)
+				}
+			} else if (dist[idx] == dist[nextIdx] + 1) {
+				it.remove()
+			}
+		}
+	}
 
 	/**
 	 * Returns a list of directions the zombie can move
 	 * @See DIR_NORTH, DIR_SOUTH, DIR_EAST, DIR_WEST
 	 *
+	 * When more than one route is equally short a random one is chosen at each step.
+	 *
 	 * @param fromPos
 	 * @param toZoneIndex
 	 * @return
@@ -311,31 +445,51 @@ class ZBoard : Reflector<ZBoard>, IDimension {
 	): List<ZDir> {
 		val fromPos = actor.occupiedCell
 		if (grid[fromPos].zoneIndex == toZoneIndex) return emptyList()
-		val allPaths = shortestPathCache.getOrPut(fromPos) {
-			mutableMapOf()
-		}.getOrPut(toZoneIndex) {
-			val allPaths: MutableList<List<ZDir>> = ArrayList()
-			var maxDist = (grid.rows + grid.cols)
-			val visited: MutableSet<Pos> = HashSet()
-			getShortestPathOptions(actor, fromPos, getZone(toZoneIndex), visited, maxDist).also { paths ->
-				for (l in paths) {
-					maxDist = maxDist.coerceAtMost(l.size)
-				}
-				allPaths.addAll(paths)
-			}
-			allPaths.removeIf { it.size > maxDist }
-			allPaths
+		val mask = blockedMask(actor)
+		walkDistanceField(getDistanceField(mask, toZoneIndex), fromPos)?.let {
+			return it
 		}
+		// occupancy changed since the field was built
+		distanceFields.remove(mask.toLong() shl 32 or toZoneIndex.toLong())
+		return walkDistanceField(getDistanceField(mask, toZoneIndex), fromPos) ?: emptyList()
+	}
 
-		return when (allPaths.size) {
-			0 -> emptyList()
-			1 -> allPaths.first()
-			else -> {
-				allPaths.allMinOf {
-					it.size
-				}.random()
+	/**
+	 * @return null if the field no longer matches the board
+	 */
+	private fun walkDistanceField(field: DistanceField, fromPos: Pos): List<ZDir>? {
+		val dist = field.dist
+		var pos = fromPos
+		var d = dist[cellIndex(pos)]
+		if (d == Int.MAX_VALUE)
+			return emptyList()
+		val path = ArrayList<ZDir>(d)
+		// 4 compass directions plus up or down through a vault
+		val dirs = arrayOfNulls<ZDir>(ZDir.values().size)
+		val nexts = arrayOfNulls<Pos>(dirs.size)
+		while (d > 0) {
+			var n = 0
+			for (dir in compassValues) {
+				val next = Pos(pos.row + dir.dy, pos.column + dir.dx)
+				if (grid.isOnGrid(next) && dist[cellIndex(next)] == d - 1 && canStep(field.blockedMask, pos, dir, next)) {
+					dirs[n] = dir
+					nexts[n++] = next
+				}
 			}
+			for (door in zones[grid[pos].zoneIndex].doors) {
+				if (door.cellPosStart == pos && !door.moveDirection.isCompass && !door.isClosed(this) && dist[cellIndex(door.cellPosEnd)] == d - 1) {
+					dirs[n] = door.moveDirection
+					nexts[n++] = door.cellPosEnd
+				}
+			}
+			if (n == 0)
+				return null
+			val pick = if (n == 1) 0 else random(n)
+			path.add(dirs[pick]!!)
+			pos = nexts[pick]!!
+			d--
 		}
+		return path
 	}
 
 	fun getShortestPathOrNull(
@@ -345,66 +499,6 @@ class ZBoard : Reflector<ZBoard>, IDimension {
 
 	fun isZoneReachable(actor: ZActor, targetZone: Int): Boolean = getShortestPathOrNull(actor, targetZone) != null
 
-	private fun getShortestPathOptions(
-		actor: ZActor,
-		fromCell: Pos,
-		toZone: ZZone,
-		visited: MutableSet<Pos>,
-		maxDist: Int
-	): List<List<ZDir>> {
-		val paths: MutableList<List<ZDir>> = ArrayList()
-		searchPathsR(actor, fromCell, toZone, intArrayOf(maxDist), LinkedList(), paths, visited)
-		return paths
-	}
-
-	private fun searchPathsR(
-		actor: ZActor,
-		fromPos: Pos,
-		toZone: ZZone,
-		maxDist: IntArray,
-		curPath: LinkedList<ZDir>,
-		paths: MutableList<List<ZDir>>,
-		visited: MutableSet<Pos>
-	) {
-		if (getCell(fromPos).zoneIndex == toZone.zoneIndex) {
-			if (curPath.size > 0) {
-				paths.add(ArrayList(curPath))
-				maxDist[0] = Math.min(maxDist[0], curPath.size)
-			}
-			return
-		}
-		if (curPath.size >= maxDist[0]) {
-			if (paths.isEmpty()) {
-				paths.add(ArrayList(curPath))
-			}
-        	return
-        }
-        if (visited.contains(fromPos)) return
-        visited.add(fromPos)
-		val fromCell = grid[fromPos]
-		val toPos = toZone.cells.first()
-        for (dir in valuesSorted(fromPos, toPos)) {
-	        if (!actor.isBlockedBy(fromCell.getWallFlag(dir))) {
-		        val nextPos = getAdjacent(fromPos, dir)
-		        if (visited.contains(nextPos)) continue
-
-		        // is the cell full?
-		        if (getCell(nextPos).isFull) continue
-		        curPath.addLast(dir)
-		        searchPathsR(actor, nextPos, toZone, maxDist, curPath, paths, visited)
-		        curPath.removeLast()
-	        }
-        }
-        val fromZone = zones[fromCell.zoneIndex]
-        for (door in fromZone.doors) {
-            if (door.cellPosStart == fromPos && !door.isClosed(this)) {
-                curPath.addLast(door.moveDirection)
-	            searchPathsR(actor, door.cellPosEnd, toZone, maxDist, curPath, paths, visited)
-	            curPath.removeLast()
-            }
-        }
-	}
-
 	fun getCell(pos: Pos): ZCell {
 		return grid[pos]
 	}
@@ -439,9 +533,13 @@ class ZBoard : Reflector<ZBoard>, IDimension {
     }
 
     fun setDoor(door: ZDoor, flag: ZWallFlag) {
+	    val before = getCell(door.cellPosStart).getWallFlag(door.moveDirection)
         getCell(door.cellPosStart).setWallFlag(door.moveDirection, flag)
+	    updateDistanceFields(door.cellPosStart, door.moveDirection, door.cellPosEnd, before)
 	    with(door.getOtherSide(this)) {
+		    val otherBefore = getCell(cellPosStart).getWallFlag(moveDirection)
 		    getCell(cellPosStart).setWallFlag(moveDirection, flag)
+		    updateDistanceFields(cellPosStart, moveDirection, cellPosEnd, otherBefore)
 	    }
     }
 
@@ -459,6 +557,8 @@ class ZBoard : Reflector<ZBoard>, IDimension {
 	    getCell(door.cellPosEnd).setWallFlag(door.moveDirection.opposite, ZWallFlag.LOCKED)
 	    zone.addDoorIfNeeded(this, door)
 	    require(door in zone.doors)
+	    doorsInto = null
+	    distanceFields.clear()
     }
 
     fun setSpawnZone(zoneIdx: Int, icon: ZIcon, canSpawnNecromancers: Boolean, isEscapableForNecromancers: Boolean, canBeRemovedFromBoard: Boolean) {
@@ -497,7 +597,14 @@ class ZBoard : Reflector<ZBoard>, IDimension {
 	fun clearCaches() {
 		maxNoiseLevelZoneCache.clear()
 		canSeeCache = null
-		shortestPathCache.clear()
+		distanceFields.clear()
+		doorsInto = null
+	}
+
+	// deserialize, merge and copyFrom can replace the grid and doors the caches were built from
+	override fun invalidateHash() {
+		super.invalidateHash()
+		clearCaches()
 	}
 
 	@Omit
@@ -4,6 +4,7 @@ import cc.lib.annotation.Keep
 import cc.lib.game.GColor
 import cc.lib.game.GRectangle
 import cc.lib.game.IRectangle
+import cc.lib.ksp.reflector.GenerateSerializer
 import cc.lib.reflector.Reflector
 import cc.lib.zombicide.ZCellQuadrant.Companion.valuesForRender
 
@@ -24,6 +25,7 @@ enum class ZCellEnvironment(val color: GColor) {
 }
 
 
+@GenerateSerializer
 class ZCell internal constructor(private val x: Float, private val y: Float) : Reflector<ZCell>(),
 	IRectangle {
 	companion object {
@@ -4,10 +4,12 @@ import cc.lib.game.AGraphics
 import cc.lib.game.GColor
 import cc.lib.game.GRectangle
 import cc.lib.game.IRectangle
+import cc.lib.ksp.reflector.GenerateSerializer
 import cc.lib.reflector.Omit
 import cc.lib.utils.Grid
 import cc.lib.zombicide.ui.UIZButton
 
+@GenerateSerializer
 class ZDoor(
 	val cellPosStart: Grid.Pos,
 	val cellPosEnd: Grid.Pos,
@@ -5,6 +5,7 @@ import cc.lib.game.GRectangle
 import cc.lib.game.IRectangle
 import cc.lib.game.IVector2D
 import cc.lib.game.Tiles
+import cc.lib.ksp.reflector.GenerateSerializer
 import cc.lib.math.Vector2D
 import cc.lib.reflector.Omit
 import cc.lib.utils.GException
@@ -15,6 +16,7 @@ import cc.lib.zombicide.ui.UIZButton
 /**
  * Zones are sets of adjacent cells that comprise rooms or streets separated by doors and walls
  */
+@GenerateSerializer
 class ZZone(val zoneIndex: Int = -1) : UIZButton() {
 	companion object {
 		init {
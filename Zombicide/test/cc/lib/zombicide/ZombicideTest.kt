@@ -3,6 +3,7 @@ package cc.lib.zombicide
 import cc.lib.game.GDimension
 import cc.lib.game.Utils
 import cc.lib.reflector.RPrintWriter
+import cc.lib.reflector.Reflector
 import cc.lib.utils.Grid
 import cc.lib.zombicide.ZGame.Companion.initDice
 import cc.lib.zombicide.ZGame.MarksmanComparator
@@ -476,4 +477,168 @@ Total Decompression Time:   49343
 		println("sorted: " + sorted.joinToString("\n") { "${it.second} -> ${it.first.type}" })
 
 	}
-}
\ No newline at end of file
+
+	fun testGeneratedSerializerBoard() {
+		val game = ZGame()
+		game.loadQuest(ZQuests.Tutorial)
+		val board = game.board
+		Reflector.USE_GENERATED = false
+		val reflected = board.serializeToString()
+		Reflector.USE_GENERATED = true
+		try {
+			assertEquals(reflected, board.serializeToString())
+			assertEquals(reflected, board.deepCopy().serializeToString())
+			assertEquals(reflected, ZBoard().also { it.deserialize(reflected) }.serializeToString())
+			// timing only with -Dbenchmark=true
+			if (!System.getProperty("benchmark").toBoolean()) return
+			for (generated in listOf(false, true, false, true)) {
+				Reflector.USE_GENERATED = generated
+				val t = System.nanoTime()
+				repeat(50) {
+					ZBoard().deserialize(board.serializeToString())
+					board.deepCopy()
+				}
+				println("generated=$generated board serialize+deserialize+deepCopy avg=${(System.nanoTime() - t) / 50 / 1000}us")
+			}
+		} finally {
+			Reflector.USE_GENERATED = true
+		}
+	}
+
+	/**
+	 * Forward BFS over the movement rules. Independent of ZBoard so it can check getShortestPath
+	 */
+	private fun bfsDistance(board: ZBoard, actor: ZActor, from: Grid.Pos, toZone: Int): Int {
+		val dist = HashMap<Grid.Pos, Int>()
+		val queue = LinkedList<Grid.Pos>()
+		val target = board.getZone(toZone).cells
+		dist[from] = 0
+		queue.add(from)
+		while (queue.isNotEmpty()) {
+			val pos = queue.removeFirst()
+			val d = dist[pos]!!
+			// empty cells have zoneIndex 0 so check the zone itself
+			if (pos in target)
+				return d
+			val cell = board.getCell(pos)
+			val next = mutableListOf<Grid.Pos>()
+			for (dir in ZDir.compassValues) {
+				val adj = board.getAdjacent(pos, dir)
+				if (adj.row in 0 until board.rows && adj.column in 0 until board.columns &&
+					!actor.isBlockedBy(cell.getWallFlag(dir)) && !board.getCell(adj).isFull)
+					next.add(adj)
+			}
+			for (door in board.getZone(cell.zoneIndex).doors) {
+				if (door.cellPosStart == pos && !door.isClosed(board))
+					next.add(door.cellPosEnd)
+			}
+			for (n in next) {
+				if (!dist.containsKey(n)) {
+					dist[n] = d + 1
+					queue.add(n)
+				}
+			}
+		}
+		return -1
+	}
+
+	private fun walkPath(board: ZBoard, from: Grid.Pos, path: List<ZDir>): Grid.Pos {
+		var pos = from
+		for (dir in path) {
+			val door = board.getZone(board.getCell(pos).zoneIndex).doors.firstOrNull {
+				it.cellPosStart == pos && it.moveDirection == dir && !it.isClosed(board)
+			}
+			pos = door?.cellPosEnd ?: board.getAdjacent(pos, dir)
+		}
+		return pos
+	}
+
+	private fun checkShortestPaths(board: ZBoard, actors: List<ZActor>) {
+		for (actor in actors) {
+			for (fromZone in board.zones) {
+				val from = fromZone.cells.firstOrNull() ?: continue
+				actor.occupiedCell = from
+				for (toZone in board.zones) {
+					val expected = bfsDistance(board, actor, from, toZone.zoneIndex)
+					val path = board.getShortestPath(actor, toZone.zoneIndex)
+					if (expected < 0) {
+						assertTrue(path.isEmpty())
+					} else {
+						assertEquals("$actor from $from to zone ${toZone.zoneIndex}", expected, path.size)
+						assertTrue(walkPath(board, from, path) in toZone.cells)
+					}
+				}
+			}
+		}
+	}
+
+	fun testShortestPath() {
+		val actors = listOf(ZZombie(ZZombieType.Walker), ZZombie(ZZombieType.Crowz), ZPlayerName.Baldric.create())
+		for (q in ZQuests.values()) {
+			val game = ZGame()
+			game.loadQuest(q)
+			checkShortestPaths(game.board, actors)
+		}
+	}
+
+	/**
+	 * Fields are updated in place when doors open and close
+	 */
+	fun testShortestPathDoors() {
+		val actors = listOf(ZZombie(ZZombieType.Walker), ZPlayerName.Baldric.create())
+		for (q in ZQuests.values().take(5)) {
+			val game = ZGame()
+			game.loadQuest(q)
+			val board = game.board
+			checkShortestPaths(board, actors)
+			val doors = board.getAllDoors().filter {
+				!it.isLocked(board) && runCatching { it.getOtherSide(board) }.isSuccess
+			}
+			for (door in doors.take(8)) {
+				val flag = board.getDoor(door)
+				board.setDoor(door, if (flag.closed) ZWallFlag.OPEN else ZWallFlag.CLOSED)
+				checkShortestPaths(board, actors)
+				board.setDoor(door, flag)
+			}
+			checkShortestPaths(board, actors)
+		}
+	}
+
+	/**
+	 * A board reused for another quest must not route with the caches of the old one
+	 */
+	fun testShortestPathReusedBoard() {
+		val actors = listOf(ZZombie(ZZombieType.Walker), ZPlayerName.Baldric.create())
+		val boards = ZQuests.values().take(4).map { q -> ZGame().also { it.loadQuest(q) }.board }
+		val reused = boards[0].deepCopy()
+		checkShortestPaths(reused, actors)
+		for (board in boards.drop(1)) {
+			reused.deserialize(board.serializeToString())
+			checkShortestPaths(reused, actors)
+			reused.copyFrom(boards[0])
+			checkShortestPaths(reused, actors)
+		}
+	}
+
+	// run with -Dbenchmark=true
+	fun testShortestPathBenchmark() {
+		if (!System.getProperty("benchmark").toBoolean()) return
+		val game = ZGame()
+		game.loadQuest(ZQuests.values().maxByOrNull { it.load().loadBoard().zones.size }!!)
+		val board = game.board
+		val zombie = ZZombie(ZZombieType.Walker)
+		val zones = board.zones.filter { it.cells.isNotEmpty() }
+		for (i in 0 until 3) {
+			board.clearCaches()
+			val t = System.nanoTime()
+			var steps = 0
+			for (fromZone in zones) {
+				zombie.occupiedCell = fromZone.cells.first()
+				for (toZone in zones)
+					steps += board.getShortestPath(zombie, toZone.zoneIndex).size
+			}
+			val n = zones.size * zones.size
+			println("zones=${zones.size} paths=$n steps=$steps total=${(System.nanoTime() - t) / 1000}us")
+		}
+	}
+}
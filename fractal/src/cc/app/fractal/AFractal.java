@@ -1,6 +1,7 @@
 package cc.app.fractal;
 
 import cc.app.fractal.evaluator.Evaluator;
+import cc.app.fractal.evaluator.ExpressionCompiler;
 import cc.lib.math.ComplexNumber;
 
 public abstract class AFractal {
@@ -13,8 +14,23 @@ public abstract class AFractal {
         this.name = name;
     }
     
+    /**
+     * Computes pixels for a single render thread
+     */
+    public interface Kernel {
+        int processPixel(double x, double y, int length);
+    }
+
     public abstract int processPixel(double x, double y, int length);
 
+    /**
+     * Return a kernel that does not share state with this fractal or other kernels.
+     * @param c same as passed to setup
+     * @return
+     * @throws Exception
+     */
+    public abstract Kernel newKernel(ComplexNumber c) throws Exception;
+
     public abstract String getDescription();
 
     public void setup(ComplexNumber c) throws Exception {
@@ -43,6 +59,27 @@ public abstract class AFractal {
             return 0;
         }
 
+        @Override
+        public Kernel newKernel(ComplexNumber c) {
+            return Mandelbrot::iterate;
+        }
+
+        /**
+         * Same as processPixel with primitives. sqrt is only taken near the bailout so results match exactly.
+         */
+        static int iterate(double x, double y, int length) {
+            double zr = x, zi = y;
+            for (int i=0; i<length; i++) {
+                double mag2 = zr*zr + zi*zi;
+                if (mag2 > 16 && Math.sqrt(mag2) > 4)
+                    return i;
+                double r = zr*zr - zi*zi + x;
+                zi = zi*zr + zr*zi + y;
+                zr = r;
+            }
+            return 0;
+        }
+
         @Override
         public String getDescription() {
             return "Mandelbrot Z^2 + Z0";
@@ -68,6 +105,23 @@ public abstract class AFractal {
             return 0;
         }
 
+        @Override
+        public Kernel newKernel(ComplexNumber c) {
+            final double cr = c.getReal(), ci = c.getImag();
+            return (x, y, length) -> {
+                double zr = x, zi = y;
+                for (int i=0; i<length; i++) {
+                    double mag2 = zr*zr + zi*zi;
+                    if (mag2 > 16 && Math.sqrt(mag2) > 4)
+                        return i;
+                    double r = zr*zr - zi*zi - cr;
+                    zi = zi*zr + zr*zi - ci;
+                    zr = r;
+                }
+                return 0;
+            };
+        }
+
         @Override
         public String getDescription() {
             return "Julia Z^2 - " + c;
@@ -78,8 +132,15 @@ public abstract class AFractal {
     
     public final static class Custom extends AFractal {
         
+        /**
+         * When false kernels interpret the expression instead of compiling it
+         */
+        public static boolean COMPILER_ENABLED = true;
+
         private final Evaluator evaluator = new Evaluator();
         private final String expression;
+        private ExpressionCompiler.Kernel compiled;
+        private final ComplexNumber compiledC = new ComplexNumber();
         
         /**
          * Generates Julia styles fractals
@@ -111,6 +172,29 @@ public abstract class AFractal {
             return 0;
         }
 
+        @Override
+        public Kernel newKernel(ComplexNumber c) throws Exception {
+            // the evaluator keeps state so each kernel gets its own
+            Custom custom = new Custom(expression);
+            custom.setup(c);
+            if (COMPILER_ENABLED) {
+                synchronized (this) {
+                    if (compiled == null || !compiledC.equals(c)) {
+                        try {
+                            compiled = custom.evaluator.compile();
+                            compiledC.copy(c);
+                        } catch (Exception e) {
+                            System.err.println("Failed to compile '" + expression + "', using interpreter: " + e.getMessage());
+                            compiled = null;
+                        }
+                    }
+                    if (compiled != null)
+                        return compiled::iterate; // compiled kernels have no state so are shared
+                }
+            }
+            return custom::processPixel;
+        }
+
         @Override
         public String getDescription() {
             return evaluator.getCompiledExpression();
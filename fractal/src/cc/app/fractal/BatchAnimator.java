@@ -0,0 +1,318 @@
+package cc.app.fractal;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import javax.imageio.ImageIO;
+
+import cc.app.fractal.evaluator.Evaluator;
+import cc.lib.math.ComplexNumber;
+
+/**
+ * Renders an animation of a fractal with the constant moving from start to end without a display.
+ *
+ * Frames go through 3 stages that run at the same time: rendering on a FractalRenderer, mapping iteration
+ * counts to colors through a ColorTable and PNG encoding. Stages are connected by bounded queues and the
+ * buffers are recycled, so memory stays fixed no matter how many frames and a slow stage (usually encoding)
+ * makes the others wait instead of piling up frames.
+ *
+ * Usage: BatchAnimator [options] outputDir
+ *   -fractal mandelbrot|julia|custom   default julia
+ *   -expr expression                   for custom
+ *   -start re,im                       default 0,0
+ *   -end re,im                         default 1,1
+ *   -frames n                          default 100
+ *   -size WxH                          default 512x512
+ *   -rect left,top,right,bottom        default -2,2,2,-2
+ *   -scale GRAY_SCALE|RED_SCALE|...    default RAINBOW_SCALE
+ *   -threads n                         render threads. default all cores
+ *   -encoders n                        encoding threads. default 1
+ *   -queue n                           frames buffered between stages. default 4
+ *
+ * @author chriscaron
+ */
+public class BatchAnimator {
+
+    public interface Listener {
+        /**
+         * Called from the encoder threads after a frame is written. Frames can complete out of order.
+         * @param frame
+         * @param file
+         */
+        void onFrameDone(int frame, File file);
+    }
+
+    private final static class Frame {
+        final int [] indices;
+        BufferedImage image;
+        int number = -1; // -1 is end of stream
+
+        Frame(int size) {
+            indices = new int[size];
+        }
+    }
+
+    private final AFractal fractal;
+    private final ColorTable colorTable;
+    private final File outputDir;
+    private final int width, height;
+    private double left=-2, top=2, right=2, bottom=-2;
+    private int renderThreads = Runtime.getRuntime().availableProcessors();
+    private int numEncoders = 1;
+    private int queueSize = 4;
+    private String format = "png";
+    private Listener listener;
+
+    private volatile Exception error;
+
+    public BatchAnimator(AFractal fractal, ColorTable.Scale scale, File outputDir, int width, int height) {
+        this.fractal = fractal;
+        this.colorTable = new ColorTable(scale);
+        this.outputDir = outputDir;
+        this.width = width;
+        this.height = height;
+    }
+
+    public BatchAnimator setRect(double left, double top, double right, double bottom) {
+        this.left = left;
+        this.top = top;
+        this.right = right;
+        this.bottom = bottom;
+        return this;
+    }
+
+    public BatchAnimator setRenderThreads(int renderThreads) {
+        this.renderThreads = Math.max(1, renderThreads);
+        return this;
+    }
+
+    public BatchAnimator setNumEncoders(int numEncoders) {
+        this.numEncoders = Math.max(1, numEncoders);
+        return this;
+    }
+
+    public BatchAnimator setQueueSize(int queueSize) {
+        this.queueSize = Math.max(1, queueSize);
+        return this;
+    }
+
+    public BatchAnimator setFormat(String format) {
+        this.format = format;
+        return this;
+    }
+
+    public BatchAnimator setListener(Listener listener) {
+        this.listener = listener;
+        return this;
+    }
+
+    public static String getFileName(int frame, String format) {
+        return String.format("anim%05d.%s", frame+1, format);
+    }
+
+    /**
+     * Render numFrames frames with the constant linearly interpolated from start to end inclusive. Blocks
+     * until all frames are written.
+     *
+     * @param start
+     * @param end
+     * @param numFrames
+     * @throws Exception the first error from any stage
+     */
+    public void animate(ComplexNumber start, ComplexNumber end, int numFrames) throws Exception {
+        if (!outputDir.isDirectory() && !outputDir.mkdirs())
+            throw new IOException("Cannot create directory " + outputDir);
+        error = null;
+        // every frame in flight owns one buffer, so the pool bounds memory
+        final BlockingQueue<Frame> free = new ArrayBlockingQueue<>(queueSize * 2 + numEncoders + 2);
+        final BlockingQueue<Frame> toColor = new ArrayBlockingQueue<>(queueSize);
+        final BlockingQueue<Frame> toEncode = new ArrayBlockingQueue<>(queueSize);
+        while (free.remainingCapacity() > 0) {
+            Frame f = new Frame(width * height);
+            f.image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            free.add(f);
+        }
+
+        // after an error the stages keep draining their queues so nothing blocks
+        Thread colorThread = new Thread(() -> {
+            try {
+                while (true) {
+                    Frame f = toColor.take();
+                    if (f.number >= 0 && error == null)
+                        colorize(f);
+                    toEncode.put(f);
+                    if (f.number < 0)
+                        break;
+                }
+            } catch (InterruptedException e) {
+                fail(e);
+            }
+        }, "BatchAnimator-color");
+
+        Thread [] encoders = new Thread[numEncoders];
+        for (int i=0; i<encoders.length; i++) {
+            encoders[i] = new Thread(() -> {
+                try {
+                    while (true) {
+                        Frame f = toEncode.take();
+                        if (f.number < 0) {
+                            // pass the end marker on to the next encoder
+                            toEncode.put(f);
+                            break;
+                        }
+                        if (error == null) {
+                            try {
+                                File file = new File(outputDir, getFileName(f.number, format));
+                                if (!ImageIO.write(f.image, format, file))
+                                    throw new IOException("No writer for format " + format);
+                                if (listener != null)
+                                    listener.onFrameDone(f.number, file);
+                            } catch (Exception e) {
+                                fail(e);
+                            }
+                        }
+                        free.put(f);
+                    }
+                } catch (InterruptedException e) {
+                    fail(e);
+                }
+            }, "BatchAnimator-encode-" + i);
+        }
+
+        colorThread.start();
+        for (Thread t : encoders)
+            t.start();
+
+        FractalRenderer renderer = new FractalRenderer(renderThreads);
+        try {
+            ComplexNumber C = new ComplexNumber();
+            for (int i=0; i<numFrames && error == null; i++) {
+                Frame f = free.take();
+                double t = numFrames > 1 ? (double)i / (numFrames-1) : 0;
+                C.set(start.getReal() + (end.getReal() - start.getReal()) * t,
+                      start.getImag() + (end.getImag() - start.getImag()) * t);
+                fractal.setup(C);
+                if (!renderer.render(fractal, C, left, top, right, bottom, f.indices, width, height, ColorTable.LENGTH, 1, null).await())
+                    break;
+                f.number = i;
+                toColor.put(f);
+            }
+        } catch (Exception e) {
+            fail(e);
+        } finally {
+            toColor.put(new Frame(0));
+            colorThread.join();
+            for (Thread t : encoders)
+                t.join();
+            renderer.shutdown();
+        }
+        if (error != null)
+            throw error;
+    }
+
+    private void colorize(Frame f) {
+        // write straight into the raster so no copy is made for the encoder
+        final int [] rgb = ((DataBufferInt)f.image.getRaster().getDataBuffer()).getData();
+        final int [] table = colorTable.getColorTable();
+        final int [] indices = f.indices;
+        for (int i=0; i<indices.length; i++)
+            rgb[i] = table[indices[i]];
+    }
+
+    private synchronized void fail(Exception e) {
+        if (error == null)
+            error = e;
+    }
+
+    private static ComplexNumber parseComplex(String s) {
+        String [] parts = s.split(",");
+        return new ComplexNumber(Double.parseDouble(parts[0].trim()), Double.parseDouble(parts[1].trim()));
+    }
+
+    public static void main(String [] args) {
+        System.setProperty("java.awt.headless", "true");
+        try {
+            String type = "julia";
+            String expr = "Z^2 + C";
+            ComplexNumber start = new ComplexNumber();
+            ComplexNumber end = new ComplexNumber(1, 1);
+            int frames = 100;
+            int width = 512, height = 512;
+            double [] rect = { -2, 2, 2, -2 };
+            ColorTable.Scale scale = ColorTable.Scale.RAINBOW_SCALE;
+            int threads = Runtime.getRuntime().availableProcessors();
+            int encoders = 1;
+            int queue = 4;
+            File outputDir = null;
+            for (int i=0; i<args.length; i++) {
+                String arg = args[i];
+                switch (arg) {
+                    case "-fractal": type = args[++i].toLowerCase(); break;
+                    case "-expr": expr = args[++i]; break;
+                    case "-start": start = parseComplex(args[++i]); break;
+                    case "-end": end = parseComplex(args[++i]); break;
+                    case "-frames": frames = Integer.parseInt(args[++i]); break;
+                    case "-size": {
+                        String [] parts = args[++i].toLowerCase().split("x");
+                        width = Integer.parseInt(parts[0]);
+                        height = Integer.parseInt(parts[1]);
+                        break;
+                    }
+                    case "-rect": {
+                        String [] parts = args[++i].split(",");
+                        for (int ii=0; ii<4; ii++)
+                            rect[ii] = Double.parseDouble(parts[ii].trim());
+                        break;
+                    }
+                    case "-scale": scale = ColorTable.Scale.valueOf(args[++i].toUpperCase()); break;
+                    case "-threads": threads = Integer.parseInt(args[++i]); break;
+                    case "-encoders": encoders = Integer.parseInt(args[++i]); break;
+                    case "-queue": queue = Integer.parseInt(args[++i]); break;
+                    default:
+                        if (arg.startsWith("-"))
+                            throw new IllegalArgumentException("Unknown option " + arg);
+                        outputDir = new File(arg);
+                }
+            }
+            if (outputDir == null)
+                throw new IllegalArgumentException("Missing output directory");
+
+            AFractal fractal;
+            switch (type) {
+                case "mandelbrot": fractal = new AFractal.Mandelbrot(); break;
+                case "julia": fractal = new AFractal.Julia(); break;
+                case "custom": {
+                    // fail early on a bad expression
+                    new Evaluator().parse(start, expr);
+                    fractal = new AFractal.Custom(expr);
+                    break;
+                }
+                default: throw new IllegalArgumentException("Unknown fractal " + type);
+            }
+
+            final long startTime = System.currentTimeMillis();
+            final int numFrames = frames;
+            new BatchAnimator(fractal, scale, outputDir, width, height)
+                    .setRect(rect[0], rect[1], rect[2], rect[3])
+                    .setRenderThreads(threads)
+                    .setNumEncoders(encoders)
+                    .setQueueSize(queue)
+                    .setListener((frame, file) -> System.out.println("Wrote " + file + " (" + (frame+1) + "/" + numFrames + ")"))
+                    .animate(start, end, frames);
+            long dt = System.currentTimeMillis() - startTime;
+            System.out.println(String.format("Rendered %d frames in %d ms (%.1f fps)", frames, dt, 1000.0 * frames / Math.max(1, dt)));
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println("Usage: BatchAnimator [-fractal mandelbrot|julia|custom] [-expr expression] [-start re,im] [-end re,im] [-frames n]"
+                    + " [-size WxH] [-rect left,top,right,bottom] [-scale name] [-threads n] [-encoders n] [-queue n] outputDir");
+            System.exit(1);
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+}
@@ -6,6 +6,7 @@ import java.awt.image.BufferedImage;
 import java.awt.image.MemoryImageSource;
 import java.io.File;
 import java.io.IOException;
+import java.math.BigDecimal;
 
 import javax.imageio.ImageIO;
 import javax.swing.JComponent;
@@ -46,6 +47,7 @@ public class FractalComponent extends JComponent implements MouseListener, Mouse
     
     private class GeneratorThread {
         boolean generating = false;
+        FractalRenderer.Job job;
         GeneratorThread() {
             new Thread(new Runnable() {
                 public void run() {
@@ -56,8 +58,18 @@ public class FractalComponent extends JComponent implements MouseListener, Mouse
                 }
             }).start();
         }
+
+        void cancel() {
+            generating = false;
+            if (job != null)
+                job.cancel();
+        }
     }
 
+    private final static int NUM_PASSES = 4;
+    private final FractalRenderer renderer = new FractalRenderer();
+    private FractalRenderer.Job lastJob;
+
     public interface FractalListener {
         
         /**
@@ -95,21 +107,50 @@ public class FractalComponent extends JComponent implements MouseListener, Mouse
         final double right;
         final double top;
         final double bottom;
+        // exact center of the rectangle. left, right, top, bottom lose precision on deep zooms
+        final BigDecimal centerX;
+        final BigDecimal centerY;
         ColorTable.Scale scale;
+        PerturbationMandelbrot perturbation; // reference orbit for deep zoom, created on first use
         
         FractalImage(double left, double right, double top, double bottom, ColorTable.Scale scale) {
+            this(left, right, top, bottom, midpoint(left, right), midpoint(top, bottom), scale);
+        }
+
+        FractalImage(BigDecimal centerX, BigDecimal centerY, double width, double height, ColorTable.Scale scale) {
+            this(centerX.doubleValue() - width/2, centerX.doubleValue() + width/2,
+                 centerY.doubleValue() - height/2, centerY.doubleValue() + height/2, centerX, centerY, scale);
+        }
+
+        private FractalImage(double left, double right, double top, double bottom, BigDecimal centerX, BigDecimal centerY, ColorTable.Scale scale) {
             this.left = left;
             this.right = right;
             this.top = top;
             this.bottom = bottom;
+            this.centerX = centerX;
+            this.centerY = centerY;
             this.scale = scale;
         }
+
+        boolean isDeep() {
+            return Math.min(Math.abs(right - left), Math.abs(bottom - top)) < DEEP_ZOOM_WIDTH;
+        }
         
         void reset() {
             scale = null;
         }
     };
     
+    private static BigDecimal midpoint(double a, double b) {
+        return new BigDecimal(a).add(new BigDecimal(b)).multiply(HALF);
+    }
+
+    private final static BigDecimal HALF = new BigDecimal(0.5);
+
+    // views narrower than this are rendered with PerturbationMandelbrot
+    private final static double DEEP_ZOOM_WIDTH = 1e-10;
+    private boolean deepZoomEnabled = true;
+
     // store images for undo/redo ops
     private final FractalImage [] images = new FractalImage[256];
     private int numImages = 0;
@@ -138,27 +179,11 @@ public class FractalComponent extends JComponent implements MouseListener, Mouse
     void zoom(double percent) {
         FractalImage fi = getLastFractalImage();
         
-        double left = fi.left;
-        double right = fi.right;
-        double top = fi.top;
-        double bottom = fi.bottom;
-        
-        double cx = (left+right)/2;
-        double cy = (top+bottom)/2;
-        
-        double width  = Math.abs(right-left);
-        double height = Math.abs(bottom - top);
-        
-        double newWidth  = width*percent;
-        double newHeight = height*percent;
+        double newWidth  = Math.abs(fi.right - fi.left)*percent;
+        double newHeight = Math.abs(fi.bottom - fi.top)*percent;
 
-        left    = cx-newWidth/2;
-        right   = cx+newWidth/2;
-        top     = cy+newHeight/2;
-        bottom  = cy-newHeight/2;
-        
-        zoomRect(left, right, top, bottom);
-        
+        // top is above the center so height is negative
+        zoomCenter(fi.centerX, fi.centerY, newWidth, -newHeight);
     }
 
     boolean canRedo() {
@@ -193,7 +218,7 @@ public class FractalComponent extends JComponent implements MouseListener, Mouse
     
     void cancel() {
         if (generator != null)
-            generator.generating = false;
+            generator.cancel();
     }
 
     void updateFractal() {
@@ -251,23 +276,49 @@ public class FractalComponent extends JComponent implements MouseListener, Mouse
         	//ComplexNumber.resetCacheStats();
             generator.generating = true;
             FractalImage fi = getLastFractalImage();
-            final double xStep = (fi.right - fi.left) / WIDTH;
-            final double yStep = (fi.bottom - fi.top) / HEIGHT;
-            double y = fi.top;
             fractalListener.onProgress(0);
             fractal.setup(C);
-            for (int j=0; j<HEIGHT && generator.generating; j++) {
-                double x = fi.left;
-                for (int i=0; i<WIDTH && generator.generating; i++) {
-                    int index = fractal.processPixel(x, y, ColorTable.LENGTH);
-                    assert(index >= 0 && index < 256);
-                    fractalPixels[i + j * WIDTH] = index;
-                    x += xStep;
+            AFractal f = fractal;
+            double left = fi.left, right = fi.right, top = fi.top, bottom = fi.bottom;
+            if (deepZoomEnabled && fractal instanceof AFractal.Mandelbrot && fi.isDeep()) {
+                double width = right - left;
+                double height = bottom - top;
+                if (fi.perturbation == null)
+                    fi.perturbation = new PerturbationMandelbrot(fi.centerX, fi.centerY, Math.min(Math.abs(width), Math.abs(height)));
+                // perturbation pixels are offsets from the exact center
+                f = fi.perturbation;
+                left = -width/2;
+                right = width/2;
+                top = -height/2;
+                bottom = height/2;
+            }
+            final GeneratorThread gen = generator;
+            // a cancelled job can still be finishing tiles
+            if (lastJob != null) {
+                try {
+                    lastJob.await();
+                } catch (RuntimeException e) {
+                    // already reported by the thread that started it
                 }
-                y += yStep;
-                int progress = j * 100 / HEIGHT + 1;
-                fractalListener.onProgress(progress);
             }
+            lastJob = gen.job = renderer.render(f, C, left, top, right, bottom, fractalPixels, WIDTH, HEIGHT,
+                    ColorTable.LENGTH, NUM_PASSES, new FractalRenderer.Listener() {
+                @Override
+                public void onProgress(int progress) {
+                    fractalListener.onProgress(progress);
+                }
+
+                @Override
+                public void onPassDone(int pass, int numPasses) {
+                    // show the coarse passes while the rest is generated
+                    if (pass < numPasses-1 && gen == generator && gen.generating) {
+                        fractalImage = createImage(new MemoryImageSource(WIDTH, HEIGHT, getFractalBitmap(), 0, WIDTH));
+                        repaint();
+                    }
+                }
+            });
+            if (!gen.job.await())
+                return;
             //ComplexNumber.printCacheStats();
             fractalListener.onDone();
         } catch (Exception e) {
@@ -316,7 +367,7 @@ public class FractalComponent extends JComponent implements MouseListener, Mouse
     	
         if (fractalImage == null) {
             if (generator != null)
-                generator.generating = false;
+                generator.cancel();
             generator = new GeneratorThread();
         } else {
 //        	System.out.println("fractalImage dim = " + fractalImage.getWidth(this) + "x" + fractalImage.getHeight(this));
@@ -354,18 +405,13 @@ public class FractalComponent extends JComponent implements MouseListener, Mouse
             FractalImage fi = getLastFractalImage();
             dragging = false;
             
-            double left = fi.left;
-            double right = fi.right;
-            double top = fi.top;
-            double bottom = fi.bottom;
-            
-            double width = right - left;
-            double height = bottom - top;
-            left = left + (double)mx0 / WIDTH * width;
-            right = left + (double)(mx1-mx0) / WIDTH * width;
-            top  = top + (double)my0 / HEIGHT * height;
-            bottom = top + (double)(my1-my0) / HEIGHT * height;
-            zoomRect(left, right, top, bottom);
+            double width = fi.right - fi.left;
+            double height = fi.bottom - fi.top;
+            // offset the exact center so the rect stays precise on deep zooms
+            double dx = ((double)(mx0+mx1) / 2 / WIDTH - 0.5) * width;
+            double dy = ((double)(my0+my1) / 2 / HEIGHT - 0.5) * height;
+            zoomCenter(fi.centerX.add(new BigDecimal(dx)), fi.centerY.add(new BigDecimal(dy)),
+                    (double)(mx1-mx0) / WIDTH * width, (double)(my1-my0) / HEIGHT * height);
         }
     }
     
@@ -375,6 +421,22 @@ public class FractalComponent extends JComponent implements MouseListener, Mouse
         startNewFractal(false);
     }
 
+    /**
+     * Zoom to a rect of width x height around an exact center. Use for zooms past the precision of double.
+     */
+    public void zoomCenter(BigDecimal centerX, BigDecimal centerY, double width, double height) {
+        System.out.println("Zoom to center [" + centerX + ", " + centerY + "] size " + width + " x " + height);
+        images[numImages++] = new FractalImage(centerX, centerY, width, height, colorTable.currentScale);
+        startNewFractal(false);
+    }
+
+    public void setDeepZoomEnabled(boolean enabled) {
+        if (deepZoomEnabled == enabled)
+            return;
+        deepZoomEnabled = enabled;
+        startNewFractal(false);
+    }
+
     public void mouseDragged(MouseEvent e) {
         if (numImages < images.length-1) {
             dragging = true;
@@ -401,7 +463,7 @@ public class FractalComponent extends JComponent implements MouseListener, Mouse
         if (resetColorTable)
             this.getLastFractalImage().scale = null;
         if (generator != null)
-            generator.generating = false; // cancel
+            generator.cancel();
         this.fractalImage = null;
         repaint();
     }
@@ -456,23 +518,18 @@ public class FractalComponent extends JComponent implements MouseListener, Mouse
      */
     void reset(boolean resetZoom) {
         // clear everything
-        double left = -defaultZoom;
-        double right = defaultZoom;
-        double top = defaultZoom;
-        double bottom = -defaultZoom;
+        FractalImage last = images[numImages-1];
         for (int i=images.length-1; i>=0; i--) {
         	if (images[i]!=null) {
-        	    if (!resetZoom && i==(numImages-1)) {
-        	        left    = images[i].left;
-                    right   = images[i].right;
-                    top     = images[i].top;
-                    bottom  = images[i].bottom;
-                    resetZoom = true;
-        	    }
         		images[i].image = this.deleteImage(images[i].image);
         	}
         }
-        images[0] = new FractalImage(left, right, top, bottom, colorTable.currentScale);
+        if (resetZoom) {
+            images[0] = new FractalImage(-defaultZoom, defaultZoom, defaultZoom, -defaultZoom, colorTable.currentScale);
+        } else {
+            images[0] = new FractalImage(last.centerX, last.centerY, last.right - last.left, last.bottom - last.top, colorTable.currentScale);
+            images[0].perturbation = last.perturbation; // orbit does not depend on the constant
+        }
         numImages = 1;
     }
 
@@ -0,0 +1,221 @@
+package cc.app.fractal;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import cc.lib.math.ComplexNumber;
+
+/**
+ * Renders a fractal into a buffer of color table indices using all cores.
+ *
+ * The image is split into TILE_SIZE square tiles that are computed on a work stealing pool. Rendering is done
+ * in passes from coarse to fine. Each pass computes one pixel per block of 2^(numPasses-1-pass) pixels and fills
+ * the block with it, skipping the pixels computed by earlier passes, so a usable image is available after the
+ * first pass and the total work is the same as a single pass. Cancelling a job stops it before the next tile.
+ *
+ * @author chriscaron
+ */
+public class FractalRenderer {
+
+    public final static int TILE_SIZE = 64;
+    public final static int MAX_PASSES = 7; // coarsest block is TILE_SIZE
+
+    public interface Listener {
+
+        /**
+         * @param progress value between 0-100 over all passes
+         */
+        void onProgress(int progress);
+
+        /**
+         * Called after each pass when every pixel has a value
+         * @param pass 0 for the coarsest pass. numPasses-1 is full resolution
+         * @param numPasses
+         */
+        void onPassDone(int pass, int numPasses);
+    }
+
+    public final static class Job {
+        private final ForkJoinTask<?> task;
+        private volatile boolean cancelled = false;
+
+        private Job(final Frame f, final int passes) {
+            task = new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    for (int pass = 0; pass < passes && !cancelled; pass++) {
+                        int blockSize = 1 << (passes - 1 - pass);
+                        List<Tile> tiles = new ArrayList<>();
+                        for (int y = 0; y < f.height; y += TILE_SIZE) {
+                            for (int x = 0; x < f.width; x += TILE_SIZE) {
+                                tiles.add(new Tile(Job.this, f, x, y, blockSize, pass > 0));
+                            }
+                        }
+                        invokeAll(tiles);
+                        if (!cancelled && f.listener != null)
+                            f.listener.onPassDone(pass, passes);
+                    }
+                }
+            };
+        }
+
+        public void cancel() {
+            cancelled = true;
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        /**
+         * Block until the job finishes or is cancelled.
+         * @return true if all the pixels were rendered
+         */
+        public boolean await() {
+            task.join();
+            return !cancelled;
+        }
+    }
+
+    private final ForkJoinPool pool;
+
+    public FractalRenderer() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public FractalRenderer(int parallelism) {
+        pool = new ForkJoinPool(parallelism);
+    }
+
+    public int getParallelism() {
+        return pool.getParallelism();
+    }
+
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    /**
+     * Start rendering the rectangle [left, top] x [right, bottom] into pixels. Returns immediately.
+     *
+     * @param fractal fractal to render. Each render thread gets its own kernel so this is not used concurrently
+     * @param C constant passed to fractal setup
+     * @param pixels receives values in [0, length) and must hold width*height values
+     * @param length max iterations
+     * @param numPasses number of coarse to fine passes in [1, MAX_PASSES]
+     * @param listener can be null. Called from render threads
+     * @return handle to cancel or wait for the job
+     */
+    public Job render(final AFractal fractal, ComplexNumber C, double left, double top, double right, double bottom,
+                      int [] pixels, int width, int height, int length, int numPasses, Listener listener) {
+        int passes = Math.max(1, Math.min(MAX_PASSES, numPasses));
+        final ComplexNumber constant = new ComplexNumber(C);
+        final ThreadLocal<AFractal.Kernel> kernels = new ThreadLocal<AFractal.Kernel>() {
+            @Override
+            protected AFractal.Kernel initialValue() {
+                try {
+                    return fractal.newKernel(constant);
+                } catch (RuntimeException e) {
+                    throw e;
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        Frame frame = new Frame(left, top, (right - left) / width, (bottom - top) / height, pixels, width, height, length, kernels, listener);
+        Job job = new Job(frame, passes);
+        pool.execute(job.task);
+        return job;
+    }
+
+    private static class Frame {
+        final double left, top, xStep, yStep;
+        final int [] pixels;
+        final int width, height, length;
+        final ThreadLocal<AFractal.Kernel> kernels;
+        final Listener listener;
+        final AtomicInteger done = new AtomicInteger();
+        int lastProgress = -1;
+
+        Frame(double left, double top, double xStep, double yStep, int [] pixels, int width, int height, int length,
+              ThreadLocal<AFractal.Kernel> kernels, Listener listener) {
+            this.left = left;
+            this.top = top;
+            this.xStep = xStep;
+            this.yStep = yStep;
+            this.pixels = pixels;
+            this.width = width;
+            this.height = height;
+            this.length = length;
+            this.kernels = kernels;
+            this.listener = listener;
+        }
+
+        void addDone(int count) {
+            int progress = (int)((long)done.addAndGet(count) * 100 / ((long)width * height));
+            if (listener != null) {
+                synchronized (this) {
+                    if (progress <= lastProgress)
+                        return;
+                    lastProgress = progress;
+                }
+                listener.onProgress(progress);
+            }
+        }
+    }
+
+    private static class Tile extends RecursiveAction {
+        final Job job;
+        final Frame f;
+        final int x0, y0, blockSize;
+        final boolean skipPrevious;
+
+        Tile(Job job, Frame f, int x0, int y0, int blockSize, boolean skipPrevious) {
+            this.job = job;
+            this.f = f;
+            this.x0 = x0;
+            this.y0 = y0;
+            this.blockSize = blockSize;
+            this.skipPrevious = skipPrevious;
+        }
+
+        @Override
+        protected void compute() {
+            if (job.cancelled)
+                return;
+            final AFractal.Kernel kernel = f.kernels.get();
+            final int [] pixels = f.pixels;
+            final int width = f.width;
+            final int x1 = Math.min(x0 + TILE_SIZE, width);
+            final int y1 = Math.min(y0 + TILE_SIZE, f.height);
+            final int mask = blockSize * 2 - 1;
+            int count = 0;
+            for (int py = y0; py < y1; py += blockSize) {
+                final double y = f.top + py * f.yStep;
+                final int by1 = Math.min(py + blockSize, y1);
+                for (int px = x0; px < x1; px += blockSize) {
+                    // the top left pixel of each 2x block was done by the previous pass
+                    if (skipPrevious && (px & mask) == 0 && (py & mask) == 0)
+                        continue;
+                    int index = kernel.processPixel(f.left + px * f.xStep, y, f.length);
+                    count++;
+                    if (blockSize == 1) {
+                        pixels[px + py * width] = index;
+                        continue;
+                    }
+                    final int bx1 = Math.min(px + blockSize, x1);
+                    for (int yy = py; yy < by1; yy++) {
+                        final int row = yy * width;
+                        for (int xx = px; xx < bx1; xx++)
+                            pixels[row + xx] = index;
+                    }
+                }
+            }
+            f.addDone(count);
+        }
+    }
+}
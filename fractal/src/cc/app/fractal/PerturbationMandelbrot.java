@@ -0,0 +1,142 @@
+package cc.app.fractal;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+
+import cc.lib.math.ComplexNumber;
+
+/**
+ * Mandelbrot for zooms past the precision of double.
+ *
+ * One reference orbit is computed at the center with BigDecimal and every pixel is iterated as a double delta
+ * from it: d' = 2*Z*d + d^2 + dc. Pixel coordinates passed to processPixel are offsets from the center so they
+ * keep full precision at any zoom down to the range of double (about 1e-300).
+ *
+ * A pixel is glitched when |Z+d| becomes smaller than |d|, where the delta has lost the precision of the
+ * reference, or when it outlives the reference orbit. It is then rebased: Z+d becomes the new delta against the
+ * start of the reference orbit, which is 0, so one reference serves the whole image.
+ *
+ * Iteration counts are the same as AFractal.Mandelbrot which starts from Z = C instead of 0.
+ *
+ * @author chriscaron
+ */
+public final class PerturbationMandelbrot extends AFractal {
+
+    private final BigDecimal centerX, centerY;
+    private final MathContext mc;
+    private volatile Orbit orbit;
+
+    private static class Orbit {
+        final double [] re, im;
+        final int length; // max iterations this was computed for
+
+        Orbit(double [] re, double [] im, int length) {
+            this.re = re;
+            this.im = im;
+            this.length = length;
+        }
+    }
+
+    /**
+     * @param centerX
+     * @param centerY
+     * @param width smallest dimension of the view, used to choose the precision of the reference orbit
+     */
+    public PerturbationMandelbrot(BigDecimal centerX, BigDecimal centerY, double width) {
+        super("Mandelbrot");
+        this.centerX = centerX;
+        this.centerY = centerY;
+        int digits = 20 + Math.max(0, (int)Math.ceil(-Math.log10(Math.abs(width))));
+        mc = new MathContext(digits);
+    }
+
+    public BigDecimal getCenterX() {
+        return centerX;
+    }
+
+    public BigDecimal getCenterY() {
+        return centerY;
+    }
+
+    /**
+     * Return the reference orbit Z[0..n] from Z[0] = 0 until it escapes or length+1 iterations.
+     */
+    private Orbit getOrbit(int length) {
+        Orbit o = orbit;
+        if (o != null && o.length >= length)
+            return o;
+        synchronized (this) {
+            if (orbit == null || orbit.length < length)
+                orbit = computeOrbit(length);
+            return orbit;
+        }
+    }
+
+    private Orbit computeOrbit(int length) {
+        double [] re = new double[length+2];
+        double [] im = new double[length+2];
+        BigDecimal zr = BigDecimal.ZERO;
+        BigDecimal zi = BigDecimal.ZERO;
+        BigDecimal two = BigDecimal.valueOf(2);
+        int n = 0;
+        while (true) {
+            re[n] = zr.doubleValue();
+            im[n] = zi.doubleValue();
+            n++;
+            if (n == re.length || re[n-1]*re[n-1] + im[n-1]*im[n-1] > 16)
+                break;
+            BigDecimal r = zr.multiply(zr, mc).subtract(zi.multiply(zi, mc), mc).add(centerX, mc);
+            zi = two.multiply(zr, mc).multiply(zi, mc).add(centerY, mc);
+            zr = r;
+        }
+        double [] r = new double[n];
+        double [] i = new double[n];
+        System.arraycopy(re, 0, r, 0, n);
+        System.arraycopy(im, 0, i, 0, n);
+        return new Orbit(r, i, length);
+    }
+
+    /**
+     * @param dcr real offset from the center
+     * @param dci imaginary offset from the center
+     * @param length
+     * @return
+     */
+    @Override
+    public int processPixel(double dcr, double dci, int length) {
+        final Orbit o = getOrbit(length);
+        final double [] re = o.re;
+        final double [] im = o.im;
+        final int last = re.length-1;
+        double dr = 0, di = 0;
+        int k = 0;
+        for (int j=1; j<=length; j++) {
+            final double zr = re[k], zi = im[k];
+            final double r = 2*(zr*dr - zi*di) + dr*dr - di*di + dcr;
+            di = 2*(zr*di + zi*dr) + 2*dr*di + dci;
+            dr = r;
+            k++;
+            final double xr = re[k] + dr, xi = im[k] + di;
+            final double mag2 = xr*xr + xi*xi;
+            if (mag2 > 16 && Math.sqrt(mag2) > 4)
+                return j-1; // AFractal.Mandelbrot counts from Z1
+            if (mag2 < dr*dr + di*di || k == last) {
+                dr = xr;
+                di = xi;
+                k = 0;
+            }
+        }
+        return 0;
+    }
+
+    @Override
+    public Kernel newKernel(ComplexNumber c) {
+        // the orbit is only written under lock and never modified after
+        return this::processPixel;
+    }
+
+    @Override
+    public String getDescription() {
+        return "Mandelbrot Z^2 + Z0 at [" + centerX.round(mc) + ", " + centerY.round(mc) + "]";
+    }
+}
@@ -91,6 +91,16 @@ public abstract class AEvaluator {
         throw new RuntimeException("Unhandled type");
     }
 
+    /**
+     * Compile the parsed expression into a kernel that iterates Zi = expression from Zi = Z0 on primitives.
+     * Gives the same results as calling evaluate each iteration.
+     * @return
+     * @throws Exception if the expression cannot be compiled
+     */
+    public ExpressionCompiler.Kernel compile() throws Exception {
+        return ExpressionCompiler.compile(root);
+    }
+
 	public String getExpression() {
 	  	return this.expression;
 	}
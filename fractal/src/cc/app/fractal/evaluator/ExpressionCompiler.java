@@ -0,0 +1,579 @@
+package cc.app.fractal.evaluator;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import cc.lib.math.ComplexNumber;
+
+/**
+ * Compiles a parsed expression tree into a generated class that iterates Z = f(Z, Z0) with the real and imaginary
+ * parts held in local doubles.
+ *
+ * Addition, subtraction, multiplication, division, negation, integer powers and constants are inlined using the
+ * same operations, in the same order, as ComplexNumber so results are bit identical with the interpreter. Other
+ * functions box their arguments and call the ComplexNumber method.
+ *
+ * Classes are written for class file version 49 so no stack map frames are needed, and are defined through a
+ * private class loader. They only reference public types.
+ *
+ * @author chriscaron
+ */
+public final class ExpressionCompiler {
+
+    public interface Kernel {
+        /**
+         * Iterate from Z = Z0 = [x, y]
+         * @return iteration at which |Z| exceeds 4 or 0 if it never does within length iterations
+         */
+        int iterate(double x, double y, int length);
+    }
+
+    private final static AtomicInteger classCounter = new AtomicInteger();
+    private final static int MAX_INLINE_POWER = 64;
+    private final static int MAX_CODE_LENGTH = 32767; // branch offsets are 16 bit
+
+    // locals of iterate
+    private final static int LOCAL_X = 1;
+    private final static int LOCAL_Y = 3;
+    private final static int LOCAL_LENGTH = 5;
+    private final static int LOCAL_I = 6;
+    private final static int LOCAL_ZR = 7;
+    private final static int LOCAL_ZI = 9;
+    private final static int LOCAL_MAG = 11;
+    private final static int FIRST_TEMP = 13;
+
+    private final static String COMPLEX = "cc/lib/math/ComplexNumber";
+
+    /**
+     * Same as ComplexNumber.divide computes its denominator. Public so generated classes can call it.
+     */
+    public static double divisor(double re, double im) {
+        return Math.pow(new ComplexNumber(re, im).mod(), 2);
+    }
+
+    private ExpressionCompiler() {}
+
+    static Kernel compile(AEvaluator.Node root) throws Exception {
+        String name = ExpressionCompiler.class.getPackage().getName().replace('.', '/') + "/CompiledExpression" + classCounter.incrementAndGet();
+        byte [] bytes = new ClassBuilder(name).build(root);
+        try {
+            Class<?> clazz = new Loader(ExpressionCompiler.class.getClassLoader()).define(name.replace('/', '.'), bytes);
+            return (Kernel)clazz.getDeclaredConstructor().newInstance();
+        } catch (LinkageError e) {
+            throw new Exception("Generated class rejected: " + e.getMessage(), e);
+        }
+    }
+
+    private static class Loader extends ClassLoader {
+        Loader(ClassLoader parent) {
+            super(parent);
+        }
+
+        Class<?> define(String name, byte [] bytes) {
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+
+    private static class ClassBuilder {
+
+        // opcodes
+        final static int ICONST_0 = 0x03, DCONST_0 = 0x0e, DCONST_1 = 0x0f, LDC_W = 0x13, LDC2_W = 0x14;
+        final static int ILOAD = 0x15, DLOAD = 0x18, ALOAD = 0x19, ISTORE = 0x36, DSTORE = 0x39, ASTORE = 0x3a;
+        final static int DUP = 0x59, DADD = 0x63, DSUB = 0x67, DMUL = 0x6b, DDIV = 0x6f, DNEG = 0x77;
+        final static int IINC = 0x84, DCMPL = 0x97, IFLE = 0x9e, IF_ICMPGE = 0xa2, GOTO = 0xa7, IRETURN = 0xac, RETURN = 0xb1;
+        final static int INVOKEVIRTUAL = 0xb6, INVOKESPECIAL = 0xb7, INVOKESTATIC = 0xb8, NEW = 0xbb, WIDE = 0xc4;
+
+        final static int MAX_STACK = 8; // 4 doubles for a product of sums or 2 boxed ComplexNumbers
+
+        final String name;
+        final ByteArrayOutputStream pool = new ByteArrayOutputStream();
+        final DataOutputStream poolOut = new DataOutputStream(pool);
+        final Map<String, Integer> poolIndex = new HashMap<>();
+        int poolCount = 1;
+
+        ByteArrayOutputStream code;
+        int nextLocal;
+
+        ClassBuilder(String name) {
+            this.name = name;
+        }
+
+        byte [] build(AEvaluator.Node root) throws IOException {
+            int thisClass = classRef(name);
+            int superClass = classRef("java/lang/Object");
+            int kernel = classRef(Kernel.class.getName().replace('.', '/'));
+            int codeAttr = utf8("Code");
+            int initName = utf8("<init>");
+            int initDesc = utf8("()V");
+            int iterateName = utf8("iterate");
+            int iterateDesc = utf8("(DDI)I");
+
+            byte [] init = buildInit();
+            byte [] iterate = buildIterate(root);
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(49);
+            out.writeShort(poolCount);
+            poolOut.flush();
+            out.write(pool.toByteArray());
+            out.writeShort(0x0031); // public final super
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(1);
+            out.writeShort(kernel);
+            out.writeShort(0); // fields
+            out.writeShort(2); // methods
+            writeMethod(out, initName, initDesc, codeAttr, 1, 1, init);
+            writeMethod(out, iterateName, iterateDesc, codeAttr, MAX_STACK, nextLocal, iterate);
+            out.writeShort(0); // attributes
+            out.flush();
+            return bytes.toByteArray();
+        }
+
+        void writeMethod(DataOutputStream out, int nameIndex, int descIndex, int codeAttr, int maxStack, int maxLocals, byte [] code) throws IOException {
+            out.writeShort(0x0001); // public
+            out.writeShort(nameIndex);
+            out.writeShort(descIndex);
+            out.writeShort(1);
+            out.writeShort(codeAttr);
+            out.writeInt(12 + code.length);
+            out.writeShort(maxStack);
+            out.writeShort(maxLocals);
+            out.writeInt(code.length);
+            out.write(code);
+            out.writeShort(0); // exceptions
+            out.writeShort(0); // attributes
+        }
+
+        byte [] buildInit() {
+            code = new ByteArrayOutputStream();
+            local(ALOAD, 0);
+            op(INVOKESPECIAL);
+            u2(methodRef("java/lang/Object", "<init>", "()V"));
+            op(RETURN);
+            return code.toByteArray();
+        }
+
+        byte [] buildIterate(AEvaluator.Node root) {
+            code = new ByteArrayOutputStream();
+            nextLocal = FIRST_TEMP;
+            local(DLOAD, LOCAL_X);
+            local(DSTORE, LOCAL_ZR);
+            local(DLOAD, LOCAL_Y);
+            local(DSTORE, LOCAL_ZI);
+            op(ICONST_0);
+            local(ISTORE, LOCAL_I);
+            int loop = code.size();
+            local(ILOAD, LOCAL_I);
+            local(ILOAD, LOCAL_LENGTH);
+            int exitBranch = branch(IF_ICMPGE);
+            // |Z| > 4. sqrt only near the bailout, same as AFractal.Mandelbrot
+            local(DLOAD, LOCAL_ZR);
+            local(DLOAD, LOCAL_ZR);
+            op(DMUL);
+            local(DLOAD, LOCAL_ZI);
+            local(DLOAD, LOCAL_ZI);
+            op(DMUL);
+            op(DADD);
+            local(DSTORE, LOCAL_MAG);
+            local(DLOAD, LOCAL_MAG);
+            constant(16.0);
+            op(DCMPL);
+            int notEscaped = branch(IFLE);
+            local(DLOAD, LOCAL_MAG);
+            op(INVOKESTATIC);
+            u2(methodRef("java/lang/Math", "sqrt", "(D)D"));
+            constant(4.0);
+            op(DCMPL);
+            int notEscaped2 = branch(IFLE);
+            local(ILOAD, LOCAL_I);
+            op(IRETURN);
+            patch(notEscaped);
+            patch(notEscaped2);
+            if (root != null) {
+                int result = emit(root);
+                local(DLOAD, result);
+                local(DSTORE, LOCAL_ZR);
+                local(DLOAD, result+2);
+                local(DSTORE, LOCAL_ZI);
+            }
+            op(IINC);
+            op(LOCAL_I);
+            op(1);
+            branchTo(GOTO, loop);
+            patch(exitBranch);
+            op(ICONST_0);
+            op(IRETURN);
+            if (code.size() > MAX_CODE_LENGTH)
+                throw new RuntimeException("Expression too large to compile");
+            return code.toByteArray();
+        }
+
+        /**
+         * Emit code for n and return the local holding the real part. The imaginary part follows it.
+         */
+        int emit(AEvaluator.Node n) {
+            switch (n.type) {
+                case TYPE_Z0:
+                    return LOCAL_X;
+                case TYPE_Zi:
+                    return LOCAL_ZR;
+                case TYPE_CONSTANT: {
+                    int r = newComplex();
+                    constant(n.numc.getReal());
+                    local(DSTORE, r);
+                    constant(n.numc.getImag());
+                    local(DSTORE, r+2);
+                    return r;
+                }
+                case TYPE_NEGATE: {
+                    int a = emit(n.left);
+                    int r = newComplex();
+                    local(DLOAD, a);
+                    op(DNEG);
+                    local(DSTORE, r);
+                    local(DLOAD, a+2);
+                    op(DNEG);
+                    local(DSTORE, r+2);
+                    return r;
+                }
+                case TYPE_ADD:
+                case TYPE_SUB: {
+                    int a = emit(n.left);
+                    int b = emit(n.right);
+                    int opcode = n.type == AEvaluator.Type.TYPE_ADD ? DADD : DSUB;
+                    int r = newComplex();
+                    local(DLOAD, a);
+                    local(DLOAD, b);
+                    op(opcode);
+                    local(DSTORE, r);
+                    local(DLOAD, a+2);
+                    local(DLOAD, b+2);
+                    op(opcode);
+                    local(DSTORE, r+2);
+                    return r;
+                }
+                case TYPE_MULT:
+                    return multiply(emit(n.left), emit(n.right));
+                case TYPE_DIV: {
+                    int a = emit(n.left);
+                    int b = emit(n.right);
+                    int den = newDouble();
+                    int r = newComplex();
+                    local(DLOAD, b);
+                    local(DLOAD, b+2);
+                    op(INVOKESTATIC);
+                    u2(methodRef(ExpressionCompiler.class.getName().replace('.', '/'), "divisor", "(DD)D"));
+                    local(DSTORE, den);
+                    // (real*denom.real+imag*denom.imag)/den
+                    local(DLOAD, a);
+                    local(DLOAD, b);
+                    op(DMUL);
+                    local(DLOAD, a+2);
+                    local(DLOAD, b+2);
+                    op(DMUL);
+                    op(DADD);
+                    local(DLOAD, den);
+                    op(DDIV);
+                    local(DSTORE, r);
+                    // (imag*denom.real-real*denom.imag)/den
+                    local(DLOAD, a+2);
+                    local(DLOAD, b);
+                    op(DMUL);
+                    local(DLOAD, a);
+                    local(DLOAD, b+2);
+                    op(DMUL);
+                    op(DSUB);
+                    local(DLOAD, den);
+                    op(DDIV);
+                    local(DSTORE, r+2);
+                    return r;
+                }
+                case TYPE_POWI: {
+                    int a = emit(n.left);
+                    if (n.right.numi > MAX_INLINE_POWER)
+                        return callInt(a, "powi", n.right.numi);
+                    // same as ComplexNumber.powi: multiply [1,0] by this power times
+                    int r = newComplex();
+                    op(DCONST_1);
+                    local(DSTORE, r);
+                    op(DCONST_0);
+                    local(DSTORE, r+2);
+                    for (int i=0; i<n.right.numi; i++)
+                        r = multiply(r, a);
+                    return r;
+                }
+                case TYPE_POWD: {
+                    int a = emit(n.left);
+                    return callDouble(a, "powd", n.right.numd);
+                }
+                case TYPE_POWC: {
+                    int a = emit(n.left);
+                    int b = emit(n.right);
+                    return callComplex(a, "powc", b);
+                }
+                case TYPE_SQRT:
+                    return call(emit(n.left), "sqrt");
+                case TYPE_SIN:
+                    return call(emit(n.left), "sine");
+                case TYPE_COS:
+                    return call(emit(n.left), "cosine");
+                case TYPE_TAN:
+                    return call(emit(n.left), "tangent");
+                case TYPE_SINH:
+                    return call(emit(n.left), "sineh");
+                case TYPE_COSH:
+                    return call(emit(n.left), "cosineh");
+                case TYPE_TANH:
+                    return call(emit(n.left), "tangenth");
+                case TYPE_ASIN:
+                    return call(emit(n.left), "asine");
+                case TYPE_ACOS:
+                    return call(emit(n.left), "acosine");
+                case TYPE_ATAN:
+                    return call(emit(n.left), "atangent");
+                case TYPE_ASINH:
+                    return call(emit(n.left), "asineh");
+                case TYPE_ACOSH:
+                    return call(emit(n.left), "acosineh");
+                case TYPE_ATANH:
+                    return call(emit(n.left), "atangenth");
+                case TYPE_LN:
+                    return call(emit(n.left), "ln");
+                case TYPE_EXP:
+                    return call(emit(n.left), "exp");
+            }
+            throw new RuntimeException("Unhandled type " + n.type);
+        }
+
+        int multiply(int a, int b) {
+            int r = newComplex();
+            // real*rhs.real - imag*rhs.imag
+            local(DLOAD, a);
+            local(DLOAD, b);
+            op(DMUL);
+            local(DLOAD, a+2);
+            local(DLOAD, b+2);
+            op(DMUL);
+            op(DSUB);
+            local(DSTORE, r);
+            // imag*rhs.real + real*rhs.imag
+            local(DLOAD, a+2);
+            local(DLOAD, b);
+            op(DMUL);
+            local(DLOAD, a);
+            local(DLOAD, b+2);
+            op(DMUL);
+            op(DADD);
+            local(DSTORE, r+2);
+            return r;
+        }
+
+        void box(int a) {
+            op(NEW);
+            u2(classRef(COMPLEX));
+            op(DUP);
+            local(DLOAD, a);
+            local(DLOAD, a+2);
+            op(INVOKESPECIAL);
+            u2(methodRef(COMPLEX, "<init>", "(DD)V"));
+        }
+
+        int unbox() {
+            int obj = nextLocal++;
+            int r = newComplex();
+            local(ASTORE, obj);
+            local(ALOAD, obj);
+            op(INVOKEVIRTUAL);
+            u2(methodRef(COMPLEX, "getReal", "()D"));
+            local(DSTORE, r);
+            local(ALOAD, obj);
+            op(INVOKEVIRTUAL);
+            u2(methodRef(COMPLEX, "getImag", "()D"));
+            local(DSTORE, r+2);
+            return r;
+        }
+
+        int call(int a, String method) {
+            box(a);
+            op(INVOKEVIRTUAL);
+            u2(methodRef(COMPLEX, method, "()L" + COMPLEX + ";"));
+            return unbox();
+        }
+
+        int callInt(int a, String method, int arg) {
+            box(a);
+            op(LDC_W);
+            u2(intConst(arg));
+            op(INVOKEVIRTUAL);
+            u2(methodRef(COMPLEX, method, "(I)L" + COMPLEX + ";"));
+            return unbox();
+        }
+
+        int callDouble(int a, String method, double arg) {
+            box(a);
+            constant(arg);
+            op(INVOKEVIRTUAL);
+            u2(methodRef(COMPLEX, method, "(D)L" + COMPLEX + ";"));
+            return unbox();
+        }
+
+        int callComplex(int a, String method, int arg) {
+            box(a);
+            box(arg);
+            op(INVOKEVIRTUAL);
+            u2(methodRef(COMPLEX, method, "(L" + COMPLEX + ";)L" + COMPLEX + ";"));
+            return unbox();
+        }
+
+        int newDouble() {
+            int l = nextLocal;
+            nextLocal += 2;
+            return l;
+        }
+
+        int newComplex() {
+            int l = nextLocal;
+            nextLocal += 4;
+            return l;
+        }
+
+        // bytecode
+
+        void op(int b) {
+            code.write(b);
+        }
+
+        void u2(int v) {
+            code.write(v >> 8);
+            code.write(v);
+        }
+
+        void local(int opcode, int index) {
+            if (index > 255) {
+                op(WIDE);
+                op(opcode);
+                u2(index);
+            } else {
+                op(opcode);
+                op(index);
+            }
+        }
+
+        void constant(double d) {
+            op(LDC2_W);
+            u2(doubleConst(d));
+        }
+
+        int branch(int opcode) {
+            int at = code.size();
+            op(opcode);
+            u2(0);
+            return at;
+        }
+
+        void branchTo(int opcode, int target) {
+            int at = code.size();
+            op(opcode);
+            u2(target - at);
+        }
+
+        void patch(int at) {
+            byte [] bytes = code.toByteArray();
+            int offset = bytes.length - at;
+            bytes[at+1] = (byte)(offset >> 8);
+            bytes[at+2] = (byte)offset;
+            code.reset();
+            code.write(bytes, 0, bytes.length);
+        }
+
+        // constant pool
+
+        int utf8(String s) {
+            Integer index = poolIndex.get("U" + s);
+            if (index == null) {
+                try {
+                    poolOut.writeByte(1);
+                    poolOut.writeUTF(s);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+                poolIndex.put("U" + s, index = poolCount++);
+            }
+            return index;
+        }
+
+        int classRef(String internalName) {
+            Integer index = poolIndex.get("C" + internalName);
+            if (index == null) {
+                int nameIndex = utf8(internalName);
+                entry(7, nameIndex);
+                poolIndex.put("C" + internalName, index = poolCount++);
+            }
+            return index;
+        }
+
+        int methodRef(String owner, String name, String desc) {
+            String key = "M" + owner + "." + name + desc;
+            Integer index = poolIndex.get(key);
+            if (index == null) {
+                int ownerIndex = classRef(owner);
+                int nameIndex = utf8(name);
+                int descIndex = utf8(desc);
+                entry(12, nameIndex, descIndex);
+                int nameAndType = poolCount++;
+                entry(10, ownerIndex, nameAndType);
+                poolIndex.put(key, index = poolCount++);
+            }
+            return index;
+        }
+
+        int intConst(int i) {
+            String key = "I" + i;
+            Integer index = poolIndex.get(key);
+            if (index == null) {
+                entry(3);
+                try {
+                    poolOut.writeInt(i);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+                poolIndex.put(key, index = poolCount++);
+            }
+            return index;
+        }
+
+        int doubleConst(double d) {
+            String key = "D" + Double.doubleToRawLongBits(d);
+            Integer index = poolIndex.get(key);
+            if (index == null) {
+                try {
+                    poolOut.writeByte(6);
+                    poolOut.writeDouble(d);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+                poolIndex.put(key, index = poolCount);
+                poolCount += 2; // doubles take 2 entries
+            }
+            return index;
+        }
+
+        void entry(int tag, int ... values) {
+            try {
+                poolOut.writeByte(tag);
+                for (int v : values)
+                    poolOut.writeShort(v);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+}
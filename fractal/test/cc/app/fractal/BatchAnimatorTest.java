@@ -0,0 +1,112 @@
+package cc.app.fractal;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.imageio.ImageIO;
+
+import junit.framework.TestCase;
+
+import cc.lib.math.ComplexNumber;
+
+public class BatchAnimatorTest extends TestCase {
+
+    final static int SIZE = 96;
+
+    File dir;
+
+    @Override
+    protected void setUp() throws Exception {
+        System.setProperty("java.awt.headless", "true");
+        dir = File.createTempFile("batch", "");
+        dir.delete();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        File [] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files)
+                f.delete();
+        }
+        dir.delete();
+    }
+
+    public void testFramesMatchRenderer() throws Exception {
+        final int frames = 9;
+        final ComplexNumber start = new ComplexNumber(-0.8, 0.156);
+        final ComplexNumber end = new ComplexNumber(0.3, 0.5);
+        final AtomicInteger count = new AtomicInteger();
+        new BatchAnimator(new AFractal.Julia(), ColorTable.Scale.RAINBOW_SCALE, dir, SIZE, SIZE)
+                .setRenderThreads(2)
+                .setNumEncoders(2)
+                .setQueueSize(1)
+                .setListener((frame, file) -> count.incrementAndGet())
+                .animate(start, end, frames);
+        assertEquals(frames, count.get());
+
+        int [] table = new ColorTable(ColorTable.Scale.RAINBOW_SCALE).getColorTable();
+        FractalRenderer renderer = new FractalRenderer(1);
+        for (int i=0; i<frames; i+=frames-1) {
+            // first and last frame are the end points
+            ComplexNumber C = i == 0 ? start : end;
+            int [] indices = new int[SIZE * SIZE];
+            AFractal julia = new AFractal.Julia();
+            julia.setup(C);
+            renderer.render(julia, C, -2, 2, 2, -2, indices, SIZE, SIZE, ColorTable.LENGTH, 1, null).await();
+            BufferedImage image = ImageIO.read(new File(dir, BatchAnimator.getFileName(i, "png")));
+            for (int p=0; p<indices.length; p++) {
+                assertEquals(table[indices[p]] & 0xffffff, image.getRGB(p % SIZE, p / SIZE) & 0xffffff);
+            }
+        }
+        renderer.shutdown();
+    }
+
+    public void testErrorStopsPipeline() throws Exception {
+        try {
+            new BatchAnimator(new AFractal.Mandelbrot(), ColorTable.Scale.GRAY_SCALE, dir, SIZE, SIZE)
+                    .setListener((frame, file) -> {
+                        throw new RuntimeException("frame " + frame);
+                    })
+                    .animate(new ComplexNumber(), new ComplexNumber(), 50);
+            fail();
+        } catch (RuntimeException e) {
+            assertTrue(e.getMessage().startsWith("frame"));
+        }
+        assertTrue(dir.listFiles().length < 50);
+    }
+
+    // run with -Dbenchmark=true
+    public void testBenchmark() throws Exception {
+        if (!Boolean.getBoolean("benchmark"))
+            return;
+        final int size = 384;
+        final int frames = 16;
+        FractalRenderer renderer = new FractalRenderer();
+        ColorTable colorTable = new ColorTable(ColorTable.Scale.RAINBOW_SCALE);
+        // one frame at a time like AnimateThread
+        dir.mkdirs();
+        long t = System.nanoTime();
+        int [] indices = new int[size * size];
+        for (int i=0; i<frames; i++) {
+            ComplexNumber C = new ComplexNumber(-0.8 + 0.01 * i, 0.156);
+            AFractal julia = new AFractal.Julia();
+            julia.setup(C);
+            renderer.render(julia, C, -2, 2, 2, -2, indices, size, size, ColorTable.LENGTH, 1, null).await();
+            BufferedImage im = new BufferedImage(size, size, BufferedImage.TYPE_INT_RGB);
+            for (int p=0; p<indices.length; p++)
+                im.setRGB(p % size, p / size, colorTable.getColorTable()[indices[p]]);
+            ImageIO.write(im, "png", new File(dir, "serial" + i + ".png"));
+        }
+        long serial = System.nanoTime() - t;
+        renderer.shutdown();
+
+        t = System.nanoTime();
+        new BatchAnimator(new AFractal.Julia(), ColorTable.Scale.RAINBOW_SCALE, dir, size, size)
+                .setNumEncoders(Math.max(1, Runtime.getRuntime().availableProcessors() / 2))
+                .animate(new ComplexNumber(-0.8, 0.156), new ComplexNumber(-0.8 + 0.01 * (frames-1), 0.156), frames);
+        long pipelined = System.nanoTime() - t;
+        System.out.println(String.format("%d frames %dx%d: serial=%dms pipelined=%dms", frames, size, size, serial / 1000000, pipelined / 1000000));
+    }
+}
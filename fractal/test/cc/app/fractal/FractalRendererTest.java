@@ -0,0 +1,109 @@
+package cc.app.fractal;
+
+import junit.framework.TestCase;
+
+import cc.lib.math.ComplexNumber;
+
+public class FractalRendererTest extends TestCase {
+
+    final static int LENGTH = ColorTable.LENGTH;
+
+    // zoom sequence into the seahorse valley
+    final static double CX = -0.743643887037151;
+    final static double CY = 0.13182590420533;
+
+    private int [] renderSerial(AFractal fractal, ComplexNumber C, double left, double top, double right, double bottom, int width, int height) throws Exception {
+        int [] pixels = new int[width * height];
+        double xStep = (right - left) / width;
+        double yStep = (bottom - top) / height;
+        fractal.setup(C);
+        for (int j=0; j<height; j++) {
+            for (int i=0; i<width; i++) {
+                pixels[i + j*width] = fractal.processPixel(left + i*xStep, top + j*yStep, LENGTH);
+            }
+        }
+        return pixels;
+    }
+
+    private void assertSameAsSerial(FractalRenderer renderer, AFractal fractal, ComplexNumber C, int width, int height, int numPasses) throws Exception {
+        final int [] passes = new int[1];
+        int [] pixels = new int[width * height];
+        FractalRenderer.Job job = renderer.render(fractal, C, -2, -1.5, 1, 1.5, pixels, width, height, LENGTH, numPasses, new FractalRenderer.Listener() {
+            @Override
+            public void onProgress(int progress) {
+                assertTrue(progress >= 0 && progress <= 100);
+            }
+
+            @Override
+            public void onPassDone(int pass, int num) {
+                assertEquals(passes[0]++, pass);
+            }
+        });
+        assertTrue(job.await());
+        assertEquals(numPasses, passes[0]);
+        int [] expected = renderSerial(fractal, C, -2, -1.5, 1, 1.5, width, height);
+        for (int i=0; i<expected.length; i++) {
+            assertEquals("pixel " + i, expected[i], pixels[i]);
+        }
+    }
+
+    public void testMatchesSerial() throws Exception {
+        FractalRenderer renderer = new FractalRenderer(4);
+        ComplexNumber C = new ComplexNumber(0.4, 0.6);
+        for (int passes=1; passes<=FractalRenderer.MAX_PASSES; passes+=3) {
+            assertSameAsSerial(renderer, new AFractal.Mandelbrot(), C, 128, 128, passes);
+            assertSameAsSerial(renderer, new AFractal.Julia(), C, 128, 128, passes);
+            assertSameAsSerial(renderer, new AFractal.Mandelbrot(), C, 100, 77, passes);
+            assertSameAsSerial(renderer, new AFractal.Julia(), C, 100, 77, passes);
+        }
+        renderer.shutdown();
+    }
+
+    public void testCancel() {
+        FractalRenderer renderer = new FractalRenderer(2);
+        int [] pixels = new int[1024 * 1024];
+        FractalRenderer.Job job = renderer.render(new AFractal.Mandelbrot(), new ComplexNumber(), -2, -2, 2, 2, pixels, 1024, 1024, LENGTH, 1, null);
+        job.cancel();
+        assertFalse(job.await());
+        assertTrue(job.isCancelled());
+        renderer.shutdown();
+    }
+
+    private double benchmark(FractalRenderer renderer, int size, int frames) {
+        int [] pixels = new int[size * size];
+        double scale = 2;
+        long t = System.nanoTime();
+        for (int i=0; i<frames; i++) {
+            renderer.render(new AFractal.Mandelbrot(), new ComplexNumber(), CX-scale, CY-scale, CX+scale, CY+scale, pixels, size, size, LENGTH, 1, null).await();
+            scale *= 0.7;
+        }
+        return 1e3 * size * size * frames / (System.nanoTime() - t);
+    }
+
+    private double benchmarkSerial(int size, int frames) throws Exception {
+        double scale = 2;
+        long t = System.nanoTime();
+        for (int i=0; i<frames; i++) {
+            renderSerial(new AFractal.Mandelbrot(), new ComplexNumber(), CX-scale, CY-scale, CX+scale, CY+scale, size, size);
+            scale *= 0.7;
+        }
+        return 1e3 * size * size * frames / (System.nanoTime() - t);
+    }
+
+    // run with -Dbenchmark=true
+    public void testBenchmark() throws Exception {
+        if (!Boolean.getBoolean("benchmark"))
+            return;
+        final int size = 512;
+        final int frames = 20;
+        int cores = Runtime.getRuntime().availableProcessors();
+        FractalRenderer single = new FractalRenderer(1);
+        FractalRenderer multi = new FractalRenderer(cores);
+        for (int pass=0; pass<2; pass++) {
+            System.out.println(String.format("%dx%d x %d frames: processPixel=%.1f MP/s kernel=%.1f MP/s kernel x %d threads=%.1f MP/s",
+                    size, size, frames, benchmarkSerial(size, frames), benchmark(single, size, frames), cores, benchmark(multi, size, frames)));
+        }
+        single.shutdown();
+        multi.shutdown();
+    }
+}
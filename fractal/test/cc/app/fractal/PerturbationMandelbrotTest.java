@@ -0,0 +1,114 @@
+package cc.app.fractal;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.HashSet;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import cc.lib.math.ComplexNumber;
+
+public class PerturbationMandelbrotTest extends TestCase {
+
+    final static int LENGTH = ColorTable.LENGTH;
+
+    // Misiurewicz point c = i has detail at every zoom
+    final static BigDecimal CX = new BigDecimal("0");
+    final static BigDecimal CY = new BigDecimal("1");
+
+    /**
+     * Iterate a single pixel with BigDecimal at the precision of the view. Same counting as AFractal.Mandelbrot
+     */
+    private int processPixelExact(BigDecimal cr, BigDecimal ci, int length, MathContext mc) {
+        BigDecimal zr = cr, zi = ci;
+        BigDecimal two = BigDecimal.valueOf(2);
+        for (int i=0; i<length; i++) {
+            double dr = zr.doubleValue(), di = zi.doubleValue();
+            if (Math.sqrt(dr*dr + di*di) > 4)
+                return i;
+            BigDecimal r = zr.multiply(zr, mc).subtract(zi.multiply(zi, mc), mc).add(cr, mc);
+            zi = two.multiply(zr, mc).multiply(zi, mc).add(ci, mc);
+            zr = r;
+        }
+        return 0;
+    }
+
+    private int [] render(AFractal fractal, double left, double top, double right, double bottom, int size) {
+        FractalRenderer renderer = new FractalRenderer(1);
+        int [] pixels = new int[size * size];
+        renderer.render(fractal, new ComplexNumber(), left, top, right, bottom, pixels, size, size, LENGTH, 1, null).await();
+        renderer.shutdown();
+        return pixels;
+    }
+
+    private int numDistinct(int [] pixels) {
+        Set<Integer> values = new HashSet<>();
+        for (int p : pixels)
+            values.add(p);
+        return values.size();
+    }
+
+    public void testMatchesDoubleAtShallowZoom() {
+        final double cx = -0.743643887037151, cy = 0.13182590420533, w = 1e-6;
+        final int size = 64;
+        int [] expected = render(new AFractal.Mandelbrot(), cx - w/2, cy - w/2, cx + w/2, cy + w/2, size);
+        int [] actual = render(new PerturbationMandelbrot(new BigDecimal(cx), new BigDecimal(cy), w), -w/2, -w/2, w/2, w/2, size);
+        int same = 0;
+        for (int i=0; i<expected.length; i++) {
+            if (expected[i] == actual[i])
+                same++;
+        }
+        // both are approximations so allow a few pixels on the boundary to differ
+        assertTrue("only " + same + " of " + expected.length + " match", same >= expected.length * 99 / 100);
+    }
+
+    public void testMatchesBigDecimalDeepZoom() {
+        final double w = 1e-20;
+        final int size = 16;
+        final MathContext mc = new MathContext(40);
+        PerturbationMandelbrot fractal = new PerturbationMandelbrot(CX, CY, w);
+        int mismatch = 0;
+        for (int j=0; j<size; j++) {
+            for (int i=0; i<size; i++) {
+                double dx = (i - size/2) * w / size, dy = (j - size/2) * w / size;
+                int expected = processPixelExact(CX.add(new BigDecimal(dx)), CY.add(new BigDecimal(dy)), LENGTH, mc);
+                if (expected != fractal.processPixel(dx, dy, LENGTH))
+                    mismatch++;
+            }
+        }
+        assertTrue(mismatch + " pixels differ", mismatch <= 2);
+    }
+
+    public void testDeeperThanDouble() {
+        final double w = 1e-18;
+        final int size = 64;
+        int [] plain = render(new AFractal.Mandelbrot(), -w/2, 1 - w/2, w/2, 1 + w/2, size);
+        int [] deep = render(new PerturbationMandelbrot(CX, CY, w), -w/2, -w/2, w/2, w/2, size);
+        int plainDistinct = numDistinct(plain);
+        int deepDistinct = numDistinct(deep);
+        System.out.println("distinct values at width " + w + ": double=" + plainDistinct + " perturbation=" + deepDistinct);
+        assertTrue(deepDistinct > plainDistinct);
+    }
+
+    // run with -Dbenchmark=true
+    public void testBenchmark() {
+        if (!Boolean.getBoolean("benchmark"))
+            return;
+        final double w = 1e-30;
+        final int size = 256;
+        final MathContext mc = new MathContext(50);
+        long t = System.nanoTime();
+        render(new PerturbationMandelbrot(CX, CY, w), -w/2, -w/2, w/2, w/2, size);
+        long perturbation = System.nanoTime() - t;
+
+        // per pixel arbitrary precision is too slow to do the whole frame so sample a row
+        t = System.nanoTime();
+        for (int i=0; i<size; i+=16) {
+            processPixelExact(CX.add(new BigDecimal((i - size/2) * w / size)), CY, LENGTH, mc);
+        }
+        long exact = (System.nanoTime() - t) * 16 * size;
+        System.out.println(String.format("%dx%d at width %g: perturbation=%dms BigDecimal per pixel=%dms (estimated)",
+                size, size, w, perturbation / 1000000, exact / 1000000));
+    }
+}
@@ -0,0 +1,87 @@
+package cc.app.fractal;
+
+import junit.framework.TestCase;
+
+import cc.app.fractal.evaluator.Evaluator;
+import cc.app.fractal.evaluator.ExpressionCompiler;
+import cc.lib.math.ComplexNumber;
+
+public class TestExpressionCompiler extends TestCase {
+
+    final static String [] EXPRESSIONS = {
+            "Z^2 + Z0",
+            "Z^3 - Z*Z0 + [0.1,0.2]",
+            "Z*Z/(Z0 + 1) + C",
+            "-Z^2 + Z0 - C",
+            "Z^2.5 + Z0",
+            "Z^Z0 + C",
+            "Z^[2,0.1] + C",
+            "sin(Z) * Z0",
+            "sqrt(Z)*cos(Z) + tan(Z0)",
+            "ln(Z0) + exp(Z)/2",
+            "sinh(Z) + cosh(Z0) - tanh(C)",
+            "asin(Z) + acos(Z0)*atan(Z)",
+            "asinh(Z)*acosh(Z0) + atanh(Z)",
+            "Z^0 + Z^1 + Z^-2",
+            "Z^70 + Z0",
+            "(Z + PI)*(Z - E)/[0,1] + Z0",
+            "Z0",
+            "Z",
+    };
+
+    @Override
+    protected void tearDown() throws Exception {
+        AFractal.Custom.COMPILER_ENABLED = true;
+    }
+
+    private void assertSamePixels(String expression, ComplexNumber C) throws Exception {
+        AFractal.Custom interpreter = new AFractal.Custom(expression);
+        interpreter.setup(C);
+        AFractal.Kernel kernel = new AFractal.Custom(expression).newKernel(C);
+        Evaluator e = new Evaluator();
+        e.parse(C, expression);
+        ExpressionCompiler.Kernel compiled = e.compile();
+        for (double y=-2; y<2; y+=0.05) {
+            for (double x=-2; x<2; x+=0.05) {
+                int expected = interpreter.processPixel(x, y, 64);
+                assertEquals(expression + " at " + x + "," + y, expected, compiled.iterate(x, y, 64));
+                assertEquals(expression + " at " + x + "," + y, expected, kernel.processPixel(x, y, 64));
+            }
+        }
+    }
+
+    public void testPixelIdentical() throws Exception {
+        for (String expr : EXPRESSIONS) {
+            assertSamePixels(expr, new ComplexNumber(0.3, -0.4));
+            assertSamePixels(expr, new ComplexNumber(-0.8, 0.156));
+        }
+    }
+
+    private long render(FractalRenderer renderer, String expression, int [] pixels, int size) throws Exception {
+        long t = System.nanoTime();
+        renderer.render(new AFractal.Custom(expression), new ComplexNumber(-0.8, 0.156), -2, -2, 2, 2, pixels, size, size, ColorTable.LENGTH, 1, null).await();
+        return System.nanoTime() - t;
+    }
+
+    // run with -Dbenchmark=true
+    public void testBenchmark() throws Exception {
+        if (!Boolean.getBoolean("benchmark"))
+            return;
+        final int size = 256;
+        FractalRenderer renderer = new FractalRenderer(1);
+        for (String expr : new String[] { "Z^2 + Z0", "Z^3 - Z*C + Z0", "sin(Z) * Z0" }) {
+            int [] interpreted = new int[size * size];
+            int [] compiled = new int[size * size];
+            for (int pass=0; pass<2; pass++) {
+                AFractal.Custom.COMPILER_ENABLED = false;
+                long interpreterTime = render(renderer, expr, interpreted, size);
+                AFractal.Custom.COMPILER_ENABLED = true;
+                long compiledTime = render(renderer, expr, compiled, size);
+                System.out.println(String.format("%-16s interpreted=%dms compiled=%dms", expr, interpreterTime / 1000000, compiledTime / 1000000));
+            }
+            for (int i=0; i<compiled.length; i++)
+                assertEquals(interpreted[i], compiled[i]);
+        }
+        renderer.shutdown();
+    }
+}
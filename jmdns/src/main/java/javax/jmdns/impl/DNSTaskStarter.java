@@ -3,14 +3,23 @@
  */
 package javax.jmdns.impl;
 
+import java.lang.reflect.Method;
 import java.net.InetAddress;
 import java.util.Date;
 import java.util.Timer;
 import java.util.TimerTask;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.atomic.AtomicReference;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.jmdns.impl.tasks.DNSTaskScheduler;
 import javax.jmdns.impl.tasks.RecordReaper;
 import javax.jmdns.impl.tasks.Responder;
 import javax.jmdns.impl.tasks.resolver.ServiceInfoResolver;
@@ -20,6 +29,7 @@ import javax.jmdns.impl.tasks.state.Announcer;
 import javax.jmdns.impl.tasks.state.Canceler;
 import javax.jmdns.impl.tasks.state.Prober;
 import javax.jmdns.impl.tasks.state.Renewer;
+import javax.jmdns.impl.util.NamedThreadFactory;
 
 /**
  * This class is used by JmDNS to start the various task required to run the DNS discovery. This interface is only there in order to support MANET modifications.
@@ -58,6 +68,8 @@ public interface DNSTaskStarter {
 
         private static final AtomicReference<Factory.ClassDelegate> _databaseClassDelegate = new AtomicReference<Factory.ClassDelegate>();
 
+        private static final AtomicReference<DNSTaskScheduler.Mode> _schedulerMode = new AtomicReference<DNSTaskScheduler.Mode>(defaultSchedulerMode());
+
         private Factory() {
             super();
             _instances = new ConcurrentHashMap<JmDNSImpl, DNSTaskStarter>(20);
@@ -86,6 +98,40 @@ public interface DNSTaskStarter {
             return _databaseClassDelegate.get();
         }
 
+        /**
+         * Sets how DNSTaskStarters created from now on run their tasks. The default comes from the <code>jmdns.scheduler</code> system property, one of <code>timer</code>, <code>shared</code> or <code>virtual</code>, and is
+         * <code>timer</code> when it is not set.
+         *
+         * @param mode
+         *            scheduler mode
+         * @see #schedulerMode()
+         */
+        public static void setSchedulerMode(DNSTaskScheduler.Mode mode) {
+            _schedulerMode.set(mode != null ? mode : DNSTaskScheduler.Mode.TIMER);
+        }
+
+        /**
+         * Returns how new DNSTaskStarters run their tasks.
+         *
+         * @return scheduler mode
+         * @see #setSchedulerMode(DNSTaskScheduler.Mode)
+         */
+        public static DNSTaskScheduler.Mode schedulerMode() {
+            return _schedulerMode.get();
+        }
+
+        private static DNSTaskScheduler.Mode defaultSchedulerMode() {
+            String mode = System.getProperty("jmdns.scheduler");
+            if (mode != null) {
+                for (DNSTaskScheduler.Mode value : DNSTaskScheduler.Mode.values()) {
+                    if (value.name().equalsIgnoreCase(mode.trim())) {
+                        return value;
+                    }
+                }
+            }
+            return DNSTaskScheduler.Mode.TIMER;
+        }
+
         /**
          * Returns a new instance of DNSTaskStarter using the class delegate if it exists.
          *
@@ -148,17 +194,28 @@ public interface DNSTaskStarter {
 
     public static final class DNSTaskStarterImpl implements DNSTaskStarter {
 
-        private final JmDNSImpl _jmDNSImpl;
+        private static Logger                   logger = LoggerFactory.getLogger(DNSTaskStarterImpl.class.getName());
+
+        /**
+         * Shared by every instance in SHARED and VIRTUAL mode. Created on first use and never shut down.
+         */
+        private static ScheduledExecutorService _sharedExecutor;
+
+        private static Executor                 _virtualThreadExecutor;
+
+        private static boolean                  _virtualThreadsChecked;
+
+        private final JmDNSImpl                 _jmDNSImpl;
 
         /**
          * The timer is used to dispatch all outgoing messages of JmDNS. It is also used to dispatch maintenance tasks for the DNS cache.
          */
-        private final Timer     _timer;
+        private final DNSTaskScheduler          _timer;
 
         /**
          * The timer is used to dispatch maintenance tasks for the DNS cache.
          */
-        private final Timer     _stateTimer;
+        private final DNSTaskScheduler          _stateTimer;
 
         public static class StarterTimer extends Timer {
 
@@ -272,10 +329,58 @@ public interface DNSTaskStarter {
         }
 
         public DNSTaskStarterImpl(JmDNSImpl jmDNSImpl) {
+            this(jmDNSImpl, Factory.schedulerMode());
+        }
+
+        public DNSTaskStarterImpl(JmDNSImpl jmDNSImpl, DNSTaskScheduler.Mode mode) {
             super();
             _jmDNSImpl = jmDNSImpl;
-            _timer = new StarterTimer("JmDNS(" + _jmDNSImpl.getName() + ").Timer", true);
-            _stateTimer = new StarterTimer("JmDNS(" + _jmDNSImpl.getName() + ").State.Timer", false);
+            switch (mode) {
+                case VIRTUAL:
+                    _timer = new DNSTaskScheduler.ExecutorScheduler(sharedExecutor(), virtualThreadExecutor());
+                    _stateTimer = new DNSTaskScheduler.ExecutorScheduler(sharedExecutor(), virtualThreadExecutor());
+                    break;
+                case SHARED:
+                    _timer = new DNSTaskScheduler.ExecutorScheduler(sharedExecutor(), null);
+                    _stateTimer = new DNSTaskScheduler.ExecutorScheduler(sharedExecutor(), null);
+                    break;
+                default:
+                    _timer = new DNSTaskScheduler.TimerScheduler(new StarterTimer("JmDNS(" + _jmDNSImpl.getName() + ").Timer", true));
+                    _stateTimer = new DNSTaskScheduler.TimerScheduler(new StarterTimer("JmDNS(" + _jmDNSImpl.getName() + ").State.Timer", false));
+                    break;
+            }
+        }
+
+        /**
+         * Returns the executor shared by all instances not running on timers.
+         *
+         * @return shared executor
+         */
+        static synchronized ScheduledExecutorService sharedExecutor() {
+            if (_sharedExecutor == null) {
+                // daemon since nothing shuts it down. close() already waits for the Canceler so nothing is lost at exit
+                _sharedExecutor = new ScheduledThreadPoolExecutor(1, new NamedThreadFactory("JmDNS.Scheduler", true));
+            }
+            return _sharedExecutor;
+        }
+
+        /**
+         * Returns an executor that starts a virtual thread per task, or <code>null</code> if the runtime has no virtual threads.
+         *
+         * @return virtual thread executor
+         */
+        static synchronized Executor virtualThreadExecutor() {
+            if (!_virtualThreadsChecked) {
+                _virtualThreadsChecked = true;
+                try {
+                    // looked up by reflection so this still builds and runs before Java 21
+                    Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+                    _virtualThreadExecutor = (Executor) method.invoke(null);
+                } catch (Exception exception) {
+                    logger.warn("Virtual threads are not available, tasks will run on the shared scheduler: {}", exception.toString());
+                }
+            }
+            return _virtualThreadExecutor;
         }
 
         /*
@@ -24,6 +24,11 @@ public abstract class DNSTask extends TimerTask {
      */
     private final JmDNSImpl _jmDNSImpl;
 
+    /**
+     * Set by cancel() so a DNSTaskScheduler that is not a Timer knows not to run the task again.
+     */
+    private volatile boolean _cancelled;
+
     /**
      * @param jmDNSImpl
      */
@@ -44,10 +49,39 @@ public abstract class DNSTask extends TimerTask {
     /**
      * Start this task.
      * 
+     * @param scheduler
+     *            task scheduler.
+     */
+    public abstract void start(DNSTaskScheduler scheduler);
+
+    /**
+     * Start this task on a timer.
+     * 
      * @param timer
      *            task timer.
      */
-    public abstract void start(Timer timer);
+    public void start(Timer timer) {
+        this.start(new DNSTaskScheduler.TimerScheduler(timer));
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see java.util.TimerTask#cancel()
+     */
+    @Override
+    public boolean cancel() {
+        _cancelled = true;
+        return super.cancel();
+    }
+
+    /**
+     * Returns true once the task has been canceled.
+     * 
+     * @return <code>true</code> if canceled
+     */
+    public boolean isCancelled() {
+        return _cancelled;
+    }
 
     /**
      * Return this task name.
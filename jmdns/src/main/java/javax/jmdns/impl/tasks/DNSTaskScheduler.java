@@ -0,0 +1,304 @@
+// Licensed under Apache License version 2.0
+package javax.jmdns.impl.tasks;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.Timer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Schedules the tasks of one JmDNS instance. A DNSTaskStarter uses one for general tasks and one for state tasks so that each group can be purged and canceled on its own.
+ * <p>
+ * <b>Note: </b> This is not considered as part of the general public API of JmDNS.
+ * </p>
+ */
+public interface DNSTaskScheduler {
+
+    /**
+     * How a DNSTaskStarter runs its tasks.
+     */
+    public static enum Mode {
+        /**
+         * Two java.util.Timer threads per JmDNS instance. This is the default.
+         */
+        TIMER,
+        /**
+         * All JmDNS instances share a single scheduler thread.
+         */
+        SHARED,
+        /**
+         * All JmDNS instances share a single scheduler thread and each run is handed to a virtual thread. Needs Java 21, otherwise the same as SHARED.
+         */
+        VIRTUAL
+    }
+
+    /**
+     * Runs the tasks on a java.util.Timer.
+     */
+    public static final class TimerScheduler implements DNSTaskScheduler {
+
+        private final Timer _timer;
+
+        public TimerScheduler(Timer timer) {
+            super();
+            _timer = timer;
+        }
+
+        /*
+         * (non-Javadoc)
+         * @see javax.jmdns.impl.tasks.DNSTaskScheduler#schedule(javax.jmdns.impl.tasks.DNSTask, long)
+         */
+        @Override
+        public void schedule(DNSTask task, long delay) {
+            _timer.schedule(task, delay);
+        }
+
+        /*
+         * (non-Javadoc)
+         * @see javax.jmdns.impl.tasks.DNSTaskScheduler#schedule(javax.jmdns.impl.tasks.DNSTask, long, long)
+         */
+        @Override
+        public void schedule(DNSTask task, long delay, long period) {
+            _timer.schedule(task, delay, period);
+        }
+
+        /*
+         * (non-Javadoc)
+         * @see javax.jmdns.impl.tasks.DNSTaskScheduler#purge()
+         */
+        @Override
+        public void purge() {
+            _timer.purge();
+        }
+
+        /*
+         * (non-Javadoc)
+         * @see javax.jmdns.impl.tasks.DNSTaskScheduler#cancel()
+         */
+        @Override
+        public void cancel() {
+            _timer.cancel();
+        }
+    }
+
+    /**
+     * Runs the tasks on a ScheduledExecutorService that can be shared by many JmDNS instances. Canceling only cancels the tasks scheduled through this object, the executor is left running.
+     * <p>
+     * Repeating tasks have fixed delay like Timer.schedule: the next run is one period after the previous run started. A task is never run twice at the same time but, unlike a Timer, tasks of the same scheduler may run concurrently when a
+     * runner is given.
+     * </p>
+     */
+    public static final class ExecutorScheduler implements DNSTaskScheduler {
+
+        private static Logger                 logger = LoggerFactory.getLogger(ExecutorScheduler.class.getName());
+
+        private final ScheduledExecutorService _executor;
+
+        private final Executor                 _runner;
+
+        private final Set<ScheduledTask>       _tasks;
+
+        private volatile boolean               _cancelled;
+
+        /**
+         * @param executor
+         *            decides when tasks run
+         * @param runner
+         *            runs the tasks, or <code>null</code> to run them on the executor
+         */
+        public ExecutorScheduler(ScheduledExecutorService executor, Executor runner) {
+            super();
+            _executor = executor;
+            _runner = runner;
+            _tasks = Collections.newSetFromMap(new ConcurrentHashMap<ScheduledTask, Boolean>());
+            _cancelled = false;
+        }
+
+        private final class ScheduledTask implements Runnable {
+
+            private final DNSTask     _task;
+
+            private final long        _period;
+
+            private volatile Future<?> _future;
+
+            private final Runnable    _run = new Runnable() {
+                @Override
+                public void run() {
+                    runTask();
+                }
+            };
+
+            ScheduledTask(DNSTask task, long period) {
+                _task = task;
+                _period = period;
+            }
+
+            void schedule(long delay) {
+                _tasks.add(this);
+                try {
+                    _future = _executor.schedule(this, Math.max(0, delay), TimeUnit.MILLISECONDS);
+                } catch (RejectedExecutionException e) {
+                    logger.debug("{}.schedule() executor is shut down", _task.getName());
+                    _tasks.remove(this);
+                }
+                // cancel() may have missed us while the future was being created
+                if (_cancelled) {
+                    this.cancel();
+                }
+            }
+
+            void cancel() {
+                _tasks.remove(this);
+                Future<?> future = _future;
+                if (future != null) {
+                    future.cancel(false);
+                }
+            }
+
+            boolean isDone() {
+                return _cancelled || _task.isCancelled();
+            }
+
+            /*
+             * (non-Javadoc)
+             * @see java.lang.Runnable#run()
+             */
+            @Override
+            public void run() {
+                if (_runner != null) {
+                    try {
+                        _runner.execute(_run);
+                        return;
+                    } catch (RejectedExecutionException e) {
+                        // fall through and run here
+                    }
+                }
+                this.runTask();
+            }
+
+            void runTask() {
+                if (this.isDone()) {
+                    this.cancel();
+                    return;
+                }
+                long start = System.currentTimeMillis();
+                try {
+                    _task.run();
+                } catch (Throwable e) {
+                    logger.warn(_task.getName() + ".run() exception ", e);
+                }
+                if (_period > 0 && !this.isDone()) {
+                    this.schedule(_period - (System.currentTimeMillis() - start));
+                } else {
+                    this.cancel();
+                }
+            }
+        }
+
+        /*
+         * (non-Javadoc)
+         * @see javax.jmdns.impl.tasks.DNSTaskScheduler#schedule(javax.jmdns.impl.tasks.DNSTask, long)
+         */
+        @Override
+        public void schedule(DNSTask task, long delay) {
+            this.schedule(task, delay, 0);
+        }
+
+        /*
+         * (non-Javadoc)
+         * @see javax.jmdns.impl.tasks.DNSTaskScheduler#schedule(javax.jmdns.impl.tasks.DNSTask, long, long)
+         */
+        @Override
+        public void schedule(DNSTask task, long delay, long period) {
+            if (_cancelled) return;
+            new ScheduledTask(task, period).schedule(delay);
+        }
+
+        /*
+         * (non-Javadoc)
+         * @see javax.jmdns.impl.tasks.DNSTaskScheduler#purge()
+         */
+        @Override
+        public void purge() {
+            for (ScheduledTask task : _tasks) {
+                if (task.isDone()) {
+                    task.cancel();
+                }
+            }
+            this.purgeExecutor();
+        }
+
+        /*
+         * (non-Javadoc)
+         * @see javax.jmdns.impl.tasks.DNSTaskScheduler#cancel()
+         */
+        @Override
+        public void cancel() {
+            if (_cancelled) return;
+            _cancelled = true;
+            for (ScheduledTask task : _tasks) {
+                task.cancel();
+            }
+            this.purgeExecutor();
+        }
+
+        /**
+         * Returns the number of tasks waiting to run.
+         *
+         * @return number of tasks
+         */
+        public int getNumTasks() {
+            return _tasks.size();
+        }
+
+        private void purgeExecutor() {
+            // cancelled futures otherwise stay in the shared queue until they are due
+            if (_executor instanceof ThreadPoolExecutor) {
+                ((ThreadPoolExecutor) _executor).purge();
+            }
+        }
+    }
+
+    /**
+     * Schedule a task to run once.
+     *
+     * @param task
+     *            task to run
+     * @param delay
+     *            delay in milliseconds
+     */
+    public void schedule(DNSTask task, long delay);
+
+    /**
+     * Schedule a task to run repeatedly with a fixed delay between runs until it is canceled.
+     *
+     * @param task
+     *            task to run
+     * @param delay
+     *            delay before the first run in milliseconds
+     * @param period
+     *            time between runs in milliseconds
+     */
+    public void schedule(DNSTask task, long delay, long period);
+
+    /**
+     * Remove canceled tasks.
+     */
+    public void purge();
+
+    /**
+     * Cancel all tasks. Later calls to schedule are ignored.
+     */
+    public void cancel();
+
+}
@@ -8,7 +8,6 @@ import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.util.HashSet;
 import java.util.Set;
-import java.util.Timer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -69,10 +68,10 @@ public class Responder extends DNSTask {
 
     /*
      * (non-Javadoc)
-     * @see javax.jmdns.impl.tasks.DNSTask#start(java.util.Timer)
+     * @see javax.jmdns.impl.tasks.DNSTask#start(javax.jmdns.impl.tasks.DNSTaskScheduler)
      */
     @Override
-    public void start(Timer timer) {
+    public void start(DNSTaskScheduler scheduler) {
         // According to draft-cheshire-dnsext-multicastdns.txt chapter "7 Responding":
         // We respond immediately if we know for sure, that we are the only one who can respond to the query.
         // In all other cases, we respond within 20-120 ms.
@@ -95,7 +94,7 @@ public class Responder extends DNSTask {
         logger.trace("{}.start() Responder chosen delay={}", this.getName(), delay);
 
         if (!this.getDns().isCanceling() && !this.getDns().isCanceled()) {
-            timer.schedule(this, delay);
+            scheduler.schedule(this, delay);
         }
     }
 
@@ -5,7 +5,6 @@
 package javax.jmdns.impl.tasks.state;
 
 import java.io.IOException;
-import java.util.Timer;
 
 import javax.jmdns.impl.DNSOutgoing;
 import javax.jmdns.impl.DNSRecord;
@@ -14,6 +13,7 @@ import javax.jmdns.impl.ServiceInfoImpl;
 import javax.jmdns.impl.constants.DNSConstants;
 import javax.jmdns.impl.constants.DNSRecordClass;
 import javax.jmdns.impl.constants.DNSState;
+import javax.jmdns.impl.tasks.DNSTaskScheduler;
 
 /**
  * The Canceler sends two announces with TTL=0 for the specified services.
@@ -47,11 +47,11 @@ public class Canceler extends DNSStateTask {
 
     /*
      * (non-Javadoc)
-     * @see javax.jmdns.impl.tasks.DNSTask#start(java.util.Timer)
+     * @see javax.jmdns.impl.tasks.DNSTask#start(javax.jmdns.impl.tasks.DNSTaskScheduler)
      */
     @Override
-    public void start(Timer timer) {
-        timer.schedule(this, 0, DNSConstants.ANNOUNCE_WAIT_INTERVAL);
+    public void start(DNSTaskScheduler scheduler) {
+        scheduler.schedule(this, 0, DNSConstants.ANNOUNCE_WAIT_INTERVAL);
     }
 
     /*
@@ -0,0 +1,192 @@
+/**
+ *
+ */
+package javax.jmdns.test;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.jmdns.JmDNS;
+import javax.jmdns.impl.DNSTaskStarter;
+import javax.jmdns.impl.tasks.DNSTask;
+import javax.jmdns.impl.tasks.DNSTaskScheduler;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DNSTaskSchedulerTest {
+
+    private ScheduledThreadPoolExecutor _executor;
+
+    public static class CountingTask extends DNSTask {
+
+        private final AtomicInteger _runs = new AtomicInteger();
+        private final int           _maxRuns;
+
+        public CountingTask(int maxRuns) {
+            super(null);
+            _maxRuns = maxRuns;
+        }
+
+        @Override
+        public void start(DNSTaskScheduler scheduler) {
+            scheduler.schedule(this, 0, 10);
+        }
+
+        @Override
+        public String getName() {
+            return "CountingTask";
+        }
+
+        @Override
+        public void run() {
+            if (_runs.incrementAndGet() >= _maxRuns) {
+                this.cancel();
+            }
+        }
+
+        public int getRuns() {
+            return _runs.get();
+        }
+    }
+
+    @Before
+    public void setup() {
+        _executor = new ScheduledThreadPoolExecutor(1);
+    }
+
+    @After
+    public void teardown() {
+        _executor.shutdownNow();
+        DNSTaskStarter.Factory.setSchedulerMode(DNSTaskScheduler.Mode.TIMER);
+    }
+
+    @Test
+    public void testRepeatingTaskStopsWhenCanceled() throws InterruptedException {
+        DNSTaskScheduler.ExecutorScheduler scheduler = new DNSTaskScheduler.ExecutorScheduler(_executor, null);
+        CountingTask task = new CountingTask(3);
+        task.start(scheduler);
+        Thread.sleep(200);
+        assertEquals("Task should stop running after it cancels itself", 3, task.getRuns());
+        assertEquals(0, scheduler.getNumTasks());
+    }
+
+    @Test
+    public void testCancelOnlyAffectsOwnTasks() throws InterruptedException {
+        DNSTaskScheduler.ExecutorScheduler first = new DNSTaskScheduler.ExecutorScheduler(_executor, null);
+        DNSTaskScheduler.ExecutorScheduler second = new DNSTaskScheduler.ExecutorScheduler(_executor, null);
+        CountingTask firstTask = new CountingTask(Integer.MAX_VALUE);
+        CountingTask secondTask = new CountingTask(Integer.MAX_VALUE);
+        firstTask.start(first);
+        secondTask.start(second);
+        Thread.sleep(50);
+        first.cancel();
+        int runs = firstTask.getRuns();
+        Thread.sleep(100);
+        assertTrue(runs > 0);
+        assertTrue("Canceled scheduler should not run its task again", firstTask.getRuns() <= runs + 1);
+        assertTrue("Other scheduler on the same executor should keep running", secondTask.getRuns() > runs + 2);
+
+        // later tasks are ignored like StarterTimer does
+        CountingTask late = new CountingTask(1);
+        late.start(first);
+        Thread.sleep(50);
+        assertEquals(0, late.getRuns());
+        assertFalse(_executor.isShutdown());
+    }
+
+    @Test
+    public void testPurgeRemovesCanceledTasks() {
+        DNSTaskScheduler.ExecutorScheduler scheduler = new DNSTaskScheduler.ExecutorScheduler(_executor, null);
+        CountingTask task = new CountingTask(1);
+        scheduler.schedule(task, 60000, 60000);
+        assertEquals(1, _executor.getQueue().size());
+        task.cancel();
+        scheduler.purge();
+        assertEquals(0, scheduler.getNumTasks());
+        assertEquals(0, _executor.getQueue().size());
+    }
+
+    private static int countThreads() {
+        return Thread.getAllStackTraces().size();
+    }
+
+    private static boolean hasThread(String prefix) {
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Test
+    public void testSharedModeHasNoTimerThreads() throws IOException {
+        DNSTaskStarter.Factory.setSchedulerMode(DNSTaskScheduler.Mode.TIMER);
+        JmDNS registry = JmDNS.create(InetAddress.getLoopbackAddress(), "timer");
+        try {
+            assertTrue(hasThread("JmDNS(timer).Timer"));
+            assertTrue(hasThread("JmDNS(timer).State.Timer"));
+        } finally {
+            registry.close();
+        }
+        DNSTaskStarter.Factory.setSchedulerMode(DNSTaskScheduler.Mode.SHARED);
+        registry = JmDNS.create(InetAddress.getLoopbackAddress(), "shared");
+        try {
+            assertFalse(hasThread("JmDNS(shared).Timer"));
+            assertFalse(hasThread("JmDNS(shared).State.Timer"));
+            assertTrue(hasThread("JmDNS.Scheduler"));
+        } finally {
+            registry.close();
+        }
+    }
+
+    /**
+     * Threads per JmDNS instance in each scheduler mode. Only runs with -Dbenchmark=true. The instance count can be changed with -Djmdns.test.instances=N
+     */
+    @Test
+    public void testThreadsPerInstance() throws IOException, InterruptedException {
+        if (!Boolean.getBoolean("benchmark")) {
+            return;
+        }
+        final int instances = Integer.getInteger("jmdns.test.instances", 8);
+        final InetAddress address = InetAddress.getLoopbackAddress();
+        int timerThreads = 0;
+        int sharedThreads = 0;
+        for (DNSTaskScheduler.Mode mode : DNSTaskScheduler.Mode.values()) {
+            DNSTaskStarter.Factory.setSchedulerMode(mode);
+            // create one first so the shared executor and class loading are not counted
+            JmDNS warmup = JmDNS.create(address, "warmup");
+            int threadsBefore = countThreads();
+            List<JmDNS> registries = new ArrayList<JmDNS>();
+            try {
+                for (int i = 0; i < instances; i++) {
+                    registries.add(JmDNS.create(address, mode.name() + i));
+                }
+                Thread.sleep(200);
+                int threads = countThreads() - threadsBefore;
+                System.out.println(String.format("%-8s %d instances: %.2f threads per instance", mode, instances, (double) threads / instances));
+                if (mode == DNSTaskScheduler.Mode.TIMER) {
+                    timerThreads = threads;
+                } else if (mode == DNSTaskScheduler.Mode.SHARED) {
+                    sharedThreads = threads;
+                }
+            } finally {
+                for (JmDNS registry : registries) {
+                    registry.close();
+                }
+                warmup.close();
+            }
+        }
+        // the two timers per instance are gone
+        assertTrue("Shared scheduler should use fewer threads", sharedThreads <= timerThreads - 2 * instances);
+    }
+
+}
@@ -1,5 +1,6 @@
 package cc.game.othello.ai;
 
+import cc.game.othello.core.OthelloBitboard;
 import cc.game.othello.core.OthelloBoard;
 import cc.game.othello.core.OthelloPlayer;
 
@@ -8,29 +9,26 @@ public class AiOthelloPlayer extends OthelloPlayer {
 	@Override
 	public boolean chooseCell(OthelloBoard board, int[] rowColCell) {
 
-		int bestRow = 0;
-		int bestCol = 0;
+		// score of a move is the player count after it: current + the placed piece + flips
+		OthelloBitboard b = new OthelloBitboard(board, getPlayerColor());
+		int bestCell = -1;
 		int bestScore = -1;
-		for (int i=0; i<board.getNumRows(); i++) {
-			for (int j=0; j<board.getNumCols(); j++) {
-				if (board.isCellAvailable(i,j)) {
-					OthelloBoard b = board.deepCopy();
-					b.set(i, j, getPlayerColor());
-					b.turnOverPieces(i, j, getPlayerColor());
-					int score = b.getCellCount(getPlayerColor());
-					if (score > bestScore) {
-						bestScore = score;
-						bestRow = i;
-						bestCol = j;
-					}
-				}
+		for (int cell = b.nextAvailable(0); cell >= 0; cell = b.nextAvailable(cell+1)) {
+			int score = b.getPlayerCount() + 1 + b.countFlips(cell);
+			if (score > bestScore) {
+				bestScore = score;
+				bestCell = cell;
 			}
 		}
-	
-		rowColCell[0] = bestRow;
-		rowColCell[1] = bestCol;
-		
-		return bestScore >= 0;
+
+		if (bestCell < 0) {
+			rowColCell[0] = rowColCell[1] = 0;
+			return false;
+		}
+		rowColCell[0] = OthelloBitboard.getRow(bestCell);
+		rowColCell[1] = OthelloBitboard.getCol(bestCell);
+
+		return true;
 	}
 
 }
@@ -0,0 +1,268 @@
+package cc.game.othello.ai;
+
+import cc.game.othello.core.OthelloBitboard;
+import cc.game.othello.core.OthelloBoard;
+import cc.game.othello.core.OthelloPlayer;
+
+/**
+ * Negamax alpha-beta player on an OthelloBitboard with iterative deepening and a transposition table.
+ *
+ * Each iteration searches one ply deeper until maxDepth or maxTimeMillis is reached and the best move of the
+ * last complete iteration is played. Moves are ordered with the best move from the table first, then by the
+ * number of pieces flipped. When endgameEmpties or fewer cells are empty the search runs to the end of the
+ * game and scores the exact piece difference. Empty cells that are not yet available still count since they can
+ * become available and be played before the game ends.
+ *
+ * @author chriscaron
+ */
+public class AlphaBetaOthelloPlayer extends OthelloPlayer {
+
+	private final static int WIN = 1 << 20; // exact scores are scaled above any evaluation
+	private final static int INF = 1 << 30;
+	private final static int EXACT = 0, LOWER = 1, UPPER = 2;
+
+	private final static int CORNER_WEIGHT = 20;
+	private final static int EDGE_WEIGHT = 3;
+
+	public int maxDepth = 6;
+	public long maxTimeMillis = 2000;
+	public int endgameEmpties = 10;
+
+	private final int tableBits;
+	private long [] keys, entries;
+	private OthelloBitboard [] stack;
+	private int [][] moves;
+	private long corners0, corners1, corners2;
+	private long edges0, edges1, edges2;
+
+	private long deadline;
+	private boolean outOfTime;
+	private long nodes;
+	private int score;
+	private boolean solved;
+
+	public AlphaBetaOthelloPlayer() {
+		this(20);
+	}
+
+	/**
+	 * @param tableBits transposition table has 2^tableBits entries
+	 */
+	public AlphaBetaOthelloPlayer(int tableBits) {
+		this.tableBits = tableBits;
+	}
+
+	/**
+	 * @return nodes visited by the last chooseCell
+	 */
+	public long getNodes() {
+		return nodes;
+	}
+
+	/**
+	 * @return true when the last chooseCell searched to the end of the game
+	 */
+	public boolean isSolved() {
+		return solved;
+	}
+
+	/**
+	 * @return score of the cell returned by the last chooseCell. When solved this is the final piece difference
+	 * for the player to move, otherwise the evaluation.
+	 */
+	public int getScore() {
+		return solved ? score / WIN : score;
+	}
+
+	@Override
+	public boolean chooseCell(OthelloBoard board, int[] rowColCell) {
+		OthelloBitboard root = new OthelloBitboard(board, getPlayerColor());
+		int cell = chooseCell(root);
+		if (cell < 0)
+			return false;
+		rowColCell[0] = OthelloBitboard.getRow(cell);
+		rowColCell[1] = OthelloBitboard.getCol(cell);
+		return true;
+	}
+
+	/**
+	 * @param root position with this player to move
+	 * @return best cell or -1 if the game is over
+	 */
+	public int chooseCell(OthelloBitboard root) {
+		if (root.isGameOver())
+			return -1;
+		init(root);
+		nodes = 0;
+		outOfTime = false;
+		deadline = maxTimeMillis > 0 ? System.currentTimeMillis() + maxTimeMillis : Long.MAX_VALUE;
+		stack[0].copy(root);
+		int empties = root.getNumRows()*root.getNumCols() - root.getPlayerCount() - root.getOpponentCount();
+		boolean solve = empties <= endgameEmpties;
+		solved = false;
+		int best = root.nextAvailable(0);
+		int lastDepth = solve ? empties : Math.min(maxDepth, empties);
+		for (int depth = solve ? empties : 1; depth <= lastDepth; depth++) {
+			int move = searchRoot(depth);
+			if (outOfTime)
+				break;
+			best = move;
+			solved = depth >= empties;
+		}
+		return best;
+	}
+
+	private void init(OthelloBitboard root) {
+		if (keys == null) {
+			keys = new long[1 << tableBits];
+			entries = new long[1 << tableBits];
+		}
+		int rows = root.getNumRows(), cols = root.getNumCols();
+		if (stack == null || stack[0].getNumRows() != rows || stack[0].getNumCols() != cols) {
+			int plies = rows*cols+1;
+			stack = new OthelloBitboard[plies];
+			moves = new int[plies][OthelloBitboard.NUM_CELLS];
+			for (int i=0; i<plies; i++)
+				stack[i] = new OthelloBitboard(rows, cols);
+			long [] c = new long[3], e = new long[3];
+			for (int r=0; r<rows; r++) {
+				for (int col=0; col<cols; col++) {
+					int bit = OthelloBitboard.toCell(r, col);
+					boolean edgeRow = r == 0 || r == rows-1;
+					boolean edgeCol = col == 0 || col == cols-1;
+					if (edgeRow && edgeCol)
+						c[bit>>6] |= 1L << bit;
+					else if (edgeRow || edgeCol)
+						e[bit>>6] |= 1L << bit;
+				}
+			}
+			corners0 = c[0]; corners1 = c[1]; corners2 = c[2];
+			edges0 = e[0]; edges1 = e[1]; edges2 = e[2];
+		}
+	}
+
+	private int searchRoot(int depth) {
+		OthelloBitboard b = stack[0];
+		int n = orderMoves(b, 0, probeMove(b.hash()));
+		int [] list = moves[0];
+		int alpha = -INF;
+		int best = list[0];
+		for (int i=0; i<n; i++) {
+			stack[1].play(b, list[i]);
+			int score = -search(1, depth-1, -INF, -alpha);
+			if (outOfTime)
+				return best;
+			if (score > alpha) {
+				alpha = score;
+				best = list[i];
+			}
+		}
+		store(b.hash(), depth, alpha, EXACT, best);
+		score = alpha;
+		return best;
+	}
+
+	private int search(int ply, int depth, int alpha, int beta) {
+		nodes++;
+		if ((nodes & 1023) == 0 && System.currentTimeMillis() > deadline)
+			outOfTime = true;
+		if (outOfTime)
+			return 0;
+		OthelloBitboard b = stack[ply];
+		if (b.isGameOver())
+			return (b.getPlayerCount() - b.getOpponentCount()) * WIN;
+		if (depth <= 0)
+			return evaluate(b);
+
+		long hash = b.hash();
+		int index = (int)hash & (keys.length-1);
+		int ttMove = -1;
+		if (keys[index] == hash) {
+			long e = entries[index];
+			ttMove = (int)(e >>> 8) & 0xff;
+			if (((int)(e >>> 16) & 0xff) >= depth) {
+				int score = (int)(e >> 32);
+				switch ((int)e & 0xff) {
+					case EXACT: return score;
+					case LOWER: alpha = Math.max(alpha, score); break;
+					case UPPER: beta = Math.min(beta, score); break;
+				}
+				if (alpha >= beta)
+					return score;
+			}
+		}
+
+		final int origAlpha = alpha;
+		int n = orderMoves(b, ply, ttMove);
+		int [] list = moves[ply];
+		OthelloBitboard child = stack[ply+1];
+		int best = -INF;
+		int bestMove = list[0];
+		for (int i=0; i<n; i++) {
+			child.play(b, list[i]);
+			int score = -search(ply+1, depth-1, -beta, -alpha);
+			if (outOfTime)
+				return 0;
+			if (score > best) {
+				best = score;
+				bestMove = list[i];
+				if (score > alpha) {
+					alpha = score;
+					if (alpha >= beta)
+						break;
+				}
+			}
+		}
+		int flag = best <= origAlpha ? UPPER : best >= beta ? LOWER : EXACT;
+		store(hash, depth, best, flag, bestMove);
+		return best;
+	}
+
+	private int probeMove(long hash) {
+		int index = (int)hash & (keys.length-1);
+		return keys[index] == hash ? (int)(entries[index] >>> 8) & 0xff : -1;
+	}
+
+	private void store(long hash, int depth, int score, int flag, int move) {
+		int index = (int)hash & (keys.length-1);
+		keys[index] = hash;
+		entries[index] = ((long)score << 32) | (Math.min(depth, 0xff) << 16) | (move << 8) | flag;
+	}
+
+	/**
+	 * Fill moves[ply] with the available cells, ttMove first then most flips first.
+	 * @return number of moves
+	 */
+	private int orderMoves(OthelloBitboard b, int ply, int ttMove) {
+		int [] list = moves[ply];
+		int n = 0;
+		for (int cell = b.nextAvailable(0); cell >= 0; cell = b.nextAvailable(cell+1)) {
+			// sort key in the high bits so an int sort orders by flips
+			int key = cell == ttMove ? 0xff : Math.min(0xfe, b.countFlips(cell));
+			list[n++] = (key << 8) | cell;
+		}
+		// insertion sort descending, n is small and mostly ordered
+		for (int i=1; i<n; i++) {
+			int v = list[i];
+			int j = i-1;
+			while (j >= 0 && list[j] < v) {
+				list[j+1] = list[j];
+				j--;
+			}
+			list[j+1] = v;
+		}
+		for (int i=0; i<n; i++)
+			list[i] &= 0xff;
+		return n;
+	}
+
+	/**
+	 * Weighted piece difference. Corners can never be turned over in this game.
+	 */
+	private int evaluate(OthelloBitboard b) {
+		int score = b.getPlayerCount() - b.getOpponentCount();
+		score += (CORNER_WEIGHT-1) * (b.getPlayerCount(corners0, corners1, corners2) - b.getOpponentCount(corners0, corners1, corners2));
+		score += (EDGE_WEIGHT-1) * (b.getPlayerCount(edges0, edges1, edges2) - b.getOpponentCount(edges0, edges1, edges2));
+		return score;
+	}
+}
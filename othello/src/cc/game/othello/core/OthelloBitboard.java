@@ -0,0 +1,313 @@
+package cc.game.othello.core;
+
+/**
+ * Bit representation of an OthelloBoard from the point of view of the player to move.
+ *
+ * Cells are bits at row*STRIDE+col over 3 longs, so boards up to MAX_ROWS x MAX_COLS fit. The unused columns
+ * at the end of each row are never valid, so after a shift every row wrap lands on an invalid bit and is masked
+ * away. Moves and flips are computed for all 8 directions at once with shifts and masks instead of walking cells.
+ *
+ * Rules are the same as Othello.runGame: any available cell can be played, flipping is optional, and the
+ * unused neighbors of the placed and flipped pieces become available. The game is over when no cell is
+ * available.
+ *
+ * Instances are mutable and meant to be reused: play() fills this from a parent position so a search can
+ * keep one board per ply and never allocate.
+ *
+ * @author chriscaron
+ */
+public final class OthelloBitboard {
+
+	public static final int STRIDE = 16;
+	public static final int MAX_ROWS = 12;
+	public static final int MAX_COLS = STRIDE-1;
+	public static final int NUM_CELLS = MAX_ROWS*STRIDE;
+
+	// east, west, south, north, south east, south west, north east, north west
+	private final static int [] DIRS = { 1, -1, STRIDE, -STRIDE, STRIDE+1, STRIDE-1, -STRIDE+1, -STRIDE-1 };
+
+	private final int rows, cols;
+	private final int maxRun; // most opponent pieces that can be between 2 cells
+	private final long v0, v1, v2; // valid cells
+
+	// player to move
+	long p0, p1, p2;
+	// opponent
+	long o0, o1, o2;
+	// available
+	long a0, a1, a2;
+
+	// result of shift and flips
+	private long s0, s1, s2;
+	private long f0, f1, f2;
+
+	public OthelloBitboard(int rows, int cols) {
+		if (rows < 1 || cols < 1 || rows > MAX_ROWS || cols > MAX_COLS)
+			throw new IllegalArgumentException("Board " + rows + "x" + cols + " larger than " + MAX_ROWS + "x" + MAX_COLS);
+		this.rows = rows;
+		this.cols = cols;
+		this.maxRun = Math.max(rows, cols) - 2;
+		long [] v = new long[3];
+		for (int r=0; r<rows; r++) {
+			for (int c=0; c<cols; c++) {
+				int bit = r*STRIDE+c;
+				v[bit>>6] |= 1L << bit;
+			}
+		}
+		v0 = v[0];
+		v1 = v[1];
+		v2 = v[2];
+	}
+
+	/**
+	 * Copy the board with color to move
+	 * @param board
+	 * @param color CELL_WHITE or CELL_BLACK
+	 */
+	public OthelloBitboard(OthelloBoard board, int color) {
+		this(board.getNumRows(), board.getNumCols());
+		for (int r=0; r<rows; r++) {
+			for (int c=0; c<cols; c++) {
+				int v = board.get(r, c);
+				if (v == OthelloBoard.CELL_UNUSED)
+					continue;
+				int bit = r*STRIDE+c;
+				long b = 1L << bit;
+				if (v == OthelloBoard.CELL_AVAILABLE) {
+					switch (bit>>6) {
+						case 0: a0 |= b; break;
+						case 1: a1 |= b; break;
+						default: a2 |= b;
+					}
+				} else if (v == color) {
+					switch (bit>>6) {
+						case 0: p0 |= b; break;
+						case 1: p1 |= b; break;
+						default: p2 |= b;
+					}
+				} else {
+					switch (bit>>6) {
+						case 0: o0 |= b; break;
+						case 1: o1 |= b; break;
+						default: o2 |= b;
+					}
+				}
+			}
+		}
+	}
+
+	public int getNumRows() {
+		return rows;
+	}
+
+	public int getNumCols() {
+		return cols;
+	}
+
+	public static int toCell(int row, int col) {
+		return row*STRIDE+col;
+	}
+
+	public static int getRow(int cell) {
+		return cell / STRIDE;
+	}
+
+	public static int getCol(int cell) {
+		return cell % STRIDE;
+	}
+
+	public void copy(OthelloBitboard b) {
+		p0 = b.p0; p1 = b.p1; p2 = b.p2;
+		o0 = b.o0; o1 = b.o1; o2 = b.o2;
+		a0 = b.a0; a1 = b.a1; a2 = b.a2;
+	}
+
+	public boolean isAvailable(int cell) {
+		return (word(a0, a1, a2, cell) & (1L << cell)) != 0;
+	}
+
+	public int getNumAvailable() {
+		return Long.bitCount(a0) + Long.bitCount(a1) + Long.bitCount(a2);
+	}
+
+	public int getPlayerCount() {
+		return Long.bitCount(p0) + Long.bitCount(p1) + Long.bitCount(p2);
+	}
+
+	public int getOpponentCount() {
+		return Long.bitCount(o0) + Long.bitCount(o1) + Long.bitCount(o2);
+	}
+
+	/**
+	 * @return number of player pieces in the cells of mask m0, m1, m2
+	 */
+	public int getPlayerCount(long m0, long m1, long m2) {
+		return Long.bitCount(p0 & m0) + Long.bitCount(p1 & m1) + Long.bitCount(p2 & m2);
+	}
+
+	public int getOpponentCount(long m0, long m1, long m2) {
+		return Long.bitCount(o0 & m0) + Long.bitCount(o1 & m1) + Long.bitCount(o2 & m2);
+	}
+
+	public boolean isGameOver() {
+		return (a0 | a1 | a2) == 0;
+	}
+
+	/**
+	 * Lowest available cell at or after start, or -1. Iterating from 0 visits the moves in row major order.
+	 * @param start
+	 * @return
+	 */
+	public int nextAvailable(int start) {
+		for (int w=start>>6; w<3; w++) {
+			long bits = w == 0 ? a0 : w == 1 ? a1 : a2;
+			if (w == start>>6)
+				bits &= -1L << (start & 63);
+			if (bits != 0)
+				return (w << 6) + Long.numberOfTrailingZeros(bits);
+		}
+		return -1;
+	}
+
+	/**
+	 * @param cell
+	 * @return number of opponent pieces turned over by playing cell
+	 */
+	public int countFlips(int cell) {
+		computeFlips(cell);
+		return Long.bitCount(f0) + Long.bitCount(f1) + Long.bitCount(f2);
+	}
+
+	/**
+	 * Set this to the position after the player to move in parent plays cell. The opponent is to move after.
+	 * parent can be this.
+	 * @param parent
+	 * @param cell an available cell
+	 */
+	public void play(OthelloBitboard parent, int cell) {
+		parent.computeFlips(cell);
+		final long m0 = cell < 64 ? 1L << cell : 0;
+		final long m1 = cell >= 64 && cell < 128 ? 1L << cell : 0;
+		final long m2 = cell >= 128 ? 1L << cell : 0;
+		final long f0 = parent.f0, f1 = parent.f1, f2 = parent.f2;
+		final long n0 = parent.p0 | m0 | f0, n1 = parent.p1 | m1 | f1, n2 = parent.p2 | m2 | f2;
+		final long q0 = parent.o0 & ~f0, q1 = parent.o1 & ~f1, q2 = parent.o2 & ~f2;
+		final long x0 = parent.a0 & ~m0, x1 = parent.a1 & ~m1, x2 = parent.a2 & ~m2;
+		// unused neighbors of the changed pieces become available
+		neighbors(m0 | f0, m1 | f1, m2 | f2);
+		a0 = x0 | (s0 & ~(n0 | q0));
+		a1 = x1 | (s1 & ~(n1 | q1));
+		a2 = x2 | (s2 & ~(n2 | q2));
+		// swap sides
+		p0 = q0; p1 = q1; p2 = q2;
+		o0 = n0; o1 = n1; o2 = n2;
+	}
+
+	/**
+	 * Write the position into board. Player to move is written as color.
+	 */
+	public void toBoard(OthelloBoard board, int color) {
+		int other = color == OthelloBoard.CELL_WHITE ? OthelloBoard.CELL_BLACK : OthelloBoard.CELL_WHITE;
+		for (int r=0; r<rows; r++) {
+			for (int c=0; c<cols; c++) {
+				int bit = r*STRIDE+c;
+				long b = 1L << bit;
+				if ((word(p0, p1, p2, bit) & b) != 0)
+					board.set(r, c, color);
+				else if ((word(o0, o1, o2, bit) & b) != 0)
+					board.set(r, c, other);
+				else if ((word(a0, a1, a2, bit) & b) != 0)
+					board.set(r, c, OthelloBoard.CELL_AVAILABLE);
+				else
+					board.set(r, c, OthelloBoard.CELL_UNUSED);
+			}
+		}
+	}
+
+	/**
+	 * Hash of the position, including who is to move since the bits are relative to them.
+	 */
+	public long hash() {
+		long h = 0x9E3779B97F4A7C15L;
+		h = mix(h, p0); h = mix(h, p1); h = mix(h, p2);
+		h = mix(h, o0); h = mix(h, o1); h = mix(h, o2);
+		h = mix(h, a0); h = mix(h, a1); h = mix(h, a2);
+		return h ^ (h >>> 31);
+	}
+
+	private static long mix(long h, long v) {
+		h = (h ^ v) * 0xBF58476D1CE4E5B9L;
+		return h ^ (h >>> 27);
+	}
+
+	private static long word(long w0, long w1, long w2, int bit) {
+		return bit < 64 ? w0 : bit < 128 ? w1 : w2;
+	}
+
+	/**
+	 * s = x shifted one cell in direction d, masked to the board
+	 */
+	private void shift(int d, long x0, long x1, long x2) {
+		if (d > 0) {
+			s0 = x0 << d;
+			s1 = (x1 << d) | (x0 >>> (64-d));
+			s2 = (x2 << d) | (x1 >>> (64-d));
+		} else {
+			d = -d;
+			s0 = (x0 >>> d) | (x1 << (64-d));
+			s1 = (x1 >>> d) | (x2 << (64-d));
+			s2 = x2 >>> d;
+		}
+		s0 &= v0;
+		s1 &= v1;
+		s2 &= v2;
+	}
+
+	/**
+	 * s = cells next to any cell of x
+	 */
+	private void neighbors(long x0, long x1, long x2) {
+		long r0 = 0, r1 = 0, r2 = 0;
+		for (int d : DIRS) {
+			shift(d, x0, x1, x2);
+			r0 |= s0;
+			r1 |= s1;
+			r2 |= s2;
+		}
+		s0 = r0;
+		s1 = r1;
+		s2 = r2;
+	}
+
+	/**
+	 * f = opponent pieces turned over by the player to move playing cell
+	 */
+	private void computeFlips(int cell) {
+		final long m0 = cell < 64 ? 1L << cell : 0;
+		final long m1 = cell >= 64 && cell < 128 ? 1L << cell : 0;
+		final long m2 = cell >= 128 ? 1L << cell : 0;
+		long r0 = 0, r1 = 0, r2 = 0;
+		for (int d : DIRS) {
+			// grow a run of opponent pieces away from the cell
+			shift(d, m0, m1, m2);
+			long x0 = s0 & o0, x1 = s1 & o1, x2 = s2 & o2;
+			for (int i=1; i<maxRun && (x0 | x1 | x2) != 0; i++) {
+				shift(d, x0, x1, x2);
+				long y0 = x0 | (s0 & o0), y1 = x1 | (s1 & o1), y2 = x2 | (s2 & o2);
+				if (y0 == x0 && y1 == x1 && y2 == x2)
+					break;
+				x0 = y0; x1 = y1; x2 = y2;
+			}
+			// the run is flipped when the player has the next cell
+			shift(d, x0, x1, x2);
+			long b = (s0 & p0) | (s1 & p1) | (s2 & p2);
+			long mask = (b | -b) >> 63;
+			r0 |= x0 & mask;
+			r1 |= x1 & mask;
+			r2 |= x2 & mask;
+		}
+		f0 = r0;
+		f1 = r1;
+		f2 = r2;
+	}
+}
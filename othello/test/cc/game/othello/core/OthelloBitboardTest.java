@@ -0,0 +1,200 @@
+package cc.game.othello.core;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import cc.game.othello.ai.AiOthelloPlayer;
+import cc.game.othello.ai.AlphaBetaOthelloPlayer;
+
+public class OthelloBitboardTest extends TestCase {
+
+	static int other(int color) {
+		return color == OthelloBoard.CELL_WHITE ? OthelloBoard.CELL_BLACK : OthelloBoard.CELL_WHITE;
+	}
+
+	// same steps as Othello.runGame
+	static void play(OthelloBoard board, int row, int col, int color) {
+		board.set(row, col, color);
+		board.setSurroundingCellsAvailable(row, col);
+		board.turnOverPieces(row, col, color);
+	}
+
+	static void assertSame(OthelloBoard expected, OthelloBitboard b, int color) {
+		OthelloBoard actual = new OthelloBoard(expected.getNumRows(), expected.getNumCols());
+		b.toBoard(actual, color);
+		for (int i=0; i<expected.getNumRows(); i++) {
+			for (int j=0; j<expected.getNumCols(); j++) {
+				assertEquals("cell " + i + "," + j, expected.get(i, j), actual.get(i, j));
+			}
+		}
+	}
+
+	public void testMatchesBoard() {
+		Random r = new Random(1);
+		for (int game=0; game<20; game++) {
+			Othello o = new Othello();
+			o.newGame();
+			OthelloBoard board = o.getBoard();
+			// start some games with only the cells around the center available
+			if (game % 2 == 1) {
+				for (int i=0; i<board.getNumRows(); i++)
+					for (int j=0; j<board.getNumCols(); j++)
+						if (board.get(i, j) == OthelloBoard.CELL_AVAILABLE)
+							board.set(i, j, OthelloBoard.CELL_UNUSED);
+				for (int i=0; i<board.getNumRows(); i++)
+					for (int j=0; j<board.getNumCols(); j++)
+						if (board.get(i, j) >= OthelloBoard.CELL_WHITE)
+							board.setSurroundingCellsAvailable(i, j);
+			}
+			int color = OthelloBoard.CELL_WHITE;
+			OthelloBitboard b = new OthelloBitboard(board, color);
+			while (!b.isGameOver()) {
+				assertSame(board, b, color);
+				int n = r.nextInt(b.getNumAvailable());
+				int cell = b.nextAvailable(0);
+				while (n-- > 0)
+					cell = b.nextAvailable(cell+1);
+				int row = OthelloBitboard.getRow(cell), col = OthelloBitboard.getCol(cell);
+				assertTrue(board.isCellAvailable(row, col));
+				int before = board.getCellCount(color);
+				int flips = b.countFlips(cell);
+				play(board, row, col, color);
+				assertEquals(before + 1 + flips, board.getCellCount(color));
+				b.play(b, cell);
+				color = other(color);
+			}
+			assertSame(board, b, color);
+			assertEquals(0, board.getCellCount(OthelloBoard.CELL_AVAILABLE));
+		}
+	}
+
+	static long perft(OthelloBitboard [] stack, int ply, int depth) {
+		OthelloBitboard b = stack[ply];
+		if (depth == 0 || b.isGameOver())
+			return 1;
+		long nodes = 0;
+		for (int cell = b.nextAvailable(0); cell >= 0; cell = b.nextAvailable(cell+1)) {
+			stack[ply+1].play(b, cell);
+			nodes += perft(stack, ply+1, depth-1);
+		}
+		return nodes;
+	}
+
+	public void testPerft() {
+		Othello o = new Othello();
+		o.newGame();
+		OthelloBitboard [] stack = new OthelloBitboard[4];
+		for (int i=0; i<stack.length; i++)
+			stack[i] = new OthelloBitboard(Othello.DIM, Othello.DIM);
+		stack[0] = new OthelloBitboard(o.getBoard(), OthelloBoard.CELL_WHITE);
+		int empty = Othello.DIM * Othello.DIM - 4;
+		assertEquals(empty, perft(stack, 0, 1));
+		assertEquals((long)empty * (empty-1), perft(stack, 0, 2));
+		for (int pass=0; pass<2; pass++) {
+			long t = System.nanoTime();
+			long nodes = perft(stack, 0, 3);
+			long dt = System.nanoTime() - t;
+			assertEquals((long)empty * (empty-1) * (empty-2), nodes);
+			System.out.println(String.format("perft(3) %d nodes in %dms: %.2f M nodes/sec", nodes, dt / 1000000, 1e3 * nodes / dt));
+		}
+	}
+
+	// exact piece difference for the player to move by brute force on OthelloBoard
+	static int minimax(OthelloBoard board, int color) {
+		if (board.getCellCount(OthelloBoard.CELL_AVAILABLE) == 0)
+			return board.getCellCount(color) - board.getCellCount(other(color));
+		int best = Integer.MIN_VALUE;
+		for (int i=0; i<board.getNumRows(); i++) {
+			for (int j=0; j<board.getNumCols(); j++) {
+				if (board.isCellAvailable(i, j)) {
+					OthelloBoard copy = board.deepCopy();
+					play(copy, i, j, color);
+					best = Math.max(best, -minimax(copy, other(color)));
+				}
+			}
+		}
+		return best;
+	}
+
+	public void testEndgameSolver() {
+		Random r = new Random(2);
+		for (int test=0; test<10; test++) {
+			OthelloBoard board = new OthelloBoard(4, 4);
+			for (int i=0; i<4; i++)
+				for (int j=0; j<4; j++)
+					board.set(i, j, OthelloBoard.CELL_AVAILABLE);
+			// 8 random pieces then 8 empties to solve
+			for (int i=0; i<8; ) {
+				int row = r.nextInt(4), col = r.nextInt(4);
+				if (board.get(row, col) == OthelloBoard.CELL_AVAILABLE) {
+					board.set(row, col, r.nextBoolean() ? OthelloBoard.CELL_WHITE : OthelloBoard.CELL_BLACK);
+					i++;
+				}
+			}
+			int expected = minimax(board, OthelloBoard.CELL_BLACK);
+			AlphaBetaOthelloPlayer ai = new AlphaBetaOthelloPlayer(12);
+			ai.endgameEmpties = 8;
+			ai.maxTimeMillis = 0;
+			int cell = ai.chooseCell(new OthelloBitboard(board, OthelloBoard.CELL_BLACK));
+			OthelloBoard copy = board.deepCopy();
+			play(copy, OthelloBitboard.getRow(cell), OthelloBitboard.getCol(cell), OthelloBoard.CELL_BLACK);
+			// the chosen move must reach the best result
+			assertEquals(expected, -minimax(copy, OthelloBoard.CELL_WHITE));
+		}
+	}
+
+	// empties that are not available yet must still be searched for the score to be exact
+	public void testEndgameSolverNearFull() {
+		Random r = new Random(3);
+		for (int test=0; test<10; test++) {
+			OthelloBoard board = new OthelloBoard(4, 4);
+			// fill the top 2 rows, the bottom row is unused until a piece is played next to it
+			for (int i=0; i<2; i++)
+				for (int j=0; j<4; j++)
+					board.set(i, j, r.nextBoolean() ? OthelloBoard.CELL_WHITE : OthelloBoard.CELL_BLACK);
+			for (int j=0; j<4; j++)
+				board.setSurroundingCellsAvailable(1, j);
+			OthelloBitboard root = new OthelloBitboard(board, OthelloBoard.CELL_BLACK);
+			int empties = 16 - root.getPlayerCount() - root.getOpponentCount();
+			assertTrue(root.getNumAvailable() < empties);
+
+			AlphaBetaOthelloPlayer ai = new AlphaBetaOthelloPlayer(12);
+			ai.endgameEmpties = empties;
+			ai.maxTimeMillis = 0;
+			ai.chooseCell(root);
+			assertTrue(ai.isSolved());
+			int expected = ai.getScore();
+			assertEquals(minimax(board, OthelloBoard.CELL_BLACK), expected);
+
+			// both sides playing the solver must end with the predicted difference
+			int color = OthelloBoard.CELL_BLACK;
+			OthelloBitboard b = new OthelloBitboard(board, color);
+			while (!b.isGameOver()) {
+				int cell = ai.chooseCell(b);
+				play(board, OthelloBitboard.getRow(cell), OthelloBitboard.getCol(cell), color);
+				color = other(color);
+				b = new OthelloBitboard(board, color);
+			}
+			assertEquals(expected, board.getCellCount(OthelloBoard.CELL_BLACK) - board.getCellCount(OthelloBoard.CELL_WHITE));
+		}
+	}
+
+	private int playGame(OthelloPlayer white, OthelloPlayer black) {
+		Othello o = new Othello();
+		o.intiPlayers(white, black);
+		o.newGame();
+		while (!o.isGameOver())
+			o.runGame();
+		return o.getBoard().getCellCount(OthelloBoard.CELL_WHITE) - o.getBoard().getCellCount(OthelloBoard.CELL_BLACK);
+	}
+
+	public void testBeatsGreedy() {
+		AlphaBetaOthelloPlayer ai = new AlphaBetaOthelloPlayer(18);
+		ai.maxDepth = 3;
+		ai.maxTimeMillis = 0;
+		ai.endgameEmpties = 6;
+		assertTrue(playGame(ai, new AiOthelloPlayer()) > 0);
+		assertTrue(playGame(new AiOthelloPlayer(), ai) < 0);
+	}
+}